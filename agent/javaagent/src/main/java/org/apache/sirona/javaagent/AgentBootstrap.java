@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.javaagent;
+
+import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.configuration.ioc.IoCs;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.javaagent.logging.SironaAgentLogging;
+import org.apache.sirona.repositories.Repository;
+import org.apache.sirona.store.DataStoreFactory;
+import org.apache.sirona.util.DaemonThreadFactory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Second phase of the agent startup: premain only registers the transformer then the repository
+ * (stores, schedulers, exporters as cube or graphite) and the path tracking store are created by a background thread
+ * so the application doesn't wait for them, even when the monitoring backend is not reachable.
+ *
+ * Until then listeners must not use the repository: durations are kept in a bounded buffer
+ * (org.apache.sirona.javaagent.init.buffer, 4096) replayed once the repository is ready, next ones are lost
+ * and counted (see {@link #getDropped()}).
+ * org.apache.sirona.javaagent.init.async=false creates everything in premain.
+ *
+ * The listeners are still created in premain: the transformer needs them to know which methods to weave.
+ *
+ * The background thread only creates the instances through {@link IoCs} which keeps nothing on failure:
+ * a failed class initialization of {@link Repository} is definitive so it is left to the application threads,
+ * then the durations buffered so far are lost.
+ *
+ * Without {@link #start()} (agent not started through premain) the repository is considered ready.
+ *
+ * <b>It's not part of the public api!!</b>
+ */
+public final class AgentBootstrap {
+    private static final String PREFIX = Configuration.CONFIG_PROPERTY_PREFIX + "javaagent.init.";
+
+    private static final Object LOCK = new Object();
+    private static final CountDownLatch INITIALIZED = new CountDownLatch(1);
+
+    private static volatile boolean ready = true;
+
+    // buffered durations, guarded by LOCK
+    private static Counter.Key[] keys;
+    private static long[] durations;
+    private static int size;
+    private static long dropped;
+
+    private AgentBootstrap() {
+        // no-op
+    }
+
+    public static void start() {
+        if (!Configuration.is(PREFIX + "async", true)) {
+            initialize();
+            INITIALIZED.countDown();
+            return;
+        }
+
+        buffer(Math.max(0, Configuration.getInteger(PREFIX + "buffer", 4096)));
+
+        final Thread thread = new DaemonThreadFactory("sirona-agent-init-").newThread(new Runnable() {
+            @Override
+            public void run() {
+                boolean initialized = false;
+                try {
+                    initialized = initialize();
+                } finally {
+                    if (initialized) {
+                        replay();
+                    } else {
+                        drop();
+                    }
+                }
+            }
+        });
+        final ClassLoader loader = AgentBootstrap.class.getClassLoader();
+        thread.setContextClassLoader(loader != null ? loader : ClassLoader.getSystemClassLoader());
+        thread.start();
+    }
+
+    // the repository must not be used until replay()
+    static void buffer(final int capacity) {
+        synchronized (LOCK) {
+            keys = new Counter.Key[capacity];
+            durations = new long[capacity];
+            size = 0;
+            dropped = 0;
+            ready = false;
+        }
+    }
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return <code>true</code> if the repository is ready
+     */
+    public static boolean awaitReady(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return ready || INITIALIZED.await(timeout, unit);
+    }
+
+    /**
+     * @return number of durations lost because the startup buffer was full
+     */
+    public static long getDropped() {
+        synchronized (LOCK) {
+            return dropped;
+        }
+    }
+
+    /**
+     * Adds a duration to a counter, buffered if the repository is not ready yet.
+     */
+    public static void record(final Counter.Key key, final long nanos) {
+        if (!ready) {
+            synchronized (LOCK) {
+                if (!ready) {
+                    if (size < keys.length) {
+                        keys[size] = key;
+                        durations[size] = nanos;
+                        size++;
+                    } else {
+                        dropped++;
+                    }
+                    return;
+                }
+            }
+        }
+        Repository.INSTANCE.getCounter(key).add(nanos, Unit.Time.NANOSECOND);
+    }
+
+    private static boolean initialize() {
+        final long start = System.nanoTime();
+        try {
+            // no class initialization before the instances exist, a failure here can be retried
+            IoCs.findOrCreateInstance(Repository.class); // creates the stores
+            final boolean pathTracking = Configuration.is(Configuration.CONFIG_PROPERTY_PREFIX + "javaagent.path.tracking.activate", false);
+            if (pathTracking) {
+                IoCs.findOrCreateInstance(DataStoreFactory.class).getPathTrackingDataStore();
+            }
+
+            Repository.INSTANCE.counters();
+            if (pathTracking) {
+                Class.forName("org.apache.sirona.javaagent.tracking.PathTracker", true, AgentBootstrap.class.getClassLoader());
+            }
+        } catch (final Throwable e) {
+            System.err.println("sirona initialization failed, it will be retried by the monitored calls: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+        SironaAgentLogging.debug("sirona initialized in {0}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return true;
+    }
+
+    // initialization failed, the repository is not touched from this thread
+    private static void drop() {
+        synchronized (LOCK) {
+            dropped += size;
+            keys = null;
+            durations = null;
+            size = 0;
+            ready = true;
+        }
+        INITIALIZED.countDown();
+    }
+
+    static void replay() {
+        synchronized (LOCK) {
+            try {
+                for (int i = 0; i < size; i++) {
+                    Repository.INSTANCE.getCounter(keys[i]).add(durations[i], Unit.Time.NANOSECOND);
+                }
+            } catch (final Throwable e) {
+                SironaAgentLogging.debug("can't replay startup durations: {0}", e.getMessage());
+            }
+            if (dropped > 0) {
+                SironaAgentLogging.debug("{0} durations lost while sirona was starting", dropped);
+            }
+            keys = null;
+            durations = null;
+            size = 0;
+            ready = true;
+        }
+        INITIALIZED.countDown();
+    }
+}
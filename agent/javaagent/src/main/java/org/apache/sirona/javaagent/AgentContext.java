@@ -17,12 +17,14 @@
 package org.apache.sirona.javaagent;
 
 import org.apache.sirona.Role;
+import org.apache.sirona.configuration.Configuration;
 import org.apache.sirona.configuration.ioc.IoCs;
 import org.apache.sirona.counters.Counter;
 import org.apache.sirona.javaagent.spi.InvocationListener;
 import org.apache.sirona.javaagent.spi.InvocationListenerFactory;
 import org.apache.sirona.spi.Order;
 import org.apache.sirona.spi.SPI;
+import org.apache.sirona.util.SelfMonitoring;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
@@ -35,9 +37,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // just a helper to ease ASM work and reuse AbstractPerformanceInterceptor logic
+//
+// contexts of instrumented calls are pooled so a listener must not keep a context after after() returns,
+// listeners needing it can disable pooling with sirona.javaagent.context.pooling=false
 public class AgentContext {
+    private static final AtomicInteger SLOTS = new AtomicInteger(0); // first since listeners get their slots when loaded
 
     private static final InvocationListener[] EXISTING_LISTENERS = loadAllListeners();
 
@@ -62,6 +69,20 @@ public class AgentContext {
 
     private static final InvocationListener[] EMPTY_LISTENERS_ARRAY = new InvocationListener[0];
 
+    private static final boolean POOLING = Configuration.is(Configuration.CONFIG_PROPERTY_PREFIX + "javaagent.context.pooling", true);
+
+    // listener dispatch time of one pooled call every 64 per thread, the clock would cost more than most listeners otherwise
+    private static final boolean DISPATCH_TIME = SelfMonitoring.ACTIVATED;
+    private static final int DISPATCH_SAMPLING_MASK = 63;
+
+    // contexts of instrumented calls are reused: one per thread and nesting depth
+    private static final ThreadLocal<Frames> FRAMES = new ThreadLocal<Frames>() {
+        @Override
+        protected Frames initialValue() {
+            return new Frames();
+        }
+    };
+
     public static void addAgentParameter( String key, String value){
         AGENT_PARAMETERS.put(key, value);
     }
@@ -74,6 +95,10 @@ public class AgentContext {
         return AGENT_PARAMETERS;
     }
 
+    static InvocationListener[] allListeners() {
+        return EXISTING_LISTENERS;
+    }
+
 
     /**
      * called by agent. <b>It's not part of the public api!!</b>
@@ -89,6 +114,47 @@ public class AgentContext {
         return new AgentContext(key, that, listeners(key, null),methodParameters);
     }
 
+    /**
+     * called by agent. <b>It's not part of the public api!!</b>
+     * @param that
+     * @param site id of the {@link InvocationSite} of the instrumented method
+     * @param methodParameters
+     * @return
+     */
+    public static AgentContext startOn(final Object that, final int site, final Object[] methodParameters) {
+        if (!POOLING) {
+            return new AgentContext(InvocationSite.get(site), that, methodParameters);
+        }
+
+        final Frames frames = FRAMES.get();
+        final AgentContext context = frames.push();
+        try {
+            if (DISPATCH_TIME && (++frames.calls & DISPATCH_SAMPLING_MASK) == 0) {
+                final long start = System.nanoTime();
+                context.start(InvocationSite.get(site), that, methodParameters);
+                context.dispatchTime = System.nanoTime() - start;
+            } else {
+                context.dispatchTime = -1;
+                context.start(InvocationSite.get(site), that, methodParameters);
+            }
+        } catch (final RuntimeException e) { // woven code won't call stop so release the frame now
+            context.release();
+            throw e;
+        } catch (final Error e) {
+            context.release();
+            throw e;
+        }
+        return context;
+    }
+
+    /**
+     * @return a new slot usable with {@link #setObject(int, Object)}, {@link #setLong(int, long)} and their getters,
+     * listeners should get their slots once (static or at creation).
+     */
+    public static int newSlot() {
+        return SLOTS.getAndIncrement();
+    }
+
     // helper to init keys in javaagent
     public static Counter.Key key(final String name) {
         Counter.Key key = KEYS_CACHE.get(name);
@@ -161,19 +227,52 @@ public class AgentContext {
         return listeners.toArray(new InvocationListener[listeners.size()]);
     }
 
-    private final String key;
-    private final Object reference;
-    private final InvocationListener[] listeners;
+    // not final since pooled contexts are reinitialized for each call
+    private String key;
+    private Object reference;
+    private InvocationListener[] listeners;
+    private InvocationSite site;
 
     /**
      * @since 0.3
      */
-    private final Object[] methodParameters;
-    private final Map<Integer, Object> context = new HashMap<Integer, Object>();
+    private Object[] methodParameters;
+    private Map<Integer, Object> context = null; // lazy, slots are preferred
     private Method method = null;
 
+    private final Frames frames; // null if not pooled
+    private long dispatchTime = -1; // time spent in listeners if this call is sampled
+    private Object[] objects;
+    private long[] longs;
+
     public AgentContext(final String key, final Object that, final InvocationListener[] listeners,final Object[] methodParameters) {
+        this.frames = null;
+        this.objects = new Object[SLOTS.get()];
+        this.longs = new long[objects.length];
+        init(key, null, that, listeners, methodParameters);
+    }
+
+    public AgentContext(final InvocationSite site, final Object that, final Object[] methodParameters) {
+        this.frames = null;
+        this.objects = new Object[SLOTS.get()];
+        this.longs = new long[objects.length];
+        init(site.getKey(), site, that, site.getListeners(), methodParameters);
+    }
+
+    private AgentContext(final Frames frames) {
+        this.frames = frames;
+        this.objects = new Object[SLOTS.get()];
+        this.longs = new long[objects.length];
+    }
+
+    private void start(final InvocationSite site, final Object that, final Object[] methodParameters) {
+        init(site.getKey(), site, that, site.getListeners(), methodParameters);
+    }
+
+    private void init(final String key, final InvocationSite site, final Object that,
+                      final InvocationListener[] listeners, final Object[] methodParameters) {
         this.key = key;
+        this.site = site;
         this.reference = that;
         this.listeners = listeners;
         this.methodParameters = methodParameters;
@@ -183,6 +282,24 @@ public class AgentContext {
         }
     }
 
+    // pooled contexts only, drop references to application objects and give back the frame
+    private void release() {
+        if (frames == null) {
+            return;
+        }
+
+        reference = null;
+        methodParameters = null;
+        method = null;
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = null;
+        }
+        if (context != null) {
+            context.clear();
+        }
+        frames.pop();
+    }
+
     public Object getReference() {
         return reference;
     }
@@ -191,6 +308,13 @@ public class AgentContext {
         return key;
     }
 
+    /**
+     * @return the resolved site of the instrumented method or <code>null</code> if the context was created from a key.
+     */
+    public InvocationSite getSite() {
+        return site;
+    }
+
     /**
      * <b>Those values won't be available if you don't activate this feature</b>
      * see {@link SironaClassVisitor#TRACE_METHOD_PARAMETERS_KEY}
@@ -265,13 +389,61 @@ public class AgentContext {
     }
 
     public <T> T get(final Integer key, final Class<T> clazz) {
+        if (context == null) {
+            return null;
+        }
         return clazz.cast(context.get(key));
     }
 
+    // prefer slots (see newSlot()), this map based storage allocates
     public void put(final int key, Object data) {
+        if (context == null) {
+            context = new HashMap<Integer, Object>();
+        }
         context.put(key, data);
     }
 
+    public Object getObject(final int slot) {
+        if (slot >= objects.length) {
+            return null;
+        }
+        return objects[slot];
+    }
+
+    public void setObject(final int slot, final Object data) {
+        if (slot >= objects.length) {
+            grow(slot);
+        }
+        objects[slot] = data;
+    }
+
+    public long getLong(final int slot) {
+        if (slot >= longs.length) {
+            return 0;
+        }
+        return longs[slot];
+    }
+
+    public void setLong(final int slot, final long data) {
+        if (slot >= longs.length) {
+            grow(slot);
+        }
+        longs[slot] = data;
+    }
+
+    // only if a slot was created after this context
+    private void grow(final int slot) {
+        final int size = Math.max(slot + 1, SLOTS.get());
+
+        final Object[] newObjects = new Object[size];
+        System.arraycopy(objects, 0, newObjects, 0, objects.length);
+        objects = newObjects;
+
+        final long[] newLongs = new long[size];
+        System.arraycopy(longs, 0, newLongs, 0, longs.length);
+        longs = newLongs;
+    }
+
     public void stop(final Object result) {
         stopListeners(result, null);
     }
@@ -281,8 +453,43 @@ public class AgentContext {
     }
 
     private void stopListeners(final Object result, final Throwable error) {
-        for (final InvocationListener listener : listeners) {
-            listener.after(this, result, error);
+        final long start = dispatchTime >= 0 ? System.nanoTime() : 0;
+        try {
+            for (final InvocationListener listener : listeners) {
+                listener.after(this, result, error);
+            }
+        } finally {
+            if (dispatchTime >= 0) {
+                SelfMonitoring.time("listener-dispatch", dispatchTime + System.nanoTime() - start);
+                dispatchTime = -1;
+            }
+            release();
+        }
+    }
+
+    private static class Frames {
+        private AgentContext[] stack = new AgentContext[16];
+        private int depth = 0;
+        private int calls = 0;
+
+        private AgentContext push() {
+            if (depth == stack.length) {
+                final AgentContext[] bigger = new AgentContext[stack.length * 2];
+                System.arraycopy(stack, 0, bigger, 0, stack.length);
+                stack = bigger;
+            }
+
+            AgentContext context = stack[depth];
+            if (context == null) {
+                context = new AgentContext(this);
+                stack[depth] = context;
+            }
+            depth++;
+            return context;
+        }
+
+        private void pop() {
+            depth--;
         }
     }
 
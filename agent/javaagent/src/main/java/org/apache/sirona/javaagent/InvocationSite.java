@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.javaagent;
+
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.javaagent.spi.InvocationListener;
+import org.apache.sirona.repositories.Repository;
+import org.apache.sirona.store.counter.CounterGeneration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * What an instrumented method needs at runtime, resolved once.
+ *
+ * Each instrumented method gets a site id at weaving time, the id is a constant of the woven bytecode
+ * so the runtime lookup is an array read instead of a lookup by method key.
+ * We don't add a static field to the instrumented class to stay compatible with retransformation.
+ *
+ * <b>It's not part of the public api!!</b>
+ */
+public class InvocationSite {
+    private static final ConcurrentMap<String, InvocationSite> BY_KEY = new ConcurrentHashMap<String, InvocationSite>();
+    private static final Map<String, Integer> RESERVED = new HashMap<String, Integer>(); // guarded by BY_KEY
+    private static volatile InvocationSite[] sites = new InvocationSite[256];
+    private static int next = 0; // guarded by BY_KEY
+
+    private final int id;
+    private final String key;
+    private final InvocationListener[] listeners;
+    private final Counter.Key counterKey;
+
+    private volatile Counter counter;
+    private volatile int generation;
+
+    private InvocationSite(final int id, final String key, final InvocationListener[] listeners) {
+        this.id = id;
+        this.key = key;
+        this.listeners = listeners;
+        this.counterKey = AgentContext.key(key);
+    }
+
+    // called at weaving time, the same method woven twice (several loaders, retransformation) reuses its site
+    public static int register(final String key, final InvocationListener[] listeners) {
+        final InvocationSite existing = BY_KEY.get(key);
+        if (existing != null) {
+            return existing.id;
+        }
+
+        synchronized (BY_KEY) {
+            final InvocationSite racing = BY_KEY.get(key);
+            if (racing != null) {
+                return racing.id;
+            }
+
+            final Integer reserved = RESERVED.get(key);
+            return add(new InvocationSite(reserved != null ? reserved : nextId(), key, listeners));
+        }
+    }
+
+    /**
+     * Registers a site with the id an already woven class uses (see {@link WovenClassCache}).
+     *
+     * @return <code>false</code> if the id or the key is already used by another site.
+     */
+    public static boolean register(final String key, final InvocationListener[] listeners, final int id) {
+        final InvocationSite existing = BY_KEY.get(key);
+        if (existing != null) {
+            return existing.id == id;
+        }
+
+        synchronized (BY_KEY) {
+            final InvocationSite racing = BY_KEY.get(key);
+            if (racing != null) {
+                return racing.id == id;
+            }
+
+            final Integer reserved = RESERVED.get(key);
+            if ((reserved != null && reserved != id) || (id < sites.length && sites[id] != null)) {
+                return false;
+            }
+            add(new InvocationSite(id, key, listeners));
+            return true;
+        }
+    }
+
+    // ids of a previous run, a key keeps its id when it is woven again and new keys don't take it
+    public static void reserve(final String key, final int id) {
+        synchronized (BY_KEY) {
+            if (!BY_KEY.containsKey(key) && !RESERVED.containsKey(key)) {
+                RESERVED.put(key, id);
+                next = Math.max(next, id + 1);
+            }
+        }
+    }
+
+    private static int nextId() {
+        while (next < sites.length && sites[next] != null) {
+            next++;
+        }
+        return next++;
+    }
+
+    private static int add(final InvocationSite site) {
+        InvocationSite[] array = sites;
+        if (site.id >= array.length) {
+            final InvocationSite[] bigger = new InvocationSite[Math.max(array.length * 2, site.id + 1)];
+            System.arraycopy(array, 0, bigger, 0, array.length);
+            array = bigger;
+        }
+        array[site.id] = site;
+        sites = array; // publish, the class using this id is defined after this call
+        BY_KEY.put(site.key, site);
+        return site.id;
+    }
+
+    /**
+     * @return the number of instrumented methods
+     */
+    public static int count() {
+        return BY_KEY.size();
+    }
+
+    public static InvocationSite get(final int id) {
+        return sites[id];
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public InvocationListener[] getListeners() {
+        return listeners;
+    }
+
+    public Counter.Key getCounterKey() {
+        return counterKey;
+    }
+
+    // resolved lazily since the repository can't be used while the agent starts
+    public Counter getCounter() {
+        final int currentGeneration = CounterGeneration.current();
+        final int cachedGeneration = generation; // read before counter, written after it
+        Counter c = counter;
+        if (c == null || cachedGeneration != currentGeneration) {
+            c = Repository.INSTANCE.getCounter(counterKey);
+            counter = c;
+            generation = currentGeneration;
+        }
+        return c;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.javaagent;
+
+import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.configuration.predicate.PredicateEvaluator;
+import org.apache.sirona.javaagent.jmx.InstrumentationJMX;
+import org.apache.sirona.javaagent.logging.SironaAgentLogging;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+import org.objectweb.asm.Type;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Rules applied on top of the listeners to choose the instrumented methods, they can be changed at runtime:
+ * loaded classes with a method concerned by the change are retransformed so a method removed from
+ * the instrumentation runs its original bytecode again.
+ *
+ * Initial rules are read from org.apache.sirona.javaagent.instrumentation.includes/excludes,
+ * they are exposed through JMX as {@link #OBJECT_NAME} (org.apache.sirona.javaagent.instrumentation.jmx=false to skip it).
+ *
+ * <b>It's not part of the public api!!</b>
+ */
+public final class RuntimeInstrumentation {
+    public static final String OBJECT_NAME = Configuration.CONFIG_PROPERTY_PREFIX + "javaagent:type=instrumentation";
+
+    private static final String PREFIX = Configuration.CONFIG_PROPERTY_PREFIX + "javaagent.instrumentation.";
+    private static final Rules INITIAL = new Rules(
+            Configuration.getProperty(PREFIX + "includes", "true:true"), Configuration.getProperty(PREFIX + "excludes", null));
+
+    private static volatile Rules rules = INITIAL;
+    private static volatile Instrumentation instrumentation;
+
+    private RuntimeInstrumentation() {
+        // no-op
+    }
+
+    public static void install(final Instrumentation instrumentation) {
+        RuntimeInstrumentation.instrumentation = instrumentation;
+
+        if (Configuration.is(PREFIX + "jmx", true)) {
+            try {
+                final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName name = new ObjectName(OBJECT_NAME);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(new InstrumentationJMX(), name);
+                }
+            } catch (final Exception e) {
+                SironaAgentLogging.debug("can't register {0}: {1}", OBJECT_NAME, e.getMessage());
+            }
+        }
+    }
+
+    public static boolean accept(final String key) {
+        return rules.accept(key);
+    }
+
+    // the rules used to weave the classes were not changed (woven class cache can be used)
+    public static boolean isInitial() {
+        return rules == INITIAL;
+    }
+
+    public static String getIncludes() {
+        return rules.includes;
+    }
+
+    public static String getExcludes() {
+        return rules.excludes;
+    }
+
+    /**
+     * @param includes new includes, null to keep the current ones, empty for all methods.
+     * @param excludes new excludes, null to keep the current ones, empty for none.
+     * @return the number of retransformed classes
+     * @throws IllegalArgumentException if a rule is invalid, current rules are kept in this case
+     */
+    public static synchronized int update(final String includes, final String excludes) {
+        final Rules previous = rules;
+        final Rules next = new Rules(
+                includes != null ? includes : previous.includes, excludes != null ? excludes : previous.excludes);
+        rules = next;
+        return retransform(previous, next);
+    }
+
+    public static synchronized int reset() {
+        final Rules previous = rules;
+        rules = INITIAL;
+        return retransform(previous, INITIAL);
+    }
+
+    @IgnoreJRERequirement // the agent only registers a retransformation capable transformer on java 6
+    private static int retransform(final Rules previous, final Rules next) {
+        final Instrumentation inst = instrumentation;
+        if (inst == null || !inst.isRetransformClassesSupported()) {
+            return 0;
+        }
+
+        final Collection<Class<?>> classes = new ArrayList<Class<?>>();
+        for (final Class<?> clazz : inst.getAllLoadedClasses()) {
+            if (!clazz.isArray() && !clazz.isPrimitive() && !clazz.getName().startsWith("org.apache.sirona")
+                    && inst.isModifiableClass(clazz) && isConcerned(clazz, previous, next)) { // the transformer does the rest
+                classes.add(clazz);
+            }
+        }
+
+        int retransformed = 0;
+        for (final Class<?> clazz : classes) { // one by one, a failing class doesn't prevent others to be updated
+            try {
+                inst.retransformClasses(clazz);
+                retransformed++;
+            } catch (final Throwable e) {
+                SironaAgentLogging.debug("can't retransform {0}: {1}", clazz.getName(), e.getMessage());
+            }
+        }
+        return retransformed;
+    }
+
+    // a class is retransformed only if the decision changed for one of its methods
+    private static boolean isConcerned(final Class<?> clazz, final Rules previous, final Rules next) {
+        final Method[] methods;
+        try {
+            methods = clazz.getDeclaredMethods();
+        } catch (final Throwable e) { // missing dependency
+            return false;
+        }
+
+        final String javaName = Type.getInternalName(clazz);
+        for (final Method method : methods) {
+            if (Modifier.isAbstract(method.getModifiers()) || Modifier.isNative(method.getModifiers())) {
+                continue;
+            }
+
+            final String key = SironaClassVisitor.label(javaName, method.getName(), Type.getMethodDescriptor(method));
+            if (previous.accept(key) != next.accept(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Rules {
+        private final String includes;
+        private final String excludes;
+        private final PredicateEvaluator includesEvaluator;
+        private final PredicateEvaluator excludesEvaluator;
+
+        private Rules(final String includes, final String excludes) {
+            this.includes = includes == null || includes.trim().length() == 0 ? "true:true" : includes; // no includes = all
+            this.excludes = excludes;
+            this.includesEvaluator = new PredicateEvaluator(this.includes, ",");
+            this.excludesEvaluator = new PredicateEvaluator(excludes, ",");
+        }
+
+        private boolean accept(final String key) {
+            return includesEvaluator.matches(key) && !excludesEvaluator.matches(key);
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.apache.sirona.javaagent;
 
 import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
 import org.apache.sirona.repositories.Repository;
 import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 
@@ -77,6 +78,7 @@ public class SironaAgent {
         final boolean skipTempLoader = "true".equalsIgnoreCase(extractConfig(agentArgs, "skipTempLoader="));
         final boolean autoEvictClassLoaders = "true".equalsIgnoreCase(extractConfig(agentArgs, "autoEvictClassLoaders="));
         final String tempClassLoaders = extractConfig(agentArgs, "tempClassLoaders=");
+        final String cache = extractConfig(agentArgs, "cache=");
         final boolean envrtDebug = debug || "true".equalsIgnoreCase(extractConfig(agentArgs, "environment-debug="));
         final String dumpOnExit = extractConfig(agentArgs, "dumpOnExit=");
         if (dumpOnExit != null) {
@@ -92,9 +94,10 @@ public class SironaAgent {
                         writer = new FileWriter(dumpOnExit);
                         writer.write("name;role;unit;average;min;max;sum;hits;max concurrency\n");
                         for (final Counter c : Repository.INSTANCE.counters()) {
+                            final CounterSnapshot s = c.snapshot();
                             writer.write(c.getKey().getName() + ";" + c.getKey().getRole().getName() + ";" + c.getKey().getRole().getUnit().getName()
-                                    + ";" + c.getMean() + ";" + c.getMin() + ";" + c.getMax() + ";" + c.getSum()
-                                    + ";" + c.getHits() + ";" + c.getMaxConcurrency() + "\n");
+                                    + ";" + s.getMean() + ";" + s.getMin() + ";" + s.getMax() + ";" + s.getSum()
+                                    + ";" + s.getHits() + ";" + s.getMaxConcurrency() + "\n");
                         }
                     } catch (final IOException e) {
                         throw new IllegalStateException(e);
@@ -160,7 +163,7 @@ public class SironaAgent {
                 System.out.println("Sirona debugging activated, find instrumented classes in /tmp/sirona-dump/");
             }
 
-            final SironaTransformer transformer = new SironaTransformer(debug, skipTempLoader, tempClassLoaders);
+            final SironaTransformer transformer = new SironaTransformer(debug, skipTempLoader, tempClassLoaders, cache);
             if (autoEvictClassLoaders) {
                 final String evictTimeoutStr = extractConfig(agentArgs, "classLoaderEvictionTimeout=");
                 final long timeout = evictTimeoutStr != null && !evictTimeoutStr.isEmpty() ? Long.parseLong(evictTimeoutStr) : 60000;
@@ -178,8 +181,14 @@ public class SironaAgent {
                 evictThread.setName("sirona-classloader-cleanup");
                 evictThread.setDaemon(true);
             }
-            final boolean reloadable = instrumentation.isRetransformClassesSupported() && FORCE_RELOAD;
-            instrumentation.addTransformer(transformer, reloadable);
+            // retransformation capable to be able to change the instrumented methods at runtime
+            final boolean retransformable = instrumentation.isRetransformClassesSupported();
+            final boolean reloadable = retransformable && FORCE_RELOAD;
+            instrumentation.addTransformer(transformer, retransformable);
+            loader.loadClass("org.apache.sirona.javaagent.RuntimeInstrumentation")
+                    .getMethod("install", Instrumentation.class).invoke(null, instrumentation);
+            // stores and exporters are created in background, the application doesn't wait for them
+            loader.loadClass("org.apache.sirona.javaagent.AgentBootstrap").getMethod("start").invoke(null);
 
             final Class<?> listener = loader.loadClass("org.apache.sirona.javaagent.spi.InvocationListener");
 
@@ -17,6 +17,8 @@
 package org.apache.sirona.javaagent;
 
 import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.javaagent.spi.InvocationListener;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
@@ -27,6 +29,8 @@ import org.objectweb.asm.commons.AdviceAdapter;
 import org.objectweb.asm.commons.Method;
 
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
 
 import static java.lang.Integer.MIN_VALUE;
 
@@ -46,19 +50,21 @@ public class SironaClassVisitor
 
     private static final Type AGENT_CONTEXT = Type.getType( AgentContext.class );
 
-    private static final Type STRING_TYPE = Type.getType( String.class );
-
     private static final Type OBJECT_TYPE = Type.getType( Object.class );
 
     private static final Type ARRAY_TYPE = Type.getType( Object[].class );
 
     private static final Type THROWABLE_TYPE = Type.getType( Throwable.class );
 
+    private static final Object[] NO_TYPES = new Object[0];
+
+    private static final Object[] HANDLER_STACK = new Object[]{ THROWABLE_TYPE.getInternalName() };
+
     private static final Type[] STOP_WITH_OBJECT_ARGS_TYPES = new Type[]{ OBJECT_TYPE };
 
     private static final Type[] STOP_WITH_THROWABLE_ARGS_TYPES = new Type[]{ THROWABLE_TYPE };
 
-    private static final Type[] START_ARGS_TYPES = new Type[]{ OBJECT_TYPE, STRING_TYPE, ARRAY_TYPE };
+    private static final Type[] START_ARGS_TYPES = new Type[]{ OBJECT_TYPE, Type.INT_TYPE, ARRAY_TYPE };
 
     // methods
     public static final Method START_METHOD = new Method( "startOn", AGENT_CONTEXT, START_ARGS_TYPES );
@@ -72,7 +78,9 @@ public class SironaClassVisitor
 
     private final byte[] classfileBuffer;
 
-    private int count = 0;
+    private final List<InvocationSite> sites = new ArrayList<InvocationSite>();
+
+    private boolean frames;
 
     /**
      * @param writer
@@ -86,6 +94,14 @@ public class SironaClassVisitor
         this.classfileBuffer = buffer;
     }
 
+    @Override
+    public void visit( final int version, final int access, final String name, final String signature, //
+                       final String superName, final String[] interfaces )
+    {
+        super.visit( version, access, name, signature, superName, interfaces );
+        this.frames = ( version & 0xFFFF ) >= V1_6; // older classes don't have stack map frames
+    }
+
     @Override
     public void visitSource( final String source, final String debug )
     {
@@ -104,17 +120,88 @@ public class SironaClassVisitor
             return visitor;
         }
 
-        final String label = javaName.replace( "/", "." ) + "." //
-            + name + "(" + typesToString( Type.getArgumentTypes( desc ) ) + ")";
-        if ( AgentContext.listeners( label, classfileBuffer ) != null )
+        final String label = label( javaName, name, desc );
+        final InvocationListener[] listeners = listeners( label, classfileBuffer );
+        if ( listeners != null )
         {
-            count++;
-            return new SironaAdviceAdapter( visitor, access, name, desc, label );
+            final int site = InvocationSite.register( label, listeners );
+            sites.add( InvocationSite.get( site ) );
+            return new SironaAdviceAdapter( visitor, access, name, desc, site );
         }
         return visitor;
     }
 
-    private String typesToString( final Type[] argumentTypes )
+    /**
+     * Cheap first pass: reads the method table of the class using the reader as a constant pool index
+     * (no visitor, no writer) and checks if a listener accepts at least one method.
+     *
+     * @param reader   reader of the class, only its constant pool is parsed at that point
+     * @param javaName internal name of the class
+     * @param buffer   original class byte
+     * @return <code>true</code> if the class needs to be rewritten
+     */
+    public static boolean hasAdvisableMethod( final ClassReader reader, final String javaName, final byte[] buffer )
+    {
+        final char[] chars = new char[reader.getMaxStringLength()];
+
+        int offset = reader.header + 6; // access, this, super
+        offset += 2 + 2 * reader.readUnsignedShort( offset ); // interfaces
+        final int fields = reader.readUnsignedShort( offset );
+        offset += 2;
+        for ( int i = 0; i < fields; i++ )
+        {
+            offset = skipMember( reader, offset );
+        }
+
+        final int methods = reader.readUnsignedShort( offset );
+        offset += 2;
+        for ( int i = 0; i < methods; i++ )
+        {
+            final int access = reader.readUnsignedShort( offset );
+            final String name = reader.readUTF8( offset + 2, chars );
+            if ( isSironableMethod( access, name ) )
+            {
+                final String desc = reader.readUTF8( offset + 4, chars );
+                if ( listeners( label( javaName, name, desc ), buffer ) != null )
+                {
+                    return true;
+                }
+            }
+            offset = skipMember( reader, offset );
+        }
+        return false;
+    }
+
+    // field_info and method_info have the same layout
+    private static int skipMember( final ClassReader reader, final int offset )
+    {
+        int next = offset + 8; // access, name, desc, attribute count
+        final int attributes = reader.readUnsignedShort( offset + 6 );
+        for ( int i = 0; i < attributes; i++ )
+        {
+            next += 6 + reader.readInt( next + 2 );
+        }
+        return next;
+    }
+
+    // listeners of the method if the runtime rules and at least one listener accept it
+    private static InvocationListener[] listeners( final String label, final byte[] buffer )
+    {
+        if ( !RuntimeInstrumentation.accept( label ) )
+        {
+            return null;
+        }
+        return AgentContext.listeners( label, buffer );
+    }
+
+    // the key of the method for listeners and counters
+    static String label( final String javaName, final String name, final String desc )
+    {
+        return javaName.replace( '/', '.' ) + "." //
+            + name + "(" + typesToString( Type.getArgumentTypes( desc ) ) + ")";
+    }
+
+    private static String typesToString( final Type[] argumentTypes )
     {
         final StringBuilder b = new StringBuilder();
         for ( final Type t : argumentTypes )
@@ -129,6 +216,11 @@ public class SironaClassVisitor
     }
 
     protected boolean isSironable( final int access, final String name )
+    {
+        return isSironableMethod( access, name );
+    }
+
+    private static boolean isSironableMethod( final int access, final String name )
     {
         return !name.equals( STATIC_INIT ) //
             && !name.equals( CONSTRUCTOR ) //
@@ -138,7 +230,15 @@ public class SironaClassVisitor
 
     public boolean wasAdviced()
     {
-        return count > 0;
+        return !sites.isEmpty();
+    }
+
+    /**
+     * @return the sites the woven methods use
+     */
+    public List<InvocationSite> getSites()
+    {
+        return sites;
     }
 
     private class SironaAdviceAdapter
@@ -146,16 +246,16 @@ public class SironaClassVisitor
     {
         private final boolean isStatic;
 
-        private final String label;
+        private final int site;
 
         private final String desc;
 
         public SironaAdviceAdapter( final MethodVisitor visitor, final int access, final String name, //
-                                    final String desc, final String label )
+                                    final String desc, final int site )
         {
             super( ASM5, visitor, access, name, desc );
             this.isStatic = Modifier.isStatic( access );
-            this.label = label;
+            this.site = site;
             this.desc = desc;
         }
 
@@ -172,7 +272,7 @@ public class SironaClassVisitor
         {
 
             // we need to call static method startOn from AgentContext
-            // startOn(final Object that, final String key, final Object[] methodParameters)
+            // startOn(final Object that, final int site, final Object[] methodParameters)
 
             if ( isStatic )
             {
@@ -183,7 +283,7 @@ public class SironaClassVisitor
                 loadThis();
             }
 
-            push( label );
+            push( site );
 
             if ( TRACE_METHOD_PARAMETERS )
             {
@@ -205,6 +305,8 @@ public class SironaClassVisitor
 
 
 
+        // no local is created there: a local only assigned on some paths would break the frames of the method,
+        // the value (or exception) is duplicated on the stack instead
         @Override
         public void onMethodExit( final int opCode )
         {
@@ -213,48 +315,34 @@ public class SironaClassVisitor
                 return;
             }
 
-            int stateLocal = -1;
-            if ( opCode != MIN_VALUE )
-            {
-                final Type returnType = Type.getReturnType( desc );
-                final boolean isVoid = Type.VOID_TYPE.equals( returnType );
-                if ( !isVoid )
-                {
-                    stateLocal = newLocal( returnType );
-                    storeLocal( stateLocal );
-                }
-            }
-            else
-            {
-                stateLocal = newLocal( THROWABLE_TYPE );
-                storeLocal( stateLocal );
-            }
-
-            loadLocal( ctxLocal );
-            if ( stateLocal != -1 )
-            {
-                loadLocal( stateLocal );
-                if ( opCode != MIN_VALUE )
-                {
-                    valueOf( Type.getReturnType( desc ) );
-                }
-            }
-            else
+            if ( opCode == RETURN )
             {
+                loadLocal( ctxLocal );
                 visitInsn( ACONST_NULL );
-            }
-            if ( opCode != MIN_VALUE )
-            {
                 invokeVirtual( AGENT_CONTEXT, STOP_METHOD );
             }
-            else
+            else if ( opCode == MIN_VALUE )
             {
+                dup();
+                loadLocal( ctxLocal );
+                swap();
                 invokeVirtual( AGENT_CONTEXT, STOP_WITH_EXCEPTION_METHOD );
             }
-
-            if ( stateLocal != -1 )
+            else
             {
-                loadLocal( stateLocal );
+                final Type returnType = Type.getReturnType( desc );
+                if ( returnType.getSize() == 2 )
+                {
+                    dup2();
+                }
+                else
+                {
+                    dup();
+                }
+                valueOf( returnType );
+                loadLocal( ctxLocal );
+                swap();
+                invokeVirtual( AGENT_CONTEXT, STOP_METHOD );
             }
         }
 
@@ -262,12 +350,17 @@ public class SironaClassVisitor
         public void visitMaxs( final int maxStack, final int maxLocals )
         {
             visitLabel( endLabel );
-            catchException( tryStart, endLabel, THROWABLE_TYPE );
+            final Label handler = new Label();
+            visitTryCatchBlock( tryStart, endLabel, handler, THROWABLE_TYPE.getInternalName() );
+            visitLabel( handler );
+            if ( frames )
+            {
+                // only the context is known to be set there, locals are remapped so it is added to the frame
+                visitFrame( F_NEW, 0, NO_TYPES, 1, HANDLER_STACK );
+            }
             onMethodExit( MIN_VALUE );
             throwException();
             super.visitMaxs( 0, 0 );
         }
-
-
     }
 }
@@ -19,6 +19,7 @@ package org.apache.sirona.javaagent;
 import org.apache.sirona.javaagent.classloader.LoadFirstClassLoader;
 import org.apache.sirona.javaagent.logging.SironaAgentLogging;
 import org.apache.sirona.util.ClassLoaders;
+import org.apache.sirona.util.SelfMonitoring;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 
@@ -39,10 +40,18 @@ public class SironaTransformer implements ClassFileTransformer {
     private final boolean debug;
     private final String[] autoClassLoaderExcludes;
     private final boolean skipTempLoader;
+    private final boolean computeFrames;
+    private final WovenClassCache cache;
 
     public SironaTransformer(final boolean debug, final boolean skipTempLoader, final String tempClassLoaders) {
+        this(debug, skipTempLoader, tempClassLoaders, null);
+    }
+
+    public SironaTransformer(final boolean debug, final boolean skipTempLoader, final String tempClassLoaders, final String cache) {
         this.debug = debug || Boolean.getBoolean("sirona.javaagent.debug");
         this.skipTempLoader = skipTempLoader || Boolean.getBoolean("sirona.javaagent.skipTempLoader");
+        // by default the frames of the class are kept and patched, it avoids to load classes to compute them
+        this.computeFrames = Boolean.getBoolean("sirona.javaagent.computeFrames");
 
         final String excludes = System.getProperty(
                 "sirona.javaagent.dontAutoClassLoaderExclude",
@@ -50,6 +59,14 @@ public class SironaTransformer implements ClassFileTransformer {
                         tempClassLoaders :
                         "org.apache.openjpa.lib.util.TemporaryClassLoader,org.apache.openejb.core.TempClassLoader");
         this.autoClassLoaderExcludes = excludes.split(" *, *");
+
+        // woven classes of the previous runs, skips the weaving when classes and configuration didn't change
+        final String cacheDir = cache != null ? cache : System.getProperty("sirona.javaagent.cache");
+        this.cache = cacheDir != null && cacheDir.length() > 0 ? new WovenClassCache(new File(cacheDir)) : null;
+
+        if (SelfMonitoring.ACTIVATED) {
+            WeavingStats.registerGauges();
+        }
     }
 
     public void evictClassLoaders() { // we will recreate them if needed
@@ -60,7 +77,10 @@ public class SironaTransformer implements ClassFileTransformer {
     public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
                             final ProtectionDomain protectionDomain, final byte[] classfileBuffer) throws IllegalClassFormatException {
         if (shouldTransform(className, loader) && !isExcludedLoader(loader)) {
-            return doTransform(className, classfileBuffer);
+            final long start = System.nanoTime();
+            final byte[] bytes = doTransform(className, classfileBuffer);
+            WeavingStats.transformed(System.nanoTime() - start, bytes != classfileBuffer);
+            return bytes;
         }
         return classfileBuffer;
     }
@@ -82,13 +102,32 @@ public class SironaTransformer implements ClassFileTransformer {
     protected byte[] doTransform(final String className, final byte[] classfileBuffer) {
         try {
             final ClassReader reader = new ClassReader(classfileBuffer);
-            final ClassWriter writer = new SironaClassWriter(className == null ? null : className.replace('/', '.'),
-                    skipTempLoader ? null : tempClassLoaders, reader, ClassWriter.COMPUTE_FRAMES);
+            if (!SironaClassVisitor.hasAdvisableMethod(reader, className, classfileBuffer)) {
+                return classfileBuffer;
+            }
+
+            final boolean cacheable = cache != null && RuntimeInstrumentation.isInitial(); // entries use the initial rules
+            if (cacheable) {
+                final byte[] cached = cache.find(classfileBuffer);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
+            final ClassWriter writer;
+            if (computeFrames) {
+                writer = new SironaClassWriter(className.replace('/', '.'), skipTempLoader ? null : tempClassLoaders, reader, ClassWriter.COMPUTE_FRAMES);
+            } else {
+                writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+            }
             final SironaClassVisitor advisor = new SironaClassVisitor(writer, className, classfileBuffer);
-            reader.accept(advisor, ClassReader.SKIP_FRAMES);
+            reader.accept(advisor, computeFrames ? ClassReader.SKIP_FRAMES : ClassReader.EXPAND_FRAMES);
 
             if (advisor.wasAdviced()) {
                 final byte[] bytes = writer.toByteArray();
+                if (cacheable) {
+                    cache.store(classfileBuffer, advisor.getSites(), bytes);
+                }
                 if (debug) {
                     final File dump = new File(System.getProperty("java.io.tmpdir"), "sirona-dump/" + className + ".class");
                     dump.getParentFile().mkdirs();
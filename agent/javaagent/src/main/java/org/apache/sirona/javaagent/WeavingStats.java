@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.javaagent;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.gauges.Gauge;
+import org.apache.sirona.util.SelfMonitoring;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Self monitoring of the weaving: the repository can't be used while classes are loaded
+ * so values are kept here and read by gauges.
+ *
+ * <b>It's not part of the public api!!</b>
+ */
+public final class WeavingStats {
+    private static final AtomicLong TIME = new AtomicLong();
+    private static final AtomicLong MAX_TIME = new AtomicLong();
+    private static final AtomicLong TRANSFORMED = new AtomicLong();
+    private static final AtomicLong WOVEN = new AtomicLong();
+    private static final AtomicBoolean GAUGES = new AtomicBoolean();
+
+    private WeavingStats() {
+        // no-op
+    }
+
+    public static void transformed(final long duration, final boolean woven) {
+        TIME.addAndGet(duration);
+        TRANSFORMED.incrementAndGet();
+        if (woven) {
+            WOVEN.incrementAndGet();
+        }
+
+        long max = MAX_TIME.get();
+        while (duration > max && !MAX_TIME.compareAndSet(max, duration)) {
+            max = MAX_TIME.get();
+        }
+    }
+
+    public static void registerGauges() {
+        if (!GAUGES.compareAndSet(false, true)) {
+            return;
+        }
+
+        SelfMonitoring.addGauge(new ValueGauge("sirona-transform-time", Unit.Time.NANOSECOND, TIME));
+        SelfMonitoring.addGauge(new ValueGauge("sirona-transform-max-time", Unit.Time.NANOSECOND, MAX_TIME));
+        SelfMonitoring.addGauge(new ValueGauge("sirona-transformed-classes", Unit.UNARY, TRANSFORMED));
+        SelfMonitoring.addGauge(new ValueGauge("sirona-woven-classes", Unit.UNARY, WOVEN));
+        SelfMonitoring.addGauge(new Gauge() {
+            private final Role role = new Role("sirona-instrumented-methods", Unit.UNARY);
+
+            @Override
+            public Role role() {
+                return role;
+            }
+
+            @Override
+            public double value() {
+                return InvocationSite.count();
+            }
+        });
+    }
+
+    private static final class ValueGauge implements Gauge {
+        private final Role role;
+        private final AtomicLong value;
+
+        private ValueGauge(final String name, final Unit unit, final AtomicLong value) {
+            this.role = new Role(name, unit);
+            this.value = value;
+        }
+
+        @Override
+        public Role role() {
+            return role;
+        }
+
+        @Override
+        public double value() {
+            return value.get();
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.javaagent;
+
+import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.javaagent.logging.SironaAgentLogging;
+import org.apache.sirona.javaagent.spi.InvocationListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Woven classes kept on disk so a restart with the same classes and the same configuration skips the weaving.
+ *
+ * Entries are addressed by the hash of the original class bytes in a directory named by the hash of the
+ * effective configuration (weaver, listeners, sirona properties, agent parameters) so changing any of them
+ * uses another directory.
+ *
+ * Woven code references its {@link InvocationSite} by id so ids are persisted in the directory too
+ * and reserved for the next runs. A directory shouldn't be used by several JVMs at the same time.
+ *
+ * <b>It's not part of the public api!!</b>
+ */
+public class WovenClassCache {
+    private static final int FORMAT = 1; // bump when the entry format changes
+    private static final String SITES = "sites";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+    private final Set<String> persisted = new HashSet<String>(); // guarded by this
+
+    public WovenClassCache(final File root) {
+        this(root, configuration());
+    }
+
+    public WovenClassCache(final File root, final String configuration) {
+        this.directory = new File(root, sha1(utf8(configuration)));
+        loadSites();
+    }
+
+    /**
+     * @return the effective configuration of the weaving, the cache directory depends on it.
+     */
+    public static String configuration() {
+        final StringBuilder builder = new StringBuilder("format=").append(FORMAT).append('\n');
+        builder.append("weaver=").append(sha1(resource(SironaClassVisitor.class))).append('\n');
+        builder.append("computeFrames=").append(Boolean.getBoolean("sirona.javaagent.computeFrames")).append('\n');
+
+        final Collection<String> prefixes = new HashSet<String>();
+        prefixes.add(Configuration.CONFIG_PROPERTY_PREFIX);
+        for (final InvocationListener listener : AgentContext.allListeners()) {
+            final String name = listener.getClass().getName();
+            builder.append("listener=").append(name).append('\n');
+            prefixes.add(name + "."); // @AutoSet configuration
+        }
+
+        final Map<String, String> properties = new TreeMap<String, String>();
+        for (final Map.Entry<Object, Object> entry : Configuration.properties().entrySet()) {
+            final String key = String.valueOf(entry.getKey());
+            for (final String prefix : prefixes) {
+                if (key.startsWith(prefix)) {
+                    properties.put(key, String.valueOf(entry.getValue()));
+                    break;
+                }
+            }
+        }
+        for (final Map.Entry<String, String> property : properties.entrySet()) {
+            builder.append("property=").append(property.getKey()).append('=').append(property.getValue()).append('\n');
+        }
+        for (final Map.Entry<String, String> parameter : new TreeMap<String, String>(AgentContext.getAgentParameters()).entrySet()) {
+            builder.append("parameter=").append(parameter.getKey()).append('=').append(parameter.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param original class bytes as given to the transformer
+     * @return the woven bytes or <code>null</code> if the class is not in the cache or can't be reused
+     */
+    public byte[] find(final byte[] original) {
+        final File file = entry(sha1(original));
+        if (!file.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            final int sites = in.readInt();
+            for (int i = 0; i < sites; i++) {
+                final int id = in.readInt();
+                final String key = in.readUTF();
+                final InvocationListener[] listeners = AgentContext.listeners(key, original);
+                if (listeners == null || !InvocationSite.register(key, listeners, id)) { // weave it again
+                    return null;
+                }
+            }
+
+            final byte[] woven = new byte[in.readInt()];
+            in.readFully(woven);
+            return woven;
+        } catch (final IOException e) {
+            SironaAgentLogging.debug("can't read {0}: {1}", file, e.getMessage());
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    public void store(final byte[] original, final Collection<InvocationSite> sites, final byte[] woven) {
+        final File file = entry(sha1(original));
+        final File tmp = new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            persist(sites); // before the entry, an entry can't reference an unknown id
+
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs() && !file.getParentFile().isDirectory()) {
+                throw new IOException("Can't create " + file.getParentFile());
+            }
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(sites.size());
+            for (final InvocationSite site : sites) {
+                out.writeInt(site.getId());
+                out.writeUTF(site.getKey());
+            }
+            out.writeInt(woven.length);
+            out.write(woven);
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(file)) { // readers only see complete entries
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Can't rename " + tmp + " to " + file);
+                }
+            }
+        } catch (final IOException e) {
+            SironaAgentLogging.debug("can't write {0}: {1}", file, e.getMessage());
+            tmp.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private synchronized void persist(final Collection<InvocationSite> sites) throws IOException {
+        DataOutputStream out = null;
+        try {
+            for (final InvocationSite site : sites) {
+                if (persisted.contains(site.getKey())) {
+                    continue;
+                }
+
+                if (out == null) {
+                    if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                        throw new IOException("Can't create " + directory);
+                    }
+                    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, SITES), true)));
+                }
+                out.writeInt(site.getId());
+                out.writeUTF(site.getKey());
+                persisted.add(site.getKey());
+            }
+        } finally {
+            close(out);
+        }
+    }
+
+    private synchronized void loadSites() {
+        final File file = new File(directory, SITES);
+        if (!file.isFile()) {
+            return;
+        }
+
+        try {
+            final byte[] bytes = read(new FileInputStream(file));
+            final ByteArrayInputStream buffer = new ByteArrayInputStream(bytes);
+            final DataInputStream in = new DataInputStream(buffer);
+            int valid = 0;
+            try {
+                while (buffer.available() > 0) {
+                    final int id = in.readInt();
+                    final String key = in.readUTF();
+                    InvocationSite.reserve(key, id);
+                    persisted.add(key);
+                    valid = bytes.length - buffer.available();
+                }
+            } catch (final IOException e) { // truncated record (crash while writing), drop it before appending again
+                final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(valid);
+                } finally {
+                    raf.close();
+                }
+            }
+        } catch (final IOException e) {
+            SironaAgentLogging.debug("can't read {0}: {1}", file, e.getMessage());
+        }
+    }
+
+    private File entry(final String hash) {
+        return new File(directory, hash.substring(0, 2) + File.separator + hash.substring(2) + ".class");
+    }
+
+    private static byte[] resource(final Class<?> clazz) {
+        final String name = clazz.getName();
+        final InputStream is = clazz.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+        if (is == null) {
+            return utf8(String.valueOf(clazz.getPackage() != null ? clazz.getPackage().getImplementationVersion() : null));
+        }
+        try {
+            return read(is);
+        } catch (final IOException e) {
+            return utf8(e.getMessage());
+        }
+    }
+
+    private static byte[] read(final InputStream is) throws IOException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static byte[] utf8(final String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (final IOException e) { // can't happen
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sha1(final byte[] bytes) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static void close(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (final IOException e) {
+                // no-op
+            }
+        }
+    }
+}
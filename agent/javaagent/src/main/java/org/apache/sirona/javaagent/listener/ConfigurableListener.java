@@ -20,10 +20,7 @@ import org.apache.sirona.configuration.predicate.PredicateEvaluator;
 import org.apache.sirona.javaagent.AgentContext;
 import org.apache.sirona.javaagent.spi.InvocationListener;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
 public abstract class ConfigurableListener<I, R> implements InvocationListener {
-    private static final AtomicInteger ID_GENERATOR = new AtomicInteger(1); // 0 is reserved for CounterListener
 
     public static final PredicateEvaluator DEFAULT_EXCLUDES = new PredicateEvaluator(
             // sirona itself
@@ -36,7 +33,7 @@ public abstract class ConfigurableListener<I, R> implements InvocationListener {
             "container:tomee", ",");
     public static final PredicateEvaluator DEFAULT_INCLUDES = new PredicateEvaluator("true:true", ",");
 
-    private int id = ID_GENERATOR.incrementAndGet();
+    private final int id = AgentContext.newSlot();
 
     private PredicateEvaluator includes = DEFAULT_INCLUDES;
     private PredicateEvaluator excludes = DEFAULT_EXCLUDES;
@@ -55,13 +52,13 @@ public abstract class ConfigurableListener<I, R> implements InvocationListener {
 
     @Override
     public void before(final AgentContext context) {
-        context.put(id, this);
+        context.setObject(id, this);
         before(context.getKey(), (I) context.getReference());
     }
 
     @Override
     public void after(final AgentContext context, final Object result, final Throwable error) {
-        final ConfigurableListener<I, R> listener = context.get(id, ConfigurableListener.class);
+        final ConfigurableListener<I, R> listener = ConfigurableListener.class.cast(context.getObject(id));
         if (listener != null) {
             if (error != null) {
                 listener.onSuccess(context.getKey(), (I) context.getReference(), (R) result);
@@ -16,12 +16,17 @@
  */
 package org.apache.sirona.javaagent.listener;
 
+import org.apache.sirona.Role;
 import org.apache.sirona.aop.AbstractPerformanceInterceptor;
 import org.apache.sirona.configuration.ioc.AutoSet;
 import org.apache.sirona.configuration.predicate.PredicateEvaluator;
 import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.javaagent.AgentBootstrap;
 import org.apache.sirona.javaagent.AgentContext;
+import org.apache.sirona.javaagent.InvocationSite;
 import org.apache.sirona.javaagent.spi.InvocationListener;
+import org.apache.sirona.repositories.Repository;
 import org.apache.sirona.spi.Order;
 
 @Order(0)
@@ -30,7 +35,9 @@ public class CounterListener extends AbstractPerformanceInterceptor<String> impl
 
     public static final String DISABLE_PARAMETER_KEY = "disable-counter-listener";
 
-    private static final int KEY = -1;
+    private static final int KEY = AgentContext.newSlot(); // a Counter (site path) or a Context (key path)
+    private static final int ACTIVATION = AgentContext.newSlot();
+    private static final int START = AgentContext.newSlot();
 
     private PredicateEvaluator includes = ConfigurableListener.DEFAULT_INCLUDES;
     private PredicateEvaluator excludes = ConfigurableListener.DEFAULT_EXCLUDES;
@@ -57,17 +64,67 @@ public class CounterListener extends AbstractPerformanceInterceptor<String> impl
 
     @Override
     public void before(final AgentContext ctx) {
-        final String key = ctx.getKey();
-        ctx.put(KEY, new CounterListener().before(key, key));
+        final InvocationSite site = ctx.getSite();
+        if (!AgentBootstrap.isReady()) { // the repository can't be used yet, the duration is buffered
+            ctx.setObject(KEY, site == null ? AgentContext.key(ctx.getKey()) : site.getCounterKey());
+            ctx.setLong(START, System.nanoTime());
+            return;
+        }
+        if (site == null) {
+            final String key = ctx.getKey();
+            ctx.setObject(KEY, before(key, key));
+            return;
+        }
+
+        // allocation free variant of before(key, key): the counter is resolved once per site
+        // and the start is kept as a primitive in the context instead of a stopwatch
+        final ActivationContext activation = findContext(site.getCounterKey()); // the key of extractContextKey, cached
+        if (!activation.shouldExecute()) {
+            ctx.setObject(KEY, null);
+            return;
+        }
+
+        final Counter counter;
+        try {
+            counter = site.getCounter();
+        } catch (final Throwable e) { // repository not usable (failed initialization), the call is just not measured
+            ctx.setObject(KEY, null);
+            return;
+        }
+
+        counter.updateConcurrency(counter.currentConcurrency().incrementAndGet());
+        ctx.setObject(KEY, counter);
+        ctx.setObject(ACTIVATION, activation);
+        ctx.setLong(START, System.nanoTime());
     }
 
     @Override
     public void after(final AgentContext context, final Object result, final Throwable error) {
-        final Context perfCtx = context.get(KEY, Context.class);
-        if (error == null) {
-            perfCtx.stop();
-        } else {
-            perfCtx.stopWithException(error);
+        final Object state = context.getObject(KEY);
+        if (Counter.class.isInstance(state)) {
+            final long elapsed = System.nanoTime() - context.getLong(START);
+            final Counter counter = Counter.class.cast(state);
+            counter.add(elapsed, Unit.Time.NANOSECOND);
+            counter.currentConcurrency().decrementAndGet();
+            if (error != null) {
+                Repository.INSTANCE.getCounter(
+                        new Counter.Key(Role.FAILURES, error.getClass().getName() + ":" + (error.getMessage() != null ? error.getMessage() : ""))).add(elapsed);
+            }
+            ActivationContext.class.cast(context.getObject(ACTIVATION)).elapsedTime(elapsed);
+        } else if (Counter.Key.class.isInstance(state)) {
+            final long elapsed = System.nanoTime() - context.getLong(START);
+            AgentBootstrap.record(Counter.Key.class.cast(state), elapsed);
+            if (error != null) {
+                AgentBootstrap.record(
+                        new Counter.Key(Role.FAILURES, error.getClass().getName() + ":" + (error.getMessage() != null ? error.getMessage() : "")), elapsed);
+            }
+        } else if (Context.class.isInstance(state)) {
+            final Context perfCtx = Context.class.cast(state);
+            if (error == null) {
+                perfCtx.stop();
+            } else {
+                perfCtx.stopWithException(error);
+            }
         }
     }
 
@@ -90,7 +147,7 @@ public class CounterListener extends AbstractPerformanceInterceptor<String> impl
     protected ActivationContext getOrCreateContext(final Object m) {
         final ActivationContext c = CONTEXTS.get(m);
         if (c == null) {
-            return putAndGetActivationContext(m, new ActivationContext(true, Counter.Key.class.cast(m).getName()));
+            return putAndGetActivationContext(m, newActivationContext(Counter.Key.class.cast(m).getName()));
         }
         return c;
     }
@@ -18,6 +18,7 @@ package org.apache.sirona.javaagent.listener;
 
 import org.apache.sirona.configuration.Configuration;
 import org.apache.sirona.configuration.ioc.AutoSet;
+import org.apache.sirona.javaagent.AgentBootstrap;
 import org.apache.sirona.javaagent.AgentContext;
 import org.apache.sirona.javaagent.tracking.PathTracker;
 import org.apache.sirona.pathtracking.PathTrackingInformation;
@@ -31,7 +32,7 @@ import org.apache.sirona.spi.Order;
     extends ConfigurableListener
 {
 
-    private static final Integer PATH_TRACKER_KEY = -2;// "Sirona-path-tracker-key".hashCode();
+    private static final int PATH_TRACKER_KEY = AgentContext.newSlot();
 
     private static final boolean TRACKING_ACTIVATED =
         Configuration.is( Configuration.CONFIG_PROPERTY_PREFIX + "javaagent.path.tracking.activate", false );
@@ -59,6 +60,11 @@ import org.apache.sirona.spi.Order;
     @Override
     public void before( AgentContext context )
     {
+        if ( !AgentBootstrap.isReady() ) // path tracking store not created yet
+        {
+            context.setObject( PATH_TRACKER_KEY, null );
+            return;
+        }
 
         String key = context.getKey();
 
@@ -67,7 +73,7 @@ import org.apache.sirona.spi.Order;
 
         final PathTrackingInformation pathTrackingInformation = new PathTrackingInformation( className, methodName );
 
-        context.put( PATH_TRACKER_KEY, PathTracker.start( pathTrackingInformation, context.getReference() ) );
+        context.setObject( PATH_TRACKER_KEY, PathTracker.start( pathTrackingInformation, context.getReference() ) );
     }
 
     /**
@@ -120,7 +126,7 @@ import org.apache.sirona.spi.Order;
     }
 
     /**
-     * will call {@link org.apache.sirona.javaagent.tracking.PathTracker#stop(Object reference)}
+     * will call {@link org.apache.sirona.javaagent.tracking.PathTracker#stop(Object, Throwable)}
      *
      * @param context
      * @param result
@@ -129,6 +135,10 @@ import org.apache.sirona.spi.Order;
     @Override
     public void after( AgentContext context, Object result, Throwable error )
     {
-        context.get( PATH_TRACKER_KEY, PathTracker.class ).stop( context.getReference() );
+        final Object tracker = context.getObject( PATH_TRACKER_KEY );
+        if ( tracker != null )
+        {
+            PathTracker.class.cast( tracker ).stop( context.getReference(), error );
+        }
     }
 }
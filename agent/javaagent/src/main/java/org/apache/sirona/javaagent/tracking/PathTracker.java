@@ -16,27 +16,31 @@
 */
 package org.apache.sirona.javaagent.tracking;
 
-
+import org.apache.sirona.Role;
 import org.apache.sirona.configuration.Configuration;
 import org.apache.sirona.configuration.ioc.Destroying;
 import org.apache.sirona.configuration.ioc.IoCs;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.gauges.Gauge;
 import org.apache.sirona.pathtracking.Context;
+import org.apache.sirona.pathtracking.DefaultUniqueIdGenerator;
 import org.apache.sirona.pathtracking.PathTrackingEntry;
 import org.apache.sirona.pathtracking.PathTrackingInformation;
 import org.apache.sirona.pathtracking.PathTrackingInvocationListener;
+import org.apache.sirona.pathtracking.TrackingId;
 import org.apache.sirona.pathtracking.UniqueIdGenerator;
 import org.apache.sirona.spi.Order;
 import org.apache.sirona.spi.SPI;
 import org.apache.sirona.store.DataStoreFactory;
 import org.apache.sirona.store.tracking.PathTrackingDataStore;
+import org.apache.sirona.util.SelfMonitoring;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Contains logic to track class#method invocation path
@@ -60,12 +64,54 @@ public class PathTracker
         @Override
         protected Context initialValue()
         {
-            return new Context(ID_GENERATOR.next());
+            if ( DefaultUniqueIdGenerator.class.isInstance( ID_GENERATOR ) ) // no need to render the id
+            {
+                return new Context( DefaultUniqueIdGenerator.class.cast( ID_GENERATOR ).nextId() );
+            }
+            return new Context( ID_GENERATOR.next() );
+        }
+    };
+
+    private static final int MAX_ENTRIES =
+        Configuration.getInteger( Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.max-entries", 10000 );
+
+    // flush: store the entries recorded so far and go on with an empty buffer, drop: ignore next calls of the path
+    private static final boolean FLUSH_WHEN_FULL = !"drop".equalsIgnoreCase(
+        Configuration.getProperty( Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.max-entries.policy", "flush" ) );
+
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    private static final ThreadLocal<PathTrackingBuffer> BUFFER = new ThreadLocal<PathTrackingBuffer>()
+    {
+        @Override
+        protected PathTrackingBuffer initialValue()
+        {
+            return new PathTrackingBuffer(
+                Configuration.getInteger( Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.buffer.size", 256 ),
+                MAX_ENTRIES, RETENTION == null ? MAX_ENTRIES : RETENTION.getMaxPendingEntries() );
+        }
+    };
+
+    // null when all paths are stored
+    private static final TraceRetention RETENTION = TraceRetention.create( MAX_ENTRIES );
+
+    // null when all calls are tracked
+    private static final TraceSampler SAMPLER = TraceSampler.create();
+
+    // returned for the skipped calls, holds the sampling state of the thread
+    private static final ThreadLocal<PathTracker> SKIPPED = new ThreadLocal<PathTracker>()
+    {
+        @Override
+        protected PathTracker initialValue()
+        {
+            return new PathTracker( null, SAMPLER.newState() );
         }
     };
 
     private final PathTrackingInformation currentPathTrackingInformation;
 
+    private final TraceSampler.State sampling;
+
     private static final boolean USE_EXECUTORS = Boolean.parseBoolean(
         Configuration.getProperty( Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.useexecutors", "false" ) );
 
@@ -75,19 +121,80 @@ public class PathTracker
     private static boolean USE_STORE = Boolean.parseBoolean(
         Configuration.getProperty( Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.store", "true" ) );
 
-    protected static ExecutorService EXECUTORSERVICE;
+    private static final Role EXECUTOR_QUEUE_DEPTH = new Role( "sirona-pathtracking-executor-queue-depth", Unit.UNARY );
+
+    private static final Role DROPPED_ENTRIES = new Role( "sirona-pathtracking-dropped-entries", Unit.UNARY );
+
+    private static final Role QUEUE_DROPPED_ENTRIES = new Role( "sirona-pathtracking-queue-dropped-entries", Unit.UNARY );
+
+    // null when the paths are stored by the tracked threads
+    private static final PathTrackingQueue QUEUE;
 
     static
     {
 
         if ( USE_EXECUTORS )
         {
-            int threadsNumber =
-                Configuration.getInteger( Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.executors", 5 );
-            EXECUTORSERVICE = Executors.newFixedThreadPool( threadsNumber );
+            QUEUE = new PathTrackingQueue( PATH_TRACKING_DATA_STORE, //
+                Configuration.getInteger( Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.queue.size", 1024 ), //
+                PathTrackingQueue.Overflow.parse( Configuration.getProperty(
+                    Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.queue.overflow", "drop-newest" ) ), //
+                Configuration.getInteger( Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.queue.timeout", 10 ), //
+                Configuration.getInteger( Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.queue.batch", 64 ) );
+
+            SelfMonitoring.addGauge( new Gauge()
+            {
+                @Override
+                public Role role()
+                {
+                    return EXECUTOR_QUEUE_DEPTH;
+                }
+
+                @Override
+                public double value()
+                {
+                    return QUEUE.depth();
+                }
+            } );
+            SelfMonitoring.addGauge( new Gauge()
+            {
+                @Override
+                public Role role()
+                {
+                    return QUEUE_DROPPED_ENTRIES;
+                }
+
+                @Override
+                public double value()
+                {
+                    return QUEUE.dropped();
+                }
+            } );
+        }
+        else
+        {
+            QUEUE = null;
         }
     }
 
+    static
+    {
+        SelfMonitoring.addGauge( new Gauge()
+        {
+            @Override
+            public Role role()
+            {
+                return DROPPED_ENTRIES;
+            }
+
+            @Override
+            public double value()
+            {
+                return DROPPED.get();
+            }
+        } );
+    }
+
     private static PathTrackingInvocationListener[] LISTENERS;
 
     static
@@ -126,21 +233,58 @@ public class PathTracker
         return LISTENERS;
     }
 
-    private PathTracker( final PathTrackingInformation pathTrackingInformation )
+    private PathTracker( final PathTrackingInformation pathTrackingInformation, final TraceSampler.State sampling )
     {
         this.currentPathTrackingInformation = pathTrackingInformation;
+        this.sampling = sampling;
     }
 
 
-    private static void cleanUp()
+    // the whole path (or a chunk of a path bigger than the buffer) is stored at once
+    private static void store( final List<PathTrackingEntry> entries )
     {
-        THREAD_LOCAL.remove();
+        try
+        {
+            if ( QUEUE != null )
+            {
+                QUEUE.offer( entries );
+            }
+            else
+            {
+                PATH_TRACKING_DATA_STORE.store( entries );
+            }
+        }
+        catch ( Throwable e )
+        {
+            // as implementations can generate exception we simply ignore all exception happening here!!
+        }
     }
 
     // An other solution could be using Thread.currentThread().getStackTrace() <- very slow
 
     public static PathTracker start( PathTrackingInformation currentPathTrackingInformation, final Object reference )
     {
+        TraceSampler.State sampling = null;
+        if ( SAMPLER != null )
+        {
+            final PathTracker skipped = SKIPPED.get();
+            sampling = skipped.sampling;
+
+            final int depth = sampling.enter();
+            if ( !sampling.isSkipping() )
+            {
+                if ( ( depth == 1 && !SAMPLER.sample( sampling, currentPathTrackingInformation.getClassName(),
+                                                      currentPathTrackingInformation.getMethodName() ) ) //
+                    || !sampling.track() )
+                {
+                    sampling.skip();
+                }
+            }
+            if ( sampling.isSkipping() )
+            {
+                return skipped;
+            }
+        }
 
         final Context context = THREAD_LOCAL.get();
 
@@ -166,6 +310,10 @@ public class PathTracker
         if ( level == 1 )
         {
             context.setStartPathObject( reference );
+            if ( RETENTION != null && USE_STORE && !USE_SINGLE_STORE )
+            {
+                BUFFER.get().startPath( RETENTION.sample() );
+            }
         }
         for ( PathTrackingInvocationListener listener : LISTENERS )
         {
@@ -176,16 +324,33 @@ public class PathTracker
             listener.enterMethod( currentPathTrackingInformation );
         }
 
-        return new PathTracker( currentPathTrackingInformation );
+        return new PathTracker( currentPathTrackingInformation, sampling );
     }
 
 
     public void stop( final Object reference )
     {
+        stop( reference, null );
+    }
+
+    /**
+     * @param error exception thrown by the tracked call if any, a failed path is kept by the retention
+     */
+    public void stop( final Object reference, final Throwable error )
+    {
+        if ( sampling != null )
+        {
+            sampling.exit();
+            if ( currentPathTrackingInformation == null ) // skipped call
+            {
+                return;
+            }
+        }
+
         final long end = System.nanoTime();
         final Context context = THREAD_LOCAL.get();
 
-        final String uuid = context.getUuid();
+        final TrackingId trackingId = context.getTrackingId();
 
         final PathTrackingInformation startPathTrackingInformation = context.getStartPathTrackingInformation();
 
@@ -204,52 +369,75 @@ public class PathTracker
             }
         }
 
-        final PathTrackingEntry pathTrackingEntry =
-            new PathTrackingEntry( uuid, NODE, this.currentPathTrackingInformation.getClassName(), //
-                                   this.currentPathTrackingInformation.getMethodName(), //
-                                   currentPathTrackingInformation.getStartDateNs(), //
-                                   ( end - currentPathTrackingInformation.getStart() ), //
-                                   this.currentPathTrackingInformation.getLevel() );
-
+        final int level = this.currentPathTrackingInformation.getLevel();
+        final long duration = end - currentPathTrackingInformation.getStart();
         if ( USE_STORE )
         {
             if ( USE_SINGLE_STORE )
             {
-                PATH_TRACKING_DATA_STORE.store( pathTrackingEntry );
+                PATH_TRACKING_DATA_STORE.store(
+                    new PathTrackingEntry( trackingId, NODE, this.currentPathTrackingInformation.getClassName(), //
+                                           this.currentPathTrackingInformation.getMethodName(), //
+                                           currentPathTrackingInformation.getStartDateNs(), duration, level ) );
             }
             else
             {
-                context.getEntries().add( pathTrackingEntry );
+                final PathTrackingBuffer buffer = BUFFER.get();
+                if ( error != null )
+                {
+                    buffer.failed();
+                }
+
+                boolean record = true;
+                if ( level != 1 && buffer.isFull() )
+                {
+                    if ( FLUSH_WHEN_FULL )
+                    {
+                        // the end of the path is not known yet, a chunk is only stored if the path is already kept,
+                        // otherwise it is buffered further while it can be
+                        if ( RETENTION == null || keep( buffer, context, end ) )
+                        {
+                            store( buffer.flush( trackingId, NODE ) );
+                        }
+                        else if ( buffer.isPendingFull() )
+                        {
+                            buffer.truncate();
+                        }
+                    }
+                    else
+                    {
+                        DROPPED.incrementAndGet();
+                        record = false;
+                    }
+                }
+                if ( record )
+                {
+                    buffer.add( TrackedMethods.intern( this.currentPathTrackingInformation.getClassName(),
+                                                       this.currentPathTrackingInformation.getMethodName() ),
+                                currentPathTrackingInformation.getStartDateNs(), duration, level );
+                }
             }
         }
-        if ( this.currentPathTrackingInformation.getLevel() == 1 && //
+        if ( level == 1 && //
             ( context.getStartPathObject() != null && context.getStartPathObject() == reference ) )
         { // 0 is never reached so 1 is first
             if ( USE_STORE && !USE_SINGLE_STORE )
             {
-                try
+                final PathTrackingBuffer buffer = BUFFER.get();
+                if ( RETENTION == null || keep( buffer, context, end ) )
                 {
-                    Runnable runnable = new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            PATH_TRACKING_DATA_STORE.store( context.getEntries() );
-                            PathTracker.cleanUp();
-                        }
-                    };
-                    if ( USE_EXECUTORS )
-                    {
-                        EXECUTORSERVICE.submit( runnable );
-                    }
-                    else
+                    final List<PathTrackingEntry> entries = buffer.flush( trackingId, NODE );
+                    context.setEntries( entries );
+                    store( entries );
+                    if ( RETENTION != null )
                     {
-                        runnable.run();
+                        RETENTION.kept();
                     }
                 }
-                catch ( Throwable e )
+                else
                 {
-                    // as implementations can generate exception we simply ignore all exception happening here!!
+                    buffer.summarize();
+                    RETENTION.dropped();
                 }
             }
 
@@ -270,6 +458,12 @@ public class PathTracker
         }
     }
 
+    private static boolean keep( final PathTrackingBuffer buffer, final Context context, final long now )
+    {
+        final PathTrackingInformation root = context.getStartPathTrackingInformation();
+        return RETENTION.keep( buffer.isSampled(), buffer.isFailed(), root == null ? 0 : now - root.getStart() );
+    }
+
     @Destroying
     public void destroy()
     {
@@ -278,7 +472,10 @@ public class PathTracker
 
     public static void shutdown()
     {
-        EXECUTORSERVICE.shutdownNow();
+        if ( QUEUE != null )
+        {
+            QUEUE.shutdown();
+        }
     }
 
 
@@ -0,0 +1,198 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.sirona.javaagent.tracking;
+
+import org.apache.sirona.pathtracking.PathTrackingEntry;
+import org.apache.sirona.pathtracking.TrackingId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entries of the path tracked by a thread, stored as columns of primitives (interned method, start, duration, level)
+ * so recording a call doesn't allocate. The buffer is reused by the next paths of the thread,
+ * {@link PathTrackingEntry} instances are only created when the path is handed to the store.
+ */
+class PathTrackingBuffer
+{
+    private final int maxEntries;
+
+    private final int maxPendingEntries;
+
+    private int[] methods;
+
+    private long[] starts;
+
+    private long[] durations;
+
+    private int[] levels;
+
+    private int size = 0;
+
+    private boolean sampled = false;
+
+    private boolean failed = false;
+
+    PathTrackingBuffer( final int initialCapacity, final int maxEntries )
+    {
+        this( initialCapacity, maxEntries, maxEntries );
+    }
+
+    /**
+     * @param maxPendingEntries calls kept while the retention has not decided to keep the path
+     */
+    PathTrackingBuffer( final int initialCapacity, final int maxEntries, final int maxPendingEntries )
+    {
+        this.maxEntries = Math.max( 1, maxEntries );
+        this.maxPendingEntries = Math.max( this.maxEntries, maxPendingEntries );
+
+        final int capacity = Math.max( 1, Math.min( initialCapacity, this.maxEntries ) );
+        methods = new int[capacity];
+        starts = new long[capacity];
+        durations = new long[capacity];
+        levels = new int[capacity];
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /**
+     * @return <code>true</code> if only the outermost call of the path can still be recorded,
+     * it has a reserved slot since it completes last
+     */
+    boolean isFull()
+    {
+        return size >= maxEntries - 1;
+    }
+
+    /**
+     * @return <code>true</code> if a path not known as kept yet can't be buffered further
+     */
+    boolean isPendingFull()
+    {
+        return size >= maxPendingEntries - 1;
+    }
+
+    void add( final int method, final long start, final long duration, final int level )
+    {
+        if ( size == methods.length )
+        {
+            grow();
+        }
+
+        methods[size] = method;
+        starts[size] = start;
+        durations[size] = duration;
+        levels[size] = level;
+        size++;
+    }
+
+    private void grow()
+    {
+        final int capacity = (int) Math.min( (long) maxPendingEntries, methods.length * 2L );
+
+        final int[] newMethods = new int[capacity];
+        System.arraycopy( methods, 0, newMethods, 0, size );
+        methods = newMethods;
+
+        final long[] newStarts = new long[capacity];
+        System.arraycopy( starts, 0, newStarts, 0, size );
+        starts = newStarts;
+
+        final long[] newDurations = new long[capacity];
+        System.arraycopy( durations, 0, newDurations, 0, size );
+        durations = newDurations;
+
+        final int[] newLevels = new int[capacity];
+        System.arraycopy( levels, 0, newLevels, 0, size );
+        levels = newLevels;
+    }
+
+    /**
+     * Resets the retention state of the path, recorded calls are kept.
+     */
+    void startPath( final boolean sampled )
+    {
+        this.sampled = sampled;
+        this.failed = false;
+    }
+
+    boolean isSampled()
+    {
+        return sampled;
+    }
+
+    boolean isFailed()
+    {
+        return failed;
+    }
+
+    void failed()
+    {
+        failed = true;
+    }
+
+    /**
+     * Updates the summary counters with the recorded calls and empties the buffer.
+     */
+    void summarize()
+    {
+        for ( int i = 0; i < size; i++ )
+        {
+            if ( methods[i] != TraceRetention.TRUNCATED )
+            {
+                TraceRetention.summarize( methods[i], durations[i] );
+            }
+        }
+        size = 0;
+    }
+
+    /**
+     * Summarizes the recorded calls and replaces them with a single {@link TraceRetention#TRUNCATED} call
+     * starting with the first of them, at the level of the calls of the outermost one.
+     */
+    void truncate()
+    {
+        final long start = size > 0 ? starts[0] : 0;
+        summarize();
+        add( TraceRetention.TRUNCATED, start, 0, 2 );
+    }
+
+    /**
+     * Creates the entries of the recorded calls and empties the buffer.
+     */
+    List<PathTrackingEntry> flush( final TrackingId trackingId, final String node )
+    {
+        final List<PathTrackingEntry> entries = new ArrayList<PathTrackingEntry>( size );
+        for ( int i = 0; i < size; i++ )
+        {
+            entries.add( new PathTrackingEntry( trackingId, node, //
+                                                TrackedMethods.className( methods[i] ), //
+                                                TrackedMethods.methodName( methods[i] ), //
+                                                starts[i], durations[i], levels[i] ) );
+        }
+        size = 0;
+        return entries;
+    }
+}
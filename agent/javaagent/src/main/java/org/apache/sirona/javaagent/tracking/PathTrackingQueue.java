@@ -0,0 +1,276 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.sirona.javaagent.tracking;
+
+import org.apache.sirona.pathtracking.PathTrackingEntry;
+import org.apache.sirona.store.tracking.PathTrackingDataStore;
+import org.apache.sirona.util.DaemonThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded handoff between the tracked threads and the store: the paths are queued as they are
+ * and a storage thread drains them by batches, one {@link PathTrackingDataStore#store(java.util.Collection)} per batch.
+ * When the store is slower than the application the queue fills up and the overflow policy applies,
+ * the tracked threads are never blocked longer than the configured timeout.
+ *
+ * The queue is a ring of slots with a sequence each (D. Vyukov bounded queue): a tracked thread claims a slot
+ * with a CAS on the tail and never takes a lock. The storage thread is the only consumer except with
+ * {@link Overflow#DROP_OLDEST} where a tracked thread takes the oldest path the same way, with a CAS on the head.
+ */
+class PathTrackingQueue
+{
+    enum Overflow
+    {
+        DROP_NEWEST, DROP_OLDEST, BLOCK;
+
+        static Overflow parse( final String value )
+        {
+            return valueOf( value.trim().toUpperCase( Locale.ENGLISH ).replace( '-', '_' ) );
+        }
+    }
+
+    private static final long MAX_PARK = TimeUnit.MILLISECONDS.toNanos( 10 );
+
+    private static final long BLOCK_PARK = TimeUnit.MICROSECONDS.toNanos( 100 );
+
+    private final AtomicReferenceArray<List<PathTrackingEntry>> slots;
+
+    // slot i is free for the put at position p when its sequence is p, it holds the path of p when it is p + 1
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong head = new AtomicLong();
+
+    private final PathTrackingDataStore store;
+
+    private final Overflow overflow;
+
+    private final long timeout;
+
+    private final int batchSize;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final ExecutorService drainer;
+
+    private volatile Thread consumer;
+
+    private volatile boolean parked;
+
+    PathTrackingQueue( final PathTrackingDataStore store, final int capacity, final Overflow overflow,
+                       final long timeout, final int batchSize )
+    {
+        int size = 1;
+        while ( size < capacity )
+        {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<List<PathTrackingEntry>>( size );
+        this.sequences = new AtomicLongArray( size );
+        for ( int i = 0; i < size; i++ )
+        {
+            sequences.set( i, i );
+        }
+        this.mask = size - 1;
+
+        this.store = store;
+        this.overflow = overflow;
+        this.timeout = timeout;
+        this.batchSize = Math.max( 1, batchSize );
+
+        this.drainer = Executors.newSingleThreadExecutor( new DaemonThreadFactory( "sirona-pathtracking-" ) );
+        drainer.submit( new Drainer() );
+    }
+
+    /**
+     * @param entries a path or a chunk of a path
+     * @return <code>false</code> if the entries were dropped
+     */
+    boolean offer( final List<PathTrackingEntry> entries )
+    {
+        if ( put( entries ) )
+        {
+            return true;
+        }
+
+        switch ( overflow )
+        {
+            case DROP_OLDEST:
+                do
+                {
+                    final List<PathTrackingEntry> oldest = poll();
+                    if ( oldest != null )
+                    {
+                        dropped.addAndGet( oldest.size() );
+                    }
+                }
+                while ( !put( entries ) );
+                return true;
+            case BLOCK:
+                final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeout );
+                while ( System.nanoTime() - end < 0 && !Thread.currentThread().isInterrupted() )
+                {
+                    LockSupport.parkNanos( BLOCK_PARK );
+                    if ( put( entries ) )
+                    {
+                        return true;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        dropped.addAndGet( entries.size() );
+        return false;
+    }
+
+    private boolean put( final List<PathTrackingEntry> entries )
+    {
+        while ( true )
+        {
+            final long position = tail.get();
+            final int index = (int) ( position & mask );
+            final long sequence = sequences.get( index );
+            if ( sequence == position )
+            {
+                if ( tail.compareAndSet( position, position + 1 ) )
+                {
+                    slots.set( index, entries );
+                    sequences.set( index, position + 1 ); // publishes the slot
+                    if ( parked )
+                    {
+                        LockSupport.unpark( consumer );
+                    }
+                    return true;
+                }
+            }
+            else if ( sequence < position )
+            {
+                return false; // full
+            }
+            // else another tracked thread took this position, retry with the next one
+        }
+    }
+
+    // null when empty
+    private List<PathTrackingEntry> poll()
+    {
+        while ( true )
+        {
+            final long position = head.get();
+            final int index = (int) ( position & mask );
+            final long sequence = sequences.get( index );
+            if ( sequence == position + 1 )
+            {
+                if ( head.compareAndSet( position, position + 1 ) )
+                {
+                    final List<PathTrackingEntry> entries = slots.get( index );
+                    slots.set( index, null );
+                    sequences.set( index, position + mask + 1 ); // free for the put of the next round
+                    return entries;
+                }
+            }
+            else if ( sequence < position + 1 )
+            {
+                return null;
+            }
+        }
+    }
+
+    int depth()
+    {
+        final long depth = tail.get() - head.get();
+        return (int) Math.max( 0, Math.min( depth, mask + 1 ) );
+    }
+
+    long dropped()
+    {
+        return dropped.get();
+    }
+
+    void shutdown()
+    {
+        drainer.shutdownNow();
+    }
+
+    private class Drainer
+        implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            consumer = Thread.currentThread();
+
+            final List<List<PathTrackingEntry>> paths = new ArrayList<List<PathTrackingEntry>>( batchSize );
+            while ( !Thread.currentThread().isInterrupted() )
+            {
+                List<PathTrackingEntry> path;
+                while ( paths.size() < batchSize && ( path = poll() ) != null )
+                {
+                    paths.add( path );
+                }
+                if ( paths.isEmpty() )
+                {
+                    parked = true;
+                    if ( depth() == 0 ) // a put before the flag is set doesn't unpark
+                    {
+                        LockSupport.parkNanos( MAX_PARK );
+                    }
+                    parked = false;
+                    continue;
+                }
+
+                final List<PathTrackingEntry> batch;
+                if ( paths.size() == 1 )
+                {
+                    batch = paths.get( 0 );
+                }
+                else
+                {
+                    batch = new ArrayList<PathTrackingEntry>();
+                    for ( final List<PathTrackingEntry> entries : paths )
+                    {
+                        batch.addAll( entries );
+                    }
+                }
+                paths.clear();
+
+                try
+                {
+                    store.store( batch );
+                }
+                catch ( final Throwable e )
+                {
+                    // as implementations can generate exception we simply ignore all exception happening here!!
+                }
+            }
+        }
+    }
+}
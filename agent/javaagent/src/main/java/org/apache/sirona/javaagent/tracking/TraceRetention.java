@@ -0,0 +1,210 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.sirona.javaagent.tracking;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.gauges.Gauge;
+import org.apache.sirona.repositories.Repository;
+import org.apache.sirona.store.counter.CounterGeneration;
+import org.apache.sirona.util.SelfMonitoring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tail based retention: a path is buffered until its outermost call completes and is only stored if it was slow,
+ * failed or is part of the baseline sample (one path every <code>sampling</code>).
+ * Calls of the other paths only update a counter per method (role {@link #SUMMARY}).
+ *
+ * A path bigger than the agent buffer (pathtracking.max-entries) is buffered further while it is not known as kept,
+ * up to <code>max-pending-entries</code>. Beyond that its first calls are summarized and, if the path is kept,
+ * a <code>truncated()</code> call of {@link #TRUNCATED_CLASS} replaces them.
+ *
+ * Configured with org.apache.sirona.pathtracking.retention.* (activated=false, the default, stores all paths):
+ * <ul>
+ *     <li>threshold: duration in ms from which a path is slow (1000),</li>
+ *     <li>failures: keep paths where a call threw an exception (true),</li>
+ *     <li>sampling: baseline sample, 0 to disable it (100),</li>
+ *     <li>max-pending-entries: calls buffered while waiting for the decision (4 * pathtracking.max-entries).</li>
+ * </ul>
+ */
+class TraceRetention
+{
+    private static final String PREFIX = Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.retention.";
+
+    static final Role SUMMARY = new Role( "pathtracking", Unit.Time.NANOSECOND );
+
+    private static final Role KEPT_PATHS = new Role( "sirona-pathtracking-kept-paths", Unit.UNARY );
+
+    private static final Role DROPPED_PATHS = new Role( "sirona-pathtracking-dropped-paths", Unit.UNARY );
+
+    static final String TRUNCATED_CLASS = "org.apache.sirona.pathtracking.Retention";
+
+    static final int TRUNCATED = TrackedMethods.intern( TRUNCATED_CLASS, "truncated()" );
+
+    // summary counters by interned method, dropped when the repository is cleared
+    private static volatile SummaryCounters summaries = new SummaryCounters( CounterGeneration.current(), 256 );
+
+    private final long threshold;
+
+    private final boolean failures;
+
+    private final int sampling;
+
+    private final int maxPendingEntries;
+
+    private final AtomicLong paths = new AtomicLong();
+
+    private final AtomicLong kept = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    TraceRetention( final long threshold, final boolean failures, final int sampling, final int maxPendingEntries )
+    {
+        this.threshold = threshold;
+        this.failures = failures;
+        this.sampling = sampling;
+        this.maxPendingEntries = maxPendingEntries;
+    }
+
+    static TraceRetention create( final int maxEntries )
+    {
+        if ( !Configuration.is( PREFIX + "activated", false ) )
+        {
+            return null;
+        }
+
+        final TraceRetention retention = new TraceRetention(
+            TimeUnit.MILLISECONDS.toNanos( Configuration.getInteger( PREFIX + "threshold", 1000 ) ),
+            Configuration.is( PREFIX + "failures", true ), //
+            Configuration.getInteger( PREFIX + "sampling", 100 ), //
+            Configuration.getInteger( PREFIX + "max-pending-entries", 4 * maxEntries ) );
+        retention.registerGauges();
+        return retention;
+    }
+
+    /**
+     * Called when a path starts, the baseline sample doesn't depend on what happens in the path.
+     */
+    boolean sample()
+    {
+        return sampling > 0 && paths.incrementAndGet() % sampling == 0;
+    }
+
+    /**
+     * Can be called before the end of the path (buffer full), a path already known as kept stays kept.
+     *
+     * @param sampled part of the baseline sample
+     * @param failed  a call of the path threw an exception
+     * @param elapsed duration of the path so far (ns)
+     */
+    boolean keep( final boolean sampled, final boolean failed, final long elapsed )
+    {
+        return sampled || ( failures && failed ) || elapsed >= threshold;
+    }
+
+    int getMaxPendingEntries()
+    {
+        return maxPendingEntries;
+    }
+
+    void kept()
+    {
+        kept.incrementAndGet();
+    }
+
+    void dropped()
+    {
+        dropped.incrementAndGet();
+    }
+
+    static void summarize( final int method, final long duration )
+    {
+        final int generation = CounterGeneration.current();
+        SummaryCounters current = summaries;
+        if ( current.generation != generation || method >= current.counters.length )
+        {
+            current = new SummaryCounters( generation, Math.max( current.counters.length, method + 1 ), current );
+            summaries = current;
+        }
+
+        Counter counter = current.counters[method];
+        if ( counter == null ) // concurrent lookups of the same method get the same counter
+        {
+            counter = Repository.INSTANCE.getCounter( new Counter.Key( SUMMARY, TrackedMethods.name( method ) ) );
+            current.counters[method] = counter;
+        }
+        counter.add( duration );
+    }
+
+    private static class SummaryCounters
+    {
+        private final int generation;
+
+        private final Counter[] counters;
+
+        private SummaryCounters( final int generation, final int size )
+        {
+            this.generation = generation;
+            this.counters = new Counter[size];
+        }
+
+        private SummaryCounters( final int generation, final int size, final SummaryCounters previous )
+        {
+            this( generation, size );
+            if ( previous.generation == generation )
+            {
+                System.arraycopy( previous.counters, 0, counters, 0, previous.counters.length );
+            }
+        }
+    }
+
+    private void registerGauges()
+    {
+        SelfMonitoring.addGauge( new Gauge()
+        {
+            @Override
+            public Role role()
+            {
+                return KEPT_PATHS;
+            }
+
+            @Override
+            public double value()
+            {
+                return kept.get();
+            }
+        } );
+        SelfMonitoring.addGauge( new Gauge()
+        {
+            @Override
+            public Role role()
+            {
+                return DROPPED_PATHS;
+            }
+
+            @Override
+            public double value()
+            {
+                return dropped.get();
+            }
+        } );
+    }
+}
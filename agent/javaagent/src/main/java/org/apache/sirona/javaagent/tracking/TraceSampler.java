@@ -0,0 +1,261 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.sirona.javaagent.tracking;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.gauges.Gauge;
+import org.apache.sirona.util.SelfMonitoring;
+
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Head based sampling: decides when the outermost call of a path starts if the path is tracked
+ * and, for a tracked path, skips the calls (and their subtrees) beyond the depth and fan-out limits.
+ * Skipped calls don't touch the path tracking {@link org.apache.sirona.pathtracking.Context}.
+ *
+ * Configured with org.apache.sirona.pathtracking.sampling.* (activated=false, the default, tracks all calls):
+ * <ul>
+ *     <li>probability: probability to track a path (1), can be overriden per entry point with
+ *     probability.&lt;class&gt;.&lt;method&gt;, for instance probability.org.foo.Service.find(java.lang.String)=0.1,</li>
+ *     <li>rate: maximum number of tracked paths per second for this node, 0 for no limit (0),</li>
+ *     <li>max-depth: deepest level tracked, 0 for no limit (0),</li>
+ *     <li>max-children: maximum number of tracked calls directly under a call, 0 for no limit (0).</li>
+ * </ul>
+ */
+class TraceSampler
+{
+    private static final String PREFIX = Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.sampling.";
+
+    private static final String PROBABILITY = PREFIX + "probability";
+
+    private static final Role SKIPPED_PATHS = new Role( "sirona-pathtracking-skipped-paths", Unit.UNARY );
+
+    private final double probability;
+
+    private final Map<String, Double> probabilities; // per entry point, read only
+
+    private final int rate;
+
+    private final int maxDepth;
+
+    private final int maxChildren;
+
+    private final AtomicLong window = new AtomicLong( -1 );
+
+    private final AtomicInteger windowPaths = new AtomicInteger();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    TraceSampler( final double probability, final Map<String, Double> probabilities, final int rate,
+                  final int maxDepth, final int maxChildren )
+    {
+        this.probability = probability;
+        this.probabilities = probabilities;
+        this.rate = rate;
+        this.maxDepth = maxDepth;
+        this.maxChildren = maxChildren;
+    }
+
+    static TraceSampler create()
+    {
+        if ( !Configuration.is( PREFIX + "activated", false ) )
+        {
+            return null;
+        }
+
+        final Map<String, Double> probabilities = new HashMap<String, Double>();
+        final Enumeration<?> names = Configuration.properties().propertyNames(); // stringPropertyNames() is java 6
+        while ( names.hasMoreElements() )
+        {
+            final String key = String.valueOf( names.nextElement() );
+            if ( key.startsWith( PROBABILITY + "." ) )
+            {
+                probabilities.put( key.substring( PROBABILITY.length() + 1 ),
+                                   Double.parseDouble( Configuration.getProperty( key, "1" ) ) );
+            }
+        }
+
+        final TraceSampler sampler =
+            new TraceSampler( Double.parseDouble( Configuration.getProperty( PROBABILITY, "1" ) ), probabilities, //
+                              Configuration.getInteger( PREFIX + "rate", 0 ), //
+                              Configuration.getInteger( PREFIX + "max-depth", 0 ), //
+                              Configuration.getInteger( PREFIX + "max-children", 0 ) );
+        sampler.registerGauge();
+        return sampler;
+    }
+
+    /**
+     * @return <code>true</code> if the path starting with this entry point is tracked
+     */
+    boolean sample( final State state, final String className, final String methodName )
+    {
+        double p = probability;
+        if ( !probabilities.isEmpty() )
+        {
+            final Double override = probabilities.get( className + '.' + methodName );
+            if ( override != null )
+            {
+                p = override;
+            }
+        }
+
+        if ( ( p < 1 && state.nextDouble() >= p ) || !acquire() )
+        {
+            skipped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    // fixed one second windows, the rate is checked after the probability so it limits the tracked paths
+    private boolean acquire()
+    {
+        if ( rate <= 0 )
+        {
+            return true;
+        }
+
+        final long second = System.nanoTime() / 1000000000L;
+        final long current = window.get();
+        if ( current != second && window.compareAndSet( current, second ) )
+        {
+            windowPaths.set( 0 );
+        }
+        return windowPaths.incrementAndGet() <= rate;
+    }
+
+    State newState()
+    {
+        return new State( maxDepth, maxChildren );
+    }
+
+    private void registerGauge()
+    {
+        SelfMonitoring.addGauge( new Gauge()
+        {
+            @Override
+            public Role role()
+            {
+                return SKIPPED_PATHS;
+            }
+
+            @Override
+            public double value()
+            {
+                return skipped.get();
+            }
+        } );
+    }
+
+    /**
+     * Sampling state of a thread: depth of the current call, children already tracked per depth
+     * and depth from which calls are skipped.
+     */
+    static class State
+    {
+        private final int maxDepth;
+
+        private final int maxChildren;
+
+        private int depth = 0;
+
+        private int skipFrom = 0; // 0 when the current call is tracked
+
+        private int[] children = new int[16];
+
+        private long seed = ( System.nanoTime() ^ Thread.currentThread().getId() ) | 1; // never 0
+
+        State( final int maxDepth, final int maxChildren )
+        {
+            this.maxDepth = maxDepth;
+            this.maxChildren = maxChildren;
+        }
+
+        /**
+         * @return the depth of the entered call
+         */
+        int enter()
+        {
+            return ++depth;
+        }
+
+        void exit()
+        {
+            if ( depth == skipFrom )
+            {
+                skipFrom = 0;
+            }
+            depth--;
+        }
+
+        boolean isSkipping()
+        {
+            return skipFrom != 0;
+        }
+
+        /**
+         * Skips the call at the current depth and all the calls it does.
+         */
+        void skip()
+        {
+            skipFrom = depth;
+        }
+
+        /**
+         * @return <code>true</code> if the call at the current depth is within the depth and fan-out limits,
+         * a call of a tracked path must be entered first
+         */
+        boolean track()
+        {
+            if ( depth >= children.length )
+            {
+                final int[] newChildren = new int[children.length * 2];
+                System.arraycopy( children, 0, newChildren, 0, children.length );
+                children = newChildren;
+            }
+
+            if ( depth > 1 )
+            {
+                if ( maxDepth > 0 && depth > maxDepth )
+                {
+                    return false;
+                }
+                if ( maxChildren > 0 && ++children[depth - 1] > maxChildren )
+                {
+                    return false;
+                }
+            }
+            children[depth] = 0;
+            return true;
+        }
+
+        // xorshift, a per thread generator doesn't need to be shared
+        double nextDouble()
+        {
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            return ( seed >>> 11 ) * 0x1.0p-53;
+        }
+    }
+}
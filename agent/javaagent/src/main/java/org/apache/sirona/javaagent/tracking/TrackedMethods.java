@@ -0,0 +1,108 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.sirona.javaagent.tracking;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns tracked methods as ints so {@link PathTrackingBuffer} doesn't keep their names for each call.
+ */
+final class TrackedMethods
+{
+    private static final ConcurrentMap<String, ConcurrentMap<String, Integer>> IDS =
+        new ConcurrentHashMap<String, ConcurrentMap<String, Integer>>();
+
+    private static volatile String[] classNames = new String[256]; // written under IDS lock
+
+    private static volatile String[] methodNames = new String[256];
+
+    private static volatile String[] names = new String[256]; // class.method as in counter keys
+
+    private static int next = 0; // guarded by IDS
+
+    private TrackedMethods()
+    {
+        // no-op
+    }
+
+    static int intern( final String clazz, final String method )
+    {
+        final String className = clazz == null ? "" : clazz;
+        final String methodName = method == null ? "" : method;
+
+        final ConcurrentMap<String, Integer> methods = IDS.get( className );
+        if ( methods != null )
+        {
+            final Integer id = methods.get( methodName );
+            if ( id != null )
+            {
+                return id;
+            }
+        }
+
+        synchronized ( IDS )
+        {
+            ConcurrentMap<String, Integer> byName = IDS.get( className );
+            if ( byName == null )
+            {
+                byName = new ConcurrentHashMap<String, Integer>();
+                IDS.put( className, byName );
+            }
+
+            final Integer racing = byName.get( methodName );
+            if ( racing != null )
+            {
+                return racing;
+            }
+
+            final int id = next++;
+            if ( id == classNames.length )
+            {
+                final String[] newClassNames = new String[id * 2];
+                System.arraycopy( classNames, 0, newClassNames, 0, id );
+                final String[] newMethodNames = new String[id * 2];
+                System.arraycopy( methodNames, 0, newMethodNames, 0, id );
+                final String[] newNames = new String[id * 2];
+                System.arraycopy( names, 0, newNames, 0, id );
+                names = newNames;
+                methodNames = newMethodNames;
+                classNames = newClassNames;
+            }
+            classNames[id] = className;
+            methodNames[id] = methodName;
+            names[id] = className + '.' + methodName;
+            byName.put( methodName, id ); // published after the names
+            return id;
+        }
+    }
+
+    static String className( final int id )
+    {
+        return classNames[id];
+    }
+
+    static String methodName( final int id )
+    {
+        return methodNames[id];
+    }
+
+    static String name( final int id )
+    {
+        return names[id];
+    }
+}
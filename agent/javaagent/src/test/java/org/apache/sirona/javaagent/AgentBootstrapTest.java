@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.javaagent;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.repositories.Repository;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AgentBootstrapTest {
+    private static final Counter.Key FIRST = new Counter.Key(Role.PERFORMANCES, "AgentBootstrapTest.first");
+    private static final Counter.Key SECOND = new Counter.Key(Role.PERFORMANCES, "AgentBootstrapTest.second");
+
+    @After
+    public void ready() { // other tests use the repository directly
+        AgentBootstrap.replay();
+        Repository.INSTANCE.clearCounters();
+    }
+
+    @Test
+    public void bufferedUntilReady() {
+        AgentBootstrap.buffer(2);
+        assertFalse(AgentBootstrap.isReady());
+
+        AgentBootstrap.record(FIRST, 10);
+        AgentBootstrap.record(SECOND, 20);
+        assertEquals(0, Repository.INSTANCE.getCounter(FIRST).getHits());
+        assertEquals(0, Repository.INSTANCE.getCounter(SECOND).getHits());
+        assertEquals(0, AgentBootstrap.getDropped());
+
+        AgentBootstrap.replay();
+        assertTrue(AgentBootstrap.isReady());
+        assertEquals(1, Repository.INSTANCE.getCounter(FIRST).getHits());
+        assertEquals(10, Repository.INSTANCE.getCounter(FIRST).getMax(), 0);
+        assertEquals(1, Repository.INSTANCE.getCounter(SECOND).getHits());
+
+        AgentBootstrap.record(FIRST, 30); // not buffered anymore
+        assertEquals(2, Repository.INSTANCE.getCounter(FIRST).getHits());
+    }
+
+    @Test
+    public void droppedWhenFull() {
+        AgentBootstrap.buffer(1);
+        AgentBootstrap.record(FIRST, 10);
+        AgentBootstrap.record(SECOND, 20);
+        AgentBootstrap.record(SECOND, 30);
+        assertEquals(2, AgentBootstrap.getDropped());
+
+        AgentBootstrap.replay();
+        assertEquals(1, Repository.INSTANCE.getCounter(FIRST).getHits());
+        assertEquals(0, Repository.INSTANCE.getCounter(SECOND).getHits());
+        assertEquals(2, AgentBootstrap.getDropped()); // still reported once ready
+    }
+}
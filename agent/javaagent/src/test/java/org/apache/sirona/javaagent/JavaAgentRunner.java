@@ -46,6 +46,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 // only works with standard runner and surefire
 public class JavaAgentRunner extends BlockJUnit4ClassRunner {
@@ -56,6 +57,7 @@ public class JavaAgentRunner extends BlockJUnit4ClassRunner {
     // internal call to execute a single test
     public static void main(final String[] args) throws Exception {
         final Class<?> testClass = Class.forName(args[0]);
+        AgentBootstrap.awaitReady(1, TimeUnit.MINUTES); // tests check the repository right after their calls
 
         final BlockJUnit4ClassRunner filteredRunner = new BlockJUnit4ClassRunner(testClass) {
             @Override
@@ -51,7 +51,7 @@ public class MockPathTrackingInvocationListener
 
     int endPathCallCount = 0;
 
-    Map<String, AgentContext> contextPerKey = new HashMap<String, AgentContext>();
+    Map<String, Object[]> parametersPerKey = new HashMap<String, Object[]>();
 
 
     @Override
@@ -91,7 +91,8 @@ public class MockPathTrackingInvocationListener
 
     public void before( AgentContext context )
     {
-        contextPerKey.put( context.getKey(), context );
+        // contexts are reused once the call is done so keep what we need
+        parametersPerKey.put( context.getKey(), context.getMethodParameters().clone() );
     }
 
     public void after( AgentContext context, Object result, Throwable error )
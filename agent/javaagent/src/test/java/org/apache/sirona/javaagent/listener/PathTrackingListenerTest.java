@@ -137,10 +137,8 @@ public class PathTrackingListenerTest
 
         mock = findInstance( listeners );
 
-        AgentContext agentContext =
-            mock.contextPerKey.get( "org.apache.test.sirona.javaagent.App.pub(java.lang.String,java.util.List,int)" );
-
-        Object[] parameters = agentContext.getMethodParameters();
+        Object[] parameters =
+            mock.parametersPerKey.get( "org.apache.test.sirona.javaagent.App.pub(java.lang.String,java.util.List,int)" );
 
         // "blabla", Arrays.asList( "Mountain Goat", "Fatyak" ), 2
 
@@ -0,0 +1,74 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.sirona.javaagent.listener;
+
+import org.apache.sirona.configuration.ioc.IoCs;
+import org.apache.sirona.javaagent.AgentArgs;
+import org.apache.sirona.javaagent.JavaAgentRunner;
+import org.apache.sirona.pathtracking.PathTrackingEntry;
+import org.apache.sirona.pathtracking.test.ExtendedInMemoryPathTrackingDataStore;
+import org.apache.sirona.store.DataStoreFactory;
+import org.apache.test.sirona.javaagent.App;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Map;
+import java.util.Set;
+
+@RunWith( JavaAgentRunner.class )
+public class PathTrackingMaxEntriesTest
+{
+    @Test
+    @AgentArgs( value = "",
+        sysProps = "project.build.directory=${project.build.directory}|org.apache.sirona.configuration.sirona.properties=${project.build.directory}/test-classes/pathtracking/sirona.properties|org.apache.sirona.pathtracking.max-entries=3" )
+    public void flush()
+        throws Exception
+    {
+        new App().beer();
+
+        final Set<PathTrackingEntry> entries = entries();
+        Assert.assertEquals( entries.toString(), 4, entries.size() ); // stored in two chunks
+    }
+
+    @Test
+    @AgentArgs( value = "",
+        sysProps = "project.build.directory=${project.build.directory}|org.apache.sirona.configuration.sirona.properties=${project.build.directory}/test-classes/pathtracking/sirona.properties|org.apache.sirona.pathtracking.max-entries=3|org.apache.sirona.pathtracking.max-entries.policy=drop" )
+    public void drop()
+        throws Exception
+    {
+        new App().beer();
+
+        final Set<PathTrackingEntry> entries = entries();
+        Assert.assertEquals( entries.toString(), 3, entries.size() );
+
+        boolean root = false;
+        for ( final PathTrackingEntry entry : entries )
+        {
+            root |= entry.getLevel() == 1 && "beer()".equals( entry.getMethodName() );
+        }
+        Assert.assertTrue( entries.toString(), root );
+    }
+
+    private static Set<PathTrackingEntry> entries()
+    {
+        final Map<String, Set<PathTrackingEntry>> all = ExtendedInMemoryPathTrackingDataStore.class.cast(
+            IoCs.findOrCreateInstance( DataStoreFactory.class ).getPathTrackingDataStore() ).retrieveAll();
+        Assert.assertEquals( 1, all.size() );
+        return all.values().iterator().next();
+    }
+}
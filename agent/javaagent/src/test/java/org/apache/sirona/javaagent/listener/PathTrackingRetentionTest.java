@@ -0,0 +1,87 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.sirona.javaagent.listener;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.configuration.ioc.IoCs;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.javaagent.AgentArgs;
+import org.apache.sirona.javaagent.JavaAgentRunner;
+import org.apache.sirona.pathtracking.PathTrackingEntry;
+import org.apache.sirona.pathtracking.test.ExtendedInMemoryPathTrackingDataStore;
+import org.apache.sirona.repositories.Repository;
+import org.apache.sirona.store.DataStoreFactory;
+import org.apache.test.sirona.javaagent.App;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Map;
+import java.util.Set;
+
+@RunWith( JavaAgentRunner.class )
+public class PathTrackingRetentionTest
+{
+    @Test
+    @AgentArgs( value = "",
+        sysProps = "project.build.directory=${project.build.directory}|org.apache.sirona.configuration.sirona.properties=${project.build.directory}/test-classes/pathtracking/sirona.properties|org.apache.sirona.pathtracking.retention.activated=true|org.apache.sirona.pathtracking.retention.sampling=0" )
+    public void fastPathIsSummarized()
+        throws Exception
+    {
+        new App().beer();
+
+        Assert.assertTrue( paths().toString(), paths().isEmpty() );
+
+        final Counter counter = Repository.INSTANCE.getCounter(
+            new Counter.Key( new Role( "pathtracking", Unit.Time.NANOSECOND ), App.class.getName() + ".beer()" ) );
+        Assert.assertEquals( 1, counter.getHits() );
+    }
+
+    @Test
+    @AgentArgs( value = "",
+        sysProps = "project.build.directory=${project.build.directory}|org.apache.sirona.configuration.sirona.properties=${project.build.directory}/test-classes/pathtracking/sirona.properties|org.apache.sirona.pathtracking.retention.activated=true|org.apache.sirona.pathtracking.retention.sampling=0" )
+    public void failedPathIsKept()
+        throws Exception
+    {
+        try
+        {
+            new App().closed();
+            Assert.fail();
+        }
+        catch ( final IllegalStateException e )
+        {
+            // expected
+        }
+
+        final Map<String, Set<PathTrackingEntry>> paths = paths();
+        Assert.assertEquals( 1, paths.size() );
+
+        boolean root = false;
+        for ( final PathTrackingEntry entry : paths.values().iterator().next() )
+        {
+            root |= entry.getLevel() == 1 && "closed()".equals( entry.getMethodName() );
+        }
+        Assert.assertTrue( paths.toString(), root );
+    }
+
+    private static Map<String, Set<PathTrackingEntry>> paths()
+    {
+        return ExtendedInMemoryPathTrackingDataStore.class.cast(
+            IoCs.findOrCreateInstance( DataStoreFactory.class ).getPathTrackingDataStore() ).retrieveAll();
+    }
+}
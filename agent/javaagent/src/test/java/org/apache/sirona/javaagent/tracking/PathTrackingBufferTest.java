@@ -0,0 +1,103 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.sirona.javaagent.tracking;
+
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.pathtracking.PathTrackingEntry;
+import org.apache.sirona.pathtracking.TrackingId;
+import org.apache.sirona.repositories.Repository;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class PathTrackingBufferTest
+{
+    @Test
+    public void growUntilMaxEntries()
+    {
+        final PathTrackingBuffer buffer = new PathTrackingBuffer( 2, 5 );
+        final int method = TrackedMethods.intern( "org.foo.Bar", "baz()" );
+        for ( int i = 0; i < 4; i++ )
+        {
+            Assert.assertFalse( buffer.isFull() );
+            buffer.add( method, i, 10 * i, i + 2 );
+        }
+        Assert.assertTrue( buffer.isFull() ); // last slot is for the outermost call
+        buffer.add( method, 4, 40, 1 );
+        Assert.assertEquals( 5, buffer.size() );
+
+        final TrackingId id = new TrackingId( 1, 2 );
+        final List<PathTrackingEntry> entries = buffer.flush( id, "node" );
+        Assert.assertEquals( 0, buffer.size() );
+        Assert.assertEquals( 5, entries.size() );
+        for ( int i = 0; i < 5; i++ )
+        {
+            final PathTrackingEntry entry = entries.get( i );
+            Assert.assertEquals( id, entry.getId() );
+            Assert.assertEquals( "node", entry.getNodeId() );
+            Assert.assertEquals( "org.foo.Bar", entry.getClassName() );
+            Assert.assertEquals( "baz()", entry.getMethodName() );
+            Assert.assertEquals( i, entry.getStartTime() );
+            Assert.assertEquals( 10 * i, entry.getExecutionTime() );
+        }
+        Assert.assertEquals( 1, entries.get( 4 ).getLevel() );
+    }
+
+    @Test
+    public void pendingPathIsTruncated()
+    {
+        final PathTrackingBuffer buffer = new PathTrackingBuffer( 2, 3, 6 );
+        final int method = TrackedMethods.intern( "org.foo.Bar", "pending()" );
+        for ( int i = 0; i < 5; i++ ) // buffered beyond max entries while the path is not known as kept
+        {
+            Assert.assertFalse( buffer.isPendingFull() );
+            buffer.add( method, i, 1, 2 );
+        }
+        Assert.assertTrue( buffer.isFull() );
+        Assert.assertTrue( buffer.isPendingFull() );
+
+        buffer.truncate();
+        Assert.assertEquals( 1, buffer.size() );
+        buffer.add( method, 5, 1, 2 );
+        buffer.truncate(); // still a single marker
+        buffer.add( method, 0, 10, 1 );
+
+        final List<PathTrackingEntry> entries = buffer.flush( new TrackingId( 1, 3 ), "node" );
+        Assert.assertEquals( 2, entries.size() );
+        Assert.assertEquals( TraceRetention.TRUNCATED_CLASS, entries.get( 0 ).getClassName() );
+        Assert.assertEquals( "truncated()", entries.get( 0 ).getMethodName() );
+        Assert.assertEquals( 0, entries.get( 0 ).getStartTime() );
+        Assert.assertEquals( 2, entries.get( 0 ).getLevel() );
+        Assert.assertEquals( 6, Repository.INSTANCE.getCounter(
+            new Counter.Key( TraceRetention.SUMMARY, "org.foo.Bar.pending()" ) ).getHits() );
+    }
+
+    @Test
+    public void internedMethods()
+    {
+        final int first = TrackedMethods.intern( "org.foo.Interned", "a()" );
+        Assert.assertEquals( first, TrackedMethods.intern( "org.foo.Interned", "a()" ) );
+        Assert.assertTrue( first != TrackedMethods.intern( "org.foo.Interned", "b()" ) );
+        for ( int i = 0; i < 1000; i++ ) // grow the name arrays
+        {
+            Assert.assertEquals( "m" + i, TrackedMethods.methodName( TrackedMethods.intern( "org.foo.Many", "m" + i ) ) );
+        }
+        Assert.assertEquals( "a()", TrackedMethods.methodName( first ) );
+        Assert.assertEquals( "org.foo.Interned", TrackedMethods.className( first ) );
+    }
+}
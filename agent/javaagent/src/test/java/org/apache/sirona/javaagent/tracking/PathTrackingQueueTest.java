@@ -0,0 +1,203 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.sirona.javaagent.tracking;
+
+import org.apache.sirona.pathtracking.PathTrackingEntry;
+import org.apache.sirona.pathtracking.TrackingId;
+import org.apache.sirona.store.memory.tracking.InMemoryPathTrackingDataStore;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PathTrackingQueueTest
+{
+    @Test
+    public void dropNewest()
+        throws Exception
+    {
+        final BlockingStore store = new BlockingStore();
+        final PathTrackingQueue queue = new PathTrackingQueue( store, 2, PathTrackingQueue.Overflow.DROP_NEWEST, 0, 10 );
+        try
+        {
+            fill( queue, store );
+
+            Assert.assertFalse( queue.offer( path( 3 ) ) );
+            Assert.assertEquals( 2, queue.depth() );
+            Assert.assertEquals( 2, queue.dropped() );
+
+            store.release.countDown();
+            waitForEmptyQueue( queue );
+            Assert.assertEquals( 3, store.entries().size() );
+        }
+        finally
+        {
+            store.release.countDown();
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void dropOldest()
+        throws Exception
+    {
+        final BlockingStore store = new BlockingStore();
+        final PathTrackingQueue queue = new PathTrackingQueue( store, 2, PathTrackingQueue.Overflow.DROP_OLDEST, 0, 10 );
+        try
+        {
+            fill( queue, store );
+
+            Assert.assertTrue( queue.offer( path( 3 ) ) );
+            Assert.assertEquals( 2, queue.depth() );
+            Assert.assertEquals( 2, queue.dropped() ); // path 1
+
+            store.release.countDown();
+            waitForEmptyQueue( queue );
+            Assert.assertNull( store.entries().get( new TrackingId( 0, 1 ).toString() ) );
+            Assert.assertNotNull( store.entries().get( new TrackingId( 0, 3 ).toString() ) );
+        }
+        finally
+        {
+            store.release.countDown();
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void blockWithTimeout()
+        throws Exception
+    {
+        final BlockingStore store = new BlockingStore();
+        final PathTrackingQueue queue = new PathTrackingQueue( store, 2, PathTrackingQueue.Overflow.BLOCK, 50, 10 );
+        try
+        {
+            fill( queue, store );
+
+            final long start = System.nanoTime();
+            Assert.assertFalse( queue.offer( path( 3 ) ) );
+            Assert.assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 50 ) );
+            Assert.assertEquals( 2, queue.dropped() );
+        }
+        finally
+        {
+            store.release.countDown();
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentProducers()
+        throws Exception
+    {
+        final BlockingStore store = new BlockingStore();
+        store.release.countDown();
+        final PathTrackingQueue queue = new PathTrackingQueue( store, 64, PathTrackingQueue.Overflow.BLOCK, 60000, 10 );
+        try
+        {
+            final Thread[] producers = new Thread[4];
+            for ( int t = 0; t < producers.length; t++ )
+            {
+                final int offset = t * 1000;
+                producers[t] = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for ( int i = 0; i < 1000; i++ )
+                        {
+                            queue.offer( path( offset + i ) );
+                        }
+                    }
+                };
+                producers[t].start();
+            }
+            for ( final Thread producer : producers )
+            {
+                producer.join();
+            }
+
+            waitForEmptyQueue( queue );
+            Assert.assertEquals( 0, queue.dropped() );
+            Assert.assertEquals( 4000, store.entries().size() );
+        }
+        finally
+        {
+            queue.shutdown();
+        }
+    }
+
+    // the drainer is blocked in the store with path 0, paths 1 and 2 are queued
+    private static void fill( final PathTrackingQueue queue, final BlockingStore store )
+        throws Exception
+    {
+        Assert.assertTrue( queue.offer( path( 0 ) ) );
+        Assert.assertTrue( store.storing.await( 1, TimeUnit.MINUTES ) );
+        Assert.assertTrue( queue.offer( path( 1 ) ) );
+        Assert.assertTrue( queue.offer( path( 2 ) ) );
+    }
+
+    private static void waitForEmptyQueue( final PathTrackingQueue queue )
+        throws Exception
+    {
+        for ( int i = 0; i < 600 && queue.depth() > 0; i++ )
+        {
+            Thread.sleep( 100 );
+        }
+        Thread.sleep( 100 ); // last batch
+    }
+
+    private static List<PathTrackingEntry> path( final int id )
+    {
+        final TrackingId trackingId = new TrackingId( 0, id );
+        return Arrays.asList( new PathTrackingEntry( trackingId, "node", "org.foo.Bar", "baz()", 0, 1, 2 ),
+                              new PathTrackingEntry( trackingId, "node", "org.foo.Bar", "root()", 0, 2, 1 ) );
+    }
+
+    private static class BlockingStore
+        extends InMemoryPathTrackingDataStore
+    {
+        private final CountDownLatch storing = new CountDownLatch( 1 );
+
+        private final CountDownLatch release = new CountDownLatch( 1 );
+
+        @Override
+        public void store( final Collection<PathTrackingEntry> pathTrackingEntries )
+        {
+            storing.countDown();
+            try
+            {
+                release.await( 1, TimeUnit.MINUTES );
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            super.store( pathTrackingEntries );
+        }
+
+        Map<String, Set<PathTrackingEntry>> entries()
+        {
+            return getPathTrackingEntries();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.sirona.javaagent.tracking;
+
+import org.apache.sirona.configuration.Configuration;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+public class TraceSamplerTest
+{
+    @Test
+    public void probabilityPerEntryPoint()
+    {
+        final Map<String, Double> probabilities = Collections.singletonMap( "org.foo.Bar.never()", 0. );
+        final TraceSampler sampler = new TraceSampler( 1, probabilities, 0, 0, 0 );
+        final TraceSampler.State state = sampler.newState();
+        for ( int i = 0; i < 100; i++ )
+        {
+            Assert.assertTrue( sampler.sample( state, "org.foo.Bar", "always()" ) );
+            Assert.assertFalse( sampler.sample( state, "org.foo.Bar", "never()" ) );
+        }
+    }
+
+    @Test
+    public void configuredProbabilities()
+    {
+        final String prefix = "org.apache.sirona.pathtracking.sampling.";
+        final Properties properties = Configuration.properties();
+        properties.setProperty( prefix + "activated", "true" );
+        properties.setProperty( prefix + "probability.org.foo.Bar.never()", "0" );
+        try
+        {
+            final TraceSampler sampler = TraceSampler.create();
+            final TraceSampler.State state = sampler.newState();
+            Assert.assertTrue( sampler.sample( state, "org.foo.Bar", "always()" ) );
+            Assert.assertFalse( sampler.sample( state, "org.foo.Bar", "never()" ) );
+        }
+        finally
+        {
+            properties.remove( prefix + "activated" );
+            properties.remove( prefix + "probability.org.foo.Bar.never()" );
+        }
+    }
+
+    @Test
+    public void rate()
+    {
+        final TraceSampler sampler = new TraceSampler( 1, Collections.<String, Double>emptyMap(), 5, 0, 0 );
+        final TraceSampler.State state = sampler.newState();
+        int sampled = 0;
+        for ( int i = 0; i < 100; i++ )
+        {
+            if ( sampler.sample( state, "org.foo.Bar", "baz()" ) )
+            {
+                sampled++;
+            }
+        }
+        Assert.assertTrue( String.valueOf( sampled ), sampled >= 5 && sampled <= 10 ); // can span two windows
+    }
+
+    @Test
+    public void depthAndChildren()
+    {
+        final TraceSampler.State state = new TraceSampler( 1, Collections.<String, Double>emptyMap(), 0, 3, 2 ).newState();
+
+        Assert.assertTrue( enter( state ) ); // root
+        Assert.assertTrue( enter( state ) ); // first child
+        Assert.assertTrue( enter( state ) ); // depth 3
+        Assert.assertFalse( enter( state ) ); // depth 4
+        Assert.assertFalse( enter( state ) ); // under a skipped call
+        state.exit();
+        state.exit();
+        Assert.assertFalse( state.isSkipping() );
+        state.exit();
+        state.exit();
+
+        Assert.assertTrue( enter( state ) ); // second child
+        state.exit();
+        Assert.assertFalse( enter( state ) ); // third child
+        state.exit();
+        Assert.assertFalse( state.isSkipping() );
+        state.exit();
+
+        Assert.assertTrue( enter( state ) ); // next path, children are reset
+        Assert.assertTrue( enter( state ) );
+    }
+
+    private static boolean enter( final TraceSampler.State state )
+    {
+        state.enter();
+        if ( !state.isSkipping() && !state.track() )
+        {
+            state.skip();
+        }
+        return !state.isSkipping();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.test.sirona.javaagent;
+
+import org.apache.sirona.javaagent.AgentContext;
+import org.apache.sirona.javaagent.InvocationSite;
+import org.apache.sirona.repositories.Repository;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class AgentContextAllocationTest {
+    private static final int CALLS = 100000;
+
+    @Test
+    public void steadyStateDoesntAllocate() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(com.sun.management.ThreadMXBean.class.isInstance(threads));
+        final com.sun.management.ThreadMXBean bean = com.sun.management.ThreadMXBean.class.cast(threads);
+        assumeTrue(bean.isThreadAllocatedMemorySupported());
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        final String outerKey = "allocation.outer()";
+        final String innerKey = "allocation.inner()";
+        final int outer = InvocationSite.register(outerKey, AgentContext.listeners(outerKey, new byte[0]));
+        final int inner = InvocationSite.register(innerKey, AgentContext.listeners(innerKey, new byte[0]));
+
+        calls(outer, inner); // warm up: frames, counters, JIT
+
+        final long id = Thread.currentThread().getId();
+        final long noise = bean.getThreadAllocatedBytes(id) - bean.getThreadAllocatedBytes(id);
+        final long start = bean.getThreadAllocatedBytes(id);
+        calls(outer, inner);
+        final long allocated = bean.getThreadAllocatedBytes(id) - start + noise;
+
+        // any object is at least 16 bytes so less than a byte per call means calls don't allocate (the rest is JIT noise)
+        assertTrue(allocated + " bytes allocated for " + CALLS + " calls", allocated < CALLS);
+        assertEquals(2L * CALLS, Repository.INSTANCE.getCounter(AgentContext.key(outerKey)).getHits());
+        assertEquals(2L * CALLS, Repository.INSTANCE.getCounter(AgentContext.key(innerKey)).getHits());
+    }
+
+    private static void calls(final int outer, final int inner) {
+        for (int i = 0; i < CALLS; i++) { // nested to use several frames
+            final AgentContext outerContext = AgentContext.startOn(null, outer, null);
+            final AgentContext innerContext = AgentContext.startOn(null, inner, null);
+            innerContext.stop(null);
+            outerContext.stop(null);
+        }
+    }
+}
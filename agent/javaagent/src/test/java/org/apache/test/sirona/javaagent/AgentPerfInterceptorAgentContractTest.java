@@ -19,6 +19,7 @@ package org.apache.test.sirona.javaagent;
 import org.apache.sirona.Role;
 import org.apache.sirona.counters.Counter;
 import org.apache.sirona.javaagent.AgentContext;
+import org.apache.sirona.javaagent.InvocationSite;
 import org.apache.sirona.repositories.Repository;
 import org.junit.Test;
 
@@ -53,4 +54,22 @@ public class AgentPerfInterceptorAgentContractTest {
         assertEquals(key, context.getKey());
         assertEquals(1, Repository.INSTANCE.getCounter(AgentContext.key(key)).getHits());
     }
+
+    @Test
+    public void site() {
+        final String key = "site";
+        final int site = InvocationSite.register(key, AgentContext.listeners(key, new byte[0]));
+        assertEquals(site, InvocationSite.register(key, AgentContext.listeners(key, null)));
+
+        final AgentContext context = AgentContext.startOn(null, site, null);
+        context.stop(null);
+        assertEquals(key, context.getKey());
+        assertEquals(1, Repository.INSTANCE.getCounter(AgentContext.key(key)).getHits());
+
+        // the cached counter is dropped with the counters
+        Repository.INSTANCE.clearCounters();
+        AgentContext.startOn(null, site, null).stop(null);
+        AgentContext.startOn(null, site, null).stop(null);
+        assertEquals(2, Repository.INSTANCE.getCounter(AgentContext.key(key)).getHits());
+    }
 }
@@ -40,6 +40,13 @@ public class App
         this.pub( "blabla", Arrays.asList( "Mountain Goat", "Fatyak" ), 2 );
     }
 
+    public void closed()
+        throws Exception
+    {
+        this.foo();
+        throw new IllegalStateException( "closed" );
+    }
+
     public void pub( String foo, List<String> beers, int i )
         throws Exception
     {
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.test.sirona.javaagent;
+
+import org.apache.sirona.javaagent.AgentContext;
+import org.apache.sirona.javaagent.InvocationSite;
+import org.apache.sirona.repositories.Repository;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+// per call overhead of the instrumentation entry points, run it manually (not a *Test so surefire ignores it)
+public class InvocationSiteBench {
+    private static final int WARMUP = 2000000;
+    private static final int LOOPS = 10000000;
+
+    @Test
+    public void compare() {
+        final String byKey = "bench.byKey()";
+        final String bySite = "bench.bySite()";
+        AgentContext.listeners(byKey, new byte[0]);
+        final int site = InvocationSite.register(bySite, AgentContext.listeners(bySite, new byte[0]));
+
+        for (int round = 0; round < 3; round++) {
+            run("string key", byKey, -1);
+            run("site id", bySite, site);
+        }
+
+        assertEquals(3L * (WARMUP + LOOPS), Repository.INSTANCE.getCounter(AgentContext.key(byKey)).getHits());
+        assertEquals(3L * (WARMUP + LOOPS), Repository.INSTANCE.getCounter(AgentContext.key(bySite)).getHits());
+    }
+
+    private static void run(final String name, final String key, final int site) {
+        loop(key, site, WARMUP);
+
+        final long start = System.nanoTime();
+        loop(key, site, LOOPS);
+        final long duration = System.nanoTime() - start;
+
+        System.out.printf("%s : %,d ns/call%n", name, duration / LOOPS);
+    }
+
+    private static void loop(final String key, final int site, final int iterations) {
+        if (site < 0) {
+            for (int i = 0; i < iterations; i++) {
+                AgentContext.startOn(null, key, null).stop(null);
+            }
+        } else {
+            for (int i = 0; i < iterations; i++) {
+                AgentContext.startOn(null, site, null).stop(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.test.sirona.javaagent;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.javaagent.AgentArgs;
+import org.apache.sirona.javaagent.JavaAgentRunner;
+import org.apache.sirona.javaagent.RuntimeInstrumentation;
+import org.apache.sirona.repositories.Repository;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.RuntimeMBeanException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(JavaAgentRunner.class)
+public class RuntimeInstrumentationTest {
+    private static final String HOT = "org.apache.test.sirona.javaagent.RuntimeInstrumentationTest$Hot.work()";
+    private static final String COLD = "org.apache.test.sirona.javaagent.RuntimeInstrumentationTest$Cold.work()";
+    private static final String[] SIGNATURE = new String[]{String.class.getName(), String.class.getName()};
+
+    @Test
+    @AgentArgs("")
+    public void removeThenRestore() throws Exception {
+        new Hot().work();
+        assertHits(HOT, 1);
+
+        assertEquals(1, update(null, "prefix:" + Hot.class.getName() + "."));
+        new Hot().work();
+        assertHits(HOT, 1); // original bytecode again
+
+        assertEquals(1, server().invoke(new ObjectName(RuntimeInstrumentation.OBJECT_NAME), "reset", new Object[0], new String[0]));
+        new Hot().work();
+        assertHits(HOT, 2);
+    }
+
+    @Test
+    @AgentArgs(value = "", sysProps = "org.apache.sirona.javaagent.instrumentation.excludes=prefix:org.apache.test.sirona.javaagent.RuntimeInstrumentationTest$Cold.")
+    public void add() throws Exception {
+        new Cold().work();
+        assertHits(COLD, 0);
+
+        assertEquals(0, update("true:true", null)); // excludes are kept
+        assertEquals(0, update(null, null));
+        new Cold().work();
+        assertHits(COLD, 0);
+
+        assertEquals(1, update(null, ""));
+        new Cold().work();
+        assertHits(COLD, 1);
+    }
+
+    @Test
+    @AgentArgs("")
+    public void invalidRulesAreIgnored() throws Exception {
+        try {
+            update("missing-prefix", null);
+            fail();
+        } catch (final RuntimeMBeanException e) {
+            assertTrue(IllegalArgumentException.class.isInstance(e.getCause()));
+        }
+        assertEquals("true:true", server().getAttribute(new ObjectName(RuntimeInstrumentation.OBJECT_NAME), "Includes"));
+
+        new Hot().work();
+        assertHits(HOT, 1);
+    }
+
+    private static int update(final String includes, final String excludes) throws Exception {
+        return Integer.class.cast(server().invoke(
+                new ObjectName(RuntimeInstrumentation.OBJECT_NAME), "update", new Object[]{includes, excludes}, SIGNATURE));
+    }
+
+    private static MBeanServer server() {
+        return ManagementFactory.getPlatformMBeanServer();
+    }
+
+    private static void assertHits(final String name, final int expected) {
+        assertEquals(expected, Repository.INSTANCE.getCounter(new Counter.Key(Role.PERFORMANCES, name)).getHits());
+    }
+
+    public static class Hot {
+        public int work() {
+            return 1;
+        }
+    }
+
+    public static class Cold {
+        public int work() {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.test.sirona.javaagent;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.javaagent.AgentArgs;
+import org.apache.sirona.javaagent.JavaAgentRunner;
+import org.apache.sirona.repositories.Repository;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JavaAgentRunner.class)
+public class SelfMonitoringTest {
+    @Test
+    @AgentArgs(value = "", sysProps = "org.apache.sirona.self-monitoring.activated=true")
+    public void activated() {
+        for (int i = 0; i < 128; i++) {
+            new Monitored().work();
+        }
+
+        for (final String gauge : new String[]{
+                "sirona-transform-time", "sirona-transform-max-time", "sirona-transformed-classes",
+                "sirona-woven-classes", "sirona-instrumented-methods", "sirona-allocated-bytes"}) {
+            assertNotNull(gauge, Repository.INSTANCE.findGaugeRole(gauge));
+        }
+        assertTrue(Repository.INSTANCE.getCounter(new Counter.Key(Role.SIRONA, "listener-dispatch")).getHits() > 0);
+    }
+
+    @Test
+    @AgentArgs("")
+    public void deactivatedByDefault() {
+        new Monitored().work();
+        assertNull(Repository.INSTANCE.findGaugeRole("sirona-transform-time"));
+    }
+
+    public static class Monitored {
+        public int work() {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.test.sirona.javaagent;
+
+import org.apache.sirona.javaagent.AgentContext;
+import org.apache.sirona.javaagent.SironaTransformer;
+import org.apache.sirona.repositories.Repository;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SironaTransformerTest {
+    @Test
+    public void nonCandidateIsUntouched() throws Exception {
+        final byte[] bytes = bytes(ArrayList.class); // excluded by the jvm container
+        assertSame(bytes, new SironaTransformer(false, false, null).transform(null, "java/util/ArrayList", null, null, bytes));
+    }
+
+    @Test
+    public void patchedFramesAreValid() throws Exception {
+        final String name = Branches.class.getName();
+        final byte[] bytes = java7(bytes(Branches.class));
+        final byte[] transformed = new SironaTransformer(false, false, null).transform(null, name.replace('.', '/'), null, null, bytes);
+        assertFalse(bytes == transformed);
+
+        // the verifier checks the frames when the class is linked
+        final Class<?> clazz = new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(final String className, final boolean resolve) throws ClassNotFoundException {
+                if (name.equals(className)) {
+                    synchronized (this) {
+                        Class<?> loaded = findLoadedClass(className);
+                        if (loaded == null) {
+                            loaded = defineClass(className, transformed, 0, transformed.length);
+                        }
+                        return loaded;
+                    }
+                }
+                return super.loadClass(className, resolve);
+            }
+        }.loadClass(name);
+        final Object instance = clazz.newInstance();
+
+        assertEquals(6L, clazz.getMethod("sum", int[].class).invoke(instance, new int[]{1, 2, 3}));
+        assertEquals("odd", clazz.getMethod("parity", int.class).invoke(null, 3));
+        assertEquals(-1, clazz.getMethod("parse", String.class).invoke(instance, "nan"));
+        assertArrayEquals(new double[]{2.}, (double[]) clazz.getMethod("half", double[].class).invoke(instance, new double[]{4.}), 0.);
+        final Method fail = clazz.getMethod("fail");
+        try {
+            fail.invoke(instance);
+            fail();
+        } catch (final InvocationTargetException ite) {
+            assertTrue(IllegalStateException.class.isInstance(ite.getCause()));
+        }
+
+        assertEquals(1, Repository.INSTANCE.getCounter(AgentContext.key(name + ".sum(int[])")).getHits());
+        assertEquals(1, Repository.INSTANCE.getCounter(AgentContext.key(name + ".parity(int)")).getHits());
+        assertEquals(1, Repository.INSTANCE.getCounter(AgentContext.key(name + ".parse(java.lang.String)")).getHits());
+        assertEquals(1, Repository.INSTANCE.getCounter(AgentContext.key(name + ".fail()")).getHits());
+    }
+
+    // tests are compiled without frames, java 7 classes need them and don't fall back on the old verifier when they are wrong
+    private static byte[] java7(final byte[] bytes) {
+        final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM5, writer) {
+            @Override
+            public void visit(final int version, final int access, final String name, final String signature,
+                              final String superName, final String[] interfaces) {
+                super.visit(Opcodes.V1_7, access, name, signature, superName, interfaces);
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+
+    private static byte[] bytes(final Class<?> clazz) throws IOException {
+        final InputStream is = ClassLoader.getSystemResourceAsStream(clazz.getName().replace('.', '/') + ".class");
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    // loops, branches, exception handlers and wide values: the rewritten class needs frames everywhere
+    public static class Branches {
+        public long sum(final int[] values) {
+            long sum = 0;
+            for (final int value : values) {
+                if (value > 0) {
+                    sum += value;
+                } else {
+                    continue;
+                }
+            }
+            return sum;
+        }
+
+        public static String parity(final int value) {
+            if (value % 2 == 0) {
+                return "even";
+            }
+            return "odd";
+        }
+
+        public int parse(final String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (final NumberFormatException nfe) {
+                return -1;
+            }
+        }
+
+        public double[] half(final double[] values) {
+            final double[] result = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = values[i] / 2;
+            }
+            return result;
+        }
+
+        public void fail() {
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.test.sirona.javaagent;
+
+import org.apache.sirona.javaagent.AgentArgs;
+import org.apache.sirona.javaagent.JavaAgentRunner;
+import org.apache.sirona.javaagent.listener.ConfigurableListener;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import static org.junit.Assert.assertTrue;
+
+// loads the test classpath (openejb, openjpa, activemq...) with the agent attached,
+// run it manually (not a *Test so surefire ignores it)
+@RunWith(JavaAgentRunner.class)
+public class StartupBench {
+    private static final int MATCH_LOOPS = 20;
+
+    @Test
+    @AgentArgs("")
+    public void loadClasspath() throws IOException {
+        final List<String> names = classNames();
+        assertTrue(names.size() > 1000);
+
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        final long start = System.nanoTime();
+        int loaded = 0;
+        for (final String name : names) {
+            try {
+                Class.forName(name, false, loader);
+                loaded++;
+            } catch (final Throwable ignored) { // missing optional dependencies
+                // no-op
+            }
+        }
+        final long duration = System.nanoTime() - start;
+        System.out.printf("loaded %,d/%,d classes in %,d ms%n", loaded, names.size(), duration / 1000000);
+
+        // the part of the transformation done by the default excludes for each method of the classes
+        final List<String> keys = new ArrayList<String>(names.size());
+        for (final String name : names) {
+            keys.add(name + ".run()");
+        }
+        int matches = 0;
+        final long matchStart = System.nanoTime();
+        for (int i = 0; i < MATCH_LOOPS; i++) {
+            for (final String key : keys) {
+                if (ConfigurableListener.DEFAULT_EXCLUDES.matches(key)) {
+                    matches++;
+                }
+            }
+        }
+        final long matchDuration = System.nanoTime() - matchStart;
+        System.out.printf("default excludes: %,d ns/key (%,d excluded)%n", matchDuration / (MATCH_LOOPS * keys.size()), matches / MATCH_LOOPS);
+    }
+
+    private static List<String> classNames() throws IOException {
+        final List<String> names = new ArrayList<String>();
+        for (final String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (!path.endsWith(".jar")) {
+                continue;
+            }
+
+            final JarFile jar = new JarFile(path);
+            try {
+                final Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    final String entry = entries.nextElement().getName();
+                    if (entry.endsWith(".class") && !entry.contains("-")) { // skip module-info, package-info...
+                        names.add(entry.substring(0, entry.length() - ".class".length()).replace('/', '.'));
+                    }
+                }
+            } finally {
+                jar.close();
+            }
+        }
+        return names;
+    }
+}
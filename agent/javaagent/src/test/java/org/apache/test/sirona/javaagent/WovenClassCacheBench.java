@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.test.sirona.javaagent;
+
+import org.apache.sirona.javaagent.SironaTransformer;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.IllegalClassFormatException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import static org.junit.Assert.assertTrue;
+
+// transforms the classes of the test classpath without cache, filling the cache and reading it,
+// run it manually (not a *Test so surefire ignores it)
+public class WovenClassCacheBench {
+    @Test
+    public void transformClasspath() throws Exception {
+        final List<String> names = new ArrayList<String>();
+        final List<byte[]> classes = new ArrayList<byte[]>();
+        read(names, classes);
+        assertTrue(classes.size() > 1000);
+
+        final File cache = new File("target/woven-class-cache-bench/" + System.nanoTime());
+        run("no cache", new SironaTransformer(false, true, null), names, classes);
+        run("cold cache", new SironaTransformer(false, true, null, cache.getAbsolutePath()), names, classes);
+        run("warm cache", new SironaTransformer(false, true, null, cache.getAbsolutePath()), names, classes);
+    }
+
+    private static void run(final String name, final SironaTransformer transformer,
+                            final List<String> names, final List<byte[]> classes) throws IllegalClassFormatException {
+        int woven = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < classes.size(); i++) {
+            final byte[] bytes = classes.get(i);
+            if (transformer.transform(null, names.get(i), null, null, bytes) != bytes) {
+                woven++;
+            }
+        }
+        final long duration = System.nanoTime() - start;
+        System.out.printf("%s: %,d ms for %,d classes (%,d woven)%n", name, duration / 1000000, classes.size(), woven);
+    }
+
+    private static void read(final List<String> names, final List<byte[]> classes) throws IOException {
+        for (final String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (!path.endsWith(".jar")) {
+                continue;
+            }
+
+            final JarFile jar = new JarFile(path);
+            try {
+                final Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    final JarEntry entry = entries.nextElement();
+                    if (!entry.getName().endsWith(".class") || entry.getName().contains("-")) {
+                        continue;
+                    }
+
+                    final InputStream is = jar.getInputStream(entry);
+                    try {
+                        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        final byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = is.read(buffer)) >= 0) {
+                            out.write(buffer, 0, read);
+                        }
+                        names.add(entry.getName().substring(0, entry.getName().length() - ".class".length()));
+                        classes.add(out.toByteArray());
+                    } finally {
+                        is.close();
+                    }
+                }
+            } finally {
+                jar.close();
+            }
+        }
+    }
+}
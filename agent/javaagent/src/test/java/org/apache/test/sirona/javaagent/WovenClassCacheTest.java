@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.test.sirona.javaagent;
+
+import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.javaagent.AgentContext;
+import org.apache.sirona.javaagent.InvocationSite;
+import org.apache.sirona.javaagent.SironaTransformer;
+import org.apache.sirona.javaagent.WovenClassCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WovenClassCacheTest {
+    private File root;
+
+    @Before
+    public void clean() {
+        root = new File("target/woven-class-cache/" + System.nanoTime());
+    }
+
+    @Test
+    public void hitAfterRestart() throws Exception {
+        final byte[] original = bytes(Cached.class);
+        final byte[] woven = transformer().transform(null, Cached.class.getName().replace('.', '/'), null, null, original);
+        assertFalse(Arrays.equals(original, woven));
+
+        final WovenClassCache restarted = new WovenClassCache(root);
+        assertArrayEquals(woven, restarted.find(original));
+        assertTrue(new File(restarted.getDirectory(), "sites").length() > 0);
+    }
+
+    @Test
+    public void changedClassIsAMiss() throws Exception {
+        final byte[] original = bytes(Cached.class);
+        transformer().transform(null, Cached.class.getName().replace('.', '/'), null, null, original);
+
+        final byte[] changed = original.clone();
+        changed[changed.length - 1]++;
+        assertNull(new WovenClassCache(root).find(changed));
+        assertNotNull(new WovenClassCache(root).find(original));
+    }
+
+    @Test
+    public void changedConfigurationIsAMiss() throws Exception {
+        final byte[] original = bytes(Cached.class);
+        transformer().transform(null, Cached.class.getName().replace('.', '/'), null, null, original);
+        assertNotNull(new WovenClassCache(root).find(original));
+
+        final String key = Configuration.CONFIG_PROPERTY_PREFIX + "javaagent.cache.test";
+        Configuration.properties().setProperty(key, "changed");
+        try {
+            assertNull(new WovenClassCache(root).find(original));
+        } finally {
+            Configuration.properties().remove(key);
+        }
+
+        AgentContext.addAgentParameter("cache.test", "changed");
+        try {
+            assertNull(new WovenClassCache(root).find(original));
+        } finally {
+            AgentContext.getAgentParameters().remove("cache.test");
+        }
+
+        assertNotNull(new WovenClassCache(root).find(original));
+    }
+
+    @Test
+    public void conflictingSiteIsAMiss() {
+        final String used = "cache.used()";
+        final int id = InvocationSite.register(used, AgentContext.listeners(used, new byte[0]));
+
+        // the woven class of a previous run uses an id already taken by another method in this run
+        final String other = "cache.other()";
+        assertFalse(InvocationSite.register(other, AgentContext.listeners(other, new byte[0]), id));
+        assertTrue(InvocationSite.register(used, AgentContext.listeners(used, new byte[0]), id));
+
+        // a reserved id is kept for its method
+        final String reserved = "cache.reserved()";
+        InvocationSite.reserve(reserved, id + 1000);
+        assertFalse(InvocationSite.register(reserved, AgentContext.listeners(reserved, new byte[0]), id + 1001));
+        assertEquals(id + 1000, InvocationSite.register(reserved, AgentContext.listeners(reserved, new byte[0])));
+        assertTrue(InvocationSite.register(reserved, AgentContext.listeners(reserved, new byte[0]), id + 1000));
+    }
+
+    @Test
+    public void corruptedFilesAreMisses() throws Exception {
+        final byte[] original = bytes(Cached.class);
+        final byte[] woven = transformer().transform(null, Cached.class.getName().replace('.', '/'), null, null, original);
+        final WovenClassCache cache = new WovenClassCache(root);
+
+        // crash while appending a site: the partial record is dropped
+        final File sites = new File(cache.getDirectory(), "sites");
+        final long length = sites.length();
+        final FileOutputStream out = new FileOutputStream(sites, true);
+        try {
+            out.write(new byte[]{0, 0, 1});
+        } finally {
+            out.close();
+        }
+        assertArrayEquals(woven, new WovenClassCache(root).find(original));
+        assertEquals(length, sites.length());
+
+        // truncated entry
+        final File[] buckets = cache.getDirectory().listFiles();
+        for (final File bucket : buckets) {
+            if (bucket.isDirectory()) {
+                for (final File entry : bucket.listFiles()) {
+                    final RandomAccessFile raf = new RandomAccessFile(entry, "rw");
+                    try {
+                        raf.setLength(raf.length() - 1);
+                    } finally {
+                        raf.close();
+                    }
+                }
+            }
+        }
+        assertNull(new WovenClassCache(root).find(original));
+    }
+
+    private SironaTransformer transformer() {
+        return new SironaTransformer(false, false, null, root.getAbsolutePath());
+    }
+
+    private static byte[] bytes(final Class<?> clazz) throws IOException {
+        final InputStream is = ClassLoader.getSystemResourceAsStream(clazz.getName().replace('.', '/') + ".class");
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    public static class Cached {
+        public String hello(final String name) {
+            return "hello " + name;
+        }
+    }
+}
@@ -24,6 +24,8 @@ import org.apache.sirona.counters.Counter;
 import org.apache.sirona.repositories.Repository;
 import org.apache.sirona.stopwatches.StopWatch;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.Locale;
@@ -31,6 +33,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * A method interceptor that compute method invocation performances.
@@ -44,7 +47,7 @@ public abstract class AbstractPerformanceInterceptor<T> implements Serializable
     private static final boolean ADAPTIVE = Configuration.is(Configuration.CONFIG_PROPERTY_PREFIX + "performance.adaptive", false);
     private static final long FORCED_ITERATION = Configuration.getInteger(Configuration.CONFIG_PROPERTY_PREFIX + "performance.forced-iteration", 0);
     private static final long THRESHOLD = duration(Configuration.getProperty(Configuration.CONFIG_PROPERTY_PREFIX + "performance.threshold", null));
-    private static final ActivationContext ALWAYS_ACTIVE_CONTEXT = new ActivationContext(true, 0, 0);
+    private static final ActivationContext ALWAYS_ACTIVE_CONTEXT = new ActivationContext(true, 0, 0).governedBy(null); // shared
 
     protected static final ConcurrentMap<Object, ActivationContext> CONTEXTS = new ConcurrentHashMap<Object, ActivationContext>();
 
@@ -161,11 +164,19 @@ public abstract class AbstractPerformanceInterceptor<T> implements Serializable
             } else {
                 counterName = m.toString();
             }
-            return putAndGetActivationContext(m, new ActivationContext(true, counterName));
+            return putAndGetActivationContext(m, newActivationContext(counterName));
         }
         return c;
     }
 
+    protected ActivationContext newActivationContext(final String counterName) {
+        if (isAdaptive()) {
+            return new ActivationContext(true, counterName);
+        }
+        // only there for the governor, behaves as the shared context otherwise
+        return new ActivationContext(counterName, true, 0, 0);
+    }
+
     protected ActivationContext putAndGetActivationContext(Object m, ActivationContext newCtx) {
         final ActivationContext old = CONTEXTS.putIfAbsent(m, newCtx);
         if (old != null) {
@@ -175,16 +186,20 @@ public abstract class AbstractPerformanceInterceptor<T> implements Serializable
     }
 
     protected ActivationContext doFindContext(final T invocation) {
-        if (!isAdaptive()) {
+        if (!isAdaptive() && OverheadGovernor.INSTANCE == null) {
             return ALWAYS_ACTIVE_CONTEXT;
         }
+        return findContext(extractContextKey(invocation));
+    }
 
-        final Object m = extractContextKey(invocation);
-        if (m != null) {
-            return getOrCreateContext(m);
+    /**
+     * Same as {@link #doFindContext(Object)} when the context key is already known (cached by the caller).
+     */
+    protected ActivationContext findContext(final Object contextKey) {
+        if (contextKey == null || (!isAdaptive() && OverheadGovernor.INSTANCE == null)) {
+            return ALWAYS_ACTIVE_CONTEXT;
         }
-
-        return ALWAYS_ACTIVE_CONTEXT;
+        return getOrCreateContext(contextKey);
     }
 
     protected Role getRole() {
@@ -314,6 +329,11 @@ public abstract class AbstractPerformanceInterceptor<T> implements Serializable
      * This class contains the activation/deactivation logic.
      */
     protected static class ActivationContext implements Serializable {
+        // mode changes are counted by the governor, only the thread which applies a change reports it
+        private static final AtomicReferenceFieldUpdater<ActivationContext, OverheadGovernor.Mode> MODE =
+            AtomicReferenceFieldUpdater.newUpdater(ActivationContext.class, OverheadGovernor.Mode.class, "mode");
+
+        protected final String name;
         protected final long forceIteration;
         protected final long threshold;
         protected final boolean thresholdActive;
@@ -321,7 +341,22 @@ public abstract class AbstractPerformanceInterceptor<T> implements Serializable
         protected volatile boolean active = true;
         protected volatile AtomicInteger iteration = new AtomicInteger(0);
 
+        // see OverheadGovernor, statistics are updated without synchronization since an estimation is enough.
+        // The mode depends on the measurement cost of the JVM so it is not serialized, see readObject
+        protected transient OverheadGovernor governor = OverheadGovernor.INSTANCE;
+        protected transient volatile OverheadGovernor.Mode mode = OverheadGovernor.Mode.FULL;
+        private boolean governed = governor != null;
+        private transient long governedCalls;
+        private transient long governedTime;
+        private transient int sample;
+        private transient long skipped;
+
         public ActivationContext(final boolean active, final long th, final long it) {
+            this(null, active, th, it);
+        }
+
+        private ActivationContext(final String name, final boolean active, final long th, final long it) {
+            this.name = name;
             this.active = active;
 
             if (it >= 0) {
@@ -340,7 +375,7 @@ public abstract class AbstractPerformanceInterceptor<T> implements Serializable
         }
 
         public ActivationContext(final boolean active, final String name) {
-            this(active,
+            this(name, active,
                 duration(Configuration.getProperty(Configuration.CONFIG_PROPERTY_PREFIX + "performance." + name + ".threshold", null)),
                 Configuration.getInteger(Configuration.CONFIG_PROPERTY_PREFIX + "performance." + name + ".forced-iteration", -1));
         }
@@ -366,14 +401,62 @@ public abstract class AbstractPerformanceInterceptor<T> implements Serializable
             iteration.set(0);
         }
 
+        public ActivationContext governedBy(final OverheadGovernor governor) {
+            this.governor = governor;
+            this.governed = governor != null;
+            return this;
+        }
+
+        public OverheadGovernor.Mode getMode() {
+            return mode;
+        }
+
         public boolean shouldExecute() {
+            final OverheadGovernor.Mode current = mode;
+            if (current == OverheadGovernor.Mode.OFF) {
+                // the method can have become slower, sample it again
+                if (++skipped >= governor.getReprobe() && MODE.compareAndSet(this, current, OverheadGovernor.Mode.SAMPLED)) {
+                    skipped = 0;
+                    governedCalls = 0;
+                    governedTime = 0;
+                    governor.reprobe(name());
+                }
+                return false;
+            }
+            if (current == OverheadGovernor.Mode.SAMPLED && ++sample % governor.getSampling() != 0) {
+                return false;
+            }
             return isActive() || isForcedIteration();
         }
 
         public void elapsedTime(final long elapsedTime) {
+            if (governor != null) {
+                governedTime += elapsedTime;
+                if (++governedCalls >= governor.getWindow()) {
+                    final long calls = governedCalls;
+                    final long time = governedTime;
+                    governedCalls = 0;
+                    governedTime = 0;
+                    final OverheadGovernor.Mode current = mode;
+                    final OverheadGovernor.Mode next = governor.evaluate(current, calls, time);
+                    if (next != current && MODE.compareAndSet(this, current, next)) {
+                        governor.changed(name(), current, next, calls, time);
+                    }
+                }
+            }
             if (isThresholdActive() && elapsedTime < getThreshold()) {
                 reset();
             }
         }
+
+        private String name() {
+            return name != null ? name : "unknown";
+        }
+
+        private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            governor = governed ? OverheadGovernor.INSTANCE : null;
+            mode = OverheadGovernor.Mode.FULL;
+        }
     }
 }
\ No newline at end of file
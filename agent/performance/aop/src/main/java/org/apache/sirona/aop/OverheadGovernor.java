@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.aop;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.gauges.Gauge;
+import org.apache.sirona.repositories.Repository;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Demotes the methods whose monitoring costs too much compared to their own duration (getters, tight loops...).
+ *
+ * The overhead of a method is the fixed cost of a measurement divided by the mean duration of the method,
+ * it is evaluated every <code>window</code> measured calls:
+ * <ul>
+ *     <li>above <code>max-overhead</code> percent the method is sampled (one call every <code>sampling</code>),</li>
+ *     <li>above <code>max-overhead * sampling</code> even sampled calls cost too much and the method is not monitored anymore,</li>
+ *     <li>a sampled method gets back to full monitoring when its overhead falls under half of <code>max-overhead</code>,</li>
+ *     <li>an off method is sampled again after <code>reprobe</code> skipped calls, its duration can have changed.</li>
+ * </ul>
+ *
+ * Configured with org.apache.sirona.performance.governor.* (max-overhead=0, the default, disables it),
+ * the number of sampled and off methods are reported as gauges.
+ */
+public class OverheadGovernor {
+    private static final Logger LOGGER = Logger.getLogger(OverheadGovernor.class.getName());
+
+    private static final String PREFIX = Configuration.CONFIG_PROPERTY_PREFIX + "performance.governor.";
+
+    public static final OverheadGovernor INSTANCE = create();
+
+    public static enum Mode {
+        FULL, SAMPLED, OFF
+    }
+
+    private final double maxOverhead;
+    private final int window;
+    private final int sampling;
+    private final long measurementCost;
+    private final long reprobe;
+    private final Role sampledRole;
+    private final Role offRole;
+
+    private final AtomicInteger sampled = new AtomicInteger();
+    private final AtomicInteger off = new AtomicInteger();
+    private final AtomicBoolean gauges = new AtomicBoolean();
+
+    public OverheadGovernor(final String name, final double maxOverhead, final int window, final int sampling, final long measurementCost) {
+        this(name, maxOverhead, window, sampling, measurementCost, 100L * window * sampling);
+    }
+
+    public OverheadGovernor(final String name, final double maxOverhead, final int window, final int sampling, final long measurementCost,
+                            final long reprobe) {
+        this.maxOverhead = maxOverhead;
+        this.window = Math.max(1, window);
+        this.sampling = Math.max(1, sampling);
+        this.measurementCost = measurementCost;
+        this.reprobe = Math.max(1, reprobe);
+        this.sampledRole = new Role(name + "-sampled-methods", Unit.UNARY);
+        this.offRole = new Role(name + "-off-methods", Unit.UNARY);
+    }
+
+    private static OverheadGovernor create() {
+        final double maxOverhead = Double.parseDouble(Configuration.getProperty(PREFIX + "max-overhead", "0"));
+        if (maxOverhead <= 0) {
+            return null;
+        }
+
+        final String cost = Configuration.getProperty(PREFIX + "measurement-cost", null);
+        final int window = Configuration.getInteger(PREFIX + "window", 1000);
+        final int sampling = Configuration.getInteger(PREFIX + "sampling", 100);
+        final String reprobe = Configuration.getProperty(PREFIX + "reprobe", null);
+        return new OverheadGovernor("governor", maxOverhead, window, sampling,
+                cost != null ? Long.parseLong(cost.trim()) : calibrate(),
+                reprobe != null ? Long.parseLong(reprobe.trim()) : 100L * window * sampling);
+    }
+
+    // two clock reads per measurement, an uncontended counter update costs about the same
+    private static long calibrate() {
+        final int iterations = 20000;
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) { // warm up
+            sink += System.nanoTime();
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += System.nanoTime();
+        }
+        final long clock = (System.nanoTime() - start) / iterations;
+        return sink == 0 ? 1 : Math.max(1, 4 * clock); // sink is read so the loop is kept
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public int getSampling() {
+        return sampling;
+    }
+
+    public long getMeasurementCost() {
+        return measurementCost;
+    }
+
+    public long getReprobe() {
+        return reprobe;
+    }
+
+    public int getSampledMethods() {
+        return sampled.get();
+    }
+
+    public int getOffMethods() {
+        return off.get();
+    }
+
+    /**
+     * @param current   current mode of the method
+     * @param calls     measured calls since the last evaluation
+     * @param totalTime total duration of these calls (ns)
+     * @return the mode to use for next calls, the thread applying a new mode then calls {@link #changed}
+     */
+    public Mode evaluate(final Mode current, final long calls, final long totalTime) {
+        if (calls <= 0 || current == Mode.OFF) {
+            return current;
+        }
+
+        final double overhead = overhead(calls, totalTime);
+        if (overhead > maxOverhead * sampling) {
+            return Mode.OFF;
+        } else if (overhead > maxOverhead) {
+            return Mode.SAMPLED;
+        } else if (current == Mode.SAMPLED && overhead >= maxOverhead / 2) { // don't flip-flop around the limit
+            return Mode.SAMPLED;
+        }
+        return Mode.FULL;
+    }
+
+    /**
+     * Counts a mode change of {@link #evaluate}, once: by the thread which applied it.
+     *
+     * @param name      monitored method
+     * @param previous  mode before the evaluation
+     * @param next      mode applied to the method
+     * @param calls     evaluated calls
+     * @param totalTime total duration of these calls (ns)
+     */
+    public void changed(final String name, final Mode previous, final Mode next, final long calls, final long totalTime) {
+        update(previous, -1);
+        update(next, 1);
+        registerGauges();
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.info(name + " is now " + next + " (overhead " + Math.round(overhead(calls, totalTime)) + "%, mean "
+                    + (totalTime / calls) + "ns, measurement " + measurementCost + "ns)");
+        }
+    }
+
+    /**
+     * Counts an off method sampled again to evaluate it, once: by the thread which moved it to {@link Mode#SAMPLED}.
+     *
+     * @param name an off method
+     */
+    public void reprobe(final String name) {
+        update(Mode.OFF, -1);
+        update(Mode.SAMPLED, 1);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(name + " is sampled again to evaluate its overhead");
+        }
+    }
+
+    private double overhead(final long calls, final long totalTime) {
+        return totalTime <= 0 ? Double.MAX_VALUE : 100. * measurementCost * calls / totalTime;
+    }
+
+    private void update(final Mode mode, final int delta) {
+        if (mode == Mode.SAMPLED) {
+            sampled.addAndGet(delta);
+        } else if (mode == Mode.OFF) {
+            off.addAndGet(delta);
+        }
+    }
+
+    // lazily, nothing is registered while no method was demoted
+    private void registerGauges() {
+        if (!gauges.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            Repository.INSTANCE.addGauge(new Gauge() {
+                public Role role() {
+                    return sampledRole;
+                }
+
+                public double value() {
+                    return sampled.get();
+                }
+            });
+            Repository.INSTANCE.addGauge(new Gauge() {
+                public Role role() {
+                    return offRole;
+                }
+
+                public double value() {
+                    return off.get();
+                }
+            });
+        } catch (final Exception e) { // repository not ready, the monitored method shouldn't fail
+            gauges.set(false);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.aop;
+
+import org.apache.sirona.aop.AbstractPerformanceInterceptor.ActivationContext;
+import org.apache.sirona.repositories.Repository;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class OverheadGovernorTest {
+    private static final int WINDOW = 100;
+    private static final int SAMPLING = 10;
+    private static final long COST = 1000; // ns
+
+    @Test
+    public void slowMethodIsKept() {
+        final ActivationContext context = context(governor("slow"));
+        calls(context, 100000); // 1%
+        assertEquals(OverheadGovernor.Mode.FULL, context.getMode());
+        assertEquals(WINDOW, executions(context, WINDOW));
+    }
+
+    @Test
+    public void tinyMethodIsSampled() {
+        final OverheadGovernor governor = governor("tiny");
+        final ActivationContext context = context(governor);
+        calls(context, 5000); // 20%
+        assertEquals(OverheadGovernor.Mode.SAMPLED, context.getMode());
+        assertEquals(WINDOW / SAMPLING, executions(context, WINDOW));
+        assertEquals(1, governor.getSampledMethods());
+        assertNotNull(Repository.INSTANCE.findGaugeRole("tiny-sampled-methods"));
+
+        calls(context, 15000); // 6.6%, under the limit but not enough to get back
+        assertEquals(OverheadGovernor.Mode.SAMPLED, context.getMode());
+
+        calls(context, 50000); // 2%
+        assertEquals(OverheadGovernor.Mode.FULL, context.getMode());
+        assertEquals(0, governor.getSampledMethods());
+    }
+
+    @Test
+    public void getterIsOff() {
+        final OverheadGovernor governor = governor("getter");
+        final ActivationContext context = context(governor);
+        calls(context, 50); // 2000%
+        assertEquals(OverheadGovernor.Mode.OFF, context.getMode());
+        assertEquals(0, executions(context, WINDOW));
+        assertEquals(1, governor.getOffMethods());
+        assertNotNull(Repository.INSTANCE.findGaugeRole("getter-off-methods"));
+    }
+
+    @Test
+    public void offMethodIsProbedAgain() {
+        final OverheadGovernor governor = new OverheadGovernor("reprobe", 10, WINDOW, SAMPLING, COST, 50);
+        final ActivationContext context = context(governor);
+        calls(context, 50);
+        assertEquals(OverheadGovernor.Mode.OFF, context.getMode());
+        assertEquals(0, executions(context, 49));
+
+        executions(context, 1);
+        assertEquals(OverheadGovernor.Mode.SAMPLED, context.getMode());
+        assertEquals(0, governor.getOffMethods());
+        assertEquals(1, governor.getSampledMethods());
+
+        calls(context, 100000); // got slower
+        assertEquals(OverheadGovernor.Mode.FULL, context.getMode());
+        assertEquals(0, governor.getSampledMethods());
+    }
+
+    @Test
+    public void concurrentReprobeIsCountedOnce() throws InterruptedException {
+        final OverheadGovernor governor = new OverheadGovernor("concurrent-reprobe", 10, WINDOW, SAMPLING, COST, 1);
+        for (int round = 0; round < 100; round++) {
+            final ActivationContext context = context(governor);
+            calls(context, 50);
+            assertEquals(OverheadGovernor.Mode.OFF, context.getMode());
+
+            final CountDownLatch start = new CountDownLatch(1);
+            final Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        context.shouldExecute();
+                    }
+                };
+                threads[i].start();
+            }
+            start.countDown();
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(OverheadGovernor.Mode.SAMPLED, context.getMode());
+            assertEquals(0, governor.getOffMethods());
+            assertEquals(round + 1, governor.getSampledMethods());
+        }
+    }
+
+    @Test
+    public void deserializedContextIsFull() throws Exception {
+        final ActivationContext context = context(governor("serialized"));
+        calls(context, 5000);
+        assertEquals(OverheadGovernor.Mode.SAMPLED, context.getMode());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(context);
+        oos.close();
+        final ActivationContext copy = ActivationContext.class.cast(
+                new ObjectInputStream(new ByteArrayInputStream(out.toByteArray())).readObject());
+        assertEquals(OverheadGovernor.Mode.FULL, copy.getMode());
+        assertEquals(WINDOW, executions(copy, WINDOW));
+        calls(copy, 5000); // governed by the governor of this JVM if any
+    }
+
+    @Test
+    public void notEvaluatedBeforeWindow() {
+        final ActivationContext context = context(governor("window"));
+        for (int i = 0; i < WINDOW - 1; i++) {
+            context.elapsedTime(1);
+        }
+        assertEquals(OverheadGovernor.Mode.FULL, context.getMode());
+        context.elapsedTime(1);
+        assertEquals(OverheadGovernor.Mode.OFF, context.getMode());
+    }
+
+    @Test
+    public void ungoverned() {
+        final ActivationContext context = context(null);
+        calls(context, 1);
+        assertEquals(OverheadGovernor.Mode.FULL, context.getMode());
+        assertTrue(context.shouldExecute());
+    }
+
+    private static OverheadGovernor governor(final String name) {
+        return new OverheadGovernor(name, 10, WINDOW, SAMPLING, COST);
+    }
+
+    private static ActivationContext context(final OverheadGovernor governor) {
+        return new ActivationContext(true, "governed").governedBy(governor);
+    }
+
+    private static void calls(final ActivationContext context, final long duration) {
+        for (int i = 0; i < WINDOW; i++) {
+            context.elapsedTime(duration);
+        }
+    }
+
+    private static int executions(final ActivationContext context, final int calls) {
+        int executions = 0;
+        for (int i = 0; i < calls; i++) {
+            if (context.shouldExecute()) {
+                executions++;
+            }
+        }
+        return executions;
+    }
+}
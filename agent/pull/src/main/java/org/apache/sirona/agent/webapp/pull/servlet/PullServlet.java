@@ -22,17 +22,28 @@ import org.apache.sirona.agent.webapp.pull.repository.PullRepository;
 import org.apache.sirona.configuration.Configuration;
 import org.apache.sirona.repositories.Repository;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.RuntimeMBeanException;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 
 public class PullServlet extends HttpServlet {
     private static final String APPLICATION_JSON = "application/json";
 
+    // registered by the javaagent (RuntimeInstrumentation), this module doesn't depend on it
+    private static final String INSTRUMENTATION = Configuration.CONFIG_PROPERTY_PREFIX + "javaagent:type=instrumentation";
+    private static final String INSTRUMENTATION_CONTROL = Configuration.CONFIG_PROPERTY_PREFIX + "pull.instrumentation.control";
+    private static final String[] UPDATE_SIGNATURE = new String[]{String.class.getName(), String.class.getName()};
+
     private PullRepository repository;
+    private boolean instrumentationControl;
 
     @Override
     public void init(final ServletConfig config) throws ServletException {
@@ -43,11 +54,57 @@ public class PullServlet extends HttpServlet {
         if (registration != null) { // needs to have configured org.apache.sirona.cube.CubeBuilder in sirona.properties
             repository.register(registration);
         } // else collector should be aware or it with another way -> config in the collector
+
+        // off by default since it changes the instrumented code of the application
+        instrumentationControl = Configuration.is(INSTRUMENTATION_CONTROL, false)
+                || "true".equalsIgnoreCase(config.getInitParameter(INSTRUMENTATION_CONTROL));
     }
 
     @Override
     protected void service(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
         resp.setContentType(APPLICATION_JSON);
+        if (instrumentationControl && "POST".equalsIgnoreCase(req.getMethod())
+                && (req.getParameter("includes") != null || req.getParameter("excludes") != null || req.getParameter("reset") != null)) {
+            updateInstrumentation(req, resp);
+            return;
+        }
         resp.getWriter().write(repository.snapshot());
     }
+
+    // POST includes=...&excludes=... (a missing one is kept, an empty one means all/none) or reset=true,
+    // answers the number of retransformed classes
+    private static void updateInstrumentation(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        final String includes = req.getParameter("includes");
+        final String excludes = req.getParameter("excludes");
+        final boolean reset = "true".equalsIgnoreCase(req.getParameter("reset"));
+        if (!reset && includes == null && excludes == null) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "nothing to update, use includes, excludes or reset=true");
+            return;
+        }
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName name = new ObjectName(INSTRUMENTATION);
+            if (!server.isRegistered(name)) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND, "sirona javaagent not available");
+                return;
+            }
+
+            final Object retransformed;
+            if (reset) {
+                retransformed = server.invoke(name, "reset", new Object[0], new String[0]);
+            } else {
+                retransformed = server.invoke(name, "update", new Object[]{includes, excludes}, UPDATE_SIGNATURE);
+            }
+            resp.getWriter().write("{\"retransformed\": " + retransformed + "}");
+        } catch (final RuntimeMBeanException e) {
+            if (IllegalArgumentException.class.isInstance(e.getCause())) { // invalid rule
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getCause().getMessage());
+                return;
+            }
+            throw new ServletException(e);
+        } catch (final JMException e) {
+            throw new ServletException(e);
+        }
+    }
 }
@@ -18,9 +18,12 @@ package org.apache.sirona.cube;
 
 import org.apache.sirona.Role;
 import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
+import org.apache.sirona.counters.Histogram;
 import org.apache.sirona.pathtracking.PathTrackingEntry;
 import org.apache.sirona.status.NodeStatus;
 import org.apache.sirona.status.ValidationResult;
+import org.apache.sirona.util.SelfMonitoring;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
@@ -66,6 +69,7 @@ public class Cube {
     private static final String MIN = "min";
     private static final String SUM = "sum";
     private static final String M_2 = "m2";
+    private static final String HISTOGRAM = "histogram";
 
     private static final String TRACKING_D = "trackingId";
     private static final String NODE_ID = "nodeId";
@@ -164,6 +168,7 @@ public class Cube {
                 output.flush();
 
                 final int status = connection.getResponseCode();
+                SelfMonitoring.sent( "cube", bytes.length );
                 if (status / 100 != 2) {
                     LOGGER.warning("Pushed data but response code is: " + status);
                 }
@@ -225,6 +230,7 @@ public class Cube {
                 output.flush();
 
                 final int status = connection.getResponseCode();
+                SelfMonitoring.sent( "cube", bytes.length );
                 if (status / 100 != 2) {
                     LOGGER.warning("Pushed data but response code is: " + status);
                 }
@@ -319,20 +325,27 @@ public class Cube {
         final long ts = System.currentTimeMillis();
         final StringBuilder events = newEventStream();
         for (final Counter counter : instances) {
-            buildEvent(events, COUNTER_TYPE, ts, new MapBuilder()
+            final CounterSnapshot snapshot = counter.snapshot();
+            final MapBuilder data = new MapBuilder()
                 .add(NAME, counter.getKey().getName())
                 .add(ROLE, counter.getKey().getRole().getName())
                 .add(UNIT, counter.getKey().getRole().getUnit().getName())
                 // minimum metrics to be able to aggregate counters later
-                .add(CONCURRENCY, counter.currentConcurrency().intValue())
-                .add(MEAN, counter.getMean())
-                .add(VARIANCE, counter.getVariance())
-                .add(HITS, counter.getHits())
-                .add(MAX, counter.getMax())
-                .add(MIN, counter.getMin())
-                .add(SUM, counter.getSum())
-                .add(M_2, counter.getSecondMoment())
-                .map());
+                .add(CONCURRENCY, snapshot.getConcurrency())
+                .add(MEAN, snapshot.getMean())
+                .add(VARIANCE, snapshot.getVariance())
+                .add(HITS, snapshot.getHits())
+                .add(MAX, snapshot.getMax())
+                .add(MIN, snapshot.getMin())
+                .add(SUM, snapshot.getSum())
+                .add(M_2, snapshot.getSecondMoment());
+
+            final Histogram histogram = snapshot.getHistogram();
+            if (histogram != null) { // sparse buckets, merged on collector side to get exact cluster percentiles
+                data.add(HISTOGRAM, histogram.encode());
+            }
+
+            buildEvent(events, COUNTER_TYPE, ts, data.map());
         }
         return events;
     }
@@ -24,14 +24,18 @@ import com.lmax.disruptor.EventTranslator;
 import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
+import org.apache.sirona.Role;
 import org.apache.sirona.configuration.Configuration;
 import org.apache.sirona.configuration.ioc.AutoSet;
 import org.apache.sirona.configuration.ioc.Created;
 import org.apache.sirona.configuration.ioc.Destroying;
 import org.apache.sirona.configuration.ioc.IoCs;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.gauges.Gauge;
 import org.apache.sirona.pathtracking.PathTrackingEntry;
 import org.apache.sirona.store.tracking.BatchPathTrackingDataStore;
 import org.apache.sirona.store.tracking.CollectorPathTrackingDataStore;
+import org.apache.sirona.util.SelfMonitoring;
 import org.apache.sirona.util.SerializeUtils;
 
 import java.util.List;
@@ -47,6 +51,8 @@ public class DisruptorPathTrackingDataStore
     extends BatchPathTrackingDataStore
     implements CollectorPathTrackingDataStore
 {
+    private static final Role RING_BUFFER_DEPTH = new Role( "sirona-pathtracking-ring-buffer-depth", Unit.UNARY );
+
     private static final Cube CUBE = IoCs.findOrCreateInstance( CubeBuilder.class ).build();
 
     private static boolean USE_SINGLE_STORE = Boolean.parseBoolean(
@@ -83,6 +89,21 @@ public class DisruptorPathTrackingDataStore
         }
         ringBuffer = disruptor.start();
 
+        final RingBuffer<PathTrackingEntry> buffer = ringBuffer;
+        SelfMonitoring.addGauge( new Gauge()
+        {
+            @Override
+            public Role role()
+            {
+                return RING_BUFFER_DEPTH;
+            }
+
+            @Override
+            public double value()
+            {
+                return buffer.getBufferSize() - buffer.remainingCapacity();
+            }
+        } );
     }
 
     private static class PathTrackingEntryEventHandler
@@ -125,7 +146,7 @@ public class DisruptorPathTrackingDataStore
                 event.setMethodName( pathTrackingEntry.getMethodName() );
                 event.setNodeId( pathTrackingEntry.getNodeId() );
                 event.setStartTime( pathTrackingEntry.getStartTime() );
-                event.setTrackingId( pathTrackingEntry.getTrackingId() );
+                event.setId( pathTrackingEntry.getId() );
             }
         } );
     }
@@ -16,6 +16,8 @@
  */
 package org.apache.sirona.graphite;
 
+import org.apache.sirona.util.SelfMonitoring;
+
 import javax.net.SocketFactory;
 import java.io.BufferedWriter;
 import java.io.Closeable;
@@ -42,6 +44,7 @@ public class Graphite implements Closeable {
 
     private BufferedWriter writer = null;
     private Socket socket = null;
+    private long sent = 0;
 
     public Graphite(final SocketFactory factory, final InetAddress address, final int port, final Charset charset) throws IOException {
         if (charset != null) {
@@ -79,11 +82,14 @@ public class Graphite implements Closeable {
      * this method is to use with open() and close() once for batch pushes.
      */
     public void push(final String metricPath, final double metricValue, final long metricTimeStamp) throws IOException {
-        writer.write(
-                WHITESPACE.matcher(noSpace(metricPath)).replaceAll(SPACE_REPLACEMENT) + SPACE
-                        + String.format(Locale.US, VALUE_FORMAT, metricValue) + SPACE
-                        + metricTimeStamp
-                        + LN);
+        final String line = WHITESPACE.matcher(noSpace(metricPath)).replaceAll(SPACE_REPLACEMENT) + SPACE
+                + String.format(Locale.US, VALUE_FORMAT, metricValue) + SPACE
+                + metricTimeStamp
+                + LN;
+        writer.write(line);
+        if (SelfMonitoring.ACTIVATED) {
+            sent += line.getBytes(charset).length;
+        }
     }
 
     @Override
@@ -92,6 +98,7 @@ public class Graphite implements Closeable {
             if (writer != null) {
                 writer.flush();
                 writer.close();
+                SelfMonitoring.sent("graphite", sent); // one round trip per open/close
             }
         } catch (final IOException ioe) {
             // no-op
@@ -105,6 +112,7 @@ public class Graphite implements Closeable {
         }
         writer = null;
         socket = null;
+        sent = 0;
     }
 
     private static String noSpace(final String s) {
@@ -18,6 +18,7 @@ package org.apache.sirona.graphite;
 
 import org.apache.sirona.configuration.ioc.IoCs;
 import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
 import org.apache.sirona.counters.MetricData;
 import org.apache.sirona.store.memory.counter.BatchCounterDataStore;
 
@@ -46,11 +47,12 @@ public class GraphiteCounterDataStore extends BatchCounterDataStore
             for (final Counter counter : instances) {
                 final Counter.Key key = counter.getKey();
                 final String prefix = COUNTER_PREFIX + key.getRole().getName() + SEP + key.getName() + SEP;
+                final CounterSnapshot snapshot = counter.snapshot();
 
-                for (final MetricData data : MetricData.values()) {
+                for (final MetricData data : MetricData.values(snapshot)) {
                     graphite.push(
                             prefix + data.name(),
-                            data.value(counter),
+                            data.value(snapshot),
                             ts);
                 }
             }
@@ -23,6 +23,7 @@ import org.apache.sirona.counters.Counter;
 import org.apache.sirona.status.NodeStatus;
 import org.apache.sirona.status.ValidationResult;
 import org.apache.sirona.store.gauge.BatchGaugeDataStoreAdapter;
+import org.apache.sirona.util.SelfMonitoring;
 import org.apache.sirona.websocket.client.domain.WSCounter;
 import org.apache.sirona.websocket.client.domain.WSGauge;
 import org.apache.sirona.websocket.client.domain.WSValidation;
@@ -38,6 +39,7 @@ import javax.websocket.WebSocketContainer;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
@@ -50,6 +52,7 @@ import static java.util.Collections.singletonList;
 
 public class WebSocketClient implements Closeable {
     private static final Logger LOGGER = Logger.getLogger(WebSocketClient.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); // text frames
 
     private final URI counterUri;
     private final URI gaugeUri;
@@ -106,6 +109,9 @@ public class WebSocketClient implements Closeable {
 
                 // sync to avoid issue on server and keep it simple for now
                 session.getBasicRemote().sendText(data);
+                if (SelfMonitoring.ACTIVATED) {
+                    SelfMonitoring.sent("websocket", data.getBytes(UTF_8).length);
+                }
                 return; // done :)
             } catch (final Exception ex) { // on exception recreate the connection and retry
                 LOGGER.log(Level.SEVERE, "Can't send data, will retry if possible", ex);
@@ -17,6 +17,7 @@
 package org.apache.sirona.websocket.client.domain;
 
 import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
 
 // just to define the payload API explicitly
 // and not rely on our Counter which can evolve
@@ -42,14 +43,16 @@ public class WSCounter extends WSDomain {
         name = counter.getKey().getName();
         roleName = counter.getKey().getRole().getName();
         roleUnit = counter.getKey().getRole().getUnit().getName();
-        secondMoment = counter.getSecondMoment();
-        hits = counter.getHits();
-        variance = counter.getVariance();
-        sum = counter.getSum();
-        min = counter.getMin();
-        max = counter.getMax();
-        mean = counter.getMean();
-        concurrency = counter.currentConcurrency().get();
+
+        final CounterSnapshot snapshot = counter.snapshot();
+        secondMoment = snapshot.getSecondMoment();
+        hits = snapshot.getHits();
+        variance = snapshot.getVariance();
+        sum = snapshot.getSum();
+        min = snapshot.getMin();
+        max = snapshot.getMax();
+        mean = snapshot.getMean();
+        concurrency = snapshot.getConcurrency();
     }
 
     public String getName() {
@@ -33,6 +33,7 @@ public class Role implements Comparable<Role>, Serializable {
     public static final Role JDBC = new Role("jdbc", Unit.Time.NANOSECOND);
     public static final Role PERFORMANCES = new Role("performances", Unit.Time.NANOSECOND);
     public static final Role FAILURES = new Role("failures", Unit.UNARY);
+    public static final Role SIRONA = new Role("sirona", Unit.Time.NANOSECOND);
 
     private final String name;
     private final Unit unit;
@@ -18,31 +18,43 @@ package org.apache.sirona.configuration.predicate;
 
 import org.apache.sirona.spi.SPI;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.regex.Pattern;
 
+// rules are compiled once: prefixes and containers in a single trie, suffixes in a reversed one
+// and regexes in a single pattern when possible, so matching doesn't allocate and doesn't iterate over rules.
 public final class PredicateEvaluator {
     private static final String NOT = "!";
     private static final char SEPARATOR = ':';
 
-    private final Map<String, Predicate> predicates = new HashMap<String, Predicate>();
+    private final Trie prefixes = new Trie(false);
+    private final Trie suffixes = new Trie(true);
+    private final RegexPredicate regexes = new RegexPredicate();
+    private final Predicate[] custom;
     private final boolean truePredicate;
     private final boolean trueValue;
 
     public PredicateEvaluator(final String configuration, final String sep) {
+        final Map<String, Predicate> predicates = new HashMap<String, Predicate>();
+        final Collection<Predicate> used = new ArrayList<Predicate>();
+        boolean isTrue = false;
+        boolean value = false;
+
         if (configuration != null && configuration.length()>0) {
-            final PrefixPredicate prefixPredicate = new PrefixPredicate();
-            final SuffixPredicate suffixPredicate = new SuffixPredicate();
-            final RegexPredicate regexPredicate = new RegexPredicate();
-            final ContainersPredicate containersPredicate = new ContainersPredicate();
+            final PrefixPredicate prefixPredicate = new PrefixPredicate(prefixes);
+            final SuffixPredicate suffixPredicate = new SuffixPredicate(suffixes);
+            final ContainersPredicate containersPredicate = new ContainersPredicate(prefixes);
+            final List<Predicate> builtIn = Arrays.<Predicate>asList(prefixPredicate, suffixPredicate, regexes, containersPredicate);
 
             // defaults
             predicates.put(prefixPredicate.prefix(), prefixPredicate);
             predicates.put(suffixPredicate.prefix(), suffixPredicate);
-            predicates.put(regexPredicate.prefix(), regexPredicate);
+            predicates.put(regexes.prefix(), regexes);
             predicates.put(containersPredicate.prefix(), containersPredicate);
             predicates.put(TruePredicate.INSTANCE.prefix(), TruePredicate.INSTANCE);
             predicates.put("boolean", TruePredicate.INSTANCE); // just an alias for true since we can set false now
@@ -70,29 +82,30 @@ public final class PredicateEvaluator {
                 }
 
                 if (predicate == TruePredicate.INSTANCE) {
-                    predicates.clear(); // no need to keep it in mem since we'll always return true
-                    trueValue = Boolean.parseBoolean(trim.substring(separator + 1));
-                    truePredicate = true;
-                    return;
+                    used.clear(); // no need to keep it in mem since we'll always return true
+                    value = Boolean.parseBoolean(trim.substring(separator + 1));
+                    isTrue = true;
+                    break;
                 }
 
-                final String value = trim.substring(separator + 1);
-                if (!value.startsWith(NOT)) {
-                    predicate.addConfiguration(value, true);
+                final String config = trim.substring(separator + 1);
+                if (!config.startsWith(NOT)) {
+                    predicate.addConfiguration(config, true);
                 } else {
-                    predicate.addConfiguration(value.substring(1), false);
+                    predicate.addConfiguration(config.substring(1), false);
+                }
+                if (!builtIn.contains(predicate) && !used.contains(predicate)) {
+                    used.add(predicate);
                 }
             }
-            trueValue = false;
-            truePredicate = false;
-        } else {
-            trueValue = false;
-            truePredicate = false;
         }
 
-        // no need to keep it in mem
-        predicates.remove(TruePredicate.INSTANCE.prefix());
-        predicates.remove("boolean");
+        truePredicate = isTrue;
+        trueValue = value;
+        if (!truePredicate) {
+            regexes.compile();
+        }
+        custom = used.toArray(new Predicate[used.size()]);
     }
 
     public boolean matches(final String value) {
@@ -100,7 +113,10 @@ public final class PredicateEvaluator {
             return trueValue;
         }
 
-        for (final Predicate predicate : predicates.values()) {
+        if (prefixes.matches(value) || suffixes.matches(value) || regexes.matches(value)) {
+            return true;
+        }
+        for (final Predicate predicate : custom) {
             if (predicate.matches(value)) {
                 return true;
             }
@@ -108,11 +124,29 @@ public final class PredicateEvaluator {
         return false;
     }
 
-    // exclude only filter, just an optimized version of N prefixes
-    // a lot of prefixes uses the same prefix
-    // so chaining them using substring is really faster when intrumenting a lot of classes
+    // exclude only filter, just N prefixes sharing a lot of their beginning,
+    // they are compiled in the prefix trie and always match whatever other prefixes say
     private static class ContainersPredicate implements Predicate {
-        private final Collection<String> containers = new CopyOnWriteArraySet<String>();
+        private static final String[] TOMCAT = {
+            "org.apache.juli.", "org.apache.catalina.", "org.apache.tomcat.", "org.apache.jasper.",
+            "org.apache.coyote.", "org.apache.naming.", "org.apache.el.", "org.eclipse.jdt"
+        };
+        private static final String[] TOMEE = {
+            "org.apache.tomee", "org.apache.openejb", "org.apache.xbean", "org.apache.bval",
+            "org.apache.openjpa", "org.apache.geronimo", "org.apache.webbeans", "org.apache.myfaces",
+            "org.apache.cxf", "org.apache.neethi", "org.apache.activemq", "org.apache.commons",
+            "org.slf4j.", "org.metatype", "org.hsqldb", "serp"
+        };
+        private static final String[] JVM = {
+            "java", "sun", "com.sun", "jdk.",
+            "org.omg", "org.xml.sax.", "org.ietf", "org.jcp", "org.apache.xerces"
+        };
+
+        private final Trie trie;
+
+        private ContainersPredicate(final Trie trie) {
+            this.trie = trie;
+        }
 
         @Override
         public String prefix() {
@@ -121,75 +155,25 @@ public final class PredicateEvaluator {
 
         @Override
         public boolean matches(final String value) {
-            for (final String container : containers) {
-                if ("tomee".equalsIgnoreCase(container) || "openejb".equalsIgnoreCase(container)) {
-                    if (value.startsWith("org.")) {
-                        final String org = value.substring("org.".length());
-                        if (org.startsWith("apache.")) {
-                            final String apache = org.substring("apache.".length());
-                            if (isTomcat(apache)
-                                    || apache.startsWith("tomee") || apache.startsWith("openejb")
-                                    || apache.startsWith("xbean") || apache.startsWith("bval")
-                                    || apache.startsWith("openjpa") || apache.startsWith("geronimo")
-                                    || apache.startsWith("webbeans") || apache.startsWith("myfaces")
-                                    || apache.startsWith("cxf") || apache.startsWith("neethi")
-                                    || apache.startsWith("activemq") || apache.startsWith("commons")) {
-                                return true;
-                            }
-                        } else if (org.startsWith("slf4j.") || org.startsWith("metatype") || org.startsWith("hsqldb") || org.startsWith("eclipse.jdt")) {
-                            return true;
-                        }
-                    } else if (value.startsWith("serp")) {
-                        return true;
-                    }
-                } else if ("tomcat".equalsIgnoreCase(container)) {
-                    if (value.startsWith("org.")) {
-                        final String org = value.substring("org.".length());
-                        if (org.startsWith("apache.")) {
-                            final String sub = value.substring("org.apache.".length());
-                            if (isTomcat(sub)) {
-                                return true;
-                            }
-                        } else if (org.startsWith("eclipse.jdt")) {
-                            return true;
-                        }
-                    }
-                } else if ("jvm".equalsIgnoreCase(container)) {
-                    if (value.startsWith("java")
-                            || value.startsWith("sun") || value.startsWith("com.sun")
-                            || value.startsWith("jdk.")) {
-                        return true;
-                    }
-                    if (value.startsWith("org.")) {
-                        final String sub = value.substring("org.".length());
-                        if (sub.startsWith("omg") || sub.startsWith("xml.sax.")
-                                || sub.startsWith("ietf") || sub.startsWith("jcp")
-                                || sub.startsWith("apache.xerces")) {
-                            return true;
-                        }
-                    }
-                    final int length = "org.apache.".length();
-                    if (value.length() >= length) {
-                        final String sub = value.substring("org.apache.".length());
-                        if (sub.startsWith("xerces")) {
-                            return true;
-                        }
-                    }
-                }
-            }
-            return false;
-        }
-
-        private static boolean isTomcat(final String sub) {
-            return sub.startsWith("juli.") || sub.startsWith("catalina.")
-                    || sub.startsWith("tomcat.") || sub.startsWith("jasper.")
-                    || sub.startsWith("coyote.") || sub.startsWith("naming.")
-                    || sub.startsWith("el.");
+            return trie.matches(value);
         }
 
         @Override
         public void addConfiguration(final String value, final boolean negative) {
-            containers.add(value);
+            if ("tomee".equalsIgnoreCase(value) || "openejb".equalsIgnoreCase(value)) {
+                add(TOMCAT);
+                add(TOMEE);
+            } else if ("tomcat".equalsIgnoreCase(value)) {
+                add(TOMCAT);
+            } else if ("jvm".equalsIgnoreCase(value)) {
+                add(JVM);
+            }
+        }
+
+        private void add(final String[] prefixes) {
+            for (final String prefix : prefixes) {
+                trie.add(prefix, Trie.ALWAYS);
+            }
         }
     }
 
@@ -217,7 +201,11 @@ public final class PredicateEvaluator {
     }
 
     private static class SuffixPredicate implements Predicate {
-        private final Map<String, Boolean> suffixes = new HashMap<String, Boolean>();
+        private final Trie suffixes;
+
+        private SuffixPredicate(final Trie suffixes) {
+            this.suffixes = suffixes;
+        }
 
         @Override
         public String prefix() {
@@ -226,22 +214,21 @@ public final class PredicateEvaluator {
 
         @Override
         public boolean matches(final String value) {
-            for (final Map.Entry<String, Boolean> p : suffixes.entrySet()) {
-                if (value.endsWith(p.getKey())) {
-                    return p.getValue();
-                }
-            }
-            return false;
+            return suffixes.matches(value);
         }
 
         @Override
         public void addConfiguration(final String value, final boolean negative) {
-            suffixes.put(value, negative);
+            suffixes.add(value, negative ? Trie.INCLUDE : Trie.EXCLUDE);
         }
     }
 
     private static class PrefixPredicate implements Predicate {
-        private final Map<String, Boolean> prefixes = new HashMap<String, Boolean>();
+        private final Trie prefixes;
+
+        private PrefixPredicate(final Trie prefixes) {
+            this.prefixes = prefixes;
+        }
 
         @Override
         public String prefix() {
@@ -250,22 +237,21 @@ public final class PredicateEvaluator {
 
         @Override
         public boolean matches(final String value) {
-            for (final Map.Entry<String, Boolean> p : prefixes.entrySet()) {
-                if (value.startsWith(p.getKey())) {
-                    return p.getValue();
-                }
-            }
-            return false;
+            return prefixes.matches(value);
         }
 
         @Override
         public void addConfiguration(final String value, final boolean negative) {
-            prefixes.put(value, negative);
+            prefixes.add(value, negative ? Trie.INCLUDE : Trie.EXCLUDE);
         }
     }
 
     private static class RegexPredicate implements Predicate {
-        private final Map<Pattern, Boolean> patterns = new HashMap<Pattern, Boolean>();
+        private final List<Pattern> patterns = new ArrayList<Pattern>();
+        private final List<Boolean> values = new ArrayList<Boolean>();
+        private Pattern[] compiledPatterns = new Pattern[0];
+        private boolean[] compiledValues = new boolean[0];
+        private Pattern union; // all patterns in one when they are all positive
 
         @Override
         public String prefix() {
@@ -274,9 +260,12 @@ public final class PredicateEvaluator {
 
         @Override
         public boolean matches(final String value) {
-            for (final Map.Entry<Pattern, Boolean> p : patterns.entrySet()) {
-                if (p.getKey().matcher(value).matches()) {
-                    return p.getValue();
+            if (union != null) {
+                return union.matcher(value).matches();
+            }
+            for (int i = 0; i < compiledPatterns.length; i++) { // first matching pattern wins
+                if (compiledPatterns[i].matcher(value).matches()) {
+                    return compiledValues[i];
                 }
             }
             return false;
@@ -284,7 +273,115 @@ public final class PredicateEvaluator {
 
         @Override
         public void addConfiguration(final String value, final boolean negative) {
-            patterns.put(Pattern.compile(value), negative);
+            patterns.add(Pattern.compile(value));
+            values.add(negative);
+        }
+
+        private void compile() {
+            compiledPatterns = patterns.toArray(new Pattern[patterns.size()]);
+            compiledValues = new boolean[compiledPatterns.length];
+            boolean canUnion = compiledPatterns.length > 1;
+            for (int i = 0; i < compiledPatterns.length; i++) {
+                compiledValues[i] = values.get(i);
+                // an alternation renumbers groups so back references would be broken
+                canUnion = canUnion && compiledValues[i] && !compiledPatterns[i].pattern().matches(".*\\\\(\\d|k<).*");
+            }
+            if (canUnion) {
+                final StringBuilder builder = new StringBuilder();
+                for (final Pattern pattern : compiledPatterns) {
+                    if (builder.length() > 0) {
+                        builder.append('|');
+                    }
+                    builder.append("(?:").append(pattern.pattern()).append(')');
+                }
+                union = Pattern.compile(builder.toString());
+            }
+        }
+    }
+
+    // walks the value in place (from its end for suffixes), the longest configured prefix wins.
+    // '/' is read as '.' so internal class names (org/apache/Foo) match as well.
+    private static final class Trie {
+        private static final byte NONE = 0;
+        private static final byte INCLUDE = 1;
+        private static final byte EXCLUDE = 2;
+        private static final byte ALWAYS = 3; // containers
+
+        private final boolean reversed;
+        private final Node root = new Node();
+        private boolean empty = true;
+
+        private Trie(final boolean reversed) {
+            this.reversed = reversed;
+        }
+
+        private void add(final String value, final byte state) {
+            Node node = root;
+            final int length = value.length();
+            for (int i = 0; i < length; i++) {
+                node = node.getOrCreate(normalize(value.charAt(reversed ? length - 1 - i : i)));
+            }
+            if (node.state != ALWAYS) {
+                node.state = state;
+            }
+            empty = false;
+        }
+
+        private boolean matches(final String value) {
+            if (empty) {
+                return false;
+            }
+
+            Node node = root;
+            byte result = node.state;
+            final int length = value.length();
+            for (int i = 0; i < length && result != ALWAYS; i++) {
+                node = node.get(normalize(value.charAt(reversed ? length - 1 - i : i)));
+                if (node == null) {
+                    break;
+                }
+                if (node.state != NONE) {
+                    result = node.state;
+                }
+            }
+            return result == INCLUDE || result == ALWAYS;
+        }
+
+        private static char normalize(final char c) {
+            return c == '/' ? '.' : c;
+        }
+    }
+
+    private static final class Node {
+        private char[] chars = new char[0]; // sorted
+        private Node[] children = new Node[0];
+        private byte state = Trie.NONE;
+
+        private Node get(final char c) {
+            final int idx = Arrays.binarySearch(chars, c);
+            return idx < 0 ? null : children[idx];
+        }
+
+        private Node getOrCreate(final char c) {
+            final int idx = Arrays.binarySearch(chars, c);
+            if (idx >= 0) {
+                return children[idx];
+            }
+
+            final int insert = -idx - 1;
+            final char[] newChars = new char[chars.length + 1];
+            final Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(chars, 0, newChars, 0, insert);
+            System.arraycopy(children, 0, newChildren, 0, insert);
+            System.arraycopy(chars, insert, newChars, insert + 1, chars.length - insert);
+            System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+
+            final Node node = new Node();
+            newChars[insert] = c;
+            newChildren[insert] = node;
+            chars = newChars;
+            children = newChildren;
+            return node;
         }
     }
 }
@@ -60,6 +60,12 @@ public interface Counter {
 
     double getSecondMoment(); // here for aggregation etc but not (yet?) a human metric so not in MetricData
 
+    Histogram getHistogram(); // optional, null if percentiles are not tracked
+
+    CounterSnapshot snapshot(); // all indicators captured at once, prefer it to getters when exporting several metrics
+
+    CounterSnapshot snapshot(boolean reset); // same as snapshot() but atomically resets the statistics
+
     public static class Key implements Serializable {
         private final String name;
         private final Role role;
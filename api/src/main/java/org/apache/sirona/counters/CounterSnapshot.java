@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.counters;
+
+import java.io.Serializable;
+
+// immutable and consistent view of a counter, all values are captured at the same instant
+public class CounterSnapshot implements Serializable {
+    private final Counter.Key key;
+    private final long hits;
+    private final double sum;
+    private final double min;
+    private final double max;
+    private final double mean;
+    private final double variance;
+    private final double secondMoment;
+    private final int concurrency;
+    private final int maxConcurrency;
+    private final Histogram histogram;
+
+    public CounterSnapshot(final Counter.Key key, final long hits, final double sum,
+                           final double min, final double max, final double mean,
+                           final double variance, final double secondMoment,
+                           final int concurrency, final int maxConcurrency,
+                           final Histogram histogram) {
+        this.key = key;
+        this.hits = hits;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.variance = variance;
+        this.secondMoment = secondMoment;
+        this.concurrency = concurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.histogram = histogram;
+    }
+
+    public CounterSnapshot(final Counter.Key key, final OptimizedStatistics statistics,
+                           final int concurrency, final int maxConcurrency, final Histogram histogram) {
+        this(key, statistics.getN(), statistics.getSum(), statistics.getMin(), statistics.getMax(),
+            statistics.getMean(), statistics.getVariance(), statistics.getSecondMoment(),
+            concurrency, maxConcurrency, histogram);
+    }
+
+    public Counter.Key getKey() {
+        return key;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getVariance() {
+        return variance;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(variance);
+    }
+
+    public double getSecondMoment() {
+        return secondMoment;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    // a copy owned by this snapshot, null if the counter doesn't track percentiles
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    public double getPercentile(final double percentile) {
+        if (histogram == null) {
+            return Double.NaN;
+        }
+        return histogram.getPercentile(percentile);
+    }
+
+    @Override
+    public String toString() {
+        return "CounterSnapshot{" +
+            "key=" + key +
+            ", hits=" + hits +
+            ", sum=" + sum +
+            ", min=" + min +
+            ", max=" + max +
+            ", mean=" + mean +
+            ", variance=" + variance +
+            ", concurrency=" + concurrency +
+            ", maxConcurrency=" + maxConcurrency +
+            '}';
+    }
+}
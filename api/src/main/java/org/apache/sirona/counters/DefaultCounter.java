@@ -36,6 +36,10 @@ public class DefaultCounter extends LockableCounter {
         lock.lock();
         try {
             statistics.addValue(delta);
+            final Histogram histogram = getHistogram();
+            if (histogram != null) { // under the same lock as the statistics so snapshot(true) resets both together
+                histogram.record(delta);
+            }
         } finally {
             lock.unlock();
         }
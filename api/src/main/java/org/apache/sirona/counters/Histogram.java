@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.counters;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// log-linear (HDR like) histogram: values are truncated to longs (in the counter unit),
+// first SUB_BUCKETS values have their own bucket then each power of 2 is split in SUB_BUCKETS / 2 buckets
+// so the relative error is bounded to 2 / SUB_BUCKETS whatever the magnitude is.
+//
+// recording is a single atomic increment and memory is fixed (BUCKETS longs) so histograms can be merged bucket by bucket.
+public class Histogram implements Serializable {
+    public static final int SUB_BUCKET_BITS = 5;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+    public static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    private static final char BUCKET_SEPARATOR = ',';
+    private static final char COUNT_SEPARATOR = ':';
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(final double value) {
+        final long v;
+        if (value <= 0 || Double.isNaN(value)) {
+            v = 0;
+        } else {
+            v = (long) value; // saturates to Long.MAX_VALUE
+        }
+        counts.incrementAndGet(index(v));
+    }
+
+    public Histogram merge(final Histogram other) {
+        if (other == null) {
+            return this;
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            final long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        return this;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the middle of the bucket containing the percentile or NaN if nothing was recorded.
+     */
+    public double getPercentile(final double percentile) {
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return Double.NaN;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(100., Math.max(0., percentile)) * total / 100.));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return (lowerBound(i) + (double) upperBound(i)) / 2.;
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    public Histogram copy() {
+        final Histogram copy = new Histogram();
+        copy.merge(this);
+        return copy;
+    }
+
+    // sparse "index:count,index:count" representation used to ship histograms to collectors
+    public String encode() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < BUCKETS; i++) {
+            final long c = counts.get(i);
+            if (c != 0) {
+                if (builder.length() > 0) {
+                    builder.append(BUCKET_SEPARATOR);
+                }
+                builder.append(i).append(COUNT_SEPARATOR).append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    public static Histogram decode(final String encoded) {
+        final Histogram histogram = new Histogram();
+        if (encoded == null || encoded.length() == 0) {
+            return histogram;
+        }
+
+        for (final String bucket : encoded.split(String.valueOf(BUCKET_SEPARATOR))) {
+            final int sep = bucket.indexOf(COUNT_SEPARATOR);
+            if (sep < 0) {
+                throw new IllegalArgumentException("Invalid histogram bucket: " + bucket);
+            }
+            histogram.counts.addAndGet(Integer.parseInt(bucket.substring(0, sep).trim()), Long.parseLong(bucket.substring(sep + 1).trim()));
+        }
+        return histogram;
+    }
+
+    static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    static long lowerBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int relative = index - SUB_BUCKETS;
+        final int shift = relative / HALF_SUB_BUCKETS + 1;
+        return ((long) (relative % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS)) << shift;
+    }
+
+    static long upperBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        return lowerBound(index) + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram{" +
+            "p50=" + getPercentile(50) +
+            ", p99=" + getPercentile(99) +
+            ", count=" + getCount() +
+            '}';
+    }
+}
@@ -20,6 +20,7 @@ import org.apache.sirona.store.counter.CounterDataStore;
 
 import javax.management.ObjectName;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -31,6 +32,7 @@ public abstract class LockableCounter implements Counter {
     private final AtomicInteger concurrency = new AtomicInteger(0);
     private volatile int maxConcurrency = 0;
     private ObjectName jmx = null;
+    private volatile Histogram histogram = null;
 
     protected LockableCounter(final Key key, final CounterDataStore dataStore) {
         this.key = key;
@@ -84,8 +86,48 @@ public abstract class LockableCounter implements Counter {
         return lock;
     }
 
+    public void setHistogram(final Histogram histogram) {
+        this.histogram = histogram;
+    }
+
+    @Override
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
     public void reset() {
         maxConcurrency = 0;
+        if (histogram != null) {
+            histogram.reset();
+        }
+    }
+
+    @Override
+    public CounterSnapshot snapshot() {
+        return snapshot(false);
+    }
+
+    @Override
+    public CounterSnapshot snapshot(final boolean reset) {
+        final Lock lock;
+        if (reset) {
+            lock = getLock().writeLock();
+        } else {
+            lock = getLock().readLock();
+        }
+
+        lock.lock();
+        try {
+            final Histogram h = getHistogram();
+            final CounterSnapshot snapshot = new CounterSnapshot(
+                getKey(), getStatistics(), currentConcurrency().get(), getMaxConcurrency(), h != null ? h.copy() : null);
+            if (reset) {
+                reset();
+            }
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -17,6 +17,9 @@
 
 package org.apache.sirona.counters;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * An enum to acces data from a Counter based on the property name. Can be used to avoid reflection on Counter
  * implementation when requesting data and undesirable exposure of internals.
@@ -38,6 +41,11 @@ public enum MetricData {
             return counter.getHits();
         }
 
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getHits();
+        }
+
         @Override
         public boolean isTime() {
             return false;
@@ -49,6 +57,11 @@ public enum MetricData {
             return counter.getMax();
         }
 
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getMax();
+        }
+
         @Override
         public boolean isTime() {
             return true;
@@ -60,6 +73,11 @@ public enum MetricData {
             return counter.getMean();
         }
 
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getMean();
+        }
+
         @Override
         public boolean isTime() {
             return true;
@@ -71,6 +89,11 @@ public enum MetricData {
             return counter.getMin();
         }
 
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getMin();
+        }
+
         @Override
         public boolean isTime() {
             return true;
@@ -82,6 +105,11 @@ public enum MetricData {
             return counter.getStandardDeviation();
         }
 
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getStandardDeviation();
+        }
+
         @Override
         public boolean isTime() {
             return false;
@@ -93,6 +121,11 @@ public enum MetricData {
             return counter.getSum();
         }
 
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getSum();
+        }
+
         @Override
         public boolean isTime() {
             return true;
@@ -104,6 +137,11 @@ public enum MetricData {
             return counter.getVariance();
         }
 
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getVariance();
+        }
+
         @Override
         public boolean isTime() {
             return false;
@@ -115,6 +153,11 @@ public enum MetricData {
             return counter.getSum();
         }
 
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getSum();
+        }
+
         @Override
         public boolean isTime() {
             return true;
@@ -126,6 +169,11 @@ public enum MetricData {
             return counter.currentConcurrency().get();
         }
 
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getConcurrency();
+        }
+
         @Override
         public boolean isTime() {
             return false;
@@ -137,13 +185,146 @@ public enum MetricData {
             return counter.getMaxConcurrency();
         }
 
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getMaxConcurrency();
+        }
+
         @Override
         public boolean isTime() {
             return false;
         }
+    },
+    P50 {
+        @Override
+        public double value(final Counter counter) {
+            return percentile(counter, 50);
+        }
+
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getPercentile(50);
+        }
+
+        @Override
+        public boolean isPercentile() {
+            return true;
+        }
+
+        @Override
+        public boolean isTime() {
+            return true;
+        }
+    },
+    P90 {
+        @Override
+        public double value(final Counter counter) {
+            return percentile(counter, 90);
+        }
+
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getPercentile(90);
+        }
+
+        @Override
+        public boolean isPercentile() {
+            return true;
+        }
+
+        @Override
+        public boolean isTime() {
+            return true;
+        }
+    },
+    P99 {
+        @Override
+        public double value(final Counter counter) {
+            return percentile(counter, 99);
+        }
+
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getPercentile(99);
+        }
+
+        @Override
+        public boolean isPercentile() {
+            return true;
+        }
+
+        @Override
+        public boolean isTime() {
+            return true;
+        }
+    },
+    P999 {
+        @Override
+        public double value(final Counter counter) {
+            return percentile(counter, 99.9);
+        }
+
+        @Override
+        public double value(final CounterSnapshot snapshot) {
+            return snapshot.getPercentile(99.9);
+        }
+
+        @Override
+        public boolean isPercentile() {
+            return true;
+        }
+
+        @Override
+        public boolean isTime() {
+            return true;
+        }
     };
 
+    private static final MetricData[] WITHOUT_PERCENTILES = withoutPercentiles();
+
     public abstract double value(Counter counter);
 
+    public abstract double value(CounterSnapshot snapshot);
+
+    private static double percentile(final Counter counter, final double percentile) {
+        final Histogram histogram = counter.getHistogram();
+        if (histogram == null) {
+            return Double.NaN;
+        }
+        return histogram.getPercentile(percentile);
+    }
+
     public abstract boolean isTime();
+
+    /**
+     * @return true for the metrics only available when the counter has a {@link Histogram}
+     */
+    public boolean isPercentile() {
+        return false;
+    }
+
+    /**
+     * @param percentiles false to skip the percentiles
+     * @return the metrics, in declaration order
+     */
+    public static MetricData[] values(final boolean percentiles) {
+        return percentiles ? values() : WITHOUT_PERCENTILES.clone();
+    }
+
+    /**
+     * @return the metrics this snapshot provides, the percentiles only when it has a histogram
+     */
+    public static MetricData[] values(final CounterSnapshot snapshot) {
+        return values(snapshot.getHistogram() != null);
+    }
+
+    private static MetricData[] withoutPercentiles() {
+        final List<MetricData> list = new ArrayList<MetricData>();
+        for (final MetricData md : values()) {
+            if (!md.isPercentile()) {
+                list.add(md);
+            }
+        }
+        return list.toArray(new MetricData[list.size()]);
+    }
 }
\ No newline at end of file
@@ -72,6 +72,44 @@ public class OptimizedStatistics {
         return this;
     }
 
+    // parallel variant of the Welford algorithm, same as Aggregators#aggregate
+    public OptimizedStatistics merge(final OptimizedStatistics other) {
+        if (other.n == 0) {
+            return this;
+        }
+        if (n == 0) {
+            n = other.n;
+            sum = other.sum;
+            min = other.min;
+            max = other.max;
+            m1 = other.m1;
+            m2 = other.m2;
+            return this;
+        }
+
+        final double oldN = n;
+        final double otherN = other.n;
+        n += other.n;
+        sum += other.sum;
+
+        // min
+        if (other.min < min || Double.isNaN(min)) {
+            min = other.min;
+        }
+
+        // max
+        if (other.max > max || Double.isNaN(max)) {
+            max = other.max;
+        }
+
+        // moments
+        final double meanDiff = other.m1 - m1;
+        m1 += meanDiff * otherN / n;
+        m2 += other.m2 + meanDiff * meanDiff * oldN * otherN / n;
+
+        return this;
+    }
+
     public void clear() {
         n = 0;
         sum = 0;
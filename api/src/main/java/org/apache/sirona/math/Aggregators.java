@@ -16,6 +16,7 @@
  */
 package org.apache.sirona.math;
 
+import org.apache.sirona.counters.Histogram;
 import org.apache.sirona.store.counter.LeafCollectorCounter;
 import org.apache.sirona.math.M2AwareStatisticalSummary;
 
@@ -40,6 +41,7 @@ public class Aggregators {
         double max = current.getMax();
         double m2 = current.getSecondMoment();
         double mean = current.getMean();
+        Histogram histogram = merge(null, current.getHistogram());
         while (iterator.hasNext()) {
             current = iterator.next();
             if (current.getMin() < min || Double.isNaN(min)) {
@@ -55,6 +57,7 @@ public class Aggregators {
             final double meanDiff = current.getMean() - mean;
             mean = sum / n;
             m2 = m2 + current.getSecondMoment() + meanDiff * meanDiff * oldN * curN / n;
+            histogram = merge(histogram, current.getHistogram());
         }
 
         final double variance;
@@ -65,7 +68,18 @@ public class Aggregators {
         } else {
             variance = m2 / (n - 1);
         }
-        return new M2AwareStatisticalSummary(mean, variance, n, max, min, sum, m2);
+        return new M2AwareStatisticalSummary(mean, variance, n, max, min, sum, m2, histogram);
+    }
+
+    // percentiles can't be averaged so we merge buckets
+    private static Histogram merge(final Histogram aggregate, final Histogram histogram) {
+        if (histogram == null) {
+            return aggregate;
+        }
+        if (aggregate == null) {
+            return histogram.copy();
+        }
+        return aggregate.merge(histogram);
     }
 
     private Aggregators() {
@@ -16,6 +16,8 @@
  */
 package org.apache.sirona.math;
 
+import org.apache.sirona.counters.Histogram;
+
 import java.io.Serializable;
 import java.util.Map;
 
@@ -27,10 +29,17 @@ public class M2AwareStatisticalSummary implements Serializable {
     private final double min;
     private final double sum;
     private final double m2;
+    private final Histogram histogram;
 
     public M2AwareStatisticalSummary(final double mean, final double variance, final long n,
                                      final double max, final double min, final double sum,
                                      final double m2) {
+        this(mean, variance, n, max, min, sum, m2, null);
+    }
+
+    public M2AwareStatisticalSummary(final double mean, final double variance, final long n,
+                                     final double max, final double min, final double sum,
+                                     final double m2, final Histogram histogram) {
         this.mean = mean;
         this.variance = variance;
         this.n = n;
@@ -38,12 +47,23 @@ public class M2AwareStatisticalSummary implements Serializable {
         this.min = min;
         this.sum = sum;
         this.m2 = m2;
+        this.histogram = histogram;
     }
 
     public M2AwareStatisticalSummary(final Map<String, Object> data) {
         this(toDouble(data.get("mean")), toDouble(data.get("variance")), toLong(data.get("hits")),
             toDouble(data.get("max")), toDouble(data.get("min")), toDouble(data.get("sum")),
-            toDouble(data.get("m2")));
+            toDouble(data.get("m2")), toHistogram(data.get("histogram")));
+    }
+
+    private static Histogram toHistogram(final Object histogram) {
+        if (histogram == null) {
+            return null;
+        }
+        if (String.class.isInstance(histogram)) {
+            return Histogram.decode(String.class.cast(histogram));
+        }
+        throw new IllegalArgumentException(histogram + " not supported");
     }
 
     private static double toDouble(final Object mean) {
@@ -96,4 +116,8 @@ public class M2AwareStatisticalSummary implements Serializable {
     public double getSum() {
         return sum;
     }
+
+    public Histogram getHistogram() {
+        return histogram;
+    }
 }
@@ -0,0 +1,401 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.pathtracking;
+
+import org.apache.sirona.configuration.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Profile of the tracked paths: the paths stored in a {@link org.apache.sirona.store.tracking.PathTrackingDataStore}
+ * are folded, as they arrive, in a single call tree where a node is a method called from a given stack.
+ * Each node counts its calls, total, self (without the tracked calls it does) and max execution times in ns.
+ *
+ * A path is folded once its outermost call (level 1, stored last) is there, the parts stored before are kept apart.
+ * Folding is done by the thread storing the path, an application thread when the agent stores the paths itself
+ * so the tree is only built on demand.
+ *
+ * Configured with org.apache.sirona.pathtracking.aggregation.*:
+ * <ul>
+ *     <li>activated: true to build the tree (false),</li>
+ *     <li>max-nodes: maximum number of nodes, next calls are part of the self time of their caller (10000),</li>
+ *     <li>max-pending: maximum number of entries of the parts waiting for the end of their path,
+ *     the oldest parts are dropped first (100000).</li>
+ * </ul>
+ *
+ * The stores share the instance of {@link org.apache.sirona.configuration.ioc.IoCs#findOrCreateInstance(Class)}.
+ */
+public class CallTree
+{
+    private static final String PREFIX = Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.aggregation.";
+
+    private static final Comparator<PathTrackingEntry> CALL_ORDER = new Comparator<PathTrackingEntry>()
+    {
+        @Override
+        public int compare( final PathTrackingEntry o1, final PathTrackingEntry o2 )
+        {
+            if ( o1.getStartTime() != o2.getStartTime() )
+            {
+                return o1.getStartTime() < o2.getStartTime() ? -1 : 1;
+            }
+            return o1.getLevel() - o2.getLevel(); // a caller before the calls starting at the same time
+        }
+    };
+
+    private final boolean activated;
+
+    private final int maxNodes;
+
+    private final int maxPendingEntries;
+
+    private final Map<String, List<PathTrackingEntry>> pending = new LinkedHashMap<String, List<PathTrackingEntry>>();
+
+    private int pendingEntries = 0; // guarded by pending
+
+    private final AtomicInteger nodes = new AtomicInteger();
+
+    private volatile Node root = new Node( null, null );
+
+    public CallTree()
+    {
+        this( Configuration.is( PREFIX + "activated", false ), //
+              Configuration.getInteger( PREFIX + "max-nodes", 10000 ), //
+              Configuration.getInteger( PREFIX + "max-pending", 100000 ) );
+    }
+
+    public CallTree( final boolean activated, final int maxNodes, final int maxPendingEntries )
+    {
+        this.activated = activated;
+        this.maxNodes = maxNodes;
+        this.maxPendingEntries = maxPendingEntries;
+    }
+
+    public boolean isActivated()
+    {
+        return activated;
+    }
+
+    /**
+     * Folds the complete paths of these entries in the tree.
+     */
+    public void add( final Collection<PathTrackingEntry> entries )
+    {
+        if ( !activated || entries == null || entries.isEmpty() )
+        {
+            return;
+        }
+
+        final Map<String, List<PathTrackingEntry>> paths = new LinkedHashMap<String, List<PathTrackingEntry>>();
+        for ( final PathTrackingEntry entry : entries )
+        {
+            List<PathTrackingEntry> path = paths.get( entry.getTrackingId() );
+            if ( path == null )
+            {
+                path = new ArrayList<PathTrackingEntry>();
+                paths.put( entry.getTrackingId(), path );
+            }
+            path.add( entry );
+        }
+
+        for ( final Map.Entry<String, List<PathTrackingEntry>> path : paths.entrySet() )
+        {
+            final List<PathTrackingEntry> complete = complete( path.getKey(), path.getValue() );
+            if ( complete != null )
+            {
+                fold( complete );
+            }
+        }
+    }
+
+    // null while the outermost call is not there
+    private List<PathTrackingEntry> complete( final String trackingId, final List<PathTrackingEntry> entries )
+    {
+        boolean outermost = false;
+        for ( final PathTrackingEntry entry : entries )
+        {
+            if ( entry.getLevel() <= 1 )
+            {
+                outermost = true;
+                break;
+            }
+        }
+
+        synchronized ( pending )
+        {
+            final List<PathTrackingEntry> previous = outermost ? pending.remove( trackingId ) : pending.get( trackingId );
+            if ( outermost )
+            {
+                if ( previous != null )
+                {
+                    pendingEntries -= previous.size();
+                    previous.addAll( entries );
+                    return previous;
+                }
+                return entries;
+            }
+
+            if ( previous != null )
+            {
+                previous.addAll( entries );
+            }
+            else
+            {
+                pending.put( trackingId, entries );
+            }
+            pendingEntries += entries.size();
+
+            final Iterator<List<PathTrackingEntry>> oldest = pending.values().iterator();
+            while ( pendingEntries > maxPendingEntries && oldest.hasNext() )
+            {
+                pendingEntries -= oldest.next().size();
+                oldest.remove();
+            }
+            return null;
+        }
+    }
+
+    private void fold( final List<PathTrackingEntry> path )
+    {
+        Collections.sort( path, CALL_ORDER );
+
+        final Node tree = root;
+        final int size = path.size();
+        final int[] levels = new int[size];
+        final Node[] stack = new Node[size]; // null for a call beyond max-nodes, its calls are not tracked
+        final long[] executionTimes = new long[size];
+        final long[] childrenTimes = new long[size];
+        int depth = 0;
+        for ( final PathTrackingEntry entry : path )
+        {
+            while ( depth > 0 && levels[depth - 1] >= entry.getLevel() )
+            {
+                depth--;
+                exit( stack[depth], executionTimes[depth], childrenTimes[depth] );
+            }
+
+            final Node parent = depth == 0 ? tree : stack[depth - 1];
+            final Node node = parent == null ? null : parent.child( this, entry.getClassName(), entry.getMethodName() );
+            if ( node != null && depth > 0 )
+            {
+                childrenTimes[depth - 1] += entry.getExecutionTime();
+            }
+
+            levels[depth] = entry.getLevel();
+            stack[depth] = node;
+            executionTimes[depth] = entry.getExecutionTime();
+            childrenTimes[depth] = 0;
+            depth++;
+        }
+        while ( depth > 0 )
+        {
+            depth--;
+            exit( stack[depth], executionTimes[depth], childrenTimes[depth] );
+        }
+    }
+
+    private static void exit( final Node node, final long executionTime, final long childrenTime )
+    {
+        if ( node != null )
+        {
+            node.add( executionTime, Math.max( 0, executionTime - childrenTime ) );
+        }
+    }
+
+    /**
+     * @return the root of the tree, it has no method, its children are the entry points
+     */
+    public Node getRoot()
+    {
+        return root;
+    }
+
+    public int getNodeNumber()
+    {
+        return nodes.get();
+    }
+
+    public void reset()
+    {
+        root = new Node( null, null );
+        nodes.set( 0 );
+        synchronized ( pending )
+        {
+            pending.clear();
+            pendingEntries = 0;
+        }
+    }
+
+    /**
+     * Collapsed stacks, the input of flame graph tools: a line per node,
+     * the methods from the entry point separated by ';' then the self time in ns.
+     */
+    public String toCollapsedStacks()
+    {
+        final StringBuilder builder = new StringBuilder();
+        for ( final Node child : root.getChildren() )
+        {
+            collapse( builder, new StringBuilder(), child );
+        }
+        return builder.toString();
+    }
+
+    private static void collapse( final StringBuilder builder, final StringBuilder stack, final Node node )
+    {
+        final int length = stack.length();
+        if ( length > 0 )
+        {
+            stack.append( ';' );
+        }
+        stack.append( node.getName() );
+
+        final long selfTime = node.getSelfTime();
+        if ( selfTime > 0 )
+        {
+            builder.append( stack ).append( ' ' ).append( selfTime ).append( '\n' );
+        }
+        for ( final Node child : node.getChildren() )
+        {
+            collapse( builder, stack, child );
+        }
+        stack.setLength( length );
+    }
+
+    public static class Node
+    {
+        private final String className;
+
+        private final String methodName;
+
+        private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<String, Node>();
+
+        private final AtomicLong calls = new AtomicLong();
+
+        private final AtomicLong totalTime = new AtomicLong();
+
+        private final AtomicLong selfTime = new AtomicLong();
+
+        private final AtomicLong maxTime = new AtomicLong();
+
+        private Node( final String className, final String methodName )
+        {
+            this.className = className;
+            this.methodName = methodName;
+        }
+
+        // null when the tree is full
+        private Node child( final CallTree tree, final String className, final String methodName )
+        {
+            final String key = className + '.' + methodName;
+            final Node existing = children.get( key );
+            if ( existing != null )
+            {
+                return existing;
+            }
+
+            if ( tree.nodes.incrementAndGet() > tree.maxNodes )
+            {
+                tree.nodes.decrementAndGet();
+                return null;
+            }
+            final Node created = new Node( className, methodName );
+            final Node concurrent = children.putIfAbsent( key, created );
+            if ( concurrent != null )
+            {
+                tree.nodes.decrementAndGet();
+                return concurrent;
+            }
+            return created;
+        }
+
+        private void add( final long executionTime, final long self )
+        {
+            calls.incrementAndGet();
+            totalTime.addAndGet( executionTime );
+            selfTime.addAndGet( self );
+            long max;
+            while ( executionTime > ( max = maxTime.get() ) && !maxTime.compareAndSet( max, executionTime ) )
+            {
+                // retry
+            }
+        }
+
+        public String getClassName()
+        {
+            return className;
+        }
+
+        public String getMethodName()
+        {
+            return methodName;
+        }
+
+        public String getName()
+        {
+            return className + '.' + methodName;
+        }
+
+        public long getCalls()
+        {
+            return calls.get();
+        }
+
+        public long getTotalTime()
+        {
+            return totalTime.get();
+        }
+
+        public long getSelfTime()
+        {
+            return selfTime.get();
+        }
+
+        public long getMaxTime()
+        {
+            return maxTime.get();
+        }
+
+        /**
+         * @return the called methods, the most expensive first
+         */
+        public List<Node> getChildren()
+        {
+            final List<Node> list = new ArrayList<Node>( children.values() );
+            Collections.sort( list, new Comparator<Node>()
+            {
+                @Override
+                public int compare( final Node o1, final Node o2 )
+                {
+                    final long t1 = o1.getTotalTime();
+                    final long t2 = o2.getTotalTime();
+                    return t1 == t2 ? o1.getName().compareTo( o2.getName() ) : ( t1 > t2 ? -1 : 1 );
+                }
+            } );
+            return list;
+        }
+    }
+}
@@ -18,7 +18,6 @@ package org.apache.sirona.pathtracking;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -26,7 +25,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class Context
 {
-    private String uuid;
+    private TrackingId trackingId;
 
     private AtomicInteger level;
 
@@ -38,14 +37,30 @@ public class Context
 
     public Context(final String uuid)
     {
-        this.uuid = uuid;
+        this( TrackingId.valueOf( uuid ) );
+    }
+
+    /**
+     * @since 0.5
+     */
+    public Context(final TrackingId trackingId)
+    {
+        this.trackingId = trackingId;
         this.level = new AtomicInteger( 0 );
         this.entries = new ArrayList<PathTrackingEntry>();
     }
 
     public String getUuid()
     {
-        return uuid;
+        return trackingId == null ? null : trackingId.toString();
+    }
+
+    /**
+     * @since 0.5
+     */
+    public TrackingId getTrackingId()
+    {
+        return trackingId;
     }
 
     public AtomicInteger getLevel()
@@ -62,7 +77,7 @@ public class Context
 
     public void setUuid( String uuid )
     {
-        this.uuid = uuid;
+        this.trackingId = TrackingId.valueOf( uuid );
     }
 
     public void setLevel( AtomicInteger level )
@@ -16,10 +16,46 @@
 */
 package org.apache.sirona.pathtracking;
 
-import java.util.UUID;
+import org.apache.sirona.util.Localhosts;
 
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates {@link TrackingId}s without any random source per call:
+ * the high bits identify the node (hash of host, process and start time computed once),
+ * the low bits are the creation time in milliseconds shifted to leave room for a sequence.
+ */
 public class DefaultUniqueIdGenerator implements UniqueIdGenerator {
+    private static final int SEQUENCE_BITS = 20; // ~1M ids per ms before borrowing from the next ms
+
+    private static final long NODE = nodeSeed();
+
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() << SEQUENCE_BITS);
+
     public String next() {
-        return "Sirona-" + UUID.randomUUID().toString();
+        return nextId().toString();
+    }
+
+    public TrackingId nextId() {
+        return new TrackingId(NODE, sequence.incrementAndGet());
+    }
+
+    private static long nodeSeed() {
+        long seed = System.nanoTime() ^ System.currentTimeMillis() ^ System.identityHashCode(DefaultUniqueIdGenerator.class);
+        try {
+            seed = mix(seed ^ ManagementFactory.getRuntimeMXBean().getName().hashCode()); // pid@host on most JVMs
+        } catch (final Throwable e) {
+            // no-op
+        }
+        return mix(seed ^ Localhosts.get().hashCode());
+    }
+
+    // splitmix64 finalizer, spreads close seeds (same host, close start times) over the 64 bits
+    private static long mix(final long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
 }
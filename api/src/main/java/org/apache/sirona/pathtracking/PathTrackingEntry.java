@@ -16,6 +16,10 @@
  */
 package org.apache.sirona.pathtracking;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 /**
@@ -28,10 +32,21 @@ public class PathTrackingEntry
     // use a default value here
     private static final long serialVersionUID = 4L;
 
+    // the serialized form is still the one of the string id so agents and collectors of different versions can be mixed
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField( "trackingId", String.class ), //
+        new ObjectStreamField( "nodeId", String.class ), //
+        new ObjectStreamField( "className", String.class ), //
+        new ObjectStreamField( "methodName", String.class ), //
+        new ObjectStreamField( "startTime", long.class ), //
+        new ObjectStreamField( "executionTime", long.class ), //
+        new ObjectStreamField( "level", int.class ) };
+
     /**
-     * a generated id to follow up the path call
+     * a generated id to follow up the path call, shared by the entries of the same path,
+     * serialized as its rendering (see writeObject)
      */
-    private String trackingId;
+    private transient TrackingId trackingId;
 
     /**
      * server instance for this call
@@ -70,6 +85,15 @@ public class PathTrackingEntry
 
     public PathTrackingEntry( String trackingId, String nodeId, String className, String methodName, //
                               long startTime, long executionTime, int level )
+    {
+        this( TrackingId.valueOf( trackingId ), nodeId, className, methodName, startTime, executionTime, level );
+    }
+
+    /**
+     * @since 0.5
+     */
+    public PathTrackingEntry( TrackingId trackingId, String nodeId, String className, String methodName, //
+                              long startTime, long executionTime, int level )
     {
         this.trackingId = trackingId;
         this.nodeId = nodeId;
@@ -80,12 +104,31 @@ public class PathTrackingEntry
         this.level = level;
     }
 
+    /**
+     * @return the rendered tracking id
+     */
     public String getTrackingId()
     {
-        return trackingId;
+        return trackingId == null ? null : trackingId.toString();
     }
 
     public void setTrackingId( String trackingId )
+    {
+        this.trackingId = TrackingId.valueOf( trackingId );
+    }
+
+    /**
+     * @since 0.5
+     */
+    public TrackingId getId()
+    {
+        return trackingId;
+    }
+
+    /**
+     * @since 0.5
+     */
+    public void setId( TrackingId trackingId )
     {
         this.trackingId = trackingId;
     }
@@ -150,6 +193,33 @@ public class PathTrackingEntry
         this.level = level;
     }
 
+    private void writeObject( ObjectOutputStream out )
+        throws IOException
+    {
+        final ObjectOutputStream.PutField fields = out.putFields();
+        fields.put( "trackingId", getTrackingId() );
+        fields.put( "nodeId", nodeId );
+        fields.put( "className", className );
+        fields.put( "methodName", methodName );
+        fields.put( "startTime", startTime );
+        fields.put( "executionTime", executionTime );
+        fields.put( "level", level );
+        out.writeFields();
+    }
+
+    private void readObject( ObjectInputStream in )
+        throws IOException, ClassNotFoundException
+    {
+        final ObjectInputStream.GetField fields = in.readFields();
+        trackingId = TrackingId.valueOf( (String) fields.get( "trackingId", null ) );
+        nodeId = (String) fields.get( "nodeId", null );
+        className = (String) fields.get( "className", null );
+        methodName = (String) fields.get( "methodName", null );
+        startTime = fields.get( "startTime", 0L );
+        executionTime = fields.get( "executionTime", 0L );
+        level = fields.get( "level", 0 );
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,186 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements.  See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License.  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.sirona.pathtracking;
+
+import java.io.Serializable;
+
+/**
+ * Identifier of a tracked path: 128 bits kept as two longs, rendered as 32 hexadecimal characters
+ * only when a string is needed (json, reporting, stores keyed by string).
+ *
+ * Identifiers which are not in this form (generated by an older agent or a custom {@link UniqueIdGenerator})
+ * are kept as they are.
+ *
+ * @since 0.5
+ */
+public final class TrackingId
+    implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final int LENGTH = 32;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long high;
+
+    private final long low;
+
+    private final String value; // only for foreign identifiers
+
+    private transient String string;
+
+    public TrackingId( final long high, final long low )
+    {
+        this.high = high;
+        this.low = low;
+        this.value = null;
+    }
+
+    private TrackingId( final String value )
+    {
+        this.high = 0;
+        this.low = 0;
+        this.value = value;
+    }
+
+    /**
+     * @param id a rendered identifier
+     * @return the identifier, <code>null</code> if <code>id</code> is <code>null</code>
+     */
+    public static TrackingId valueOf( final String id )
+    {
+        if ( id == null )
+        {
+            return null;
+        }
+        if ( id.length() != LENGTH )
+        {
+            return new TrackingId( id );
+        }
+
+        long high = 0;
+        long low = 0;
+        for ( int i = 0; i < LENGTH; i++ )
+        {
+            final int digit = digit( id.charAt( i ) );
+            if ( digit < 0 )
+            {
+                return new TrackingId( id );
+            }
+            if ( i < LENGTH / 2 )
+            {
+                high = ( high << 4 ) | digit;
+            }
+            else
+            {
+                low = ( low << 4 ) | digit;
+            }
+        }
+        return new TrackingId( high, low );
+    }
+
+    private static int digit( final char c )
+    {
+        if ( c >= '0' && c <= '9' )
+        {
+            return c - '0';
+        }
+        if ( c >= 'a' && c <= 'f' )
+        {
+            return c - 'a' + 10;
+        }
+        return -1; // upper case is not produced so it is not the rendering of a compact id
+    }
+
+    /**
+     * @return <code>true</code> if the identifier is stored as two longs
+     */
+    public boolean isCompact()
+    {
+        return value == null;
+    }
+
+    public long getHigh()
+    {
+        return high;
+    }
+
+    public long getLow()
+    {
+        return low;
+    }
+
+    @Override
+    public boolean equals( final Object o )
+    {
+        if ( this == o )
+        {
+            return true;
+        }
+        if ( o == null || getClass() != o.getClass() )
+        {
+            return false;
+        }
+
+        final TrackingId that = TrackingId.class.cast( o );
+        if ( value != null )
+        {
+            return value.equals( that.value );
+        }
+        return that.value == null && high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        if ( value != null )
+        {
+            return value.hashCode();
+        }
+        final long h = high ^ low;
+        return (int) ( h ^ ( h >>> 32 ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        if ( value != null )
+        {
+            return value;
+        }
+
+        String s = string;
+        if ( s == null )
+        {
+            final char[] chars = new char[LENGTH];
+            render( chars, 0, high );
+            render( chars, LENGTH / 2, low );
+            s = new String( chars );
+            string = s; // racy but the result is always the same
+        }
+        return s;
+    }
+
+    private static void render( final char[] chars, final int offset, final long value )
+    {
+        for ( int i = LENGTH / 2 - 1; i >= 0; i-- )
+        {
+            chars[offset + i] = HEX[(int) ( ( value >>> ( 4 * ( LENGTH / 2 - 1 - i ) ) ) & 0xF )];
+        }
+    }
+}
@@ -18,6 +18,8 @@ package org.apache.sirona.store.counter;
 
 import org.apache.sirona.math.M2AwareStatisticalSummary;
 import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
+import org.apache.sirona.counters.Histogram;
 import org.apache.sirona.counters.Unit;
 
 import java.io.Serializable;
@@ -172,6 +174,44 @@ public abstract class CollectorCounter implements Counter, Serializable {
         }
     }
 
+    public CounterSnapshot snapshot() {
+        return snapshot(false);
+    }
+
+    public CounterSnapshot snapshot(final boolean reset) {
+        final Lock workLock;
+        if (reset) {
+            workLock = lock.writeLock();
+        } else {
+            workLock = lock.readLock();
+        }
+
+        workLock.lock();
+        try {
+            final Histogram histogram = statistics.getHistogram();
+            final CounterSnapshot snapshot = new CounterSnapshot(
+                key, statistics.getN(), statistics.getSum(), statistics.getMin(), statistics.getMax(),
+                statistics.getMean(), statistics.getVariance(), statistics.getSecondMoment(),
+                concurrency.get(), maxConcurrency, histogram != null ? histogram.copy() : null);
+            if (reset) {
+                reset();
+            }
+            return snapshot;
+        } finally {
+            workLock.unlock();
+        }
+    }
+
+    public Histogram getHistogram() {
+        final Lock workLock = lock.readLock();
+        workLock.lock();
+        try {
+            return statistics.getHistogram();
+        } finally {
+            workLock.unlock();
+        }
+    }
+
     
     public boolean equals(final Object o) {
         if (this == o) {
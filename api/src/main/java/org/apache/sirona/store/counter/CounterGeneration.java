@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.counter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Incremented each time a {@link CounterDataStore} drops counters: code caching {@link org.apache.sirona.counters.Counter}
+ * instances must look them up again when it changed, the dropped ones are not part of the store anymore.
+ */
+public final class CounterGeneration {
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+
+    private CounterGeneration() {
+        // no-op
+    }
+
+    public static int current() {
+        return GENERATION.get();
+    }
+
+    /**
+     * to call once the counters are removed from the store.
+     */
+    public static void next() {
+        GENERATION.incrementAndGet();
+    }
+}
@@ -24,6 +24,7 @@ import org.apache.sirona.gauges.Gauge;
 import org.apache.sirona.gauges.GaugeDataStoreAdapter;
 import org.apache.sirona.store.BatchFuture;
 import org.apache.sirona.util.DaemonThreadFactory;
+import org.apache.sirona.util.SelfMonitoring;
 
 import java.util.HashMap;
 import java.util.Locale;
@@ -46,7 +47,7 @@ public abstract class BatchGaugeDataStoreAdapter extends GaugeDataStoreAdapter {
         final long period = getPeriod(name);
 
         final ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(name + "-gauge-schedule-"));
-        final ScheduledFuture<?> future = ses.scheduleAtFixedRate(new PushGaugesTask(), period, period, TimeUnit.MILLISECONDS);
+        final ScheduledFuture<?> future = ses.scheduleAtFixedRate(new PushGaugesTask("gauge-push:" + name), period, period, TimeUnit.MILLISECONDS);
         scheduledTask = new BatchFuture(ses, future);
     }
 
@@ -76,10 +77,18 @@ public abstract class BatchGaugeDataStoreAdapter extends GaugeDataStoreAdapter {
     }
 
     private class PushGaugesTask implements Runnable {
+        private final String name;
+
+        private PushGaugesTask(final String name) {
+            this.name = name;
+        }
+
         @Override
         public void run() {
             try {
+                final long start = System.nanoTime();
                 pushGauges(snapshot());
+                SelfMonitoring.time(name, System.nanoTime() - start);
             } catch (final Exception e) {
                 LOGGER.log(Level.SEVERE, e.getMessage(), e);
             }
@@ -16,10 +16,14 @@
  */
 package org.apache.sirona.store.tracking;
 
+import org.apache.sirona.pathtracking.PathCallInformation;
 import org.apache.sirona.pathtracking.PathTrackingEntry;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 /**
  * Add new methods here to prevent breaking implementations.
@@ -43,4 +47,39 @@ public abstract class AbstractPathTrackingDataStore
     {
         return Collections.emptyList();
     }
+
+    /**
+     * pages all the trackingIds of the range, implementations able to query a page directly should override it
+     */
+    @Override
+    public Collection<PathCallInformation> retrieveTrackingIds( Date startTime, Date endTime, int offset, int limit )
+    {
+        return page( retrieveTrackingIds( startTime, endTime ), offset, limit );
+    }
+
+    protected static Collection<PathCallInformation> page( Collection<PathCallInformation> pathCallInformations,
+                                                           int offset, int limit )
+    {
+        if ( pathCallInformations == null || ( offset <= 0 && limit <= 0 ) )
+        {
+            return pathCallInformations;
+        }
+
+        List<PathCallInformation> page = new ArrayList<PathCallInformation>( limit > 0 ? limit : 16 );
+        int skip = offset;
+        for ( PathCallInformation pathCallInformation : pathCallInformations )
+        {
+            if ( skip > 0 )
+            {
+                skip--;
+                continue;
+            }
+            page.add( pathCallInformation );
+            if ( page.size() == limit )
+            {
+                break;
+            }
+        }
+        return page;
+    }
 }
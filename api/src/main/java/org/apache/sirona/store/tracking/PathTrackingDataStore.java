@@ -54,6 +54,17 @@ public interface PathTrackingDataStore
      */
     Collection<PathCallInformation> retrieveTrackingIds( Date startTime, Date endTime );
 
+    /**
+     * page of {@link #retrieveTrackingIds(java.util.Date, java.util.Date)} ordered by start time
+     *
+     * @param startTime
+     * @param endTime
+     * @param offset number of trackingIds to skip
+     * @param limit maximum number of trackingIds, 0 for all
+     * @return {@link org.apache.sirona.pathtracking.PathCallInformation} of trackingIds available in the system between startTime and endTime
+     */
+    Collection<PathCallInformation> retrieveTrackingIds( Date startTime, Date endTime, int offset, int limit );
+
 
 
 }
@@ -16,10 +16,16 @@
  */
 package org.apache.sirona.util;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public final class DaemonThreadFactory implements ThreadFactory {
+    private static final Map<Thread, Boolean> THREADS = new WeakHashMap<Thread, Boolean>(); // guarded by itself
+
     private final AtomicInteger id = new AtomicInteger(1);
     private final String baseName;
 
@@ -36,7 +42,26 @@ public final class DaemonThreadFactory implements ThreadFactory {
         if (thread.getPriority() != Thread.NORM_PRIORITY) {
             thread.setPriority(Thread.NORM_PRIORITY);
         }
-        thread.setContextClassLoader(DaemonThreadFactory.class.getClassLoader());
+        final ClassLoader loader = DaemonThreadFactory.class.getClassLoader();
+        thread.setContextClassLoader(loader != null ? loader : ClassLoader.getSystemClassLoader()); // null for the bootstrap loader
+        synchronized (THREADS) {
+            THREADS.put(thread, Boolean.TRUE);
+        }
         return thread;
     }
+
+    /**
+     * @return alive threads created by sirona factories
+     */
+    public static Collection<Thread> threads() {
+        final Collection<Thread> threads = new ArrayList<Thread>();
+        synchronized (THREADS) {
+            for (final Thread thread : THREADS.keySet()) {
+                if (thread != null && thread.isAlive()) {
+                    threads.add(thread);
+                }
+            }
+        }
+        return threads;
+    }
 }
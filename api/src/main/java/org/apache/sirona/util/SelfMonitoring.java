@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.util;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.gauges.Gauge;
+import org.apache.sirona.repositories.Repository;
+
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * Metrics about Sirona itself (weaving, listeners, pushes, queues, network), activated with
+ * org.apache.sirona.self-monitoring.activated=true.
+ *
+ * Durations are counters of {@link Role#SIRONA}, sent data are counters of {@link #SENT}
+ * (sum is the number of bytes, hits the number of round trips) and other values are gauges.
+ *
+ * Most of these metrics are produced before or while the repository is created so they are only recorded
+ * once the repository is attached: gauges are kept until then, durations and sent bytes are ignored.
+ */
+public final class SelfMonitoring {
+    public static final boolean ACTIVATED = Configuration.is(Configuration.CONFIG_PROPERTY_PREFIX + "self-monitoring.activated", false);
+
+    public static final Role SENT = new Role("sirona-sent", Unit.Binary.BYTE);
+
+    private static final Collection<Gauge> GAUGES = new LinkedList<Gauge>(); // guarded by itself
+    private static volatile Repository repository;
+
+    private SelfMonitoring() {
+        // no-op
+    }
+
+    // called by the repository once ready when self monitoring is activated
+    public static void attach(final Repository repository) {
+        synchronized (GAUGES) {
+            SelfMonitoring.repository = repository;
+            for (final Gauge gauge : GAUGES) {
+                repository.addGauge(gauge);
+            }
+            GAUGES.clear();
+        }
+    }
+
+    // for tests
+    static void detach() {
+        synchronized (GAUGES) {
+            repository = null;
+            GAUGES.clear();
+        }
+    }
+
+    public static void addGauge(final Gauge gauge) {
+        synchronized (GAUGES) {
+            final Repository current = repository;
+            if (current != null) {
+                current.addGauge(gauge);
+            } else {
+                GAUGES.add(gauge);
+            }
+        }
+    }
+
+    /**
+     * @param name  what took time
+     * @param nanos the duration
+     */
+    public static void time(final String name, final long nanos) {
+        add(Role.SIRONA, name, nanos);
+    }
+
+    /**
+     * @param name  the target (cube, graphite...)
+     * @param bytes size of the data sent in one round trip
+     */
+    public static void sent(final String name, final long bytes) {
+        add(SENT, name, bytes);
+    }
+
+    private static void add(final Role role, final String name, final long value) {
+        final Repository current = repository;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.getCounter(new Counter.Key(role, name)).add(value);
+        } catch (final RuntimeException e) { // monitoring the monitoring shouldn't break it
+            // no-op
+        }
+    }
+}
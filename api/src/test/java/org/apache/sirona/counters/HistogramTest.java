@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.counters;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.store.counter.CounterDataStore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+    @Test
+    public void buckets() {
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            assertEquals(i, Histogram.index(Histogram.lowerBound(i)));
+            assertEquals(i, Histogram.index(Histogram.upperBound(i)));
+            if (i > 0) {
+                assertEquals(Histogram.upperBound(i - 1) + 1, Histogram.lowerBound(i));
+            }
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles() {
+        final Histogram histogram = new Histogram();
+        assertTrue(Double.isNaN(histogram.getPercentile(50)));
+
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(50000, histogram.getPercentile(50), 50000 * 2. / Histogram.SUB_BUCKETS);
+        assertEquals(99000, histogram.getPercentile(99), 99000 * 2. / Histogram.SUB_BUCKETS);
+        assertEquals(99900, histogram.getPercentile(99.9), 99900 * 2. / Histogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void mergeIsExact() {
+        final Histogram fast = new Histogram();
+        final Histogram slow = new Histogram();
+        final Histogram all = new Histogram();
+        for (int i = 0; i < 990; i++) {
+            fast.record(10);
+            all.record(10);
+        }
+        for (int i = 0; i < 10; i++) {
+            slow.record(5000);
+            all.record(5000);
+        }
+
+        final Histogram merged = Histogram.decode(fast.encode()).merge(Histogram.decode(slow.encode()));
+        assertEquals(all.encode(), merged.encode());
+        assertEquals(10, merged.getPercentile(99), 0.);
+        assertEquals(all.getPercentile(99.9), merged.getPercentile(99.9), 0.);
+        assertTrue(merged.getPercentile(99.9) > 4800);
+    }
+
+    @Test
+    public void percentileMetricsOnlyWithHistogram() {
+        final Counter.Key key = new Counter.Key(Role.PERFORMANCES, "histogram");
+        final List<MetricData> without = Arrays.asList(MetricData.values(new CounterSnapshot(key, 1, 1, 1, 1, 1, 0, 0, 0, 0, null)));
+        assertFalse(without.contains(MetricData.P50));
+        assertTrue(without.contains(MetricData.MaxConcurrency));
+        assertEquals(MetricData.values().length - 4, without.size());
+
+        final Histogram histogram = new Histogram();
+        histogram.record(1);
+        final List<MetricData> with = Arrays.asList(MetricData.values(new CounterSnapshot(key, 1, 1, 1, 1, 1, 0, 0, 0, 0, histogram)));
+        assertEquals(Arrays.asList(MetricData.values()), with);
+    }
+
+    @Test
+    public void snapshotResetsStatisticsAndHistogramTogether() throws InterruptedException {
+        final DefaultCounter counter = new DefaultCounter(new Counter.Key(Role.PERFORMANCES, "window"), new CounterDataStore() {
+            public Counter getOrCreateCounter(final Counter.Key key) {
+                throw new UnsupportedOperationException();
+            }
+
+            public void clearCounters() {
+                throw new UnsupportedOperationException();
+            }
+
+            public Collection<Counter> getCounters() {
+                throw new UnsupportedOperationException();
+            }
+
+            public void addToCounter(final Counter defaultCounter, final double delta) {
+                LockableCounter.class.cast(defaultCounter).addInternal(delta);
+            }
+        });
+        counter.setHistogram(new Histogram());
+
+        final Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 50000; j++) {
+                        counter.add(1);
+                    }
+                }
+            };
+            writers[i].start();
+        }
+
+        long hits = 0;
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (final Thread writer : writers) {
+                running |= writer.isAlive();
+            }
+            final CounterSnapshot window = counter.snapshot(true);
+            assertEquals(window.getHits(), window.getHistogram().getCount());
+            hits += window.getHits();
+        }
+        assertEquals(writers.length * 50000, hits);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.pathtracking;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CallTreeTest {
+    @Test
+    public void merge() {
+        final CallTree tree = new CallTree(true, 100, 10);
+        for (int i = 0; i < 2; i++) {
+            final TrackingId id = new TrackingId(1, i);
+            // stored in completion order: checkout calls find twice then save, save calls find
+            tree.add(Arrays.asList(
+                    entry(id, "Dao", "find()", 10, 20, 2),
+                    entry(id, "Dao", "find()", 30, 10 + i * 10, 2),
+                    entry(id, "Dao", "find()", 60, 5, 3),
+                    entry(id, "Dao", "save()", 50, 30, 2),
+                    entry(id, "OrderService", "checkout()", 0, 100, 1)));
+        }
+
+        final List<CallTree.Node> roots = tree.getRoot().getChildren();
+        assertEquals(1, roots.size());
+        final CallTree.Node checkout = roots.get(0);
+        assertEquals("OrderService.checkout()", checkout.getName());
+        assertEquals(2, checkout.getCalls());
+        assertEquals(200, checkout.getTotalTime());
+        assertEquals(200 - 60 - 70, checkout.getSelfTime()); // children took 60 then 70ns
+
+        final List<CallTree.Node> children = checkout.getChildren();
+        assertEquals(2, children.size());
+        final CallTree.Node find = children.get(0); // 70ns, more expensive than save
+        assertEquals("Dao.find()", find.getName());
+        assertEquals(4, find.getCalls());
+        assertEquals(70, find.getTotalTime());
+        assertEquals(70, find.getSelfTime());
+        assertEquals(20, find.getMaxTime());
+
+        final CallTree.Node save = children.get(1);
+        assertEquals("Dao.save()", save.getName());
+        assertEquals(50, save.getSelfTime());
+        assertEquals(10, save.getChildren().get(0).getTotalTime()); // find under save is another node
+        assertEquals(4, tree.getNodeNumber());
+
+        assertEquals("OrderService.checkout() 70\n"
+                + "OrderService.checkout();Dao.find() 70\n"
+                + "OrderService.checkout();Dao.save() 50\n"
+                + "OrderService.checkout();Dao.save();Dao.find() 10\n", tree.toCollapsedStacks());
+    }
+
+    @Test
+    public void pathStoredInSeveralParts() {
+        final CallTree tree = new CallTree(true, 100, 10);
+        final TrackingId id = new TrackingId(2, 0);
+        tree.add(Collections.singletonList(entry(id, "Dao", "find()", 10, 20, 2)));
+        assertTrue(tree.getRoot().getChildren().isEmpty()); // waits for the outermost call
+
+        tree.add(Collections.singletonList(entry(id, "Service", "run()", 0, 50, 1)));
+        final CallTree.Node run = tree.getRoot().getChildren().get(0);
+        assertEquals(30, run.getSelfTime());
+        assertEquals(1, run.getChildren().get(0).getCalls());
+    }
+
+    @Test
+    public void pendingEntriesAreBounded() {
+        final CallTree tree = new CallTree(true, 100, 10);
+        final TrackingId first = new TrackingId(4, 0);
+        final TrackingId second = new TrackingId(4, 1);
+        tree.add(Arrays.asList(calls(first, 6)));
+        tree.add(Arrays.asList(calls(second, 6))); // 12 pending entries, the first part is dropped
+
+        tree.add(Collections.singletonList(entry(first, "Service", "run()", 0, 50, 1)));
+        final CallTree.Node run = tree.getRoot().getChildren().get(0);
+        assertTrue(run.getChildren().isEmpty());
+        assertEquals(50, run.getSelfTime());
+
+        tree.add(Collections.singletonList(entry(second, "Service", "stop()", 0, 50, 1)));
+        final CallTree.Node stop = tree.getRoot().getChildren().get(1);
+        assertEquals("Service.stop()", stop.getName());
+        assertEquals(6, stop.getChildren().get(0).getCalls());
+    }
+
+    @Test
+    public void maxNodes() {
+        final CallTree tree = new CallTree(true, 2, 10);
+        final TrackingId id = new TrackingId(3, 0);
+        tree.add(Arrays.asList(
+                entry(id, "Dao", "find()", 10, 20, 2),
+                entry(id, "Dao", "save()", 30, 10, 2),
+                entry(id, "Dao", "flush()", 35, 5, 3),
+                entry(id, "Service", "run()", 0, 50, 1)));
+
+        assertEquals(2, tree.getNodeNumber());
+        final CallTree.Node run = tree.getRoot().getChildren().get(0);
+        assertEquals(1, run.getChildren().size());
+        assertEquals(30, run.getSelfTime()); // save() is part of run()
+
+        tree.reset();
+        assertEquals(0, tree.getNodeNumber());
+        assertTrue(tree.getRoot().getChildren().isEmpty());
+    }
+
+    private static PathTrackingEntry[] calls(final TrackingId id, final int number) {
+        final PathTrackingEntry[] entries = new PathTrackingEntry[number];
+        for (int i = 0; i < number; i++) {
+            entries[i] = entry(id, "Dao", "find()", 1 + i, 1, 2);
+        }
+        return entries;
+    }
+
+    private static PathTrackingEntry entry(final TrackingId id, final String className, final String methodName,
+                                           final long start, final long duration, final int level) {
+        return new PathTrackingEntry(id, "node", className, methodName, start, duration, level);
+    }
+}
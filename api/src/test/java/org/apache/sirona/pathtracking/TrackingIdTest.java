@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.pathtracking;
+
+import org.apache.sirona.util.SerializeUtils;
+import org.junit.Test;
+
+import java.io.ObjectStreamClass;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TrackingIdTest {
+    @Test
+    public void render() {
+        final TrackingId id = new TrackingId(0x0123456789abcdefL, -1L);
+        assertEquals("0123456789abcdefffffffffffffffff", id.toString());
+        assertEquals(id, TrackingId.valueOf(id.toString()));
+        assertTrue(TrackingId.valueOf(id.toString()).isCompact());
+        assertEquals(0x0123456789abcdefL, TrackingId.valueOf(id.toString()).getHigh());
+        assertEquals(-1L, TrackingId.valueOf(id.toString()).getLow());
+    }
+
+    @Test
+    public void foreignIds() {
+        final String legacy = "Sirona-6b4e8f2a-1c1d-4a8e-9f5e-0c2d3b4a5e6f";
+        final TrackingId id = TrackingId.valueOf(legacy);
+        assertFalse(id.isCompact());
+        assertEquals(legacy, id.toString());
+        assertEquals(id, TrackingId.valueOf(legacy));
+
+        final String upper = "0123456789ABCDEF0123456789ABCDEF"; // would be rendered lower case if compact
+        assertEquals(upper, TrackingId.valueOf(upper).toString());
+        assertNull(TrackingId.valueOf(null));
+    }
+
+    @Test
+    public void unique() {
+        final DefaultUniqueIdGenerator generator = new DefaultUniqueIdGenerator();
+        final Set<TrackingId> ids = new HashSet<TrackingId>();
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(ids.add(generator.nextId()));
+        }
+        assertEquals(32, generator.next().length());
+    }
+
+    @Test
+    public void entries() {
+        final TrackingId id = new DefaultUniqueIdGenerator().nextId();
+        final PathTrackingEntry entry = new PathTrackingEntry(id, "node", "class", "method", 1, 2, 3);
+        assertEquals(id.toString(), entry.getTrackingId());
+
+        final PathTrackingEntry copy = SerializeUtils.deserialize(SerializeUtils.serialize(entry), PathTrackingEntry.class);
+        assertEquals(id, copy.getId());
+        assertEquals(id.toString(), copy.getTrackingId());
+
+        final PathTrackingEntry fromString = new PathTrackingEntry(id.toString(), "node", "class", "method", 1, 2, 3);
+        assertEquals(id, fromString.getId());
+
+        final PathTrackingEntry legacy = new PathTrackingEntry("Sirona-" + UUID.randomUUID(), "node", "class", "method", 1, 2, 3);
+        assertEquals(legacy.getTrackingId(), SerializeUtils.deserialize(SerializeUtils.serialize(legacy), PathTrackingEntry.class).getTrackingId());
+        assertTrue(SerializeUtils.serialize(entry).length < SerializeUtils.serialize(legacy).length);
+    }
+
+    @Test
+    public void entryWireFormat() { // the one of 0.4, the collector and the agents can have different versions
+        final ObjectStreamClass descriptor = ObjectStreamClass.lookup(PathTrackingEntry.class);
+        assertEquals(4L, descriptor.getSerialVersionUID());
+        assertEquals(String.class, descriptor.getField("trackingId").getType());
+        assertEquals(7, descriptor.getFields().length);
+    }
+}
@@ -53,6 +53,54 @@ public class PredicateTest
         assertTrue(evaluator.matches("Ends with Cat"));
     }
 
+    @Test
+    public void containers() {
+        final PredicateEvaluator evaluator = new PredicateEvaluator("container:jvm,container:tomee,prefix:!java.util", ",");
+
+        assertTrue(evaluator.matches("java.lang.String.length()"));
+        assertTrue(evaluator.matches("java.util.List.size()")); // containers always win
+        assertTrue(evaluator.matches("com.sun.Foo.bar()"));
+        assertTrue(evaluator.matches("org.apache.catalina.Foo.bar()"));
+        assertTrue(evaluator.matches("org.apache.openejb.Foo.bar()"));
+        assertTrue(evaluator.matches("org.slf4j.Logger.info(java.lang.String)"));
+        assertTrue(evaluator.matches("serp.Foo.bar()"));
+        assertFalse(evaluator.matches("org.apache.sirona.Foo.bar()"));
+        assertFalse(evaluator.matches("org.slf4jx.Foo.bar()"));
+        assertFalse(evaluator.matches("com.company.Service.java()"));
+        assertFalse(new PredicateEvaluator("container:tomcat", ",").matches("org.apache.openejb.Foo.bar()"));
+    }
+
+    @Test
+    public void longestPrefixWins() {
+        final PredicateEvaluator evaluator = new PredicateEvaluator("prefix:com.company,prefix:!com.company.internal,prefix:com.company.internal.api", ",");
+
+        assertTrue(evaluator.matches("com.company.Service.run()"));
+        assertFalse(evaluator.matches("com.company.internal.Impl.run()"));
+        assertTrue(evaluator.matches("com.company.internal.api.Api.run()"));
+        assertFalse(evaluator.matches("com.other.Service.run()"));
+    }
+
+    @Test
+    public void internalNames() {
+        final PredicateEvaluator evaluator = new PredicateEvaluator("container:jvm,prefix:com.company", ",");
+
+        assertTrue(evaluator.matches("java/lang/String"));
+        assertTrue(evaluator.matches("com/company/Service"));
+        assertFalse(evaluator.matches("org/company/Service"));
+    }
+
+    @Test
+    public void regexes() {
+        final PredicateEvaluator positives = new PredicateEvaluator("regex:(a+)b\\1,regex:.*Service", ",");
+        assertTrue(positives.matches("aabaa"));
+        assertFalse(positives.matches("aaba"));
+        assertTrue(positives.matches("MyService"));
+
+        final PredicateEvaluator withExclusion = new PredicateEvaluator("regex:!.*Internal.*,regex:.*Service", ",");
+        assertTrue(withExclusion.matches("MyService"));
+        assertFalse(withExclusion.matches("InternalService"));
+    }
+
     @Test
     public void allFalse() {
         assertFalse(new PredicateEvaluator("true:!true",",").matches("or"));
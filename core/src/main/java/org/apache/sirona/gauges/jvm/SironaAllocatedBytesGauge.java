@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.gauges.jvm;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.gauges.Gauge;
+import org.apache.sirona.util.DaemonThreadFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Collection;
+
+/**
+ * Bytes allocated by the alive sirona threads (pushes, schedules...) as sampled by the JVM,
+ * only available on JVMs exposing com.sun.management.ThreadMXBean (0 otherwise).
+ */
+public class SironaAllocatedBytesGauge implements Gauge {
+    public static final Role ALLOCATED = new Role("sirona-allocated-bytes", Unit.Binary.BYTE);
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final Method method;
+
+    public SironaAllocatedBytesGauge() {
+        Method m = null;
+        try { // not in java.lang.management
+            m = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long[].class);
+            if (!m.getDeclaringClass().isInstance(THREAD_MX_BEAN)) {
+                m = null;
+            }
+        } catch (final Exception e) {
+            // no-op
+        }
+        method = m;
+    }
+
+    @Override
+    public Role role() {
+        return ALLOCATED;
+    }
+
+    @Override
+    public double value() {
+        if (method == null) {
+            return 0;
+        }
+
+        final Collection<Thread> threads = DaemonThreadFactory.threads();
+        final long[] ids = new long[threads.size()];
+        int i = 0;
+        for (final Thread thread : threads) {
+            ids[i++] = thread.getId();
+        }
+
+        try {
+            long total = 0;
+            for (final long allocated : (long[]) method.invoke(THREAD_MX_BEAN, ids)) {
+                if (allocated > 0) { // -1 for a dead thread
+                    total += allocated;
+                }
+            }
+            return total;
+        } catch (final Exception e) {
+            return 0;
+        }
+    }
+}
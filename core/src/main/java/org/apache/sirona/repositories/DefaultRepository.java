@@ -26,6 +26,7 @@ import org.apache.sirona.gauges.Gauge;
 import org.apache.sirona.gauges.GaugeAware;
 import org.apache.sirona.gauges.jvm.ActiveThreadGauge;
 import org.apache.sirona.gauges.jvm.CPUGauge;
+import org.apache.sirona.gauges.jvm.SironaAllocatedBytesGauge;
 import org.apache.sirona.gauges.jvm.UsedMemoryGauge;
 import org.apache.sirona.gauges.jvm.UsedNonHeapMemoryGauge;
 import org.apache.sirona.status.NodeStatus;
@@ -34,6 +35,7 @@ import org.apache.sirona.stopwatches.StopWatch;
 import org.apache.sirona.store.DataStoreFactory;
 import org.apache.sirona.store.counter.CollectorCounterStore;
 import org.apache.sirona.store.counter.CounterDataStore;
+import org.apache.sirona.store.counter.CounterGeneration;
 import org.apache.sirona.store.gauge.CollectorGaugeDataStore;
 import org.apache.sirona.store.gauge.CommonGaugeDataStore;
 import org.apache.sirona.store.gauge.GaugeDataStore;
@@ -42,6 +44,7 @@ import org.apache.sirona.store.status.CollectorNodeStatusDataStore;
 import org.apache.sirona.store.status.NodeStatusDataStore;
 import org.apache.sirona.store.tracking.PathTrackingDataStore;
 import org.apache.sirona.util.ClassLoaders;
+import org.apache.sirona.util.SelfMonitoring;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -93,6 +96,11 @@ public class DefaultRepository implements Repository
         for (final AlertListener listener : alertListeners) {
             nodeStatusDataStore.addAlerter(listener);
         }
+
+        if (SelfMonitoring.ACTIVATED) {
+            addGauge(new SironaAllocatedBytesGauge());
+            SelfMonitoring.attach(this);
+        }
     }
 
     protected static Collection<AlertListener> findAlerters() {
@@ -207,6 +215,7 @@ public class DefaultRepository implements Repository
     @Override
     public void clearCounters() {
         counterDataStore.clearCounters();
+        CounterGeneration.next(); // even if the store doesn't, cached counters are looked up again
     }
 
     @Override
@@ -44,6 +44,11 @@ public abstract class BatchPathTrackingDataStore
 
     protected BatchFuture scheduledTask;
 
+    protected BatchPathTrackingDataStore()
+    {
+        super( 0, 0, 0 ); // no eviction, entries are freed once pushed
+    }
+
     @Created // call it only when main impl not in delegated mode so use IoC lifecycle management
     public void initBatch()
     {
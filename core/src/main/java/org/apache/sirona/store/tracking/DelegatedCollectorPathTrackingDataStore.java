@@ -68,6 +68,12 @@ public class DelegatedCollectorPathTrackingDataStore
         return this.delegatedPathTrackingDataStore.retrieveTrackingIds( startTime, endTime );
     }
 
+    @Override
+    public Collection<PathCallInformation> retrieveTrackingIds( Date startTime, Date endTime, int offset, int limit )
+    {
+        return this.delegatedPathTrackingDataStore.retrieveTrackingIds( startTime, endTime, offset, limit );
+    }
+
     @Override
     public Collection<PathTrackingEntry> retrieve( String trackingId, int number )
     {
@@ -77,4 +77,29 @@ public class AggregatorTest {
         assertEquals(1.2564, aggregate.getVariance(), 0.001);
         assertEquals(15., aggregate.getSum(), 0);
     }
+
+    @Test
+    public void histograms() {
+        final Counter.Key key = new Counter.Key(Role.PERFORMANCES, "percentiles");
+
+        final Histogram fast = new Histogram();
+        for (int i = 0; i < 990; i++) {
+            fast.record(10);
+        }
+        final Histogram slow = new Histogram();
+        for (int i = 0; i < 10; i++) {
+            slow.record(5000);
+        }
+
+        final CollectorCounterStore store = new InMemoryCollectorCounterStore();
+        store.update(key, "client1", new M2AwareStatisticalSummary(10, 0, 990, 10, 10, 9900, 0, fast), 1);
+        store.update(key, "client2", new M2AwareStatisticalSummary(5000, 0, 10, 5000, 5000, 50000, 0, slow), 1);
+
+        final Counter aggregate = store.getOrCreateCounter(key);
+        assertEquals(1000, aggregate.getHistogram().getCount());
+        assertEquals(10., MetricData.P50.value(aggregate), 0);
+        assertEquals(10., MetricData.P99.value(aggregate), 0);
+        assertEquals(fast.copy().merge(slow).getPercentile(99.9), MetricData.P999.value(aggregate), 0);
+        assertTrue(MetricData.P999.value(aggregate) > 4800);
+    }
 }
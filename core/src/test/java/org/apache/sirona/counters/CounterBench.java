@@ -18,8 +18,10 @@ package org.apache.sirona.counters;
 
 import org.apache.sirona.Role;
 import org.apache.sirona.store.memory.counter.InMemoryCounterDataStore;
+import org.apache.sirona.store.memory.counter.StripedCounter;
 import org.junit.Test;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -40,6 +42,53 @@ public class CounterBench implements Runnable {
         runConcurrent();
     }
 
+    @Test
+    public void stripedCounter() throws Exception {
+        mode = "StripedCounter";
+        counter = new StripedCounter(new Counter.Key(Role.FAILURES, mode), new InMemoryCounterDataStore());
+        runConcurrent();
+    }
+
+    @Test
+    public void contention() throws Exception { // same work per thread, only the number of threads changes
+        final int loopsPerThread = 2000000;
+        for (int threads = 1; threads <= 2 * Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            final InMemoryCounterDataStore store = new InMemoryCounterDataStore();
+            runContention("RentrantLockCounter", new DefaultCounter(new Counter.Key(Role.FAILURES, "lock"), store), threads, loopsPerThread);
+            runContention("StripedCounter", new StripedCounter(new Counter.Key(Role.FAILURES, "striped"), store), threads, loopsPerThread);
+        }
+    }
+
+    private static void runContention(final String name, final Counter counter, final int threads, final int loops) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < loops; i++) {
+                            counter.add(1, Unit.UNARY);
+                        }
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        final long begin = System.nanoTime();
+        start.countDown();
+        end.await();
+        final long duration = System.nanoTime() - begin;
+
+        System.out.printf("%s, %d threads : %,d ns total, %,d ops/ms%n", name, threads, duration, (long) threads * loops * 1000000L / duration);
+        assertEquals((long) threads * loops, counter.getSum(), 0);
+    }
+
     private void runConcurrent() throws InterruptedException {
         final long start = System.nanoTime();
         final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
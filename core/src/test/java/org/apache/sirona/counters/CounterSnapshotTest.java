@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.counters;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.store.memory.counter.InMemoryCounterDataStore;
+import org.apache.sirona.store.memory.counter.StripedCounter;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CounterSnapshotTest {
+    @Test
+    public void snapshotAndReset() {
+        final InMemoryCounterDataStore store = new InMemoryCounterDataStore();
+        final Counter counter = store.getOrCreateCounter(new Counter.Key(Role.PERFORMANCES, "snapshot"));
+        counter.add(1);
+        counter.add(3);
+
+        final CounterSnapshot snapshot = counter.snapshot(true);
+        assertEquals(2, snapshot.getHits());
+        assertEquals(4., snapshot.getSum(), 0.);
+        assertEquals(2., snapshot.getMean(), 0.);
+        assertEquals(1., snapshot.getMin(), 0.);
+        assertEquals(3., snapshot.getMax(), 0.);
+        assertEquals(0, counter.getHits());
+
+        counter.add(5);
+        assertEquals(1, counter.snapshot().getHits());
+        assertEquals(1, counter.snapshot().getHits()); // no reset
+    }
+
+    @Test
+    public void consistentUnderWrites() throws InterruptedException {
+        consistentUnderWrites(new DefaultCounter(new Counter.Key(Role.PERFORMANCES, "default"), new InMemoryCounterDataStore()));
+        consistentUnderWrites(new StripedCounter(new Counter.Key(Role.PERFORMANCES, "striped"), new InMemoryCounterDataStore()));
+    }
+
+    // all writers add the same value so a torn read would show sum != hits * value
+    private static void consistentUnderWrites(final Counter counter) throws InterruptedException {
+        final AtomicBoolean done = new AtomicBoolean();
+        final CountDownLatch started = new CountDownLatch(2);
+        final Thread[] writers = new Thread[2];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    while (!done.get()) {
+                        counter.add(2);
+                    }
+                }
+            };
+            writers[i].start();
+        }
+
+        started.await();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                final CounterSnapshot snapshot = counter.snapshot(i % 2 == 0);
+                assertEquals(snapshot.getHits() * 2., snapshot.getSum(), 0.);
+                if (snapshot.getHits() > 0) {
+                    assertEquals(2., snapshot.getMean(), 0.);
+                    assertEquals(2., snapshot.getMax(), 0.);
+                    assertEquals(2., snapshot.getMin(), 0.);
+                } else {
+                    assertTrue(Double.isNaN(snapshot.getMax()));
+                }
+            }
+        } finally {
+            done.set(true);
+            for (final Thread writer : writers) {
+                writer.join();
+            }
+        }
+    }
+}
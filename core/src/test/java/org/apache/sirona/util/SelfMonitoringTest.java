@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.util;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.gauges.Gauge;
+import org.apache.sirona.gauges.jvm.SironaAllocatedBytesGauge;
+import org.apache.sirona.repositories.Repository;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SelfMonitoringTest {
+    @After
+    public void detach() {
+        SelfMonitoring.detach();
+    }
+
+    @Test
+    public void gaugesWaitForTheRepository() {
+        SelfMonitoring.addGauge(new ConstantGauge("self-monitoring-pending"));
+        assertNull(Repository.INSTANCE.findGaugeRole("self-monitoring-pending"));
+
+        SelfMonitoring.attach(Repository.INSTANCE);
+        assertNotNull(Repository.INSTANCE.findGaugeRole("self-monitoring-pending"));
+
+        SelfMonitoring.addGauge(new ConstantGauge("self-monitoring-attached"));
+        assertNotNull(Repository.INSTANCE.findGaugeRole("self-monitoring-attached"));
+    }
+
+    @Test
+    public void countersOnceAttached() {
+        SelfMonitoring.time("self-monitoring-ignored", 10);
+        SelfMonitoring.attach(Repository.INSTANCE);
+        SelfMonitoring.time("self-monitoring-push", 10);
+        SelfMonitoring.time("self-monitoring-push", 30);
+        SelfMonitoring.sent("self-monitoring-target", 100);
+        SelfMonitoring.sent("self-monitoring-target", 50);
+
+        assertEquals(0, Repository.INSTANCE.getCounter(new Counter.Key(Role.SIRONA, "self-monitoring-ignored")).getHits());
+
+        final Counter push = Repository.INSTANCE.getCounter(new Counter.Key(Role.SIRONA, "self-monitoring-push"));
+        assertEquals(2, push.getHits());
+        assertEquals(40, push.getSum(), 0);
+
+        final Counter sent = Repository.INSTANCE.getCounter(new Counter.Key(SelfMonitoring.SENT, "self-monitoring-target"));
+        assertEquals(2, sent.getHits()); // round trips
+        assertEquals(150, sent.getSum(), 0);
+    }
+
+    @Test
+    public void allocatedBytes() throws Exception {
+        final ExecutorService es = Executors.newSingleThreadExecutor(new DaemonThreadFactory("self-monitoring-test-"));
+        try {
+            final Object allocated = es.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    return new byte[1024 * 1024];
+                }
+            }).get();
+            assertNotNull(allocated);
+            assertTrue(new SironaAllocatedBytesGauge().value() >= 1024 * 1024);
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    private static class ConstantGauge implements Gauge {
+        private final Role role;
+
+        private ConstantGauge(final String name) {
+            role = new Role(name, Unit.UNARY);
+        }
+
+        public Role role() {
+            return role;
+        }
+
+        public double value() {
+            return 1;
+        }
+    }
+}
@@ -495,7 +495,7 @@ public class Collector extends HttpServlet {
                     event.setMethodName( pathTrackingEntry.getMethodName() );
                     event.setNodeId( pathTrackingEntry.getNodeId() );
                     event.setStartTime( pathTrackingEntry.getStartTime() );
-                    event.setTrackingId( pathTrackingEntry.getTrackingId() );
+                    event.setId( pathTrackingEntry.getId() );
                 }
             } );
         }
@@ -521,7 +521,7 @@ public class Collector extends HttpServlet {
                     event.setMethodName( pathTrackingEntry.getMethodName() );
                     event.setNodeId( pathTrackingEntry.getNodeId() );
                     event.setStartTime( pathTrackingEntry.getStartTime() );
-                    event.setTrackingId( pathTrackingEntry.getTrackingId() );
+                    event.setId( pathTrackingEntry.getId() );
                 }
             } );
         }
@@ -18,6 +18,7 @@ package org.apache.sirona.reporting.web.counters;
 
 import org.apache.sirona.Role;
 import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
 import org.apache.sirona.counters.MetricData;
 import org.apache.sirona.counters.Unit;
 import org.apache.sirona.repositories.Repository;
@@ -57,31 +58,32 @@ public class CountersService
         for ( Counter counter : counters )
         {
             Unit currentUnit = counter.getKey().getRole().getUnit();
+            CounterSnapshot snapshot = counter.snapshot();
             if ( unit == null )
             {
                 out.add( new CounterInfo( new KeyInfo( counter.getKey() ), //
-                                          MetricData.Hits.value( counter ), //
-                                          MetricData.Max.value( counter ), //
-                                          MetricData.Mean.value( counter ), //
-                                          MetricData.Min.value( counter ), //
-                                          MetricData.StandardDeviation.value( counter ), //
-                                          MetricData.Sum.value( counter ), //
-                                          MetricData.Variance.value( counter ), //
-                                          MetricData.Concurrency.value( counter ), //
-                                          MetricData.MaxConcurrency.value( counter ) ) ); //
+                                          MetricData.Hits.value( snapshot ), //
+                                          MetricData.Max.value( snapshot ), //
+                                          MetricData.Mean.value( snapshot ), //
+                                          MetricData.Min.value( snapshot ), //
+                                          MetricData.StandardDeviation.value( snapshot ), //
+                                          MetricData.Sum.value( snapshot ), //
+                                          MetricData.Variance.value( snapshot ), //
+                                          MetricData.Concurrency.value( snapshot ), //
+                                          MetricData.MaxConcurrency.value( snapshot ) ) ); //
             }
             else
             {
                 out.add( new CounterInfo( new KeyInfo( counter.getKey() ).unitName( unit.getName() ), //
-                                          MetricData.Hits.value( counter ), //
-                                          unit.convert( MetricData.Max.value( counter ), currentUnit ), //
-                                          unit.convert( MetricData.Mean.value( counter ), currentUnit ), //
-                                          unit.convert( MetricData.Min.value( counter ), currentUnit ), //
-                                          unit.convert( MetricData.StandardDeviation.value( counter ), currentUnit ), //
-                                          unit.convert( MetricData.Sum.value( counter ), currentUnit ), //
-                                          unit.convert( MetricData.Variance.value( counter ), currentUnit ), //
-                                          MetricData.Concurrency.value( counter ), //
-                                          MetricData.MaxConcurrency.value( counter ) ) ); //
+                                          MetricData.Hits.value( snapshot ), //
+                                          unit.convert( MetricData.Max.value( snapshot ), currentUnit ), //
+                                          unit.convert( MetricData.Mean.value( snapshot ), currentUnit ), //
+                                          unit.convert( MetricData.Min.value( snapshot ), currentUnit ), //
+                                          unit.convert( MetricData.StandardDeviation.value( snapshot ), currentUnit ), //
+                                          unit.convert( MetricData.Sum.value( snapshot ), currentUnit ), //
+                                          unit.convert( MetricData.Variance.value( snapshot ), currentUnit ), //
+                                          MetricData.Concurrency.value( snapshot ), //
+                                          MetricData.MaxConcurrency.value( snapshot ) ) ); //
             }
         }
 
@@ -98,13 +100,17 @@ public class CountersService
         final Counter counter =
             Repository.INSTANCE.getCounter( new Counter.Key( new Role( name, Unit.get( unit ) ), name ) );
 
-        return counter == null
-            ? null
-            : new CounterInfo( new KeyInfo( counter.getKey() ), MetricData.Hits.value( counter ), //
-                               MetricData.Max.value( counter ), MetricData.Mean.value( counter ), //
-                               MetricData.Min.value( counter ), MetricData.StandardDeviation.value( counter ), //
-                               MetricData.Sum.value( counter ), MetricData.Variance.value( counter ), //
-                               MetricData.Concurrency.value( counter ), MetricData.MaxConcurrency.value( counter ) );
+        if ( counter == null )
+        {
+            return null;
+        }
+
+        final CounterSnapshot snapshot = counter.snapshot();
+        return new CounterInfo( new KeyInfo( counter.getKey() ), MetricData.Hits.value( snapshot ), //
+                                MetricData.Max.value( snapshot ), MetricData.Mean.value( snapshot ), //
+                                MetricData.Min.value( snapshot ), MetricData.StandardDeviation.value( snapshot ), //
+                                MetricData.Sum.value( snapshot ), MetricData.Variance.value( snapshot ), //
+                                MetricData.Concurrency.value( snapshot ), MetricData.MaxConcurrency.value( snapshot ) );
 
     }
 
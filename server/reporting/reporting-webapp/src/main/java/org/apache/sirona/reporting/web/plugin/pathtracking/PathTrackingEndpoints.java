@@ -16,7 +16,9 @@
 */
 package org.apache.sirona.reporting.web.plugin.pathtracking;
 
+import org.apache.sirona.SironaException;
 import org.apache.sirona.configuration.ioc.IoCs;
+import org.apache.sirona.pathtracking.CallTree;
 import org.apache.sirona.pathtracking.PathCallInformation;
 import org.apache.sirona.pathtracking.PathTrackingEntry;
 import org.apache.sirona.reporting.web.plugin.api.MapBuilder;
@@ -26,12 +28,18 @@ import org.apache.sirona.reporting.web.plugin.report.format.HTMLFormat;
 import org.apache.sirona.store.tracking.PathTrackingDataStore;
 import org.apache.sirona.util.Environment;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -42,6 +50,10 @@ public class PathTrackingEndpoints
     private static final PathTrackingDataStore PATH_TRACKING_DATA_STORE =
         IoCs.findOrCreateInstance( PathTrackingDataStore.class );
 
+    private static final CallTree CALL_TREE = IoCs.findOrCreateInstance( CallTree.class );
+
+    private static final int CALL_TREE_MAX_ROWS = 5000;
+
     @Regex
     public Template home()
     {
@@ -64,10 +76,25 @@ public class PathTrackingEndpoints
 
     @Regex( "/startend/([0-9]*)/([0-9]*)" )
     public String startend( final long start, final long end )
+    {
+        return startend( start, end, 0, 0 );
+    }
+
+    /**
+     * page of the trackingIds started between start and end
+     *
+     * @param start
+     * @param end
+     * @param offset number of trackingIds to skip
+     * @param limit maximum number of trackingIds, 0 for all
+     * @return
+     */
+    @Regex( "/startend/([0-9]*)/([0-9]*)/([0-9]*)/([0-9]*)" )
+    public String startend( final long start, final long end, final int offset, final int limit )
     {
 
         Collection<PathCallInformation> entries =
-            PATH_TRACKING_DATA_STORE.retrieveTrackingIds( new Date( start ), new Date( end ) );
+            PATH_TRACKING_DATA_STORE.retrieveTrackingIds( new Date( start ), new Date( end ), offset, limit );
 
         MapBuilder<String, String> mapBuilder = new MapBuilder<String, String>();
 
@@ -106,6 +133,129 @@ public class PathTrackingEndpoints
         );
     }
 
+    /**
+     * the paths stored until now merged in a call tree, the most expensive calls first
+     *
+     * @return
+     */
+    @Regex( "/calltree" )
+    public Template callTree()
+    {
+        final List<CallTreeRow> rows = new ArrayList<CallTreeRow>();
+        for ( CallTree.Node node : CALL_TREE.getRoot().getChildren() )
+        {
+            flatten( rows, node, 0 );
+        }
+
+        return new Template( "pathtracking/calltree.vm", //
+                             new MapBuilder<String, Object>() //
+                                 .set( "rows", rows ) //
+                                 .set( "activated", CALL_TREE.isActivated() ) //
+                                 .set( "nodes", CALL_TREE.getNodeNumber() ) //
+                                 .set( "truncated", rows.size() >= CALL_TREE_MAX_ROWS ).build() );
+    }
+
+    /**
+     * the call tree as collapsed stacks (self time in ns), input of the flame graph tools
+     *
+     * @param response
+     * @return
+     */
+    @Regex( "/calltree/collapsed" )
+    public String collapsedStacks( final HttpServletResponse response )
+    {
+        response.setContentType( "text/plain" );
+        return CALL_TREE.toCollapsedStacks();
+    }
+
+    /**
+     * resets the call tree, POST only since it changes the state
+     *
+     * @param request
+     * @param response
+     */
+    @Regex( "/calltree/clear" )
+    public void clearCallTree( final HttpServletRequest request, final HttpServletResponse response )
+    {
+        try
+        {
+            if ( !"POST".equalsIgnoreCase( request.getMethod() ) )
+            {
+                response.setHeader( "Allow", "POST" );
+                response.sendError( HttpServletResponse.SC_METHOD_NOT_ALLOWED );
+                return;
+            }
+
+            CALL_TREE.reset();
+            response.sendRedirect(
+                request.getRequestURI().substring( 0, request.getRequestURI().length() - "/clear".length() ) );
+        }
+        catch ( final IOException e )
+        {
+            throw new SironaException( e );
+        }
+    }
+
+    private static void flatten( final List<CallTreeRow> rows, final CallTree.Node node, final int depth )
+    {
+        if ( rows.size() >= CALL_TREE_MAX_ROWS )
+        {
+            return;
+        }
+        rows.add( new CallTreeRow( node, depth ) );
+        for ( CallTree.Node child : node.getChildren() )
+        {
+            flatten( rows, child, depth + 1 );
+        }
+    }
+
+    public static class CallTreeRow
+    {
+        private final CallTree.Node node;
+
+        private final int depth;
+
+        public CallTreeRow( final CallTree.Node node, final int depth )
+        {
+            this.node = node;
+            this.depth = depth;
+        }
+
+        public int getDepth()
+        {
+            return depth;
+        }
+
+        public String getName()
+        {
+            return node.getName();
+        }
+
+        public long getCalls()
+        {
+            return node.getCalls();
+        }
+
+        public double getTotalTime()
+        {
+            return toMs( node.getTotalTime() );
+        }
+
+        public double getSelfTime()
+        {
+            return toMs( node.getSelfTime() );
+        }
+
+        public double getMaxTime()
+        {
+            return toMs( node.getMaxTime() );
+        }
+
+        private static double toMs( final long nanos )
+        {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos( 1 );
+        }
+    }
 
     static String toJson( final Map<String, String> data )
     { // helper to generate Json
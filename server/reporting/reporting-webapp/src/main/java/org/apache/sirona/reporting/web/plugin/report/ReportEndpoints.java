@@ -40,6 +40,8 @@ import java.util.TreeMap;
 
 import static org.apache.sirona.reporting.web.plugin.report.format.MapFormat.format;
 import static org.apache.sirona.reporting.web.plugin.report.format.MapFormat.generateLine;
+import static org.apache.sirona.reporting.web.plugin.report.format.MapFormat.hasPercentiles;
+import static org.apache.sirona.reporting.web.plugin.report.format.MapFormat.headers;
 import static org.apache.sirona.reporting.web.plugin.report.format.MapFormat.timeUnit;
 
 public class ReportEndpoints {
@@ -57,17 +59,21 @@ public class ReportEndpoints {
         final String format = format(params, HTMLFormat.NUMBER_FORMAT);
 
         final Map<String, Collection<String>> counters = new TreeMap<String, Collection<String>>();
+        final boolean percentiles;
         if (AggregatedCounter.class.isInstance(counter)) {
-            for (final Map.Entry<String, ? extends Counter> marker : AggregatedCounter.class.cast(counter).aggregated().entrySet()) {
-                counters.put(marker.getKey(), generateLine(marker.getValue(), timeUnit, format));
+            final Map<String, ? extends Counter> aggregated = AggregatedCounter.class.cast(counter).aggregated();
+            percentiles = hasPercentiles(aggregated.values());
+            for (final Map.Entry<String, ? extends Counter> marker : aggregated.entrySet()) {
+                counters.put(marker.getKey(), generateLine(marker.getValue(), timeUnit, format, percentiles));
             }
         } else {
-            counters.put("", generateLine(counter, timeUnit, format));
+            percentiles = counter.getHistogram() != null;
+            counters.put("", generateLine(counter, timeUnit, format, percentiles));
         }
 
         return new Template("report/counter.vm",
             new MapBuilder<String, Object>()
-                .set("headers", HTMLFormat.ATTRIBUTES_ORDERED_LIST)
+                .set("headers", headers(percentiles))
                 .set("counter", counter)
                 .set("counters", counters)
                 .build());
@@ -17,9 +17,11 @@
 package org.apache.sirona.reporting.web.plugin.report.format;
 
 import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.counters.Counter;
 import org.apache.sirona.counters.Unit;
 import org.apache.sirona.reporting.web.plugin.api.MapBuilder;
 import org.apache.sirona.reporting.web.plugin.api.Template;
+import org.apache.sirona.repositories.Repository;
 
 import java.util.Collection;
 import java.util.Map;
@@ -27,15 +29,18 @@ import java.util.Map;
 public class CSVFormat extends MapFormat implements Format {
     private static final String SEPARATOR = Configuration.getProperty(Configuration.CONFIG_PROPERTY_PREFIX + "csv.separator", ";");
     public static final String HEADER = "Counter" + SEPARATOR + "Role" + SEPARATOR + toCsv(ATTRIBUTES_ORDERED_LIST);
+    public static final String HEADER_WITH_PERCENTILES = "Counter" + SEPARATOR + "Role" + SEPARATOR + toCsv(ATTRIBUTES_WITH_PERCENTILES_ORDERED_LIST);
 
     @Override
     public Template render(final Map<String, ?> params) {
         final Unit timeUnit = timeUnit(params);
+        final Collection<Counter> counters = Repository.INSTANCE.counters();
+        final boolean percentiles = hasPercentiles(counters);
         return new Template("/templates/report/report-csv.vm",
                         new MapBuilder<String, Object>()
-                        .set("headers", HEADER)
+                        .set("headers", percentiles ? HEADER_WITH_PERCENTILES : HEADER)
                         .set("separator", SEPARATOR)
-                        .set("lines", snapshot(timeUnit, format(params, null)))
+                        .set("lines", snapshot(counters, timeUnit, format(params, null), percentiles))
                         .build(), false);
     }
 
@@ -16,10 +16,13 @@
  */
 package org.apache.sirona.reporting.web.plugin.report.format;
 
+import org.apache.sirona.counters.Counter;
 import org.apache.sirona.counters.Unit;
 import org.apache.sirona.reporting.web.plugin.api.MapBuilder;
 import org.apache.sirona.reporting.web.plugin.api.Template;
+import org.apache.sirona.repositories.Repository;
 
+import java.util.Collection;
 import java.util.Map;
 
 public class HTMLFormat extends MapFormat implements Format {
@@ -28,11 +31,13 @@ public class HTMLFormat extends MapFormat implements Format {
     @Override
     public Template render(final Map<String, ?> params) {
         final Unit timeUnit = timeUnit(params);
+        final Collection<Counter> counters = Repository.INSTANCE.counters();
+        final boolean percentiles = hasPercentiles(counters);
         return new Template("report/report.vm",
             new MapBuilder<String, Object>()
                 .set(Map.class.cast(params))
-                .set("headers", ATTRIBUTES_ORDERED_LIST)
-                .set("data", snapshotByPath(timeUnit, format(params, NUMBER_FORMAT)))
+                .set("headers", headers(percentiles))
+                .set("data", snapshotByPath(counters, timeUnit, format(params, NUMBER_FORMAT), percentiles))
                 .build());
     }
 
@@ -18,9 +18,9 @@ package org.apache.sirona.reporting.web.plugin.report.format;
 
 import org.apache.sirona.Role;
 import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
 import org.apache.sirona.counters.MetricData;
 import org.apache.sirona.counters.Unit;
-import org.apache.sirona.repositories.Repository;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
@@ -35,18 +35,33 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public abstract class MapFormat {
     public static final String ENCODING = "UTF-8";
 
-    public static final Collection<String> ATTRIBUTES_ORDERED_LIST = buildMetricDataHeader();
+    public static final Collection<String> ATTRIBUTES_ORDERED_LIST = buildMetricDataHeader(false);
+    public static final Collection<String> ATTRIBUTES_WITH_PERCENTILES_ORDERED_LIST = buildMetricDataHeader(true);
 
-    protected static Collection<String> buildMetricDataHeader() {
+    protected static Collection<String> buildMetricDataHeader(final boolean percentiles) {
         final Collection<String> list = new CopyOnWriteArrayList<String>();
         list.add("Counter");
         list.add("Role");
-        for (final MetricData md : MetricData.values()) {
+        for (final MetricData md : MetricData.values(percentiles)) {
             list.add(md.name());
         }
         return list;
     }
 
+    public static Collection<String> headers(final boolean percentiles) {
+        return percentiles ? ATTRIBUTES_WITH_PERCENTILES_ORDERED_LIST : ATTRIBUTES_ORDERED_LIST;
+    }
+
+    // percentile columns are only rendered when a counter tracks them, they would be NaN otherwise
+    public static boolean hasPercentiles(final Collection<? extends Counter> counters) {
+        for (final Counter counter : counters) {
+            if (counter.getHistogram() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static String format(final Map<String, ?> params, final String defaultValue) {
         if (params == null) {
             return defaultValue;
@@ -100,11 +115,12 @@ public abstract class MapFormat {
         return Unit.Time.MILLISECOND;
     }
 
-    protected static Map<String, Collection<String>> snapshotByPath(final Unit timeUnit, final String format) {
+    protected static Map<String, Collection<String>> snapshotByPath(final Collection<Counter> counters, final Unit timeUnit,
+                                                                    final String format, final boolean percentiles) {
         final Map<String, Collection<String>> data = new TreeMap<String, Collection<String>>();
-        for (final Counter counter : Repository.INSTANCE.counters()) {
+        for (final Counter counter : counters) {
             final Counter.Key key = counter.getKey();
-            data.put(generateCounterKeyString(key), generateLine(counter, timeUnit, format));
+            data.put(generateCounterKeyString(key), generateLine(counter, timeUnit, format, percentiles));
         }
         return data;
     }
@@ -118,15 +134,21 @@ public abstract class MapFormat {
         }
     }
 
-    protected static Collection<Collection<String>> snapshot(final Unit timeUnit, final String format) {
+    protected static Collection<Collection<String>> snapshot(final Collection<Counter> counters, final Unit timeUnit,
+                                                             final String format, final boolean percentiles) {
         final Collection<Collection<String>> data = new ArrayList<Collection<String>>();
-        for (final Counter counter : Repository.INSTANCE.counters()) {
-            data.add(generateLine(counter, timeUnit, format));
+        for (final Counter counter : counters) {
+            data.add(generateLine(counter, timeUnit, format, percentiles));
         }
         return data;
     }
 
     public static Collection<String> generateLine(final Counter counter, final Unit timeUnit, final String format) {
+        return generateLine(counter, timeUnit, format, counter.getHistogram() != null);
+    }
+
+    public static Collection<String> generateLine(final Counter counter, final Unit timeUnit, final String format,
+                                                  final boolean percentiles) {
         final Unit counterUnit = counter.getKey().getRole().getUnit();
         final boolean compatible = timeUnit.isCompatible(counterUnit);
 
@@ -147,8 +169,9 @@ public abstract class MapFormat {
             formatter = null;
         }
 
-        for (final MetricData md : MetricData.values()) {
-            double value = md.value(counter);
+        final CounterSnapshot snapshot = counter.snapshot();
+        for (final MetricData md : MetricData.values(percentiles)) {
+            double value = md.value(snapshot);
             if (md.isTime() && compatible && timeUnit != counterUnit) {
                 value = timeUnit.convert(value, counterUnit);
             }
@@ -20,6 +20,7 @@ import org.apache.sirona.cassandra.collector.counter.CassandraCollectorCounterDa
 import org.apache.sirona.configuration.ioc.AutoSet;
 import org.apache.sirona.configuration.ioc.Created;
 import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
 import org.apache.sirona.math.M2AwareStatisticalSummary;
 import org.apache.sirona.store.memory.counter.BatchCounterDataStore;
 import org.apache.sirona.util.Localhosts;
@@ -48,11 +49,13 @@ public class CassandraCounterDataStore extends BatchCounterDataStore
     @Override
     protected void pushCountersByBatch(final Collection<Counter> instances) {
         for (final Counter counter : instances) {
+            final CounterSnapshot snapshot = counter.snapshot();
             delegate.getOrCreateCounter(counter.getKey(), marker)
                 .update(new M2AwareStatisticalSummary(
-                        counter.getMean(), counter.getVariance(), counter.getHits(),
-                        counter.getMax(), counter.getMin(), counter.getSum(), counter.getSecondMoment()),
-                    counter.currentConcurrency().get());
+                        snapshot.getMean(), snapshot.getVariance(), snapshot.getHits(),
+                        snapshot.getMax(), snapshot.getMin(), snapshot.getSum(), snapshot.getSecondMoment(),
+                        snapshot.getHistogram()),
+                    snapshot.getConcurrency());
         }
     }
 
@@ -144,6 +144,7 @@ public class CassandraPathTrackingDataStore
     @Override
     public void store( Collection<PathTrackingEntry> pathTrackingEntries )
     {
+        getCallTree().add( pathTrackingEntries );
 
         Mutator<String> mutator = HFactory.createMutator( keyspace, StringSerializer.get() );
 
@@ -341,6 +342,13 @@ public class CassandraPathTrackingDataStore
         return ids;
     }
 
+    @Override
+    public Collection<PathCallInformation> retrieveTrackingIds( Date startTime, Date endTime, int offset, int limit )
+    {
+        // the in memory time index only holds the entries not pushed yet
+        return page( retrieveTrackingIds( startTime, endTime ), offset, limit );
+    }
+
 
     /**
      * <b>use with CAUTION as can return a lot of data</b>
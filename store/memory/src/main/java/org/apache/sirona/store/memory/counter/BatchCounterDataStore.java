@@ -21,6 +21,7 @@ import org.apache.sirona.configuration.ioc.Destroying;
 import org.apache.sirona.counters.Counter;
 import org.apache.sirona.store.BatchFuture;
 import org.apache.sirona.util.DaemonThreadFactory;
+import org.apache.sirona.util.SelfMonitoring;
 
 import java.util.Collection;
 import java.util.Locale;
@@ -44,7 +45,7 @@ public abstract class BatchCounterDataStore extends InMemoryCounterDataStore {
         clearAfterCollect = isClearAfterCollect(prefix);
 
         final ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(name + "-counter-schedule-"));
-        final ScheduledFuture<?> future = ses.scheduleAtFixedRate(new BatchPushCountersTask(), period, period, TimeUnit.MILLISECONDS);
+        final ScheduledFuture<?> future = ses.scheduleAtFixedRate(new BatchPushCountersTask("counter-push:" + name), period, period, TimeUnit.MILLISECONDS);
         scheduledTask = new BatchFuture(ses, future);
     }
 
@@ -70,11 +71,19 @@ public abstract class BatchCounterDataStore extends InMemoryCounterDataStore {
     protected abstract void pushCountersByBatch(final Collection<Counter> instance);
 
     private class BatchPushCountersTask implements Runnable {
+        private final String name;
+
+        private BatchPushCountersTask(final String name) {
+            this.name = name;
+        }
+
         @Override
         public void run() {
             try {
+                final long start = System.nanoTime();
                 pushCountersByBatch(counters.values());
                 clearCountersIfNeeded();
+                SelfMonitoring.time(name, System.nanoTime() - start);
             } catch (final Exception e) {
                 LOGGER.log(Level.SEVERE, e.getMessage(), e);
             }
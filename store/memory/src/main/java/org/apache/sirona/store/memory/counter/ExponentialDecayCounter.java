@@ -1,226 +1,310 @@
-/*
- * Licensed to the Apache Software Foundation (ASF) under one or more
- * contributor license agreements.  See the NOTICE file distributed with
- * this work for additional information regarding copyright ownership.
- * The ASF licenses this file to You under the Apache License, Version 2.0
- * (the "License"); you may not use this file except in compliance with
- * the License.  You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package org.apache.sirona.store.memory.counter;
-
-import org.apache.sirona.counters.LockableCounter;
-import org.apache.sirona.counters.OptimizedStatistics;
-import org.apache.sirona.store.counter.CounterDataStore;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-
-// exponential decay sampling implementation
-// inspired from http://dimacs.rutgers.edu/~graham/pubs/papers/fwddecay.pdf
-//
-// @Experimental, likely needs some more love for m2 computation
-public class ExponentialDecayCounter extends LockableCounter {
-    public static final double ACCEPTABLE_DEFAULT_ALPHA = 0.015;
-    public static final int ACCEPTABLE_DEFAULT_SIZE = 512;
-    public static final long ACCEPTABLE_STATISTICS_REFRESH_SECONDS = 5;
-
-    private final double alpha;
-    private final double samplingSize;
-    private final long refreshStatInterval;
-
-    private final AtomicInteger currentCount = new AtomicInteger();
-    private volatile long recomputeAt;
-    private volatile long becameAt;
-    private volatile long computedStatsAt;
-    private final ConcurrentSkipListMap<Double, Double> values = new ConcurrentSkipListMap<Double, Double>();
-    private volatile OptimizedStatistics currentStats;
-
-    public ExponentialDecayCounter(final Key key, final CounterDataStore store,
-                                   final double alpha, final int samplingSize, final long refreshStatInterval) {
-        super(key, store);
-        this.alpha = alpha;
-        this.samplingSize = samplingSize;
-        this.refreshStatInterval = refreshStatInterval;
-        reset();
-    }
-
-    protected long seconds() {
-        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
-    }
-
-    @Override
-    public void addInternal(final double delta) {
-        final long now = seconds();
-
-        final Lock rl = getLock().readLock();
-        rl.lock();
-        try {
-            final double priority = Math.exp(alpha * (now - becameAt)) / Math.random();
-            if (currentCount.incrementAndGet() > samplingSize) { // we need to remove 1 sample to respect samplingSize
-                double head = values.firstKey();
-                if (priority > head && values.putIfAbsent(priority, delta) == null) {
-                    while (values.remove(values.firstKey()) == null) {
-                        // no-op
-                    }
-                }
-            } else {
-                values.put(priority, delta);
-            }
-        } finally {
-            rl.unlock();
-        }
-
-        if (now >= recomputeAt) {
-            if (recomputeAt == now) {
-                return;
-            }
-            final Lock lock = getLock().writeLock();
-            lock.lock();
-            try {
-                final long currentLoopBecame = becameAt;
-                becameAt = now;
-                recomputeAt = nextComputation();
-                final long timeDiff = becameAt - currentLoopBecame;
-
-                for (final Double priority : new ArrayList<Double>(values.keySet())) {
-                    values.put(priority * Math.exp(-alpha * timeDiff), values.remove(priority));
-                }
-            } finally {
-                lock.unlock();
-            }
-        }
-    }
-
-    @Override
-    public void reset() {
-        final long now = seconds();
-        final Lock lock = getLock().writeLock();
-        lock.lock();
-        try {
-            values.clear();
-            this.currentCount.set(0);
-            this.becameAt = now;
-            this.recomputeAt = nextComputation();
-            super.reset();
-        } finally {
-            lock.unlock();
-        }
-    }
-
-    private long nextComputation() {
-        return this.becameAt + TimeUnit.MILLISECONDS.toSeconds(TimeUnit.HOURS.toMillis(1));
-    }
-
-    @Override
-    public OptimizedStatistics getStatistics() {
-        if (computedStatsAt != 0 && System.currentTimeMillis() - computedStatsAt < refreshStatInterval) {
-            return currentStats;
-        }
-
-        final LazyOptimizedStatistics stat;
-        final Lock lock = getLock().readLock();
-        lock.lock();
-        try {
-            stat = new LazyOptimizedStatistics(new HashMap<Double, Double>(values));
-            computedStatsAt = seconds();
-        } finally {
-            lock.unlock();
-        }
-
-        stat.init(); // out of lock
-
-        return (currentStats = stat);
-    }
-
-    @Override
-    public String toString() {
-        return "ExponentialDecayCounter{" +
-                "key=" + getKey() +
-                ", stats=" + getStatistics() +
-                '}';
-    }
-
-    private static class LazyOptimizedStatistics extends OptimizedStatistics {
-        private final Map<Double, Double> values;
-
-        private LazyOptimizedStatistics(final Map<Double, Double> values) {
-            this.values = values;
-        }
-
-        @Override
-        public OptimizedStatistics addValue(final double value) {
-            throw new UnsupportedOperationException();
-        }
-
-        private void init() {
-            if (values.isEmpty()) {
-                return;
-            }
-
-            // computed stats init
-            n = values.size();
-            min = Double.NaN;
-            max = Double.NaN;
-            m1 = 0;
-            m2 = 0;
-            sum = 0;
-
-            // sum priorities
-            double prioritySum = 0;
-            for (final Double priority : values.keySet()) {
-                prioritySum += priority;
-            }
-
-            { // normalise priorities
-                for (final Double priority : new ArrayList<Double>(values.keySet())) {
-                    values.put(priority / prioritySum, values.remove(priority));
-                }
-            }
-            { // min/max
-                for (final Double val : new ArrayList<Double>(values.values())) {
-                    if (Double.isNaN(min)) { // init
-                        max = min = val;
-                    } else {
-                        if (min > val) {
-                            min = val;
-                        }
-                        if (max < val) {
-                            max = val;
-                        }
-                    }
-                }
-            }
-            { // mean
-                for (final Map.Entry<Double, Double> priority : values.entrySet()) {
-                    m1 += priority.getValue() * priority.getKey();
-                }
-            }
-            if (values.size() > 1) { // variance
-                for (final Map.Entry<Double, Double> priority : values.entrySet()) {
-                    m2 += Math.pow(priority.getValue() - m1, 2) * priority.getKey();
-                }
-                m2 *= (n - 1);
-            }
-            { // sum (doesn't represent much - mathematically wrong - but gives an idea)
-                for (final Double v : values.values()) {
-                    sum += v;
-                }
-            }
-
-            values.clear();
-        }
-    }
-}
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.counter;
+
+import org.apache.sirona.counters.Histogram;
+import org.apache.sirona.counters.LockableCounter;
+import org.apache.sirona.counters.OptimizedStatistics;
+import org.apache.sirona.store.counter.CounterDataStore;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+// exponential decay sampling implementation
+// inspired from http://dimacs.rutgers.edu/~graham/pubs/papers/fwddecay.pdf
+//
+// the reservoir is a bounded min-heap on priorities (weight / random) stored in preallocated primitive arrays
+// so recording doesn't allocate, statistics are weighted by the forward decay weight of each kept sample.
+//
+// writers share the read lock (only rescale/reset take the write lock). Once the reservoir is full most samples
+// have a priority lower than the heap head and are rejected reading the volatile threshold, only the few kept
+// ones lock the heap itself.
+public class ExponentialDecayCounter extends LockableCounter {
+    public static final double ACCEPTABLE_DEFAULT_ALPHA = 0.015;
+    public static final int ACCEPTABLE_DEFAULT_SIZE = 512;
+    public static final long ACCEPTABLE_STATISTICS_REFRESH_SECONDS = 5;
+
+    private static final long RESCALE_INTERVAL = TimeUnit.HOURS.toSeconds(1);
+
+    private static final ThreadLocal<XorShift> RANDOM = new ThreadLocal<XorShift>() {
+        @Override
+        protected XorShift initialValue() {
+            return new XorShift(System.nanoTime() ^ Thread.currentThread().getId());
+        }
+    };
+
+    private final double alpha;
+    private final int samplingSize;
+    private final long refreshStatInterval;
+
+    // heap ordered by priorities, values and weights are moved with their priority, guarded by priorities
+    private final double[] priorities;
+    private final double[] values;
+    private final double[] weights;
+    private int size;
+    private volatile double threshold; // priority of the head once the heap is full, 0 before
+
+    private volatile long landmark;
+    private volatile long recomputeAt;
+    private volatile long computedStatsAt;
+    private volatile OptimizedStatistics currentStats;
+
+    public ExponentialDecayCounter(final Key key, final CounterDataStore store,
+                                   final double alpha, final int samplingSize, final long refreshStatInterval) {
+        super(key, store);
+        this.alpha = alpha;
+        this.samplingSize = samplingSize;
+        this.refreshStatInterval = refreshStatInterval;
+        this.priorities = new double[samplingSize];
+        this.values = new double[samplingSize];
+        this.weights = new double[samplingSize];
+        reset();
+    }
+
+    protected long seconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    @Override
+    public void addInternal(final double delta) {
+        final long now = seconds();
+        if (now >= recomputeAt) {
+            rescale(now);
+        }
+
+        final double random = RANDOM.get().nextDouble();
+
+        final Lock lock = getLock().readLock();
+        lock.lock();
+        try {
+            final Histogram histogram = getHistogram();
+            if (histogram != null) { // all values, under the lock snapshot(true) takes to reset it
+                histogram.record(delta);
+            }
+
+            final double weight = Math.exp(alpha * (now - landmark)); // landmark is only moved under the write lock
+            final double priority = weight / random;
+            if (priority <= threshold) { // would be evicted at once
+                return;
+            }
+
+            synchronized (priorities) {
+                if (size < samplingSize) {
+                    siftUp(size++, priority, delta, weight);
+                    if (size == samplingSize) {
+                        threshold = priorities[0];
+                    }
+                } else if (priority > priorities[0]) { // replace the lowest priority
+                    siftDown(0, priority, delta, weight);
+                    threshold = priorities[0];
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // priorities and weights relative to a newer landmark to avoid overflows,
+    // all entries are scaled by the same factor so the heap order is kept and nothing needs to be rebuilt
+    private void rescale(final long now) {
+        final Lock lock = getLock().writeLock();
+        lock.lock();
+        try {
+            if (now < recomputeAt) { // already done by another thread
+                return;
+            }
+
+            final double factor = Math.exp(-alpha * (now - landmark));
+            for (int i = 0; i < size; i++) {
+                priorities[i] *= factor;
+                weights[i] *= factor;
+            }
+            threshold *= factor;
+            landmark = now;
+            recomputeAt = now + RESCALE_INTERVAL;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void siftUp(final int from, final double priority, final double value, final double weight) {
+        int i = from;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        set(i, priority, value, weight);
+    }
+
+    private void siftDown(final int from, final double priority, final double value, final double weight) {
+        int i = from;
+        final int half = size >>> 1;
+        while (i < half) {
+            int child = (i << 1) + 1;
+            final int right = child + 1;
+            if (right < size && priorities[right] < priorities[child]) {
+                child = right;
+            }
+            if (priority <= priorities[child]) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        set(i, priority, value, weight);
+    }
+
+    private void move(final int from, final int to) {
+        set(to, priorities[from], values[from], weights[from]);
+    }
+
+    private void set(final int i, final double priority, final double value, final double weight) {
+        priorities[i] = priority;
+        values[i] = value;
+        weights[i] = weight;
+    }
+
+    @Override
+    public void reset() {
+        final long now = seconds();
+        final Lock lock = getLock().writeLock();
+        lock.lock();
+        try {
+            size = 0;
+            threshold = 0;
+            landmark = now;
+            recomputeAt = now + RESCALE_INTERVAL;
+            computedStatsAt = 0;
+            currentStats = null;
+            super.reset();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public OptimizedStatistics getStatistics() {
+        final OptimizedStatistics cached = currentStats;
+        if (cached != null && seconds() - computedStatsAt < refreshStatInterval) {
+            return cached;
+        }
+
+        final double[] sampleValues;
+        final double[] sampleWeights;
+        final Lock lock = getLock().readLock();
+        lock.lock();
+        try {
+            synchronized (priorities) {
+                sampleValues = new double[size];
+                sampleWeights = new double[size];
+                System.arraycopy(values, 0, sampleValues, 0, size);
+                System.arraycopy(weights, 0, sampleWeights, 0, size);
+            }
+            computedStatsAt = seconds();
+        } finally {
+            lock.unlock();
+        }
+
+        final OptimizedStatistics stat = new WeightedStatistics(sampleValues, sampleWeights); // out of lock
+        currentStats = stat;
+        return stat;
+    }
+
+    @Override
+    public String toString() {
+        return "ExponentialDecayCounter{" +
+                "key=" + getKey() +
+                ", stats=" + getStatistics() +
+                '}';
+    }
+
+    private static class WeightedStatistics extends OptimizedStatistics {
+        private WeightedStatistics(final double[] values, final double[] weights) {
+            if (values.length == 0) {
+                return;
+            }
+
+            n = values.length;
+            m1 = 0;
+            m2 = 0;
+            sum = 0;
+
+            double weightSum = 0;
+            for (int i = 0; i < values.length; i++) {
+                final double value = values[i];
+                weightSum += weights[i];
+                sum += value; // doesn't represent much - mathematically wrong - but gives an idea
+                if (Double.isNaN(min) || value < min) {
+                    min = value;
+                }
+                if (Double.isNaN(max) || value > max) {
+                    max = value;
+                }
+            }
+
+            double squaredWeightSum = 0;
+            for (int i = 0; i < values.length; i++) {
+                final double w = weights[i] / weightSum;
+                m1 += w * values[i];
+                squaredWeightSum += w * w;
+            }
+
+            if (n > 1) { // unbiased variance with reliability weights, same as sample variance when all weights are equal
+                double deviation = 0;
+                for (int i = 0; i < values.length; i++) {
+                    final double diff = values[i] - m1;
+                    deviation += weights[i] / weightSum * diff * diff;
+                }
+                final double variance = squaredWeightSum < 1 ? deviation / (1 - squaredWeightSum) : 0;
+                m2 = variance * (n - 1); // getVariance() is m2 / (n - 1)
+            }
+        }
+
+        @Override
+        public OptimizedStatistics addValue(final double value) {
+            throw new UnsupportedOperationException();
+        }
+
+        // the instance is shared by the readers until the next refresh so the merge is done on a copy:
+        // each side counts for its number of samples, this one with its decayed mean and variance
+        @Override
+        public OptimizedStatistics merge(final OptimizedStatistics other) {
+            return copy().merge(other);
+        }
+    }
+
+    // Random would be fine but its seed is shared (CAS on each call), this one is owned by a thread
+    private static class XorShift {
+        private long seed;
+
+        private XorShift(final long seed) {
+            this.seed = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+        }
+
+        // in ]0, 1] to be able to divide by it
+        private double nextDouble() {
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            return ((seed >>> 11) + 1) * 0x1.0p-53;
+        }
+    }
+}
@@ -19,15 +19,17 @@ package org.apache.sirona.store.memory.counter;
 import org.apache.sirona.configuration.Configuration;
 import org.apache.sirona.configuration.ioc.Destroying;
 import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
 import org.apache.sirona.counters.DefaultCounter;
+import org.apache.sirona.counters.Histogram;
 import org.apache.sirona.counters.LockableCounter;
 import org.apache.sirona.counters.MetricData;
-import org.apache.sirona.counters.OptimizedStatistics;
 import org.apache.sirona.counters.jmx.CounterJMX;
 import org.apache.sirona.gauges.Gauge;
 import org.apache.sirona.gauges.counter.CounterGauge;
 import org.apache.sirona.repositories.Repository;
 import org.apache.sirona.store.counter.CounterDataStore;
+import org.apache.sirona.store.counter.CounterGeneration;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -36,6 +38,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -54,6 +57,21 @@ public class InMemoryCounterDataStore implements CounterDataStore {
             (long) Configuration.getInteger(Configuration.CONFIG_PROPERTY_PREFIX + "counter.exponential-decay.refresh-seconds",
                     (int) ExponentialDecayCounter.ACCEPTABLE_STATISTICS_REFRESH_SECONDS);
 
+    protected final boolean withHistogram = Configuration.is(Configuration.CONFIG_PROPERTY_PREFIX + "counter.histogram", false);
+
+    protected final boolean useStriped = Configuration.is(Configuration.CONFIG_PROPERTY_PREFIX + "counter.striped", false);
+    protected final int stripedCells = Configuration.getInteger(Configuration.CONFIG_PROPERTY_PREFIX + "counter.striped.cells", StripedCounter.DEFAULT_CELLS);
+
+    // recent statistics only, alternative to clearOnCollect which recreates counters (and their gauges/mbeans) each period
+    protected final boolean useRollingWindow = Configuration.is(Configuration.CONFIG_PROPERTY_PREFIX + "counter.rolling", false);
+    protected final long rollingInterval = TimeUnit.SECONDS.toMillis(
+            Configuration.getInteger(Configuration.CONFIG_PROPERTY_PREFIX + "counter.rolling.interval-seconds",
+                    (int) TimeUnit.MILLISECONDS.toSeconds(RollingWindowCounter.DEFAULT_INTERVAL)));
+    protected final long rollingWindow = TimeUnit.SECONDS.toMillis(
+            Configuration.getInteger(Configuration.CONFIG_PROPERTY_PREFIX + "counter.rolling.window-seconds",
+                    (int) TimeUnit.MILLISECONDS.toSeconds(RollingWindowCounter.DEFAULT_WINDOW)));
+    protected final int rollingCells = Configuration.getInteger(Configuration.CONFIG_PROPERTY_PREFIX + "counter.rolling.cells", RollingWindowCounter.DEFAULT_CELLS);
+
     protected final ConcurrentMap<Counter.Key, Counter> counters = newCounterMap();
     protected final ConcurrentMap<Counter.Key, Collection<Gauge>> gauges = new ConcurrentHashMap<Counter.Key, Collection<Gauge>>();
     protected final ReadWriteLock stateLock = new ReentrantReadWriteLock(); // this lock ensures consistency between createcounter and clearcounters
@@ -63,9 +81,20 @@ public class InMemoryCounterDataStore implements CounterDataStore {
     }
 
     protected Counter newCounter(final Counter.Key key) {
-        return useExponentialDecay ?
-                new ExponentialDecayCounter(key, this, exponentialDecayAlpha, exponentialDecaySamplingSize, exponentialDecayRefresh) :
-                new DefaultCounter(key, this);
+        final LockableCounter counter;
+        if (useExponentialDecay) {
+            counter = new ExponentialDecayCounter(key, this, exponentialDecayAlpha, exponentialDecaySamplingSize, exponentialDecayRefresh);
+        } else if (useRollingWindow) {
+            counter = new RollingWindowCounter(key, this, rollingInterval, rollingWindow, rollingCells);
+        } else if (useStriped) {
+            counter = new StripedCounter(key, this, stripedCells);
+        } else {
+            counter = new DefaultCounter(key, this);
+        }
+        if (withHistogram) {
+            counter.setHistogram(new Histogram());
+        }
+        return counter;
     }
 
     @Override
@@ -143,6 +172,7 @@ public class InMemoryCounterDataStore implements CounterDataStore {
                 }
             }
             counters.clear();
+            CounterGeneration.next();
 
             synchronized (gauges) {
                 for (final Collection<Gauge> list : gauges.values()) {
@@ -208,18 +238,10 @@ public class InMemoryCounterDataStore implements CounterDataStore {
 
         public synchronized void take() {
             if (called == 3 || called == -1) {
-                final LockableCounter defaultCounter = LockableCounter.class.cast(counter);
-                final Lock lock = defaultCounter.getLock().writeLock();
-                lock.lock();
-                try {
-                    final OptimizedStatistics statistics = defaultCounter.getStatistics();
-                    max = statistics.getMax();
-                    sum = statistics.getSum();
-                    hits = statistics.getN();
-                    counter.reset();
-                } finally {
-                    lock.unlock();
-                }
+                final CounterSnapshot snapshot = counter.snapshot(true);
+                max = snapshot.getMax();
+                sum = snapshot.getSum();
+                hits = snapshot.getHits();
                 called = 0;
             }
             called++;
@@ -19,11 +19,14 @@ package org.apache.sirona.store.memory.counter;
 import org.apache.sirona.Role;
 import org.apache.sirona.configuration.Configuration;
 import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
+import org.apache.sirona.counters.Histogram;
 import org.apache.sirona.counters.LockableCounter;
 import org.apache.sirona.counters.OptimizedStatistics;
 import org.apache.sirona.counters.Unit;
 import org.apache.sirona.gauges.Gauge;
 import org.apache.sirona.repositories.Repository;
+import org.apache.sirona.store.counter.CounterGeneration;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -135,6 +138,7 @@ public class LimitedInMemoryCounterDataStore extends InMemoryCounterDataStore
 
                 final boolean removed = remove(key) != null;
                 if (removed) {
+                    CounterGeneration.next();
 					if (gauged) {
                         final Collection<Gauge> g = gauges.remove(key);
 						if (g != null) {
@@ -172,8 +176,8 @@ public class LimitedInMemoryCounterDataStore extends InMemoryCounterDataStore
         }
 
         @Override
-        public void addInternal(final double delta) {
-            this.delegate.add(delta);
+        public void addInternal(final double delta) { // the store already went through addToCounter for this wrapper
+            this.delegate.addInternal(delta);
         }
 
         @Override
@@ -191,6 +195,16 @@ public class LimitedInMemoryCounterDataStore extends InMemoryCounterDataStore
             return this.delegate.getJmx();
         }
 
+        @Override
+        public void setHistogram(final Histogram histogram) {
+            this.delegate.setHistogram(histogram);
+        }
+
+        @Override
+        public Histogram getHistogram() {
+            return this.delegate.getHistogram();
+        }
+
         @Override
         public ReadWriteLock getLock() {
             return this.delegate.getLock();
@@ -201,6 +215,16 @@ public class LimitedInMemoryCounterDataStore extends InMemoryCounterDataStore
             this.delegate.reset();
         }
 
+        @Override
+        public CounterSnapshot snapshot() {
+            return this.delegate.snapshot();
+        }
+
+        @Override
+        public CounterSnapshot snapshot(final boolean reset) {
+            return this.delegate.snapshot(reset);
+        }
+
         @Override
         public void add(final double delta) {
             delegate.add(delta);
@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.counter;
+
+import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.configuration.ioc.Destroying;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
+import org.apache.sirona.counters.DefaultCounter;
+import org.apache.sirona.counters.Histogram;
+import org.apache.sirona.counters.LockableCounter;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.store.counter.CounterDataStore;
+import org.apache.sirona.store.counter.CounterGeneration;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+// counters statistics live in a memory mapped file (see MappedCounterFile) so they survive restarts
+// and can be exported by another process, heap only keeps a small view per counter.
+public class MappedCounterDataStore implements CounterDataStore {
+    private static final Logger LOGGER = Logger.getLogger(MappedCounterDataStore.class.getName());
+
+    private static final String PREFIX = Configuration.CONFIG_PROPERTY_PREFIX + "counter.mapped.";
+
+    protected final MappedCounterFile file;
+    protected final ConcurrentMap<Counter.Key, Counter> counters = new ConcurrentHashMap<Counter.Key, Counter>(50);
+    protected final ConcurrentMap<Counter.Key, Integer> slots = new ConcurrentHashMap<Counter.Key, Integer>(50); // never cleared, slots are not reused for another key
+    private volatile boolean overflowLogged = false;
+
+    public MappedCounterDataStore() {
+        this(new File(Configuration.getProperty(PREFIX + "file", new File(System.getProperty("java.io.tmpdir"), "sirona-counters.dat").getAbsolutePath())),
+            Configuration.getInteger(PREFIX + "capacity", 16384),
+            Configuration.getInteger(PREFIX + "key-size", 256));
+    }
+
+    public MappedCounterDataStore(final File file, final int capacity, final int keySize) {
+        this.file = new MappedCounterFile(file, capacity, keySize, false);
+
+        final int allocated = this.file.allocated();
+        for (int i = 0; i < allocated; i++) { // counters of the previous run
+            final Counter.Key key = this.file.key(i);
+            if (key != null) {
+                slots.put(key, i);
+                counters.put(key, new MappedCounter(key, this, i));
+            }
+        }
+    }
+
+    @Override
+    public Counter getOrCreateCounter(final Counter.Key key) {
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            counter = newCounter(key);
+            final Counter previous = counters.putIfAbsent(key, counter);
+            if (previous != null) {
+                counter = previous;
+            }
+        }
+        return counter;
+    }
+
+    protected Counter newCounter(final Counter.Key key) {
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            synchronized (file) {
+                slot = slots.get(key);
+                if (slot == null) {
+                    final int index = file.allocate(key);
+                    if (index < 0) { // file full or key too long, keep working but in the heap
+                        if (!overflowLogged) {
+                            overflowLogged = true;
+                            LOGGER.warning("Can't store " + key + " in " + file.getFile().getAbsolutePath()
+                                + " (" + file.allocated() + "/" + file.capacity() + " slots used), using heap counters");
+                        }
+                        return new DefaultCounter(key, this);
+                    }
+                    slot = index;
+                    slots.put(key, slot);
+                }
+            }
+        }
+        return new MappedCounter(key, this, slot);
+    }
+
+    @Override
+    public void clearCounters() {
+        for (final Counter counter : counters.values()) {
+            counter.reset();
+        }
+        counters.clear();
+        CounterGeneration.next();
+    }
+
+    @Override
+    public Collection<Counter> getCounters() {
+        return counters.values();
+    }
+
+    @Override
+    public void addToCounter(final Counter counter, final double delta) {
+        if (MappedCounter.class.isInstance(counter)) {
+            final MappedCounter mapped = MappedCounter.class.cast(counter);
+            file.add(mapped.slot, delta);
+        } else if (LockableCounter.class.isInstance(counter)) {
+            LockableCounter.class.cast(counter).addInternal(delta);
+        } else {
+            throw new IllegalArgumentException(getClass().getName() + " doesn't support " + counter);
+        }
+    }
+
+    @Destroying
+    public void flush() {
+        file.force();
+    }
+
+    public MappedCounterFile getFile() {
+        return file;
+    }
+
+    protected static class MappedCounter implements Counter {
+        private final Key key;
+        private final MappedCounterDataStore store;
+        private final int slot;
+        private final AtomicInteger concurrency = new AtomicInteger(0);
+
+        protected MappedCounter(final Key key, final MappedCounterDataStore store, final int slot) {
+            this.key = key;
+            this.store = store;
+            this.slot = slot;
+        }
+
+        @Override
+        public Key getKey() {
+            return key;
+        }
+
+        @Override
+        public void reset() {
+            store.file.reset(slot);
+        }
+
+        @Override
+        public void add(final double delta) {
+            store.addToCounter(this, delta);
+        }
+
+        @Override
+        public void add(final double delta, final Unit unit) {
+            add(key.getRole().getUnit().convert(delta, unit));
+        }
+
+        @Override
+        public AtomicInteger currentConcurrency() {
+            return concurrency;
+        }
+
+        @Override
+        public void updateConcurrency(final int concurrency) {
+            store.file.updateMaxConcurrency(slot, concurrency);
+        }
+
+        @Override
+        public int getMaxConcurrency() {
+            return store.file.getMaxConcurrency(slot);
+        }
+
+        @Override
+        public double getMax() {
+            return snapshot().getMax();
+        }
+
+        @Override
+        public double getMin() {
+            return snapshot().getMin();
+        }
+
+        @Override
+        public long getHits() {
+            return snapshot().getHits();
+        }
+
+        @Override
+        public double getSum() {
+            return snapshot().getSum();
+        }
+
+        @Override
+        public double getStandardDeviation() {
+            return snapshot().getStandardDeviation();
+        }
+
+        @Override
+        public double getVariance() {
+            return snapshot().getVariance();
+        }
+
+        @Override
+        public double getMean() {
+            return snapshot().getMean();
+        }
+
+        @Override
+        public double getSecondMoment() {
+            return snapshot().getSecondMoment();
+        }
+
+        @Override
+        public Histogram getHistogram() {
+            return null;
+        }
+
+        @Override
+        public CounterSnapshot snapshot() {
+            return snapshot(false);
+        }
+
+        @Override
+        public CounterSnapshot snapshot(final boolean reset) {
+            return store.file.snapshot(slot, key, concurrency.get(), reset);
+        }
+
+        @Override
+        public String toString() {
+            return "MappedCounter{" +
+                "key=" + key +
+                ", slot=" + slot +
+                '}';
+        }
+    }
+}
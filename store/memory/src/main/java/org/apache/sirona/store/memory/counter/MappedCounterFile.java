@@ -0,0 +1,460 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.counter;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.SironaException;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.store.memory.tracking.UnsafeUtils;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Counter statistics stored in fixed size slots of a memory mapped file.
+ *
+ * Layout (native byte order):
+ * <pre>
+ * header (64 bytes): magic, version, capacity, key size, allocated slots
+ * statistics (capacity * 64 bytes): seq, hits, sum, min, max, mean, m2, max concurrency
+ * keys (capacity * key size bytes): ready flag then role name, unit name and counter name as length prefixed UTF-8
+ * </pre>
+ *
+ * Each statistics slot is protected by a sequence lock: writers make the sequence odd with a CAS, update the slot
+ * and make it even again, readers never block and retry (with a backoff) while the sequence is odd or changed
+ * during the read, a reader never returns a torn snapshot.
+ * Only one process should write the file but any number of processes can read it (see {@link #snapshots()}).
+ *
+ * Data is accessed through the mapped buffer, only the ordered accesses (sequence, allocation and key flags)
+ * go through {@link UnsafeUtils}.
+ */
+@IgnoreJRERequirement
+public class MappedCounterFile {
+    public static final int MAGIC = 0x53495243; // SIRC
+    public static final int VERSION = 1;
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int KEY_SIZE_OFFSET = 12;
+    private static final int ALLOCATED_OFFSET = 16;
+
+    private static final int SLOT_SIZE = 64; // a cache line
+    private static final int SEQ = 0;
+    private static final int HITS = 8;
+    private static final int SUM = 16;
+    private static final int MIN = 24;
+    private static final int MAX = 32;
+    private static final int MEAN = 40;
+    private static final int M2 = 48;
+    private static final int MAX_CONCURRENCY = 56;
+
+    private static final int KEY_READY = 1;
+    private static final int SPINS = 100;
+    private static final int MAX_READ_RETRIES = 1000; // then ~100ms of parking
+    private static final long BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final File file;
+    private final boolean readOnly;
+    private final MappedByteBuffer buffer;
+    private final long address;
+    private final int capacity;
+    private final int keySize;
+    private final int keysOffset;
+
+    /**
+     * @param file the file, created if it doesn't exist.
+     * @param capacity number of slots of a new file, an existing file keeps its own.
+     * @param keySize max bytes of an encoded key for a new file, an existing file keeps its own.
+     * @param readOnly true for a reader (sidecar exporter for instance).
+     */
+    public MappedCounterFile(final File file, final int capacity, final int keySize, final boolean readOnly) {
+        this.file = file;
+        this.readOnly = readOnly;
+
+        RandomAccessFile raf = null;
+        try {
+            final boolean exists = file.isFile() && file.length() >= HEADER_SIZE;
+            if (!exists && readOnly) {
+                throw new SironaException("Can't read " + file.getAbsolutePath());
+            }
+            if (!exists) {
+                final File parent = file.getAbsoluteFile().getParentFile();
+                if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                    throw new SironaException("Can't create " + parent.getAbsolutePath());
+                }
+            }
+
+            raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+
+            final int slots;
+            final int bytesPerKey;
+            if (exists) {
+                final MappedByteBuffer header = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                header.order(ByteOrder.nativeOrder());
+                if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+                    throw new SironaException(file.getAbsolutePath() + " is not a sirona counter file");
+                }
+                slots = header.getInt(CAPACITY_OFFSET);
+                bytesPerKey = header.getInt(KEY_SIZE_OFFSET);
+            } else {
+                slots = capacity;
+                bytesPerKey = keySize;
+            }
+
+            final long size = HEADER_SIZE + (long) slots * (SLOT_SIZE + bytesPerKey);
+            if (size > Integer.MAX_VALUE) {
+                throw new SironaException(file.getAbsolutePath() + " can't be bigger than 2GB");
+            }
+            buffer = raf.getChannel().map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            address = UnsafeUtils.address(buffer);
+            this.capacity = slots;
+            this.keySize = bytesPerKey;
+            keysOffset = HEADER_SIZE + slots * SLOT_SIZE;
+
+            if (!exists) {
+                buffer.putInt(CAPACITY_OFFSET, slots);
+                buffer.putInt(KEY_SIZE_OFFSET, bytesPerKey);
+                buffer.putInt(VERSION_OFFSET, VERSION);
+                UnsafeUtils.putIntVolatile(address + MAGIC_OFFSET, MAGIC);
+                for (int i = 0; i < slots; i++) {
+                    clear(slot(i));
+                }
+            } else if (!readOnly) {
+                recover();
+            }
+        } catch (final IOException e) {
+            throw new SironaException(e);
+        } finally {
+            if (raf != null) { // the mapping stays valid
+                try {
+                    raf.close();
+                } catch (final IOException e) {
+                    // no-op
+                }
+            }
+        }
+    }
+
+    // a writer died in the middle of an update, the slot can be torn but it must not stay locked
+    private void recover() {
+        final int allocated = allocated();
+        for (int i = 0; i < allocated; i++) {
+            final int slot = slot(i);
+            final long seq = UnsafeUtils.getLongVolatile(address + slot + SEQ);
+            if ((seq & 1) != 0) {
+                UnsafeUtils.putLongVolatile(address + slot + SEQ, seq + 1);
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int allocated() {
+        return UnsafeUtils.getIntVolatile(address + ALLOCATED_OFFSET);
+    }
+
+    public List<Counter.Key> keys() {
+        final int allocated = allocated();
+        final List<Counter.Key> keys = new ArrayList<Counter.Key>(allocated);
+        for (int i = 0; i < allocated; i++) {
+            final Counter.Key key = key(i);
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the slot index of the new key or -1 if the file is full or the key too long.
+     */
+    public synchronized int allocate(final Counter.Key key) {
+        checkWritable();
+
+        final byte[][] parts;
+        try {
+            parts = new byte[][] {
+                key.getRole().getName().getBytes(ENCODING),
+                key.getRole().getUnit().getName().getBytes(ENCODING),
+                key.getName().getBytes(ENCODING)
+            };
+        } catch (final UnsupportedEncodingException e) {
+            throw new SironaException(e);
+        }
+
+        int length = 4;
+        for (final byte[] part : parts) {
+            length += 2 + part.length;
+            if (part.length > Short.MAX_VALUE) {
+                return -1;
+            }
+        }
+
+        final int index = allocated();
+        if (length > keySize || index >= capacity) {
+            return -1;
+        }
+
+        int position = keysOffset + index * keySize + 4;
+        for (final byte[] part : parts) {
+            buffer.putShort(position, (short) part.length);
+            position += 2;
+            for (final byte b : part) {
+                buffer.put(position++, b);
+            }
+        }
+        clear(slot(index));
+        UnsafeUtils.putIntVolatile(address + keysOffset + index * keySize, KEY_READY);
+        UnsafeUtils.putIntVolatile(address + ALLOCATED_OFFSET, index + 1);
+        return index;
+    }
+
+    public Counter.Key key(final int index) {
+        final int base = keysOffset + index * keySize;
+        if (UnsafeUtils.getIntVolatile(address + base) != KEY_READY) {
+            return null;
+        }
+
+        final String[] parts = new String[3];
+        int position = base + 4;
+        for (int p = 0; p < parts.length; p++) {
+            final byte[] bytes = new byte[buffer.getShort(position)];
+            position += 2;
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(position++);
+            }
+            try {
+                parts[p] = new String(bytes, ENCODING);
+            } catch (final UnsupportedEncodingException e) {
+                throw new SironaException(e);
+            }
+        }
+
+        Unit unit = Unit.get(parts[1]);
+        if (unit == null) {
+            unit = new Unit(parts[1]);
+        }
+        return new Counter.Key(new Role(parts[0], unit), parts[2]);
+    }
+
+    public void add(final int index, final double value) {
+        final int slot = slot(index);
+        final long seq = lock(slot);
+        try {
+            final long n = buffer.getLong(slot + HITS) + 1;
+            buffer.putLong(slot + HITS, n);
+            buffer.putDouble(slot + SUM, buffer.getDouble(slot + SUM) + value);
+
+            final double min = buffer.getDouble(slot + MIN);
+            if (value < min || Double.isNaN(min)) {
+                buffer.putDouble(slot + MIN, value);
+            }
+            final double max = buffer.getDouble(slot + MAX);
+            if (value > max || Double.isNaN(max)) {
+                buffer.putDouble(slot + MAX, value);
+            }
+
+            // Welford, same as OptimizedStatistics
+            double m1 = buffer.getDouble(slot + MEAN);
+            double m2 = buffer.getDouble(slot + M2);
+            if (n == 1) {
+                m1 = 0;
+                m2 = 0;
+            }
+            final double dev = value - m1;
+            final double nDev = dev / n;
+            buffer.putDouble(slot + MEAN, m1 + nDev);
+            buffer.putDouble(slot + M2, m2 + dev * nDev * (n - 1));
+        } finally {
+            unlock(slot, seq);
+        }
+    }
+
+    public void updateMaxConcurrency(final int index, final int concurrency) {
+        final long maxConcurrency = address + slot(index) + MAX_CONCURRENCY;
+        if (concurrency > UnsafeUtils.getIntVolatile(maxConcurrency)) { // racy like LockableCounter
+            UnsafeUtils.putIntVolatile(maxConcurrency, concurrency);
+        }
+    }
+
+    public int getMaxConcurrency(final int index) {
+        return UnsafeUtils.getIntVolatile(address + slot(index) + MAX_CONCURRENCY);
+    }
+
+    public void reset(final int index) {
+        final int slot = slot(index);
+        final long seq = lock(slot);
+        try {
+            clearStatistics(slot);
+        } finally {
+            unlock(slot, seq);
+        }
+    }
+
+    /**
+     * @return the statistics of the slot, null for a read only file if no consistent view could be read
+     * (the writer process died in the middle of an update, the slot is recovered at its next startup).
+     */
+    public CounterSnapshot snapshot(final int index, final Counter.Key key, final int concurrency, final boolean reset) {
+        final int slot = slot(index);
+        if (!reset) {
+            for (int retry = 0; retry < MAX_READ_RETRIES; retry++) {
+                final long seq = UnsafeUtils.getLongVolatile(address + slot + SEQ);
+                if ((seq & 1) == 0) { // else a write is in progress
+                    final CounterSnapshot snapshot = read(slot, key, concurrency);
+                    if (UnsafeUtils.getLongVolatile(address + slot + SEQ) == seq) {
+                        return snapshot;
+                    }
+                }
+
+                if (retry < SPINS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(BACKOFF_NANOS);
+                }
+            }
+
+            if (readOnly) {
+                return null;
+            }
+            // writers of this process always release the slot so wait for them
+        }
+
+        final long seq = lock(slot);
+        try {
+            final CounterSnapshot snapshot = read(slot, key, concurrency);
+            if (reset) {
+                clearStatistics(slot);
+            }
+            return snapshot;
+        } finally {
+            unlock(slot, seq);
+        }
+    }
+
+    // what a sidecar process uses to export the counters
+    public List<CounterSnapshot> snapshots() {
+        final int allocated = allocated();
+        final List<CounterSnapshot> snapshots = new ArrayList<CounterSnapshot>(allocated);
+        for (int i = 0; i < allocated; i++) {
+            final Counter.Key key = key(i);
+            if (key != null) {
+                final CounterSnapshot snapshot = snapshot(i, key, 0, false);
+                if (snapshot != null) {
+                    snapshots.add(snapshot);
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    public void force() {
+        if (!readOnly) {
+            buffer.force();
+        }
+    }
+
+    // volatile reads so they are not reordered with the reads of the sequence
+    private CounterSnapshot read(final int slot, final Counter.Key key, final int concurrency) {
+        final long hits = UnsafeUtils.getLongVolatile(address + slot + HITS);
+        final double m2 = getDoubleVolatile(slot + M2);
+        final double variance;
+        if (hits == 0) {
+            variance = Double.NaN;
+        } else if (hits == 1) {
+            variance = 0;
+        } else {
+            variance = m2 / (hits - 1);
+        }
+        return new CounterSnapshot(key, hits,
+            getDoubleVolatile(slot + SUM),
+            getDoubleVolatile(slot + MIN),
+            getDoubleVolatile(slot + MAX),
+            getDoubleVolatile(slot + MEAN),
+            variance, m2, concurrency,
+            UnsafeUtils.getIntVolatile(address + slot + MAX_CONCURRENCY),
+            null);
+    }
+
+    private double getDoubleVolatile(final int offset) {
+        return Double.longBitsToDouble(UnsafeUtils.getLongVolatile(address + offset));
+    }
+
+    // the CAS is a full barrier and the unlock a volatile write so the buffer accesses between them are ordered
+    private long lock(final int slot) {
+        checkWritable();
+        while (true) {
+            final long seq = UnsafeUtils.getLongVolatile(address + slot + SEQ);
+            if ((seq & 1) == 0 && UnsafeUtils.compareAndSwapLong(address + slot + SEQ, seq, seq + 1)) {
+                return seq + 1;
+            }
+            Thread.yield();
+        }
+    }
+
+    private void unlock(final int slot, final long seq) {
+        UnsafeUtils.putLongVolatile(address + slot + SEQ, seq + 1);
+    }
+
+    private void clear(final int slot) {
+        buffer.putLong(slot + SEQ, 0);
+        clearStatistics(slot);
+    }
+
+    private void clearStatistics(final int slot) {
+        buffer.putLong(slot + HITS, 0);
+        buffer.putDouble(slot + SUM, 0);
+        buffer.putDouble(slot + MIN, Double.NaN);
+        buffer.putDouble(slot + MAX, Double.NaN);
+        buffer.putDouble(slot + MEAN, Double.NaN);
+        buffer.putDouble(slot + M2, Double.NaN);
+        buffer.putInt(slot + MAX_CONCURRENCY, 0);
+    }
+
+    private static int slot(final int index) {
+        return HEADER_SIZE + index * SLOT_SIZE;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException(file.getAbsolutePath() + " is opened read only");
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.counter;
+
+import org.apache.sirona.counters.CounterSnapshot;
+import org.apache.sirona.counters.Histogram;
+import org.apache.sirona.counters.LockableCounter;
+import org.apache.sirona.counters.OptimizedStatistics;
+import org.apache.sirona.store.counter.CounterDataStore;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// keeps only recent values: a ring of per-interval slots, each slot striped in cells like StripedCounter.
+// a cell is recycled lazily by the first writer of the interval landing on it so there is no rotation thread
+// and writers only meet when they land on the same cell (then they try the next one, as StripedCounter does).
+// statistics over a window are the merge (parallel Welford) of the cells of the last window / interval intervals
+// (current one included, so the covered duration is between window - interval and window).
+//
+// percentiles are not tracked: a histogram per interval would cost ~8KB per slot and a counter wide one
+// would describe the whole lifetime of the counter and not the window.
+public class RollingWindowCounter extends LockableCounter {
+    public static final long DEFAULT_INTERVAL = TimeUnit.SECONDS.toMillis(15);
+    public static final long DEFAULT_WINDOW = TimeUnit.MINUTES.toMillis(15);
+    public static final int DEFAULT_CELLS = Math.min(8, StripedCounter.DEFAULT_CELLS); // per interval so smaller than StripedCounter
+
+    private final AtomicReferenceArray<EpochCell> cells; // slot * stripes + stripe, created on first write
+    private final int slots;
+    private final int mask;
+    private final long interval;
+
+    public RollingWindowCounter(final Key key, final CounterDataStore store) {
+        this(key, store, DEFAULT_INTERVAL, DEFAULT_WINDOW);
+    }
+
+    public RollingWindowCounter(final Key key, final CounterDataStore store, final long intervalMillis, final long windowMillis) {
+        this(key, store, intervalMillis, windowMillis, DEFAULT_CELLS);
+    }
+
+    public RollingWindowCounter(final Key key, final CounterDataStore store, final long intervalMillis, final long windowMillis,
+                                final int cellNumber) {
+        super(key, store);
+        if (intervalMillis <= 0 || windowMillis < intervalMillis) {
+            throw new IllegalArgumentException("Invalid rolling window: interval=" + intervalMillis + "ms, window=" + windowMillis + "ms");
+        }
+
+        int stripes = 1;
+        while (stripes < cellNumber) {
+            stripes <<= 1;
+        }
+
+        interval = intervalMillis;
+        slots = (int) ((windowMillis + intervalMillis - 1) / intervalMillis);
+        mask = stripes - 1;
+        cells = new AtomicReferenceArray<EpochCell>(slots * stripes);
+    }
+
+    @Override
+    public void addInternal(final double delta) {
+        final long epoch = now() / interval;
+        final int slot = (int) (epoch % slots) * (mask + 1);
+        final int start = StripedCounter.spread(Thread.currentThread().getId());
+        while (true) {
+            for (int i = 0; i <= mask; i++) {
+                final EpochCell cell = cell(slot + ((start + i) & mask));
+                if (cell.tryAcquire()) {
+                    try {
+                        if (cell.epoch != epoch) { // first value of this interval, forget what the cell held one ring turn ago
+                            cell.clear();
+                            cell.epoch = epoch;
+                        }
+                        cell.addValue(delta);
+                        final Histogram histogram = getHistogram();
+                        if (histogram != null) {
+                            histogram.record(delta);
+                        }
+                    } finally {
+                        cell.release();
+                    }
+                    return;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < cells.length(); i++) {
+            final EpochCell cell = cells.get(i);
+            if (cell != null) {
+                cell.acquire();
+                try {
+                    cell.clear();
+                } finally {
+                    cell.release();
+                }
+            }
+        }
+        super.reset();
+    }
+
+    @Override
+    public void setHistogram(final Histogram histogram) {
+        // ignored, see class comment
+    }
+
+    // statistics of the whole ring
+    @Override
+    public OptimizedStatistics getStatistics() {
+        return getStatistics(getWindow());
+    }
+
+    public OptimizedStatistics getStatistics(final long window, final TimeUnit unit) {
+        return getStatistics(unit.toMillis(window));
+    }
+
+    public OptimizedStatistics getStatistics(final long windowMillis) {
+        return collect(windowMillis, false);
+    }
+
+    @Override
+    public CounterSnapshot snapshot(final boolean reset) { // writers don't use the lock so capture and reset cell by cell
+        return snapshot(getWindow(), reset);
+    }
+
+    public CounterSnapshot snapshot(final long window, final TimeUnit unit) {
+        return snapshot(unit.toMillis(window), false);
+    }
+
+    private CounterSnapshot snapshot(final long windowMillis, final boolean reset) {
+        final OptimizedStatistics statistics = collect(windowMillis, reset);
+        final CounterSnapshot snapshot = new CounterSnapshot(
+            getKey(), statistics, currentConcurrency().get(), getMaxConcurrency(), null);
+        if (reset) {
+            super.reset();
+        }
+        return snapshot;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public long getWindow() {
+        return interval * slots;
+    }
+
+    private EpochCell cell(final int index) {
+        final EpochCell cell = cells.get(index);
+        if (cell != null) {
+            return cell;
+        }
+        final EpochCell created = new EpochCell();
+        if (cells.compareAndSet(index, null, created)) {
+            return created;
+        }
+        return cells.get(index);
+    }
+
+    private OptimizedStatistics collect(final long windowMillis, final boolean reset) {
+        final long current = now() / interval;
+        final long intervals = Math.max(1, Math.min(slots, (windowMillis + interval - 1) / interval));
+        final long oldest = current - intervals + 1;
+
+        final OptimizedStatistics statistics = new OptimizedStatistics();
+        for (int i = 0; i < cells.length(); i++) {
+            final EpochCell cell = cells.get(i);
+            if (cell == null) {
+                continue;
+            }
+
+            cell.acquire();
+            try {
+                if (cell.epoch >= oldest && cell.epoch <= current) {
+                    statistics.merge(cell);
+                }
+                if (reset) {
+                    cell.clear();
+                }
+            } finally {
+                cell.release();
+            }
+        }
+        return statistics;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "RollingWindowCounter{" +
+            "concurrency=" + currentConcurrency().get() +
+            ", key=" + getKey() +
+            ", maxConcurrency=" + getMaxConcurrency() +
+            ", interval=" + interval +
+            ", slots=" + slots +
+            ", cells=" + (mask + 1) +
+            ", statistics=" + getStatistics() +
+            '}';
+    }
+
+    private static final class EpochCell extends StripedCounter.Cell {
+        private long epoch = -1; // guarded by the cell state
+    }
+}
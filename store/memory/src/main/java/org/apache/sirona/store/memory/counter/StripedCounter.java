@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.counter;
+
+import org.apache.sirona.counters.CounterSnapshot;
+import org.apache.sirona.counters.Histogram;
+import org.apache.sirona.counters.LockableCounter;
+import org.apache.sirona.counters.OptimizedStatistics;
+import org.apache.sirona.store.counter.CounterDataStore;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+// spreads writes over several cells (thread id based) to avoid the global write lock of DefaultCounter,
+// cells are merged (parallel Welford) only when statistics are read
+public class StripedCounter extends LockableCounter {
+    public static final int DEFAULT_CELLS = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final Cell[] cells;
+    private final int mask;
+
+    public StripedCounter(final Key key, final CounterDataStore store) {
+        this(key, store, DEFAULT_CELLS);
+    }
+
+    public StripedCounter(final Key key, final CounterDataStore store, final int cellNumber) {
+        super(key, store);
+
+        int size = 1;
+        while (size < cellNumber) {
+            size <<= 1;
+        }
+
+        cells = new Cell[size];
+        for (int i = 0; i < size; i++) {
+            cells[i] = new Cell();
+        }
+        mask = size - 1;
+    }
+
+    @Override
+    public void addInternal(final double delta) {
+        final int start = index(Thread.currentThread().getId());
+        while (true) {
+            // if our cell is busy just try the next one, we never park the thread
+            for (int i = 0; i < cells.length; i++) {
+                final Cell cell = cells[(start + i) & mask];
+                if (cell.tryAcquire()) {
+                    try {
+                        cell.addValue(delta);
+                        final Histogram histogram = getHistogram();
+                        if (histogram != null) { // with the cell, snapshot(true) resets the histogram after the cells
+                            histogram.record(delta);
+                        }
+                    } finally {
+                        cell.release();
+                    }
+                    return;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (final Cell cell : cells) {
+            cell.acquire();
+            try {
+                cell.clear();
+            } finally {
+                cell.release();
+            }
+        }
+        super.reset();
+    }
+
+    @Override
+    public OptimizedStatistics getStatistics() {
+        final OptimizedStatistics statistics = new OptimizedStatistics();
+        for (final Cell cell : cells) {
+            cell.acquire();
+            try {
+                statistics.merge(cell);
+            } finally {
+                cell.release();
+            }
+        }
+        return statistics;
+    }
+
+    @Override
+    public CounterSnapshot snapshot(final boolean reset) { // writers don't use the lock so capture and reset cell by cell
+        final OptimizedStatistics statistics = new OptimizedStatistics();
+        for (final Cell cell : cells) {
+            cell.acquire();
+            try {
+                statistics.merge(cell);
+                if (reset) {
+                    cell.clear();
+                }
+            } finally {
+                cell.release();
+            }
+        }
+
+        final Histogram h = getHistogram();
+        final CounterSnapshot snapshot = new CounterSnapshot(
+            getKey(), statistics, currentConcurrency().get(), getMaxConcurrency(), h != null ? h.copy() : null);
+        if (reset) {
+            super.reset();
+        }
+        return snapshot;
+    }
+
+    private int index(final long id) {
+        return spread(id) & mask;
+    }
+
+    static int spread(final long id) {
+        int h = (int) (id ^ (id >>> 32));
+        h *= 0x9E3779B9; // spread consecutive thread ids
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return "StripedCounter{" +
+            "concurrency=" + currentConcurrency().get() +
+            ", key=" + getKey() +
+            ", maxConcurrency=" + getMaxConcurrency() +
+            ", cells=" + cells.length +
+            ", statistics=" + getStatistics() +
+            '}';
+    }
+
+    static class Cell extends OptimizedStatistics {
+        private static final AtomicIntegerFieldUpdater<Cell> STATE = AtomicIntegerFieldUpdater.newUpdater(Cell.class, "state");
+
+        private volatile int state = 0;
+
+        // padding to avoid false sharing between cells allocated next to each other
+        private long p0, p1, p2, p3, p4, p5, p6;
+
+        boolean tryAcquire() {
+            return state == 0 && STATE.compareAndSet(this, 0, 1);
+        }
+
+        void acquire() {
+            while (!tryAcquire()) {
+                Thread.yield();
+            }
+        }
+
+        void release() {
+            state = 0;
+        }
+    }
+}
@@ -16,38 +16,71 @@
  */
 package org.apache.sirona.store.memory.tracking;
 
+import org.apache.sirona.Role;
+import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.configuration.ioc.IoCs;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.gauges.Gauge;
+import org.apache.sirona.pathtracking.CallTree;
 import org.apache.sirona.pathtracking.PathCallInformation;
 import org.apache.sirona.pathtracking.PathTrackingEntry;
 import org.apache.sirona.pathtracking.PathTrackingEntryComparator;
+import org.apache.sirona.pathtracking.TrackingId;
 import org.apache.sirona.store.tracking.AbstractPathTrackingDataStore;
 import org.apache.sirona.store.tracking.CollectorPathTrackingDataStore;
 import org.apache.sirona.store.tracking.PathTrackingDataStore;
+import org.apache.sirona.util.SelfMonitoring;
 import org.apache.sirona.util.SerializeUtils;
-import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
 
 /**
  * Very simple in memory storage for Path tracking feature
  * <b>MUST NOT be used in production</b>
+ *
+ * Entries are kept off-heap as fixed size records (see {@link PathTrackingEntryCodec}) allocated
+ * in the chunks of a {@link PathTrackingArena} (org.apache.sirona.pathtracking.memory.chunk-size, 1MB).
+ *
+ * Oldest paths are evicted when a store exceeds one of the limits org.apache.sirona.pathtracking.memory.*
+ * (0 disables a limit): max-bytes of off-heap memory (128MB, at least two chunks), max-paths (0) and max-age in ms (0).
+ * Evicted paths are counted by the gauge {@link #EVICTED_PATHS}.
+ * Stores pushing their paths (see {@link org.apache.sirona.store.tracking.BatchPathTrackingDataStore}) don't evict:
+ * the entries are freed once pushed and evicting them would lose paths not pushed yet.
+ *
+ * Paths are indexed by start time (see {@link PathTimeIndex}) so a time range query
+ * doesn't read all the stored paths.
+ *
+ * Stored paths are also folded in the shared {@link CallTree}.
  */
 public class InMemoryPathTrackingDataStore
     extends AbstractPathTrackingDataStore
     implements PathTrackingDataStore, CollectorPathTrackingDataStore
 {
+    private static final Logger LOGGER = Logger.getLogger( InMemoryPathTrackingDataStore.class.getName() );
+
+    private static final String PREFIX = Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.memory.";
 
+    private static final int CHUNK_SIZE = Configuration.getInteger( PREFIX + "chunk-size", 1024 * 1024 );
+
+    public static final Role EVICTED_PATHS = new Role( "sirona-pathtracking-evicted-paths", Unit.UNARY );
 
     /**
      * store path track tracking entries list per path tracking id
@@ -56,6 +89,70 @@ public class InMemoryPathTrackingDataStore
     private ConcurrentMap<String, List<Pointer>> pathTrackingEntries =
         new ConcurrentHashMap<String, List<Pointer>>( 50 );
 
+    private final PathTrackingArena arena = new PathTrackingArena( CHUNK_SIZE );
+
+    private final PathTrackingEntryCodec codec = new PathTrackingEntryCodec();
+
+    private final long maxBytes;
+
+    private final int maxPaths;
+
+    private final long maxAge;
+
+    // paths in insertion order, evicted from the head
+    private final Queue<StoredPath> ring = new ConcurrentLinkedQueue<StoredPath>();
+
+    private final Lock eviction = new ReentrantLock();
+
+    private final AtomicLong evicted = new AtomicLong();
+
+    private final PathTimeIndex<StoredPath> timeIndex = new PathTimeIndex<StoredPath>( 1024 );
+
+    private final CallTree callTree = IoCs.findOrCreateInstance( CallTree.class );
+
+    public InMemoryPathTrackingDataStore()
+    {
+        this( Long.parseLong( Configuration.getProperty( PREFIX + "max-bytes", Long.toString( 128L * 1024 * 1024 ) ) ),
+              Configuration.getInteger( PREFIX + "max-paths", 0 ), //
+              Long.parseLong( Configuration.getProperty( PREFIX + "max-age", "0" ) ) );
+
+        SelfMonitoring.addGauge( new Gauge()
+        {
+            @Override
+            public Role role()
+            {
+                return EVICTED_PATHS;
+            }
+
+            @Override
+            public double value()
+            {
+                return evicted.get();
+            }
+        } );
+    }
+
+    /**
+     * @param maxBytes off-heap memory limit, 0 for no limit
+     * @param maxPaths path number limit, 0 for no limit
+     * @param maxAge   time a path is kept in ms, 0 for no limit
+     */
+    public InMemoryPathTrackingDataStore( final long maxBytes, final int maxPaths, final long maxAge )
+    {
+        if ( maxBytes > 0 && maxBytes < 2L * CHUNK_SIZE )
+        {
+            // the chunk being filled can't be freed, with less than two chunks every stored path would be evicted
+            LOGGER.warning( "max-bytes (" + maxBytes + ") is lower than two chunks, using " + 2L * CHUNK_SIZE );
+            this.maxBytes = 2L * CHUNK_SIZE;
+        }
+        else
+        {
+            this.maxBytes = maxBytes;
+        }
+        this.maxPaths = maxPaths;
+        this.maxAge = maxAge;
+    }
+
     @Override
     public void store( PathTrackingEntry pathTrackingEntry )
     {
@@ -65,43 +162,121 @@ public class InMemoryPathTrackingDataStore
     @Override
     public void store( Collection<PathTrackingEntry> pathTrackingEntries )
     {
-        if ( pathTrackingEntries == null )
+        if ( pathTrackingEntries == null || pathTrackingEntries.isEmpty() )
         {
             return;
         }
 
-        // possible different trackingId so get that
-        Map<String, Set<PathTrackingEntry>> entries = new HashMap<String, Set<PathTrackingEntry>>();
+        callTree.add( pathTrackingEntries );
+
+        // possible different trackingId so get that, the agent stores a path at once so there is usually one
+        Map<TrackingId, List<PathTrackingEntry>> entries = new HashMap<TrackingId, List<PathTrackingEntry>>();
 
         for ( PathTrackingEntry pathTrackingEntry : pathTrackingEntries )
         {
-            Set<PathTrackingEntry> entriesList = entries.get( pathTrackingEntry.getTrackingId() );
+            List<PathTrackingEntry> entriesList = entries.get( pathTrackingEntry.getId() );
             if ( entriesList == null )
             {
-                entriesList = new HashSet<PathTrackingEntry>();
+                entriesList = new ArrayList<PathTrackingEntry>();
+                entries.put( pathTrackingEntry.getId(), entriesList );
             }
             entriesList.add( pathTrackingEntry );
-            entries.put( pathTrackingEntry.getTrackingId(), entriesList );
         }
 
-        for ( Map.Entry<String, Set<PathTrackingEntry>> entry : entries.entrySet() )
+        for ( Map.Entry<TrackingId, List<PathTrackingEntry>> entry : entries.entrySet() )
         {
-            List<Pointer> entriesList = this.pathTrackingEntries.get( entry.getKey() );
+            final String key = entry.getKey().toString();
+            final List<Pointer> pointers = serialize( entry.getKey(), entry.getValue() );
+            while ( true )
+            {
+                StoredPath entriesList = StoredPath.class.cast( this.pathTrackingEntries.get( key ) );
+                if ( entriesList == null )
+                {
+                    final StoredPath created = new StoredPath( key, entry.getKey(), startTime( entry.getValue() ) );
+                    entriesList = StoredPath.class.cast( this.pathTrackingEntries.putIfAbsent( key, created ) );
+                    if ( entriesList == null )
+                    {
+                        entriesList = created;
+                        ring.add( created );
+                        timeIndex.add( created.start, created );
+                    }
+                }
+                if ( entriesList.append( pointers ) )
+                {
+                    break;
+                } // else removed concurrently, add the entries to a new path
+            }
+        }
 
-            if ( entriesList == null )
+        evict();
+    }
+
+    // earliest entry of the first stored part, the outermost call ends last so it is only in the last part
+    private static long startTime( List<PathTrackingEntry> entries )
+    {
+        long start = Long.MAX_VALUE;
+        for ( PathTrackingEntry entry : entries )
+        {
+            start = Math.min( start, entry.getStartTime() );
+        }
+        return start;
+    }
+
+    // one thread evicts at a time, others go on storing
+    private void evict()
+    {
+        if ( !eviction.tryLock() )
+        {
+            return;
+        }
+        try
+        {
+            final long oldest = maxAge > 0 ? System.currentTimeMillis() - maxAge : Long.MIN_VALUE;
+            StoredPath head;
+            while ( ( head = ring.peek() ) != null //
+                && ( head.isRemoved() // already cleared
+                || ( maxBytes > 0 && arena.getAllocatedBytes() > maxBytes ) //
+                || ( maxPaths > 0 && pathTrackingEntries.size() > maxPaths ) //
+                || head.created < oldest ) )
             {
-                entriesList = new CopyOnWriteArrayList<Pointer>();
+                ring.poll();
+                if ( head.remove() )
+                {
+                    pathTrackingEntries.remove( head.key, head );
+                    evicted.incrementAndGet();
+                }
             }
-            entriesList.addAll( serialize( entry.getValue() ) );
-            this.pathTrackingEntries.put( entry.getKey(), entriesList );
         }
+        finally
+        {
+            eviction.unlock();
+        }
+        timeIndex.purge();
+    }
+
+    public long getEvictedPaths()
+    {
+        return evicted.get();
+    }
 
+    public long getAllocatedBytes()
+    {
+        return arena.getAllocatedBytes();
+    }
+
+    protected CallTree getCallTree()
+    {
+        return callTree;
     }
 
     @Override
     public Collection<PathTrackingEntry> retrieve( String trackingId )
     {
         List<Pointer> buffers = this.pathTrackingEntries.get( trackingId );
+        if ( buffers == null )
+        {
+            return Collections.emptyList();
+        }
 
         return deserialize( buffers );
     }
@@ -109,23 +284,21 @@ public class InMemoryPathTrackingDataStore
     @Override
     public Collection<PathCallInformation> retrieveTrackingIds( Date startTime, Date endTime )
     {
-        Set<PathCallInformation> trackingIds = new TreeSet<PathCallInformation>( PathCallInformation.COMPARATOR );
-        for ( List<Pointer> buffers : this.pathTrackingEntries.values() )
-        {
-            if ( pathTrackingEntries.isEmpty() )
-            {
-                continue;
-            }
+        return retrieveTrackingIds( startTime, endTime, 0, 0 );
+    }
 
-            PathTrackingEntry first =
-                SerializeUtils.deserialize( readBytes( buffers.iterator().next() ), PathTrackingEntry.class );
+    @Override
+    public Collection<PathCallInformation> retrieveTrackingIds( Date startTime, Date endTime, int offset, int limit )
+    {
+        final List<StoredPath> paths = timeIndex.range( TimeUnit.MILLISECONDS.toNanos( startTime.getTime() ), //
+                                                        TimeUnit.MILLISECONDS.toNanos( endTime.getTime() ), //
+                                                        offset, limit );
 
-            if ( first.getStartTime() / 1000000 > startTime.getTime() //
-                && first.getStartTime() / 1000000 < endTime.getTime() )
-            {
-                trackingIds.add(
-                    new PathCallInformation( first.getTrackingId(), new Date( startTime.getTime() / 1000000 ) ) );
-            }
+        final List<PathCallInformation> trackingIds = new ArrayList<PathCallInformation>( paths.size() );
+        for ( StoredPath path : paths )
+        {
+            trackingIds.add( new PathCallInformation( path.trackingId.toString(),
+                                                      new Date( TimeUnit.NANOSECONDS.toMillis( path.start ) ) ) );
         }
         return trackingIds;
     }
@@ -136,9 +309,7 @@ public class InMemoryPathTrackingDataStore
 
         for ( Pointer pointer : buffers )
         {
-            byte[] bytes = readBytes( pointer );
-
-            PathTrackingEntry entry = SerializeUtils.deserialize( bytes, PathTrackingEntry.class );
+            PathTrackingEntry entry = read( pointer );
             if ( entry != null )
             {
                 entries.add( entry );
@@ -148,17 +319,27 @@ public class InMemoryPathTrackingDataStore
         return entries;
     }
 
-    @IgnoreJRERequirement
-    public byte[] readBytes( Pointer pointer )
+    /**
+     * @return the entry, <code>null</code> if its memory was freed
+     */
+    public PathTrackingEntry read( Pointer pointer )
     {
-        byte[] bytes = new byte[pointer.size];
-        int length = pointer.size;
-        long offset = pointer.offheapPointer;
-        for ( int pos = 0; pos < length; pos++ )
+        synchronized ( pointer ) // the entry can't be freed (evicted, pushed) while it is read
         {
-            bytes[pos] = UnsafeUtils.getUnsafe().getByte( pos + offset );
+            if ( pointer.isFree() )
+            {
+                return null;
+            }
+            return codec.read( pointer.offheapPointer, pointer.trackingId );
         }
-        return bytes;
+    }
+
+    /**
+     * @return the entry serialized as expected by the collectors ({@link SerializeUtils})
+     */
+    public byte[] readBytes( Pointer pointer )
+    {
+        return SerializeUtils.serialize( read( pointer ) );
     }
 
     public static class Pointer
@@ -167,7 +348,20 @@ public class InMemoryPathTrackingDataStore
 
         long offheapPointer;
 
-        boolean free;
+        volatile boolean free;
+
+        private final TrackingId trackingId;
+
+        private final PathTrackingArena arena;
+
+        private final PathTrackingArena.Chunk chunk;
+
+        Pointer( final TrackingId trackingId, final PathTrackingArena arena, final PathTrackingArena.Chunk chunk )
+        {
+            this.trackingId = trackingId;
+            this.arena = arena;
+            this.chunk = chunk;
+        }
 
         public int getSize()
         {
@@ -179,14 +373,21 @@ public class InMemoryPathTrackingDataStore
             return offheapPointer;
         }
 
-        @IgnoreJRERequirement
+        /**
+         * the chunk holding the entry is given back once all its entries are freed,
+         * waits for the current {@link InMemoryPathTrackingDataStore#read(Pointer)} of this entry if any
+         */
         public void freeMemory()
         {
-            if ( !free )
+            synchronized ( this )
             {
-                UnsafeUtils.getUnsafe().freeMemory( offheapPointer );
+                if ( free )
+                {
+                    return;
+                }
                 free = true;
             }
+            arena.release( chunk );
         }
 
         public boolean isFree()
@@ -195,27 +396,22 @@ public class InMemoryPathTrackingDataStore
         }
     }
 
-    @IgnoreJRERequirement
-    private List<Pointer> serialize( Collection<PathTrackingEntry> entries )
+    private List<Pointer> serialize( TrackingId trackingId, List<PathTrackingEntry> entries )
     {
         List<Pointer> buffers = new ArrayList<Pointer>( entries.size() );
 
+        final PathTrackingArena.Block block = arena.allocate( entries.size() );
+        long address = block.getAddress();
         for ( PathTrackingEntry entry : entries )
         {
-            byte[] bytes = SerializeUtils.serialize( entry );
-            if ( bytes != null )
-            {
-                long offheapPointer = UnsafeUtils.getUnsafe().allocateMemory( bytes.length );
-                Pointer pointer = new Pointer();
-                pointer.offheapPointer = offheapPointer;
-                pointer.size = bytes.length;
-                for ( int i = 0, size = bytes.length; i < size; i++ )
-                {
-                    UnsafeUtils.getUnsafe().putByte( offheapPointer + i, bytes[i] );
-                }
-                buffers.add( pointer );
+            codec.write( address, entry );
 
-            }
+            Pointer pointer = new Pointer( trackingId, arena, block.getChunk() );
+            pointer.offheapPointer = address;
+            pointer.size = PathTrackingEntryCodec.RECORD_SIZE;
+            buffers.add( pointer );
+
+            address += PathTrackingEntryCodec.RECORD_SIZE;
         }
 
         return buffers;
@@ -224,29 +420,91 @@ public class InMemoryPathTrackingDataStore
     @Override
     public void clearEntries()
     {
-        List<String> entriesToRemove = new ArrayList<String>();
         for ( Map.Entry<String, List<Pointer>> entry : pathTrackingEntries.entrySet() )
         {
-            boolean allFree = true;
             // clear entries to not wait gc
-            for ( Pointer pointer : entry.getValue() )
+            if ( StoredPath.class.cast( entry.getValue() ).removeIfFree() )
             {
-                if ( !pointer.isFree() )
-                {
-                    allFree = false;
-                }
+                pathTrackingEntries.remove( entry.getKey(), entry.getValue() );
             }
-            if ( allFree )
+        }
+        timeIndex.purge();
+    }
+
+    /**
+     * Pointers of a path, once removed from the store the entries added concurrently go to a new path.
+     */
+    private static class StoredPath
+        extends CopyOnWriteArrayList<Pointer>
+        implements PathTimeIndex.Handle
+    {
+        private final String key;
+
+        private final TrackingId trackingId;
+
+        private final long start; // ns
+
+        private final long created = System.currentTimeMillis();
+
+        private volatile boolean removed = false; // written under the lock of the path
+
+        StoredPath( final String key, final TrackingId trackingId, final long start )
+        {
+            this.key = key;
+            this.trackingId = trackingId;
+            this.start = start;
+        }
+
+        @Override
+        public boolean isRemoved()
+        {
+            return removed;
+        }
+
+        synchronized boolean append( final List<Pointer> pointers )
+        {
+            if ( removed )
             {
-                entriesToRemove.add( entry.getKey() );
+                return false;
             }
+            addAll( pointers );
+            return true;
         }
 
-        for ( String key : entriesToRemove )
+        /**
+         * Frees the entries.
+         *
+         * @return <code>false</code> if the path was already removed
+         */
+        synchronized boolean remove()
         {
-            pathTrackingEntries.remove( key );
+            if ( removed )
+            {
+                return false;
+            }
+            removed = true;
+            for ( Pointer pointer : this )
+            {
+                pointer.freeMemory();
+            }
+            return true;
         }
 
+        /**
+         * @return <code>true</code> if all the entries were freed (pushed by a batch store) and the path is removed
+         */
+        synchronized boolean removeIfFree()
+        {
+            for ( Pointer pointer : this )
+            {
+                if ( !pointer.isFree() )
+                {
+                    return false;
+                }
+            }
+            removed = true;
+            return true;
+        }
     }
 
     protected Map<String, Set<PathTrackingEntry>> getPathTrackingEntries()
@@ -0,0 +1,376 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.tracking;
+
+import org.apache.sirona.SironaException;
+import org.apache.sirona.configuration.Configuration;
+import org.apache.sirona.configuration.ioc.Destroying;
+import org.apache.sirona.configuration.ioc.IoCs;
+import org.apache.sirona.pathtracking.CallTree;
+import org.apache.sirona.pathtracking.PathCallInformation;
+import org.apache.sirona.pathtracking.PathTrackingEntry;
+import org.apache.sirona.pathtracking.PathTrackingEntryComparator;
+import org.apache.sirona.store.tracking.AbstractPathTrackingDataStore;
+import org.apache.sirona.store.tracking.CollectorPathTrackingDataStore;
+import org.apache.sirona.store.tracking.PathTrackingDataStore;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Path tracking store keeping the paths in rolling memory mapped files (see {@link PathTrackingSegment})
+ * so the last paths survive a restart without sending them over the network nor keeping them in the heap.
+ *
+ * Configured with org.apache.sirona.pathtracking.mapped.*:
+ * <ul>
+ *     <li>directory: directory of the segments (${java.io.tmpdir}/sirona-pathtracking),</li>
+ *     <li>segment-size: size of a segment file in bytes (64MB),</li>
+ *     <li>index-interval: bytes of a segment covered by an index slot (64KB),</li>
+ *     <li>max-bytes: size of all the segments, oldest segments are deleted beyond it, 0 for no limit (1GB),</li>
+ *     <li>max-age: time in ms a path is kept, segments with only older paths are deleted, 0 for no limit (0),</li>
+ *     <li>read-only: true to only read the segments written by another process (reporting webapp) (false).</li>
+ * </ul>
+ *
+ * Stored paths are also folded in the shared {@link CallTree}.
+ */
+public class MappedPathTrackingDataStore
+    extends AbstractPathTrackingDataStore
+    implements PathTrackingDataStore, CollectorPathTrackingDataStore
+{
+    private static final Logger LOGGER = Logger.getLogger( MappedPathTrackingDataStore.class.getName() );
+
+    private static final String PREFIX = Configuration.CONFIG_PROPERTY_PREFIX + "pathtracking.mapped.";
+
+    private static final String SEGMENT_PREFIX = "pathtracking-";
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final int indexInterval;
+
+    private final long maxBytes;
+
+    private final long maxAge;
+
+    private final boolean readOnly;
+
+    // oldest first
+    private final List<PathTrackingSegment> segments = new CopyOnWriteArrayList<PathTrackingSegment>();
+
+    private PathTrackingSegment current; // guarded by this
+
+    private final CallTree callTree = IoCs.findOrCreateInstance( CallTree.class );
+
+    public MappedPathTrackingDataStore()
+    {
+        this( new File( Configuration.getProperty( PREFIX + "directory", new File( System.getProperty( "java.io.tmpdir" ),
+                                                                                   "sirona-pathtracking" ).getAbsolutePath() ) ),
+              Configuration.getInteger( PREFIX + "segment-size", 64 * 1024 * 1024 ),
+              Configuration.getInteger( PREFIX + "index-interval", 64 * 1024 ),
+              Long.parseLong( Configuration.getProperty( PREFIX + "max-bytes", Long.toString( 1024L * 1024 * 1024 ) ) ),
+              Long.parseLong( Configuration.getProperty( PREFIX + "max-age", "0" ) ),
+              Configuration.is( PREFIX + "read-only", false ) );
+    }
+
+    public MappedPathTrackingDataStore( final File directory, final int segmentSize, final int indexInterval,
+                                        final long maxBytes, final long maxAge, final boolean readOnly )
+    {
+        this.directory = directory;
+        this.segmentSize = Math.max( 64 * 1024, segmentSize );
+        this.indexInterval = Math.max( 1024, indexInterval );
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
+        this.readOnly = readOnly;
+
+        if ( !readOnly && !directory.isDirectory() && !directory.mkdirs() )
+        {
+            throw new SironaException( "Can't create " + directory.getAbsolutePath() );
+        }
+        refresh(); // segments of the previous run, new paths go to a new segment
+        if ( !readOnly )
+        {
+            evict();
+        }
+    }
+
+    @Override
+    public void store( PathTrackingEntry pathTrackingEntry )
+    {
+        store( Collections.singletonList( pathTrackingEntry ) );
+    }
+
+    @Override
+    public void store( Collection<PathTrackingEntry> pathTrackingEntries )
+    {
+        if ( readOnly || pathTrackingEntries == null || pathTrackingEntries.isEmpty() )
+        {
+            return;
+        }
+
+        callTree.add( pathTrackingEntries );
+
+        // the agent stores a path at once so there is usually one trackingId
+        Map<String, List<PathTrackingEntry>> entries = new LinkedHashMap<String, List<PathTrackingEntry>>();
+        for ( PathTrackingEntry pathTrackingEntry : pathTrackingEntries )
+        {
+            List<PathTrackingEntry> entriesList = entries.get( pathTrackingEntry.getTrackingId() );
+            if ( entriesList == null )
+            {
+                entriesList = new ArrayList<PathTrackingEntry>();
+                entries.put( pathTrackingEntry.getTrackingId(), entriesList );
+            }
+            entriesList.add( pathTrackingEntry );
+        }
+
+        synchronized ( this )
+        {
+            for ( Map.Entry<String, List<PathTrackingEntry>> entry : entries.entrySet() )
+            {
+                append( entry.getKey(), entry.getValue() );
+            }
+            evict();
+        }
+    }
+
+    // guarded by this
+    private void append( final String trackingId, final List<PathTrackingEntry> entries )
+    {
+        final PathTrackingSegment.Block block = new PathTrackingSegment.Block( trackingId, entries );
+        if ( current != null && current.append( block ) )
+        {
+            return;
+        }
+
+        if ( current == null || block.getSize() <= current.capacity() )
+        {
+            roll();
+            if ( current.append( block ) )
+            {
+                return;
+            }
+        }
+
+        if ( entries.size() == 1 )
+        {
+            LOGGER.warning( "Can't store a path tracking entry of " + trackingId + " in a segment of " + segmentSize
+                                + " bytes" );
+            return;
+        }
+        // bigger than a segment, the path is stored in several blocks
+        append( trackingId, entries.subList( 0, entries.size() / 2 ) );
+        append( trackingId, entries.subList( entries.size() / 2, entries.size() ) );
+    }
+
+    // guarded by this
+    private void roll()
+    {
+        final long sequence = segments.isEmpty() ? 0 : segments.get( segments.size() - 1 ).getSequence() + 1;
+        if ( current != null )
+        {
+            current.force();
+        }
+        current = new PathTrackingSegment( new File( directory, name( sequence ) ), sequence, segmentSize,
+                                           indexInterval, false );
+        segments.add( current );
+    }
+
+    // guarded by this, the segment being written is never deleted
+    private void evict()
+    {
+        final long oldest = maxAge > 0 ? TimeUnit.MILLISECONDS.toNanos( System.currentTimeMillis() - maxAge ) : 0;
+
+        long bytes = 0;
+        for ( PathTrackingSegment segment : segments )
+        {
+            bytes += segment.getSize();
+        }
+
+        while ( !segments.isEmpty() && segments.get( 0 ) != current )
+        {
+            final PathTrackingSegment segment = segments.get( 0 );
+            if ( ( maxBytes <= 0 || bytes <= maxBytes ) && ( maxAge <= 0 || segment.getMaxStart() >= oldest ) )
+            {
+                break;
+            }
+
+            segments.remove( 0 );
+            bytes -= segment.getSize();
+            if ( !segment.getFile().delete() ) // the mapping is released by the gc
+            {
+                LOGGER.warning( "Can't delete " + segment.getFile().getAbsolutePath() );
+            }
+        }
+    }
+
+    /**
+     * Opens the segments not known yet and forgets the deleted ones (rolled by the writer process).
+     */
+    private synchronized void refresh()
+    {
+        final File[] files = directory.listFiles( new FilenameFilter()
+        {
+            @Override
+            public boolean accept( final File dir, final String name )
+            {
+                return name.startsWith( SEGMENT_PREFIX ) && name.endsWith( SEGMENT_SUFFIX );
+            }
+        } );
+        if ( files == null )
+        {
+            segments.clear();
+            return;
+        }
+        Arrays.sort( files ); // fixed length sequences
+
+        final Map<String, PathTrackingSegment> known = new HashMap<String, PathTrackingSegment>();
+        for ( PathTrackingSegment segment : segments )
+        {
+            known.put( segment.getFile().getName(), segment );
+        }
+
+        final List<PathTrackingSegment> found = new ArrayList<PathTrackingSegment>( files.length );
+        for ( File file : files )
+        {
+            PathTrackingSegment segment = known.get( file.getName() );
+            if ( segment == null )
+            {
+                try
+                {
+                    final String name = file.getName();
+                    segment = new PathTrackingSegment( file, Long.parseLong(
+                        name.substring( SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length() ) ), //
+                                                       segmentSize, indexInterval, true );
+                }
+                catch ( final RuntimeException e ) // being created or not a segment
+                {
+                    LOGGER.log( Level.FINE, "Ignoring " + file.getAbsolutePath(), e );
+                    continue;
+                }
+            }
+            found.add( segment );
+        }
+
+        segments.clear();
+        segments.addAll( found );
+    }
+
+    @Override
+    public Collection<PathTrackingEntry> retrieve( String trackingId )
+    {
+        if ( readOnly )
+        {
+            refresh();
+        }
+
+        List<PathTrackingEntry> entries = new ArrayList<PathTrackingEntry>();
+        for ( PathTrackingSegment segment : segments )
+        {
+            segment.retrieve( trackingId, entries );
+        }
+        Collections.sort( entries, PathTrackingEntryComparator.INSTANCE );
+        return entries;
+    }
+
+    @Override
+    public Collection<PathCallInformation> retrieveTrackingIds( Date startTime, Date endTime )
+    {
+        return retrieveTrackingIds( startTime, endTime, 0, 0 );
+    }
+
+    @Override
+    public Collection<PathCallInformation> retrieveTrackingIds( Date startTime, Date endTime, int offset, int limit )
+    {
+        if ( readOnly )
+        {
+            refresh();
+        }
+
+        final long from = TimeUnit.MILLISECONDS.toNanos( startTime.getTime() );
+        final long to = TimeUnit.MILLISECONDS.toNanos( endTime.getTime() );
+        final Map<String, Long> starts = new HashMap<String, Long>();
+        for ( PathTrackingSegment segment : segments )
+        {
+            segment.range( from, to, starts );
+        }
+
+        List<PathCallInformation> trackingIds = new ArrayList<PathCallInformation>( starts.size() );
+        for ( Map.Entry<String, Long> entry : starts.entrySet() )
+        {
+            trackingIds.add(
+                new PathCallInformation( entry.getKey(), new Date( TimeUnit.NANOSECONDS.toMillis( entry.getValue() ) ) ) );
+        }
+        Collections.sort( trackingIds, PathCallInformation.COMPARATOR );
+        return page( trackingIds, offset, limit );
+    }
+
+    /**
+     * Deletes all the segments.
+     */
+    @Override
+    public synchronized void clearEntries()
+    {
+        if ( readOnly )
+        {
+            return;
+        }
+
+        for ( PathTrackingSegment segment : segments )
+        {
+            if ( !segment.getFile().delete() )
+            {
+                LOGGER.warning( "Can't delete " + segment.getFile().getAbsolutePath() );
+            }
+        }
+        segments.clear();
+        current = null;
+    }
+
+    @Destroying
+    public synchronized void flush()
+    {
+        if ( current != null )
+        {
+            current.force();
+        }
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    private static String name( final long sequence )
+    {
+        return SEGMENT_PREFIX + String.format( "%020d", sequence ) + SEGMENT_SUFFIX;
+    }
+}
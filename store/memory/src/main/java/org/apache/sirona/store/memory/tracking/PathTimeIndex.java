@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Paths sorted by start time: two parallel arrays, start times and handles, so a range is found
+ * by a binary search and read sequentially.
+ * Paths are stored roughly in start order (when they end) so an added path is
+ * usually appended, a late one is moved back from the tail.
+ * Removed paths are skipped by the queries and dropped from the head by {@link #purge()}
+ * or when the arrays are full.
+ */
+class PathTimeIndex<T extends PathTimeIndex.Handle>
+{
+    interface Handle
+    {
+        boolean isRemoved();
+    }
+
+    private long[] starts;
+
+    private Object[] handles;
+
+    private int head = 0;
+
+    private int tail = 0;
+
+    PathTimeIndex( final int capacity )
+    {
+        starts = new long[Math.max( 16, capacity )];
+        handles = new Object[starts.length];
+    }
+
+    synchronized void add( final long start, final T handle )
+    {
+        if ( tail == starts.length )
+        {
+            compact();
+        }
+
+        int position = tail;
+        while ( position > head && starts[position - 1] > start )
+        {
+            position--;
+        }
+        if ( position < tail )
+        {
+            System.arraycopy( starts, position, starts, position + 1, tail - position );
+            System.arraycopy( handles, position, handles, position + 1, tail - position );
+        }
+        starts[position] = start;
+        handles[position] = handle;
+        tail++;
+    }
+
+    /**
+     * @param from   first start time included
+     * @param to     last start time excluded
+     * @param offset number of paths of the range to skip
+     * @param limit  maximum number of paths returned, 0 for no limit
+     * @return paths of the range ordered by start time
+     */
+    synchronized List<T> range( final long from, final long to, final int offset, final int limit )
+    {
+        final List<T> result = new ArrayList<T>( limit > 0 ? limit : 16 );
+        int skip = Math.max( 0, offset );
+        for ( int i = lowerBound( from ); i < tail && starts[i] < to; i++ )
+        {
+            final T handle = handle( i );
+            if ( handle.isRemoved() )
+            {
+                continue;
+            }
+            if ( skip > 0 )
+            {
+                skip--;
+                continue;
+            }
+            result.add( handle );
+            if ( result.size() == limit )
+            {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops the removed paths from the head of the index.
+     */
+    synchronized void purge()
+    {
+        while ( head < tail && handle( head ).isRemoved() )
+        {
+            handles[head] = null;
+            head++;
+        }
+        if ( head == tail )
+        {
+            head = 0;
+            tail = 0;
+        }
+    }
+
+    synchronized int size()
+    {
+        return tail - head;
+    }
+
+    // first position with a start time >= from
+    private int lowerBound( final long from )
+    {
+        int low = head;
+        int high = tail;
+        while ( low < high )
+        {
+            final int middle = ( low + high ) >>> 1;
+            if ( starts[middle] < from )
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // moves the live paths to the beginning of the arrays, grows them if they stay more than half full
+    private void compact()
+    {
+        int live = 0;
+        for ( int i = head; i < tail; i++ )
+        {
+            if ( !handle( i ).isRemoved() )
+            {
+                starts[live] = starts[i];
+                handles[live] = handles[i];
+                live++;
+            }
+        }
+        for ( int i = live; i < tail; i++ )
+        {
+            handles[i] = null;
+        }
+        head = 0;
+        tail = live;
+
+        if ( live > starts.length / 2 )
+        {
+            final long[] newStarts = new long[starts.length * 2];
+            final Object[] newHandles = new Object[newStarts.length];
+            System.arraycopy( starts, 0, newStarts, 0, live );
+            System.arraycopy( handles, 0, newHandles, 0, live );
+            starts = newStarts;
+            handles = newHandles;
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private T handle( final int position )
+    {
+        return (T) handles[position];
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.tracking;
+
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+/**
+ * Off-heap memory of {@link InMemoryPathTrackingDataStore}: large chunks filled by bump allocation.
+ * A chunk counts the records still used in it and is given back to the system
+ * once all of them are freed and the allocation moved to another chunk.
+ */
+public class PathTrackingArena
+{
+    private final int chunkSize;
+
+    private Chunk current; // guarded by this
+
+    private long allocated = 0; // guarded by this
+
+    public PathTrackingArena( final int chunkSize )
+    {
+        this.chunkSize = Math.max( PathTrackingEntryCodec.RECORD_SIZE, chunkSize );
+    }
+
+    /**
+     * Reserves <code>records</code> contiguous records, each of them is freed with {@link #release(Chunk)}.
+     */
+    public synchronized Block allocate( final int records )
+    {
+        final int size = records * PathTrackingEntryCodec.RECORD_SIZE;
+        if ( current == null || current.capacity - current.position < size )
+        {
+            final Chunk previous = current;
+            current = newChunk( Math.max( chunkSize, size ) );
+            if ( previous != null && previous.live == 0 )
+            {
+                free( previous );
+            }
+        }
+        final Block block = new Block( current, current.address + current.position );
+        current.position += size;
+        current.live += records;
+        return block;
+    }
+
+    public synchronized void release( final Chunk chunk )
+    {
+        chunk.live--;
+        if ( chunk.live == 0 && chunk != current )
+        {
+            free( chunk );
+        }
+    }
+
+    /**
+     * @return off-heap bytes currently held by the arena
+     */
+    public synchronized long getAllocatedBytes()
+    {
+        return allocated;
+    }
+
+    @IgnoreJRERequirement
+    private Chunk newChunk( final int capacity )
+    {
+        final Chunk chunk = new Chunk( UnsafeUtils.getUnsafe().allocateMemory( capacity ), capacity );
+        allocated += capacity;
+        return chunk;
+    }
+
+    @IgnoreJRERequirement
+    private void free( final Chunk chunk )
+    {
+        if ( chunk.address != 0 )
+        {
+            UnsafeUtils.getUnsafe().freeMemory( chunk.address );
+            allocated -= chunk.capacity;
+            chunk.address = 0;
+        }
+    }
+
+    public static class Chunk
+    {
+        private long address;
+
+        private final int capacity;
+
+        private int position = 0;
+
+        private int live = 0; // records not freed yet
+
+        private Chunk( final long address, final int capacity )
+        {
+            this.address = address;
+            this.capacity = capacity;
+        }
+    }
+
+    public static class Block
+    {
+        private final Chunk chunk;
+
+        private final long address;
+
+        private Block( final Chunk chunk, final long address )
+        {
+            this.chunk = chunk;
+            this.address = address;
+        }
+
+        public Chunk getChunk()
+        {
+            return chunk;
+        }
+
+        public long getAddress()
+        {
+            return address;
+        }
+    }
+}
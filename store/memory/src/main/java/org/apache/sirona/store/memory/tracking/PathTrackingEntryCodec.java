@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.tracking;
+
+import org.apache.sirona.pathtracking.PathTrackingEntry;
+import org.apache.sirona.pathtracking.TrackingId;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Fixed layout of a {@link PathTrackingEntry} in off-heap memory, {@link #RECORD_SIZE} bytes:
+ * <pre>
+ * 0  start time (long)
+ * 8  execution time (long)
+ * 16 level (int)
+ * 20 node (int)
+ * 24 class name (int)
+ * 28 method name (int)
+ * </pre>
+ * Strings are replaced by their index in a dictionary kept on heap, there are few distinct
+ * nodes, classes and methods. The tracking id is not in the record, it is shared by the entries of a path.
+ */
+public class PathTrackingEntryCodec
+{
+    public static final int RECORD_SIZE = 32;
+
+    private static final int EXECUTION_TIME = 8;
+
+    private static final int LEVEL = 16;
+
+    private static final int NODE = 20;
+
+    private static final int CLASS_NAME = 24;
+
+    private static final int METHOD_NAME = 28;
+
+    private final ConcurrentMap<String, Integer> indexes = new ConcurrentHashMap<String, Integer>();
+
+    private volatile String[] strings = new String[256];
+
+    private int next = 1; // guarded by indexes, 0 is null
+
+    @IgnoreJRERequirement
+    public void write( final long address, final PathTrackingEntry entry )
+    {
+        final sun.misc.Unsafe unsafe = UnsafeUtils.getUnsafe();
+        unsafe.putLong( address, entry.getStartTime() );
+        unsafe.putLong( address + EXECUTION_TIME, entry.getExecutionTime() );
+        unsafe.putInt( address + LEVEL, entry.getLevel() );
+        unsafe.putInt( address + NODE, index( entry.getNodeId() ) );
+        unsafe.putInt( address + CLASS_NAME, index( entry.getClassName() ) );
+        unsafe.putInt( address + METHOD_NAME, index( entry.getMethodName() ) );
+    }
+
+    @IgnoreJRERequirement
+    public PathTrackingEntry read( final long address, final TrackingId trackingId )
+    {
+        final sun.misc.Unsafe unsafe = UnsafeUtils.getUnsafe();
+        final String[] current = strings;
+        return new PathTrackingEntry( trackingId, //
+                                      current[unsafe.getInt( address + NODE )], //
+                                      current[unsafe.getInt( address + CLASS_NAME )], //
+                                      current[unsafe.getInt( address + METHOD_NAME )], //
+                                      unsafe.getLong( address ), //
+                                      unsafe.getLong( address + EXECUTION_TIME ), //
+                                      unsafe.getInt( address + LEVEL ) );
+    }
+
+    @IgnoreJRERequirement
+    public long readStartTime( final long address )
+    {
+        return UnsafeUtils.getUnsafe().getLong( address );
+    }
+
+    private int index( final String value )
+    {
+        if ( value == null )
+        {
+            return 0;
+        }
+
+        final Integer existing = indexes.get( value );
+        if ( existing != null )
+        {
+            return existing;
+        }
+
+        synchronized ( indexes )
+        {
+            final Integer concurrent = indexes.get( value );
+            if ( concurrent != null )
+            {
+                return concurrent;
+            }
+
+            final int index = next++;
+            if ( index == strings.length )
+            {
+                final String[] newStrings = new String[index * 2];
+                System.arraycopy( strings, 0, newStrings, 0, index );
+                strings = newStrings;
+            }
+            strings[index] = value;
+            indexes.put( value, index ); // published after the string
+            return index;
+        }
+    }
+}
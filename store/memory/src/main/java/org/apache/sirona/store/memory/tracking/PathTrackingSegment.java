@@ -0,0 +1,543 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.tracking;
+
+import org.apache.sirona.SironaException;
+import org.apache.sirona.pathtracking.PathTrackingEntry;
+import org.apache.sirona.pathtracking.TrackingId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory mapped file of {@link MappedPathTrackingDataStore} where paths are appended until it is full.
+ *
+ * Layout:
+ * <pre>
+ * header (64 bytes): magic, version, file size, index interval, committed offset, min and max path start
+ * index (24 bytes per interval): offset of the first block starting in the interval, min and max path start
+ * blocks: a path or a part of a path
+ *   length (int), hash of the tracking id (int), path start (long), string number (int),
+ *   strings (unsigned short length + UTF-8), the first one is the tracking id,
+ *   entry number (int), entries (start, execution time, level, node, class name and method name indexes)
+ * </pre>
+ *
+ * The committed offset is written after a block so readers, in this process or another one (reporting webapp),
+ * only see complete blocks and a file left by a crash is consistent.
+ * The index is sparse: a time range query only reads the intervals which may contain a path of the range.
+ *
+ * A lookup by tracking id uses an index of the blocks by hash of the tracking id kept in memory (not in the file),
+ * it is completed with the blocks committed since the previous lookup.
+ */
+class PathTrackingSegment
+{
+    static final int MAGIC = 0x53495250; // SIRP
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+
+    private static final int SIZE_OFFSET = 8;
+
+    private static final int INTERVAL_OFFSET = 12;
+
+    private static final int COMMITTED_OFFSET = 16;
+
+    private static final int MIN_START_OFFSET = 24;
+
+    private static final int MAX_START_OFFSET = 32;
+
+    private static final int SLOT_SIZE = 24;
+
+    private static final int BLOCK_HEADER_SIZE = 20;
+
+    private static final int ENTRY_SIZE = 32;
+
+    private static final int MAX_STRING_SIZE = 0xFFFF;
+
+    private static final String ENCODING = "UTF-8";
+
+    private final File file;
+
+    private final long sequence;
+
+    private final MappedByteBuffer buffer;
+
+    private final int size;
+
+    private final int interval;
+
+    private final int dataOffset;
+
+    private int committed; // guarded by this
+
+    // blocks by hash of their tracking id: chains of block numbers, -1 ends a chain (guarded by this)
+    private int indexed;
+
+    private int[] buckets = new int[0];
+
+    private int[] blockOffsets = new int[64];
+
+    private int[] previousBlocks = new int[64];
+
+    private int blocks = 0;
+
+    PathTrackingSegment( final File file, final long sequence, final int size, final int interval,
+                         final boolean readOnly )
+    {
+        this.file = file;
+        this.sequence = sequence;
+
+        RandomAccessFile raf = null;
+        try
+        {
+            final boolean exists = file.isFile() && file.length() >= HEADER_SIZE;
+            if ( !exists && readOnly )
+            {
+                throw new SironaException( "Can't read " + file.getAbsolutePath() );
+            }
+
+            raf = new RandomAccessFile( file, readOnly ? "r" : "rw" );
+            if ( exists )
+            {
+                final MappedByteBuffer header = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE );
+                if ( header.getInt( 0 ) != MAGIC || header.getInt( 4 ) != VERSION )
+                {
+                    throw new SironaException( file.getAbsolutePath() + " is not a sirona path tracking segment" );
+                }
+                this.size = header.getInt( SIZE_OFFSET );
+                this.interval = header.getInt( INTERVAL_OFFSET );
+            }
+            else
+            {
+                this.size = size;
+                this.interval = interval;
+            }
+            this.dataOffset = HEADER_SIZE + slots( this.size, this.interval ) * SLOT_SIZE;
+            this.indexed = dataOffset;
+
+            buffer = raf.getChannel().map( readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0,
+                                           this.size );
+            if ( exists )
+            {
+                committed = buffer.getInt( COMMITTED_OFFSET );
+            }
+            else
+            {
+                buffer.putInt( 4, VERSION );
+                buffer.putInt( SIZE_OFFSET, this.size );
+                buffer.putInt( INTERVAL_OFFSET, this.interval );
+                buffer.putLong( MIN_START_OFFSET, Long.MAX_VALUE );
+                buffer.putLong( MAX_START_OFFSET, Long.MIN_VALUE );
+                committed = dataOffset;
+                buffer.putInt( COMMITTED_OFFSET, committed );
+                buffer.putInt( 0, MAGIC );
+            }
+        }
+        catch ( final IOException e )
+        {
+            throw new SironaException( e );
+        }
+        finally
+        {
+            if ( raf != null ) // the mapping stays valid
+            {
+                try
+                {
+                    raf.close();
+                }
+                catch ( final IOException e )
+                {
+                    // no-op
+                }
+            }
+        }
+    }
+
+    private static int slots( final int size, final int interval )
+    {
+        return ( size - HEADER_SIZE ) / interval + 1;
+    }
+
+    /**
+     * @return bytes available for blocks in an empty segment
+     */
+    int capacity()
+    {
+        return size - dataOffset;
+    }
+
+    /**
+     * @return <code>false</code> if the segment is full
+     */
+    synchronized boolean append( final Block block )
+    {
+        if ( committed + block.size > size )
+        {
+            return false;
+        }
+
+        final long start = block.start;
+        final ByteBuffer writer = buffer.duplicate();
+        writer.position( committed );
+        writer.putInt( block.size );
+        writer.putInt( block.trackingId.hashCode() );
+        writer.putLong( start );
+        writer.putInt( block.strings.size() );
+        for ( final byte[] string : block.strings.values() )
+        {
+            writer.putShort( (short) string.length );
+            writer.put( string );
+        }
+        writer.putInt( block.entries.size() );
+        for ( final PathTrackingEntry entry : block.entries )
+        {
+            writer.putLong( entry.getStartTime() );
+            writer.putLong( entry.getExecutionTime() );
+            writer.putInt( entry.getLevel() );
+            writer.putInt( block.index( entry.getNodeId() ) );
+            writer.putInt( block.index( entry.getClassName() ) );
+            writer.putInt( block.index( entry.getMethodName() ) );
+        }
+
+        final int slot = HEADER_SIZE + ( ( committed - dataOffset ) / interval ) * SLOT_SIZE;
+        if ( buffer.getLong( slot ) == 0 )
+        {
+            buffer.putLong( slot + 8, start );
+            buffer.putLong( slot + 16, start );
+            buffer.putLong( slot, committed );
+        }
+        else
+        {
+            buffer.putLong( slot + 8, Math.min( start, buffer.getLong( slot + 8 ) ) );
+            buffer.putLong( slot + 16, Math.max( start, buffer.getLong( slot + 16 ) ) );
+        }
+        buffer.putLong( MIN_START_OFFSET, Math.min( start, buffer.getLong( MIN_START_OFFSET ) ) );
+        buffer.putLong( MAX_START_OFFSET, Math.max( start, buffer.getLong( MAX_START_OFFSET ) ) );
+
+        committed += block.size;
+        buffer.putInt( COMMITTED_OFFSET, committed ); // last, the block is visible
+        return true;
+    }
+
+    /**
+     * Adds the tracking ids of the paths starting in the range with the start of their earliest part.
+     */
+    synchronized void range( final long from, final long to, final Map<String, Long> starts )
+    {
+        final int end = readCommitted();
+        if ( end == dataOffset || buffer.getLong( MAX_START_OFFSET ) < from || buffer.getLong( MIN_START_OFFSET ) >= to )
+        {
+            return;
+        }
+
+        final int slots = slots( size, interval );
+        for ( int i = 0; i < slots; i++ )
+        {
+            final int slot = HEADER_SIZE + i * SLOT_SIZE;
+            final int first = (int) buffer.getLong( slot );
+            if ( first == 0 || first >= end || buffer.getLong( slot + 16 ) < from || buffer.getLong( slot + 8 ) >= to )
+            {
+                continue;
+            }
+
+            final int intervalEnd = Math.min( end, dataOffset + ( i + 1 ) * interval );
+            int length;
+            for ( int offset = first; offset < intervalEnd && ( length = buffer.getInt( offset ) ) > 0; offset += length )
+            {
+                final long start = buffer.getLong( offset + 8 );
+                if ( start >= from && start < to )
+                {
+                    final String trackingId = string( offset + BLOCK_HEADER_SIZE );
+                    final Long previous = starts.get( trackingId );
+                    if ( previous == null || previous > start )
+                    {
+                        starts.put( trackingId, start );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the entries of this tracking id.
+     */
+    void retrieve( final String trackingId, final List<PathTrackingEntry> entries )
+    {
+        final int hash = trackingId.hashCode();
+        int[] candidates = null;
+        int number = 0;
+        synchronized ( this )
+        {
+            index( readCommitted() );
+            if ( blocks == 0 )
+            {
+                return;
+            }
+
+            // last block first in the chain
+            for ( int block = buckets[hash & ( buckets.length - 1 )]; block >= 0; block = previousBlocks[block] )
+            {
+                final int offset = blockOffsets[block];
+                if ( buffer.getInt( offset + 4 ) == hash )
+                {
+                    if ( candidates == null )
+                    {
+                        candidates = new int[4];
+                    }
+                    else if ( number == candidates.length )
+                    {
+                        final int[] bigger = new int[number * 2];
+                        System.arraycopy( candidates, 0, bigger, 0, number );
+                        candidates = bigger;
+                    }
+                    candidates[number++] = offset;
+                }
+            }
+        }
+
+        for ( int i = number - 1; i >= 0; i-- ) // committed blocks don't change, they are read without the lock
+        {
+            final int offset = candidates[i];
+            if ( trackingId.equals( string( offset + BLOCK_HEADER_SIZE ) ) )
+            {
+                read( offset, TrackingId.valueOf( trackingId ), entries );
+            }
+        }
+    }
+
+    // adds the blocks committed since the previous call to the index
+    private void index( final int end )
+    {
+        int length;
+        while ( indexed < end && ( length = buffer.getInt( indexed ) ) > 0 )
+        {
+            if ( blocks == blockOffsets.length )
+            {
+                blockOffsets = grow( blockOffsets );
+                previousBlocks = grow( previousBlocks );
+            }
+            if ( blocks >= buckets.length - ( buckets.length >> 2 ) )
+            {
+                rehash( Math.max( 64, buckets.length * 2 ) );
+            }
+
+            blockOffsets[blocks] = indexed;
+            link( blocks );
+            blocks++;
+            indexed += length;
+        }
+    }
+
+    private void link( final int block )
+    {
+        final int bucket = buffer.getInt( blockOffsets[block] + 4 ) & ( buckets.length - 1 );
+        previousBlocks[block] = buckets[bucket];
+        buckets[bucket] = block;
+    }
+
+    private void rehash( final int size )
+    {
+        buckets = new int[size];
+        Arrays.fill( buckets, -1 );
+        for ( int block = 0; block < blocks; block++ ) // in order so chains stay from the last block to the first
+        {
+            link( block );
+        }
+    }
+
+    private static int[] grow( final int[] array )
+    {
+        final int[] bigger = new int[array.length * 2];
+        System.arraycopy( array, 0, bigger, 0, array.length );
+        return bigger;
+    }
+
+    private void read( final int offset, final TrackingId trackingId, final List<PathTrackingEntry> entries )
+    {
+        final String[] strings = new String[buffer.getInt( offset + 16 )];
+        int position = offset + BLOCK_HEADER_SIZE;
+        for ( int i = 0; i < strings.length; i++ )
+        {
+            strings[i] = string( position );
+            position += 2 + ( buffer.getShort( position ) & 0xFFFF );
+        }
+
+        final int number = buffer.getInt( position );
+        position += 4;
+        for ( int i = 0; i < number; i++ )
+        {
+            entries.add( new PathTrackingEntry( trackingId, //
+                                                strings[buffer.getInt( position + 20 )], //
+                                                strings[buffer.getInt( position + 24 )], //
+                                                strings[buffer.getInt( position + 28 )], //
+                                                buffer.getLong( position ), //
+                                                buffer.getLong( position + 8 ), //
+                                                buffer.getInt( position + 16 ) ) );
+            position += ENTRY_SIZE;
+        }
+    }
+
+    private String string( final int position )
+    {
+        final byte[] bytes = new byte[buffer.getShort( position ) & 0xFFFF];
+        final ByteBuffer string = buffer.duplicate();
+        string.position( position + 2 );
+        string.get( bytes );
+        try
+        {
+            return new String( bytes, ENCODING );
+        }
+        catch ( final UnsupportedEncodingException e )
+        {
+            throw new SironaException( e );
+        }
+    }
+
+    // a read only segment can be written by another process
+    private int readCommitted()
+    {
+        final int current = buffer.getInt( COMMITTED_OFFSET );
+        if ( current > committed && current <= size )
+        {
+            committed = current;
+        }
+        return committed;
+    }
+
+    private static byte[] bytes( final String value )
+    {
+        try
+        {
+            return value.getBytes( ENCODING );
+        }
+        catch ( final UnsupportedEncodingException e )
+        {
+            throw new SironaException( e );
+        }
+    }
+
+    /**
+     * @return max path start in ns, {@link Long#MIN_VALUE} if the segment is empty
+     */
+    long getMaxStart()
+    {
+        return buffer.getLong( MAX_START_OFFSET );
+    }
+
+    long getSequence()
+    {
+        return sequence;
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    int getSize()
+    {
+        return size;
+    }
+
+    void force()
+    {
+        buffer.force();
+    }
+
+    /**
+     * Entries of a path encoded for a segment: the strings of the entries are written once per block,
+     * the tracking id is the first one.
+     */
+    static class Block
+    {
+        private final String trackingId;
+
+        private final List<PathTrackingEntry> entries;
+
+        private final Map<String, byte[]> strings = new LinkedHashMap<String, byte[]>();
+
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+        private final int size;
+
+        private final long start;
+
+        Block( final String trackingId, final List<PathTrackingEntry> entries )
+        {
+            this.trackingId = trackingId;
+            this.entries = entries;
+
+            int blockSize = BLOCK_HEADER_SIZE + 4 + entries.size() * ENTRY_SIZE + add( trackingId );
+            long min = Long.MAX_VALUE;
+            for ( final PathTrackingEntry entry : entries )
+            {
+                blockSize += add( entry.getNodeId() );
+                blockSize += add( entry.getClassName() );
+                blockSize += add( entry.getMethodName() );
+                min = Math.min( min, entry.getStartTime() );
+            }
+            this.size = blockSize;
+            this.start = min;
+        }
+
+        int getSize()
+        {
+            return size;
+        }
+
+        private int add( final String value )
+        {
+            final String key = value == null ? "" : value;
+            if ( indexes.containsKey( key ) )
+            {
+                return 0;
+            }
+
+            byte[] bytes = bytes( key );
+            if ( bytes.length > MAX_STRING_SIZE )
+            {
+                int length = MAX_STRING_SIZE;
+                while ( length > 0 && ( bytes[length] & 0xC0 ) == 0x80 ) // don't cut a character
+                {
+                    length--;
+                }
+                final byte[] truncated = new byte[length];
+                System.arraycopy( bytes, 0, truncated, 0, length );
+                bytes = truncated;
+            }
+            indexes.put( key, indexes.size() );
+            strings.put( key, bytes );
+            return 2 + bytes.length;
+        }
+
+        private int index( final String value )
+        {
+            return indexes.get( value == null ? "" : value );
+        }
+    }
+}
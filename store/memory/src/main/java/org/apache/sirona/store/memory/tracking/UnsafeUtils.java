@@ -19,6 +19,7 @@ package org.apache.sirona.store.memory.tracking;
 import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 
 import java.lang.reflect.Field;
+import java.nio.Buffer;
 
 /**
  * FIXME move that to store memory as only used for path tracking in memory
@@ -28,6 +29,8 @@ public class UnsafeUtils
 {
     private static sun.misc.Unsafe UNSAFE;
 
+    private static long BUFFER_ADDRESS_OFFSET;
+
 
     static
     {
@@ -36,6 +39,7 @@ public class UnsafeUtils
             Field f = sun.misc.Unsafe.class.getDeclaredField( "theUnsafe" );
             f.setAccessible( true );
             UNSAFE = (sun.misc.Unsafe) f.get( null );
+            BUFFER_ADDRESS_OFFSET = UNSAFE.objectFieldOffset( Buffer.class.getDeclaredField( "address" ) );
         }
         catch ( Exception e )
         {
@@ -52,4 +56,36 @@ public class UnsafeUtils
     {
         return UNSAFE;
     }
+
+    // ordered accesses to native memory (memory mapped files) so callers don't have to reference the internal API
+
+    public static long address( Buffer directBuffer )
+    {
+        return UNSAFE.getLong( directBuffer, BUFFER_ADDRESS_OFFSET );
+    }
+
+    public static long getLongVolatile( long address )
+    {
+        return UNSAFE.getLongVolatile( null, address );
+    }
+
+    public static void putLongVolatile( long address, long value )
+    {
+        UNSAFE.putLongVolatile( null, address, value );
+    }
+
+    public static boolean compareAndSwapLong( long address, long expected, long value )
+    {
+        return UNSAFE.compareAndSwapLong( null, address, expected, value );
+    }
+
+    public static int getIntVolatile( long address )
+    {
+        return UNSAFE.getIntVolatile( null, address );
+    }
+
+    public static void putIntVolatile( long address, int value )
+    {
+        UNSAFE.putIntVolatile( null, address, value );
+    }
 }
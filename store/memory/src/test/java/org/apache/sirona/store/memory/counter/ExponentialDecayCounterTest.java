@@ -1,83 +1,180 @@
-/*
- * Licensed to the Apache Software Foundation (ASF) under one or more
- * contributor license agreements.  See the NOTICE file distributed with
- * this work for additional information regarding copyright ownership.
- * The ASF licenses this file to You under the Apache License, Version 2.0
- * (the "License"); you may not use this file except in compliance with
- * the License.  You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package org.apache.sirona.store.memory.counter;
-
-import org.apache.sirona.Role;
-import org.apache.sirona.counters.Counter;
-import org.apache.sirona.counters.LockableCounter;
-import org.apache.sirona.counters.OptimizedStatistics;
-import org.apache.sirona.counters.Unit;
-import org.apache.sirona.store.counter.CounterDataStore;
-import org.junit.Test;
-
-import java.util.Collection;
-
-import static org.junit.Assert.assertEquals;
-
-public class ExponentialDecayCounterTest {
-    @Test
-    public void run() {
-        final ExponentialDecayCounter counter = new ExponentialDecayCounter(new Counter.Key(new Role("doctor", Unit.KILO), "weight"), new CounterDataStore() {
-            public Counter getOrCreateCounter(final Counter.Key key) {
-                throw new UnsupportedOperationException();
-            }
-
-            public void clearCounters() {
-                throw new UnsupportedOperationException();
-            }
-
-            public Collection<Counter> getCounters() {
-                throw new UnsupportedOperationException();
-            }
-
-            public void addToCounter(final Counter defaultCounter, final double delta) {
-                LockableCounter.class.cast(defaultCounter).addInternal(delta);
-            }
-        }, ExponentialDecayCounter.ACCEPTABLE_DEFAULT_ALPHA, 3, 60);
-
-        counter.add(80.0, Unit.KILO);
-        counter.add(75.0, Unit.KILO);
-        counter.add(90.0, Unit.KILO);
-
-        final OptimizedStatistics accurate = new OptimizedStatistics();
-        accurate.addValue(80);
-        accurate.addValue(75);
-        accurate.addValue(90);
-
-        {
-            final OptimizedStatistics statistics = counter.getStatistics();
-            assertEquals(3, statistics.getN());
-
-            // ensure counter and stats reflects the same state
-            assertEquals(counter.getHits(), statistics.getN());
-            assertEquals(counter.getSum(), statistics.getSum(), 0.);
-            assertEquals(counter.getMean(), statistics.getMean(), 0.);
-            assertEquals(counter.getVariance(), statistics.getVariance(), 0.);
-            assertEquals(counter.getMin(), statistics.getMin(), 0.);
-            assertEquals(counter.getMax(), statistics.getMax(), 0.);
-
-            // check values are accurate
-            assertEquals(accurate.getSum(), statistics.getSum(), 0.);
-            assertEquals(accurate.getMin(), statistics.getMin(), 0.);
-            assertEquals(accurate.getMax(), statistics.getMax(), 0.);
-            assertEquals(accurate.getMean(), statistics.getMean(), 10);
-            assertEquals(accurate.getStandardDeviation(), statistics.getStandardDeviation(), 3);
-            // assertEquals(accurate.getVariance(), statistics.getVariance(), 15); // not perfect yet
-        }
-    }
-}
-
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.counter;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.LockableCounter;
+import org.apache.sirona.counters.OptimizedStatistics;
+import org.apache.sirona.counters.Unit;
+import org.apache.sirona.store.counter.CounterDataStore;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExponentialDecayCounterTest {
+    @Test
+    public void run() {
+        final ExponentialDecayCounter counter = new ExponentialDecayCounter(new Counter.Key(new Role("doctor", Unit.KILO), "weight"), new CounterDataStore() {
+            public Counter getOrCreateCounter(final Counter.Key key) {
+                throw new UnsupportedOperationException();
+            }
+
+            public void clearCounters() {
+                throw new UnsupportedOperationException();
+            }
+
+            public Collection<Counter> getCounters() {
+                throw new UnsupportedOperationException();
+            }
+
+            public void addToCounter(final Counter defaultCounter, final double delta) {
+                LockableCounter.class.cast(defaultCounter).addInternal(delta);
+            }
+        }, ExponentialDecayCounter.ACCEPTABLE_DEFAULT_ALPHA, 3, 60) {
+            @Override
+            protected long seconds() {
+                return 1000;
+            }
+        };
+
+        counter.add(80.0, Unit.KILO);
+        counter.add(75.0, Unit.KILO);
+        counter.add(90.0, Unit.KILO);
+
+        final OptimizedStatistics accurate = new OptimizedStatistics();
+        accurate.addValue(80);
+        accurate.addValue(75);
+        accurate.addValue(90);
+
+        {
+            final OptimizedStatistics statistics = counter.getStatistics();
+            assertEquals(3, statistics.getN());
+
+            // ensure counter and stats reflects the same state
+            assertEquals(counter.getHits(), statistics.getN());
+            assertEquals(counter.getSum(), statistics.getSum(), 0.);
+            assertEquals(counter.getMean(), statistics.getMean(), 0.);
+            assertEquals(counter.getVariance(), statistics.getVariance(), 0.);
+            assertEquals(counter.getMin(), statistics.getMin(), 0.);
+            assertEquals(counter.getMax(), statistics.getMax(), 0.);
+
+            // check values are accurate
+            assertEquals(accurate.getSum(), statistics.getSum(), 0.);
+            assertEquals(accurate.getMin(), statistics.getMin(), 0.);
+            assertEquals(accurate.getMax(), statistics.getMax(), 0.);
+            // same instant so all weights are equal and weighted statistics are the plain ones
+            assertEquals(accurate.getMean(), statistics.getMean(), 1e-9);
+            assertEquals(accurate.getStandardDeviation(), statistics.getStandardDeviation(), 1e-9);
+            assertEquals(accurate.getVariance(), statistics.getVariance(), 1e-9);
+        }
+    }
+
+    @Test
+    public void recentValuesWeightMore() {
+        final AtomicLong time = new AtomicLong(1000);
+        final ExponentialDecayCounter counter = new ExponentialDecayCounter(
+                new Counter.Key(new Role("decay", Unit.KILO), "recent"), new InMemoryCounterDataStore(), 0.1, 100, 0) {
+            @Override
+            protected long seconds() {
+                return time.get();
+            }
+        };
+
+        for (int i = 0; i < 10000; i++) {
+            counter.add(10);
+        }
+        time.addAndGet(60);
+        for (int i = 0; i < 10000; i++) {
+            counter.add(20);
+        }
+
+        // bounded reservoir and a minute later old samples are exp(-6) times less important
+        final OptimizedStatistics statistics = counter.getStatistics();
+        assertEquals(100, statistics.getN());
+        assertEquals(20, statistics.getMean(), 0.1);
+
+        // rescaling keeps the heap order and the relative weights
+        time.addAndGet(TimeUnit.HOURS.toSeconds(2));
+        counter.add(20);
+        assertEquals(100, counter.getHits());
+        assertEquals(20, counter.getMean(), 0.1);
+    }
+
+    @Test
+    public void merge() {
+        final AtomicLong time = new AtomicLong(1000);
+        final ExponentialDecayCounter counter = new ExponentialDecayCounter(
+                new Counter.Key(new Role("decay", Unit.KILO), "merge"), new InMemoryCounterDataStore(), 0.1, 100, 0) {
+            @Override
+            protected long seconds() {
+                return time.get();
+            }
+        };
+        counter.add(10);
+        counter.add(20);
+        time.addAndGet(10);
+        counter.add(30);
+
+        final OptimizedStatistics decayed = counter.getStatistics();
+        final OptimizedStatistics other = new OptimizedStatistics().addValue(40).addValue(50);
+
+        final OptimizedStatistics merged = decayed.merge(other);
+        assertEquals(5, merged.getN());
+        assertEquals(150, merged.getSum(), 0.);
+        assertEquals(10, merged.getMin(), 0.);
+        assertEquals(50, merged.getMax(), 0.);
+        assertEquals((3 * decayed.getMean() + 2 * 45) / 5, merged.getMean(), 1e-9);
+        assertEquals(3, decayed.getN()); // still the statistics of the counter
+
+        final OptimizedStatistics aggregate = new OptimizedStatistics().merge(other).merge(decayed); // as striped cells
+        assertEquals(merged.getMean(), aggregate.getMean(), 1e-9);
+        assertEquals(merged.getVariance(), aggregate.getVariance(), 1e-9);
+    }
+
+    @Test
+    public void concurrentWriters() throws InterruptedException {
+        final ExponentialDecayCounter counter = new ExponentialDecayCounter(
+                new Counter.Key(new Role("decay", Unit.KILO), "concurrent"), new InMemoryCounterDataStore(), 0.1, 100, 0);
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int value = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.add(value);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final OptimizedStatistics statistics = counter.getStatistics();
+        assertEquals(100, statistics.getN());
+        assertEquals(0., statistics.getMin(), 0.);
+        assertEquals(7., statistics.getMax(), 0.);
+    }
+}
+
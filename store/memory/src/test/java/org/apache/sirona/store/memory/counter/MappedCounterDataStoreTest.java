@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.counter;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
+import org.apache.sirona.counters.DefaultCounter;
+import org.apache.sirona.counters.OptimizedStatistics;
+import org.apache.sirona.store.counter.CounterGeneration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedCounterDataStoreTest {
+    private File file;
+
+    @Before
+    public void createFile() {
+        file = new File("target/mapped-counters/" + System.nanoTime() + ".dat");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void survivesRestart() {
+        final Counter.Key key = new Counter.Key(Role.PERFORMANCES, "restart");
+        {
+            final MappedCounterDataStore store = new MappedCounterDataStore(file, 16, 128);
+            final Counter counter = store.getOrCreateCounter(key);
+            counter.add(1);
+            counter.add(3);
+            counter.updateConcurrency(2);
+            store.flush();
+        }
+
+        final MappedCounterDataStore store = new MappedCounterDataStore(file, 16, 128);
+        assertEquals(1, store.getCounters().size());
+
+        final Counter counter = store.getOrCreateCounter(key);
+        counter.add(5);
+        final CounterSnapshot snapshot = counter.snapshot();
+        assertEquals(3, snapshot.getHits());
+        assertEquals(9., snapshot.getSum(), 0.);
+        assertEquals(1., snapshot.getMin(), 0.);
+        assertEquals(5., snapshot.getMax(), 0.);
+        assertEquals(3., snapshot.getMean(), 0.);
+        assertEquals(4., snapshot.getVariance(), 1e-9);
+        assertEquals(2, snapshot.getMaxConcurrency());
+    }
+
+    @Test
+    public void readBySidecar() {
+        final MappedCounterDataStore store = new MappedCounterDataStore(file, 16, 128);
+        store.getOrCreateCounter(new Counter.Key(Role.PERFORMANCES, "a")).add(10);
+        store.getOrCreateCounter(new Counter.Key(Role.JDBC, "b")).add(20);
+
+        final List<CounterSnapshot> snapshots = new MappedCounterFile(file, 0, 0, true).snapshots();
+        assertEquals(2, snapshots.size());
+        assertEquals(new Counter.Key(Role.PERFORMANCES, "a"), snapshots.get(0).getKey());
+        assertEquals(10., snapshots.get(0).getSum(), 0.);
+        assertEquals(new Counter.Key(Role.JDBC, "b"), snapshots.get(1).getKey());
+        assertEquals(20., snapshots.get(1).getSum(), 0.);
+    }
+
+    @Test
+    public void sidecarSkipsSlotBeingWritten() throws IOException {
+        final MappedCounterDataStore store = new MappedCounterDataStore(file, 16, 128);
+        store.getOrCreateCounter(new Counter.Key(Role.PERFORMANCES, "a")).add(10);
+        store.getOrCreateCounter(new Counter.Key(Role.JDBC, "b")).add(20);
+        store.flush();
+
+        setSequence(1, 3); // second slot locked by a writer which never ends
+        final MappedCounterFile sidecar = new MappedCounterFile(file, 0, 0, true);
+        final List<CounterSnapshot> snapshots = sidecar.snapshots();
+        assertEquals(1, snapshots.size());
+        assertEquals(new Counter.Key(Role.PERFORMANCES, "a"), snapshots.get(0).getKey());
+
+        setSequence(1, 4);
+        assertEquals(2, sidecar.snapshots().size());
+    }
+
+    @Test
+    public void concurrentWrites() throws InterruptedException {
+        final MappedCounterDataStore store = new MappedCounterDataStore(file, 16, 128);
+        final Counter counter = store.getOrCreateCounter(new Counter.Key(Role.PERFORMANCES, "concurrent"));
+        final OptimizedStatistics accurate = new OptimizedStatistics();
+
+        final int threads = 4;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            for (int i = 0; i < 5000; i++) {
+                accurate.addValue(offset * 5000 + i);
+            }
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 5000; i++) {
+                            counter.add(offset * 5000 + i);
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+        latch.await();
+
+        final CounterSnapshot snapshot = counter.snapshot(true);
+        assertEquals(accurate.getN(), snapshot.getHits());
+        assertEquals(accurate.getSum(), snapshot.getSum(), 0.);
+        assertEquals(accurate.getMin(), snapshot.getMin(), 0.);
+        assertEquals(accurate.getMax(), snapshot.getMax(), 0.);
+        assertEquals(accurate.getMean(), snapshot.getMean(), 1e-6);
+        assertEquals(accurate.getVariance(), snapshot.getVariance(), 1e-3);
+        assertEquals(0, counter.getHits());
+    }
+
+    @Test
+    public void fallbackToHeapWhenFull() {
+        final MappedCounterDataStore store = new MappedCounterDataStore(file, 1, 128);
+        assertTrue(MappedCounterDataStore.MappedCounter.class.isInstance(store.getOrCreateCounter(new Counter.Key(Role.PERFORMANCES, "first"))));
+
+        final Counter heap = store.getOrCreateCounter(new Counter.Key(Role.PERFORMANCES, "second"));
+        assertTrue(DefaultCounter.class.isInstance(heap));
+        heap.add(2);
+        assertEquals(1, heap.getHits());
+        assertEquals(2, store.getCounters().size());
+    }
+
+    @Test
+    public void clearInvalidatesCachedCounters() {
+        final MappedCounterDataStore store = new MappedCounterDataStore(file, 16, 128);
+        final Counter.Key key = new Counter.Key(Role.PERFORMANCES, "cached");
+        final int generation = CounterGeneration.current();
+        Counter cached = store.getOrCreateCounter(key); // as an instrumented method caches it
+        cached.add(1);
+
+        store.clearCounters();
+        assertTrue(store.getCounters().isEmpty());
+        assertTrue(generation != CounterGeneration.current());
+
+        cached = store.getOrCreateCounter(key); // looked up again since the generation changed
+        cached.add(2);
+        assertEquals(1, store.getCounters().size());
+        assertEquals(1, store.getCounters().iterator().next().getHits());
+    }
+
+    private void setSequence(final int slot, final long seq) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            buffer.order(ByteOrder.nativeOrder()).putLong(64 + slot * 64, seq); // header then 64 bytes slots
+        } finally {
+            raf.close();
+        }
+    }
+}
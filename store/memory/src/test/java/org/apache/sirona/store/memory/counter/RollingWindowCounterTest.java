@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.counter;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.CounterSnapshot;
+import org.apache.sirona.counters.Histogram;
+import org.apache.sirona.counters.OptimizedStatistics;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RollingWindowCounterTest {
+    @Test
+    public void windows() {
+        final ManualClockCounter counter = new ManualClockCounter();
+
+        // one value per minute during 20 minutes: 1, 2, ..., 20
+        for (int i = 1; i <= 20; i++) {
+            counter.add(i);
+            counter.time += TimeUnit.MINUTES.toMillis(1);
+        }
+        counter.time -= TimeUnit.MINUTES.toMillis(1); // stay in the interval of the last value
+
+        assertStatistics(counter.getStatistics(1, TimeUnit.MINUTES), 1, 20, 20);
+        assertStatistics(counter.getStatistics(5, TimeUnit.MINUTES), 5, 16, 20);
+        assertStatistics(counter.getStatistics(15, TimeUnit.MINUTES), 15, 6, 20);
+        assertStatistics(counter.getStatistics(), 15, 6, 20); // the ring only keeps 15 minutes
+        assertEquals(15, counter.getHits());
+
+        final CounterSnapshot snapshot = counter.snapshot(5, TimeUnit.MINUTES);
+        assertEquals(5, snapshot.getHits());
+        assertEquals(16 + 17 + 18 + 19 + 20, snapshot.getSum(), 0.);
+        assertEquals(18., snapshot.getMean(), 0.);
+        assertEquals(2.5, snapshot.getVariance(), 1e-9);
+
+        // nothing written for a while, old buckets are ignored even if not recycled yet
+        counter.time += TimeUnit.MINUTES.toMillis(10);
+        assertStatistics(counter.getStatistics(5, TimeUnit.MINUTES), 0, Double.NaN, Double.NaN);
+        assertStatistics(counter.getStatistics(15, TimeUnit.MINUTES), 5, 16, 20);
+
+        counter.time += TimeUnit.MINUTES.toMillis(10);
+        assertEquals(0, counter.getHits());
+    }
+
+    @Test
+    public void resetOnSnapshot() {
+        final ManualClockCounter counter = new ManualClockCounter();
+        counter.add(1);
+        counter.add(3);
+
+        assertEquals(2, counter.snapshot(true).getHits());
+        assertEquals(0, counter.getHits());
+
+        counter.add(5);
+        assertEquals(1, counter.getHits());
+        assertEquals(5., counter.getMax(), 0.);
+    }
+
+    @Test
+    public void concurrentWriters() throws InterruptedException {
+        final ManualClockCounter counter = new ManualClockCounter();
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.add(1);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80000, counter.getHits());
+        assertEquals(80000., counter.getSum(), 0.);
+    }
+
+    @Test
+    public void noCumulativePercentiles() {
+        final ManualClockCounter counter = new ManualClockCounter();
+        counter.setHistogram(new Histogram());
+        counter.add(1);
+
+        assertNull(counter.getHistogram());
+        assertNull(counter.snapshot().getHistogram());
+    }
+
+    private static void assertStatistics(final OptimizedStatistics statistics, final long hits, final double min, final double max) {
+        assertEquals(hits, statistics.getN());
+        if (hits == 0) {
+            assertTrue(Double.isNaN(statistics.getMax()));
+            return;
+        }
+        assertEquals(min, statistics.getMin(), 0.);
+        assertEquals(max, statistics.getMax(), 0.);
+    }
+
+    private static class ManualClockCounter extends RollingWindowCounter {
+        private long time = TimeUnit.DAYS.toMillis(1);
+
+        private ManualClockCounter() {
+            super(new Counter.Key(Role.PERFORMANCES, "rolling"), new InMemoryCounterDataStore(),
+                TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(15));
+        }
+
+        @Override
+        protected long now() {
+            return time;
+        }
+    }
+}
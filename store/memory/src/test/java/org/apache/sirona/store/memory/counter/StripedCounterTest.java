@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.counter;
+
+import org.apache.sirona.Role;
+import org.apache.sirona.counters.Counter;
+import org.apache.sirona.counters.OptimizedStatistics;
+import org.apache.sirona.counters.Unit;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class StripedCounterTest {
+    @Test
+    public void sameStatisticsThanOptimizedStatistics() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter(new Counter.Key(Role.PERFORMANCES, "striped"), new InMemoryCounterDataStore(), 4);
+        final OptimizedStatistics accurate = new OptimizedStatistics();
+
+        final int threads = 8;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            for (int i = 0; i < 1000; i++) {
+                accurate.addValue(offset * 1000 + i);
+            }
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 1000; i++) {
+                            counter.add(offset * 1000 + i, Unit.Time.NANOSECOND);
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+        latch.await();
+
+        final OptimizedStatistics statistics = counter.getStatistics();
+        assertEquals(accurate.getN(), statistics.getN());
+        assertEquals(accurate.getN(), counter.getHits());
+        assertEquals(accurate.getSum(), counter.getSum(), 0.);
+        assertEquals(accurate.getMin(), counter.getMin(), 0.);
+        assertEquals(accurate.getMax(), counter.getMax(), 0.);
+        assertEquals(accurate.getMean(), counter.getMean(), 1e-6);
+        assertEquals(accurate.getVariance(), counter.getVariance(), 1e-3);
+        assertEquals(accurate.getSecondMoment(), counter.getSecondMoment(), 1);
+
+        counter.reset();
+        assertEquals(0, counter.getHits());
+        assertEquals(Double.NaN, counter.getMax(), 0.);
+    }
+}
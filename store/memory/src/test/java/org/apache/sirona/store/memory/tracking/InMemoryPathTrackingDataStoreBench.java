@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.tracking;
+
+import org.apache.sirona.pathtracking.PathTrackingEntry;
+import org.apache.sirona.pathtracking.TrackingId;
+import org.apache.sirona.util.SerializeUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+// arena + binary records against the previous storage (java serialization, one malloc and byte copies per entry),
+// run it manually (not a *Test so surefire ignores it)
+public class InMemoryPathTrackingDataStoreBench {
+    private static final int PATHS = 2000;
+    private static final int ENTRIES = 20;
+
+    @Test
+    public void compare() {
+        final List<List<PathTrackingEntry>> paths = new ArrayList<List<PathTrackingEntry>>(PATHS);
+        for (int p = 0; p < PATHS; p++) {
+            final TrackingId id = new TrackingId(p, p);
+            final List<PathTrackingEntry> path = new ArrayList<PathTrackingEntry>(ENTRIES);
+            for (int e = 0; e < ENTRIES; e++) {
+                path.add(new PathTrackingEntry(id, "node", "org.apache.bench.Service" + (e % 5), "method" + e + "()", p * 1000L + e, e, e == 0 ? 1 : 2));
+            }
+            paths.add(path);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            run("serialization + malloc", new Legacy(), paths);
+            run("arena + binary records", new Arena(), paths);
+        }
+    }
+
+    private static void run(final String name, final Store store, final List<List<PathTrackingEntry>> paths) {
+        final long start = System.nanoTime();
+        for (final List<PathTrackingEntry> path : paths) {
+            store.store(path);
+        }
+        final long stored = System.nanoTime();
+        int read = 0;
+        for (final List<PathTrackingEntry> path : paths) {
+            read += store.read(path.get(0).getTrackingId());
+        }
+        final long end = System.nanoTime();
+        store.clear();
+
+        assertEquals(PATHS * ENTRIES, read);
+        System.out.printf("%s : store %,d ns/entry, read %,d ns/entry%n", name, (stored - start) / read, (end - stored) / read);
+    }
+
+    private interface Store {
+        void store(List<PathTrackingEntry> path);
+
+        int read(String id);
+
+        void clear();
+    }
+
+    private static class Arena implements Store {
+        private final InMemoryPathTrackingDataStore store = new InMemoryPathTrackingDataStore();
+
+        @Override
+        public void store(final List<PathTrackingEntry> path) {
+            store.store(path);
+        }
+
+        @Override
+        public int read(final String id) {
+            return store.retrieve(id).size();
+        }
+
+        @Override
+        public void clear() {
+            for (final List<InMemoryPathTrackingDataStore.Pointer> pointers : store.getPointers().values()) {
+                for (final InMemoryPathTrackingDataStore.Pointer pointer : pointers) {
+                    pointer.freeMemory();
+                }
+            }
+            store.clearEntries();
+        }
+    }
+
+    private static class Legacy implements Store {
+        private final java.util.Map<String, List<long[]>> pointers = new java.util.HashMap<String, List<long[]>>(); // address, size
+
+        @Override
+        public void store(final List<PathTrackingEntry> path) {
+            final List<long[]> list = new ArrayList<long[]>(path.size());
+            for (final PathTrackingEntry entry : path) {
+                final byte[] bytes = SerializeUtils.serialize(entry);
+                final long address = UnsafeUtils.getUnsafe().allocateMemory(bytes.length);
+                for (int i = 0; i < bytes.length; i++) {
+                    UnsafeUtils.getUnsafe().putByte(address + i, bytes[i]);
+                }
+                list.add(new long[]{address, bytes.length});
+            }
+            pointers.put(path.get(0).getTrackingId(), list);
+        }
+
+        @Override
+        public int read(final String id) {
+            int read = 0;
+            for (final long[] pointer : pointers.get(id)) {
+                final byte[] bytes = new byte[(int) pointer[1]];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = UnsafeUtils.getUnsafe().getByte(pointer[0] + i);
+                }
+                if (SerializeUtils.deserialize(bytes, PathTrackingEntry.class) != null) {
+                    read++;
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public void clear() {
+            for (final List<long[]> list : pointers.values()) {
+                for (final long[] pointer : list) {
+                    UnsafeUtils.getUnsafe().freeMemory(pointer[0]);
+                }
+            }
+            pointers.clear();
+        }
+    }
+}
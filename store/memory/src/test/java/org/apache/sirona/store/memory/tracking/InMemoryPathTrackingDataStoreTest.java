@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.tracking;
+
+import org.apache.sirona.pathtracking.PathCallInformation;
+import org.apache.sirona.pathtracking.PathTrackingEntry;
+import org.apache.sirona.pathtracking.TrackingId;
+import org.apache.sirona.util.SerializeUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryPathTrackingDataStoreTest {
+    @Test
+    public void roundTrip() {
+        final InMemoryPathTrackingDataStore store = new InMemoryPathTrackingDataStore();
+        final TrackingId compact = new TrackingId(1, 2);
+        final TrackingId foreign = TrackingId.valueOf("Sirona-foreign");
+        store.store(Arrays.asList(
+                new PathTrackingEntry(compact, "node", "org.foo.Bar", "child()", 10, 5, 2),
+                new PathTrackingEntry(foreign, "node", "org.foo.Other", "root()", 7, 1, 1),
+                new PathTrackingEntry(compact, "node", "org.foo.Bar", "root()", 9, 20, 1)));
+        store.store(new PathTrackingEntry(compact, "other-node", "org.foo.Bar", "late()", 30, 1, 2)); // next chunk of the path
+
+        final List<PathTrackingEntry> entries = new ArrayList<PathTrackingEntry>(store.retrieve(compact.toString()));
+        assertEquals(3, entries.size());
+        assertEntry(entries.get(0), compact, "node", "org.foo.Bar", "child()", 10, 5, 2);
+        assertEntry(entries.get(1), compact, "node", "org.foo.Bar", "root()", 9, 20, 1);
+        assertEntry(entries.get(2), compact, "other-node", "org.foo.Bar", "late()", 30, 1, 2);
+
+        final Collection<PathTrackingEntry> other = store.retrieve(foreign.toString());
+        assertEquals(1, other.size());
+        assertEntry(other.iterator().next(), foreign, "node", "org.foo.Other", "root()", 7, 1, 1);
+
+        assertTrue(store.retrieve("missing").isEmpty());
+    }
+
+    @Test
+    public void collectorBytes() {
+        final InMemoryPathTrackingDataStore store = new InMemoryPathTrackingDataStore();
+        final TrackingId id = new TrackingId(3, 4);
+        store.store(new PathTrackingEntry(id, "node", "org.foo.Bar", "root()", 1, 2, 1));
+
+        final InMemoryPathTrackingDataStore.Pointer pointer = store.getPointers().get(id.toString()).get(0);
+        assertEntry(SerializeUtils.deserialize(store.readBytes(pointer), PathTrackingEntry.class), id, "node", "org.foo.Bar", "root()", 1, 2, 1);
+    }
+
+    @Test
+    public void chunkFreedWithItsEntries() {
+        final PathTrackingArena arena = new PathTrackingArena(4 * PathTrackingEntryCodec.RECORD_SIZE);
+        final PathTrackingArena.Block first = arena.allocate(3);
+        assertEquals(4 * PathTrackingEntryCodec.RECORD_SIZE, arena.getAllocatedBytes());
+
+        final PathTrackingArena.Block second = arena.allocate(2); // doesn't fit, new chunk
+        assertTrue(first.getChunk() != second.getChunk());
+        assertEquals(8 * PathTrackingEntryCodec.RECORD_SIZE, arena.getAllocatedBytes());
+
+        for (int i = 0; i < 3; i++) {
+            arena.release(first.getChunk());
+        }
+        assertEquals(4 * PathTrackingEntryCodec.RECORD_SIZE, arena.getAllocatedBytes());
+
+        arena.release(second.getChunk());
+        arena.release(second.getChunk());
+        assertEquals(4 * PathTrackingEntryCodec.RECORD_SIZE, arena.getAllocatedBytes()); // current chunk is reused
+        arena.allocate(2);
+        assertEquals(4 * PathTrackingEntryCodec.RECORD_SIZE, arena.getAllocatedBytes());
+    }
+
+    @Test
+    public void freedEntriesAreNotRead() {
+        final InMemoryPathTrackingDataStore store = new InMemoryPathTrackingDataStore();
+        final TrackingId id = new TrackingId(5, 6);
+        store.store(new PathTrackingEntry(id, "node", "org.foo.Bar", "root()", 1, 2, 1));
+
+        final InMemoryPathTrackingDataStore.Pointer pointer = store.getPointers().get(id.toString()).get(0);
+        pointer.freeMemory();
+        pointer.freeMemory(); // no double release
+        assertNull(store.read(pointer));
+        assertTrue(store.retrieve(id.toString()).isEmpty());
+    }
+
+    @Test
+    public void evictOldestPaths() {
+        final InMemoryPathTrackingDataStore store = new InMemoryPathTrackingDataStore(0, 2, 0);
+        for (int i = 0; i < 5; i++) {
+            store.store(new PathTrackingEntry(new TrackingId(7, i), "node", "org.foo.Bar", "root()", i, 1, 1));
+        }
+        store.store(new PathTrackingEntry(new TrackingId(7, 4), "node", "org.foo.Bar", "child()", 4, 1, 2)); // existing path
+
+        assertEquals(3, store.getEvictedPaths());
+        assertEquals(2, store.getPointers().size());
+        assertTrue(store.retrieve(new TrackingId(7, 2).toString()).isEmpty());
+        assertEquals(1, store.retrieve(new TrackingId(7, 3).toString()).size());
+        assertEquals(2, store.retrieve(new TrackingId(7, 4).toString()).size());
+    }
+
+    @Test
+    public void evictExpiredPaths() throws InterruptedException {
+        final InMemoryPathTrackingDataStore store = new InMemoryPathTrackingDataStore(0, 0, 50);
+        store.store(new PathTrackingEntry(new TrackingId(8, 0), "node", "org.foo.Bar", "root()", 0, 1, 1));
+        Thread.sleep(100);
+        store.store(new PathTrackingEntry(new TrackingId(8, 1), "node", "org.foo.Bar", "root()", 1, 1, 1));
+
+        assertEquals(1, store.getEvictedPaths());
+        assertTrue(store.retrieve(new TrackingId(8, 0).toString()).isEmpty());
+        assertEquals(1, store.retrieve(new TrackingId(8, 1).toString()).size());
+    }
+
+    @Test
+    public void maxBytesIsAtLeastTwoChunks() {
+        final InMemoryPathTrackingDataStore store = new InMemoryPathTrackingDataStore(1, 0, 0);
+        for (int i = 0; i < 10; i++) {
+            store.store(new PathTrackingEntry(new TrackingId(11, i), "node", "org.foo.Bar", "root()", i, 1, 1));
+        }
+        assertEquals(0, store.getEvictedPaths());
+        assertEquals(1, store.retrieve(new TrackingId(11, 9).toString()).size());
+    }
+
+    @Test
+    public void readWhileEvicting() throws InterruptedException {
+        final InMemoryPathTrackingDataStore store = new InMemoryPathTrackingDataStore(2 * 1024 * 1024, 0, 0);
+        final AtomicInteger stored = new AtomicInteger();
+        final AtomicReference<String> error = new AtomicReference<String>();
+        final Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread() {
+                @Override
+                public void run() {
+                    while (stored.get() >= 0 && error.get() == null) {
+                        final int p = Math.max(0, stored.get() - 5000);
+                        for (final PathTrackingEntry entry : store.retrieve(new TrackingId(12, p).toString())) {
+                            if (entry.getStartTime() != p || !("m" + entry.getExecutionTime() + "()").equals(entry.getMethodName())) {
+                                error.set(entry.toString());
+                            }
+                        }
+                    }
+                }
+            };
+            readers[t].start();
+        }
+
+        final List<PathTrackingEntry> path = new ArrayList<PathTrackingEntry>(10);
+        for (int p = 0; p < 100000; p++) {
+            path.clear();
+            for (int e = 0; e < 10; e++) {
+                path.add(new PathTrackingEntry(new TrackingId(12, p), "node", "org.foo.Bar", "m" + e + "()", p, e, e == 0 ? 1 : 2));
+            }
+            store.store(path);
+            stored.set(p);
+        }
+        stored.set(-1);
+        for (final Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(error.get());
+        assertTrue(store.getEvictedPaths() > 0);
+    }
+
+    // constant load: memory is bounded by max-bytes (+ the chunk being filled) whatever the number of stored paths
+    @Test
+    public void memoryStaysFlat() {
+        final long maxBytes = 4 * 1024 * 1024;
+        final InMemoryPathTrackingDataStore store = new InMemoryPathTrackingDataStore(maxBytes, 0, 0);
+        final List<PathTrackingEntry> path = new ArrayList<PathTrackingEntry>(10);
+        long max = 0;
+        for (int p = 0; p < 200000; p++) {
+            path.clear();
+            final TrackingId id = new TrackingId(9, p);
+            for (int e = 0; e < 10; e++) {
+                path.add(new PathTrackingEntry(id, "node", "org.foo.Bar", "m" + e + "()", p, e, e == 0 ? 1 : 2));
+            }
+            store.store(path);
+            max = Math.max(max, store.getAllocatedBytes());
+        }
+
+        assertTrue(Long.toString(max), max <= maxBytes + 1024 * 1024);
+        assertTrue(store.getEvictedPaths() > 150000);
+        assertEquals(200000 - store.getEvictedPaths(), store.getPointers().size());
+        assertEquals(10, store.retrieve(new TrackingId(9, 199999).toString()).size());
+    }
+
+    @Test
+    public void clearedPathsLeaveTheRing() {
+        final InMemoryPathTrackingDataStore store = new InMemoryPathTrackingDataStore(0, 1, 0);
+        final TrackingId id = new TrackingId(10, 0);
+        store.store(new PathTrackingEntry(id, "node", "org.foo.Bar", "root()", 0, 1, 1));
+        store.getPointers().get(id.toString()).get(0).freeMemory(); // pushed by a batch store
+        store.clearEntries();
+        assertTrue(store.getPointers().isEmpty());
+
+        store.store(new PathTrackingEntry(new TrackingId(10, 1), "node", "org.foo.Bar", "root()", 1, 1, 1));
+        assertEquals(0, store.getEvictedPaths());
+        assertEquals(1, store.getPointers().size());
+    }
+
+    @Test
+    public void timeRange() {
+        final InMemoryPathTrackingDataStore store = new InMemoryPathTrackingDataStore(0, 0, 0);
+        for (final int ms : new int[] { 10, 20, 40, 30, 50 }) { // 30 ends after 40
+            store.store(Arrays.asList(
+                    new PathTrackingEntry(new TrackingId(11, ms), "node", "org.foo.Bar", "child()", ms * 1000000L + 10, 1, 2),
+                    new PathTrackingEntry(new TrackingId(11, ms), "node", "org.foo.Bar", "root()", ms * 1000000L, 20, 1)));
+        }
+
+        final List<PathCallInformation> all = new ArrayList<PathCallInformation>(store.retrieveTrackingIds(new Date(20), new Date(50)));
+        assertEquals(3, all.size());
+        assertPath(all.get(0), 20);
+        assertPath(all.get(1), 30);
+        assertPath(all.get(2), 40);
+
+        final List<PathCallInformation> page = new ArrayList<PathCallInformation>(store.retrieveTrackingIds(new Date(0), new Date(100), 1, 2));
+        assertEquals(2, page.size());
+        assertPath(page.get(0), 20);
+        assertPath(page.get(1), 30);
+
+        assertTrue(store.retrieveTrackingIds(new Date(0), new Date(100), 5, 2).isEmpty());
+        assertTrue(store.retrieveTrackingIds(new Date(60), new Date(100)).isEmpty());
+    }
+
+    @Test
+    public void timeRangeSkipsRemovedPaths() {
+        final InMemoryPathTrackingDataStore store = new InMemoryPathTrackingDataStore(0, 2, 0);
+        for (int i = 0; i < 1000; i++) { // index arrays are compacted
+            store.store(new PathTrackingEntry(new TrackingId(12, i), "node", "org.foo.Bar", "root()", i * 1000000L, 1, 1));
+        }
+
+        final List<PathCallInformation> kept = new ArrayList<PathCallInformation>(store.retrieveTrackingIds(new Date(0), new Date(1000), 0, 10));
+        assertEquals(2, kept.size());
+        assertEquals(new TrackingId(12, 998).toString(), kept.get(0).getTrackingId());
+        assertEquals(new TrackingId(12, 999).toString(), kept.get(1).getTrackingId());
+    }
+
+    private static void assertPath(final PathCallInformation info, final int ms) {
+        assertEquals(new TrackingId(11, ms).toString(), info.getTrackingId());
+        assertEquals(ms, info.getStartTime().getTime());
+    }
+
+    private static void assertEntry(final PathTrackingEntry entry, final TrackingId id, final String node,
+                                    final String className, final String methodName,
+                                    final long start, final long duration, final int level) {
+        assertEquals(id, entry.getId());
+        assertEquals(node, entry.getNodeId());
+        assertEquals(className, entry.getClassName());
+        assertEquals(methodName, entry.getMethodName());
+        assertEquals(start, entry.getStartTime());
+        assertEquals(duration, entry.getExecutionTime());
+        assertEquals(level, entry.getLevel());
+    }
+}
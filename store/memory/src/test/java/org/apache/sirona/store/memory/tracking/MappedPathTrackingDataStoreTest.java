@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sirona.store.memory.tracking;
+
+import org.apache.sirona.pathtracking.PathCallInformation;
+import org.apache.sirona.pathtracking.PathTrackingEntry;
+import org.apache.sirona.pathtracking.TrackingId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedPathTrackingDataStoreTest {
+    private File directory;
+
+    @Before
+    public void createDirectory() {
+        directory = new File("target/mapped-pathtracking/" + System.nanoTime());
+    }
+
+    @After
+    public void deleteDirectory() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void survivesRestart() {
+        final TrackingId id = new TrackingId(1, 2);
+        {
+            final MappedPathTrackingDataStore store = new MappedPathTrackingDataStore(directory, 1024 * 1024, 4096, 0, 0, false);
+            store.store(Arrays.asList(
+                    new PathTrackingEntry(id, "node", "org.foo.Bar", "child()", ms(10) + 1, 5, 2),
+                    new PathTrackingEntry(id, "node", null, "root()", ms(10), 20, 1)));
+            store.flush();
+        }
+
+        final MappedPathTrackingDataStore store = new MappedPathTrackingDataStore(directory, 1024 * 1024, 4096, 0, 0, false);
+        store.store(new PathTrackingEntry(id, "other-node", "org.foo.Bar", "late()", ms(11), 1, 2)); // next part, new segment
+        assertEquals(2, directory.listFiles().length);
+
+        final List<PathTrackingEntry> entries = new ArrayList<PathTrackingEntry>(store.retrieve(id.toString()));
+        assertEquals(3, entries.size());
+        assertEquals("root()", entries.get(0).getMethodName());
+        assertEquals("", entries.get(0).getClassName());
+        assertEquals("child()", entries.get(1).getMethodName());
+        assertEquals(id, entries.get(1).getId());
+        assertEquals("node", entries.get(1).getNodeId());
+        assertEquals(5, entries.get(1).getExecutionTime());
+        assertEquals(2, entries.get(1).getLevel());
+        assertEquals("other-node", entries.get(2).getNodeId());
+
+        final List<PathCallInformation> ids = new ArrayList<PathCallInformation>(store.retrieveTrackingIds(new Date(0), new Date(100)));
+        assertEquals(1, ids.size());
+        assertEquals(10, ids.get(0).getStartTime().getTime());
+        assertTrue(store.retrieve("missing").isEmpty());
+    }
+
+    @Test
+    public void timeRange() {
+        final MappedPathTrackingDataStore store = new MappedPathTrackingDataStore(directory, 64 * 1024, 1024, 0, 0, false);
+        for (int i = 0; i < 2000; i++) { // several segments and index slots, paths ending late
+            final long start = ms(i % 10 == 0 ? i - 5 : i);
+            store.store(new PathTrackingEntry(new TrackingId(2, i), "node", "org.foo.Bar", "root()", start, 1, 1));
+        }
+        assertTrue(directory.listFiles().length > 1);
+
+        final List<PathCallInformation> range = new ArrayList<PathCallInformation>(store.retrieveTrackingIds(new Date(1000), new Date(1020)));
+        assertEquals(20, range.size());
+        for (int i = 1; i < range.size(); i++) {
+            assertTrue(range.get(i - 1).getStartTime().getTime() <= range.get(i).getStartTime().getTime());
+        }
+        assertEquals(new TrackingId(2, 1001).toString(), range.get(0).getTrackingId()); // 1000 started at 995
+        assertEquals(new TrackingId(2, 1005).toString(), range.get(4).getTrackingId());
+        assertEquals(new TrackingId(2, 1010).toString(), range.get(5).getTrackingId()); // started at 1005
+        assertEquals(1005, range.get(5).getStartTime().getTime());
+        assertEquals(new TrackingId(2, 1019).toString(), range.get(19).getTrackingId()); // 1020 started at 1015
+
+        final List<PathCallInformation> page = new ArrayList<PathCallInformation>(store.retrieveTrackingIds(new Date(1000), new Date(1020), 2, 3));
+        assertEquals(3, page.size());
+        assertEquals(range.get(2).getTrackingId(), page.get(0).getTrackingId());
+        assertEquals(range.get(4).getTrackingId(), page.get(2).getTrackingId());
+    }
+
+    @Test
+    public void oldestSegmentsAreDeleted() {
+        final MappedPathTrackingDataStore store = new MappedPathTrackingDataStore(directory, 64 * 1024, 1024, 3 * 64 * 1024, 0, false);
+        for (int i = 0; i < 20000; i++) {
+            store.store(new PathTrackingEntry(new TrackingId(3, i), "node", "org.foo.Bar", "root()", ms(i), 1, 1));
+        }
+
+        assertEquals(3, directory.listFiles().length);
+        assertTrue(store.retrieve(new TrackingId(3, 0).toString()).isEmpty());
+        assertEquals(1, store.retrieve(new TrackingId(3, 19999).toString()).size());
+    }
+
+    @Test
+    public void readOnlyStoreSeesTheWriter() {
+        final MappedPathTrackingDataStore writer = new MappedPathTrackingDataStore(directory, 64 * 1024, 1024, 0, 0, false);
+        final MappedPathTrackingDataStore reader = new MappedPathTrackingDataStore(directory, 64 * 1024, 1024, 0, 0, true);
+        assertTrue(reader.retrieveTrackingIds(new Date(0), new Date(100)).isEmpty());
+
+        writer.store(new PathTrackingEntry(new TrackingId(4, 0), "node", "org.foo.Bar", "root()", ms(1), 1, 1));
+        assertEquals(1, reader.retrieveTrackingIds(new Date(0), new Date(100)).size());
+
+        writer.store(new PathTrackingEntry(new TrackingId(4, 1), "node", "org.foo.Bar", "root()", ms(2), 1, 1));
+        assertEquals(2, reader.retrieveTrackingIds(new Date(0), new Date(100)).size());
+        assertEquals(1, reader.retrieve(new TrackingId(4, 1).toString()).size());
+
+        reader.store(new PathTrackingEntry(new TrackingId(4, 2), "node", "org.foo.Bar", "root()", ms(3), 1, 1)); // ignored
+        assertEquals(2, writer.retrieveTrackingIds(new Date(0), new Date(100)).size());
+    }
+
+    @Test
+    public void pathBiggerThanASegment() {
+        final MappedPathTrackingDataStore store = new MappedPathTrackingDataStore(directory, 64 * 1024, 1024, 0, 0, false);
+        final TrackingId id = TrackingId.valueOf("foreign-id");
+        final List<PathTrackingEntry> path = new ArrayList<PathTrackingEntry>();
+        for (int i = 0; i < 5000; i++) {
+            path.add(new PathTrackingEntry(id, "node", "org.foo.Bar", "m" + i + "()", ms(1) + i, 1, 2));
+        }
+        store.store(path);
+
+        final List<PathTrackingEntry> entries = new ArrayList<PathTrackingEntry>(store.retrieve(id.toString()));
+        assertEquals(5000, entries.size());
+        assertEquals("m4999()", entries.get(4999).getMethodName());
+        assertEquals(id, entries.get(0).getId());
+        assertFalse(entries.get(0).getId().isCompact());
+    }
+
+    @Test
+    public void indexFollowsNewBlocks() {
+        final MappedPathTrackingDataStore store = new MappedPathTrackingDataStore(directory, 1024 * 1024, 4096, 0, 0, false);
+        final TrackingId id = new TrackingId(5, 0);
+        store.store(new PathTrackingEntry(id, "node", "org.foo.Bar", "first()", ms(1), 1, 2));
+        assertEquals(1, store.retrieve(id.toString()).size());
+
+        for (int i = 1; i < 500; i++) { // rehashes the index
+            store.store(new PathTrackingEntry(new TrackingId(5, i), "node", "org.foo.Bar", "root()", ms(1), 1, 1));
+        }
+        store.store(new PathTrackingEntry(id, "node", "org.foo.Bar", "root()", ms(1), 5, 1));
+
+        final List<PathTrackingEntry> entries = new ArrayList<PathTrackingEntry>(store.retrieve(id.toString()));
+        assertEquals(2, entries.size());
+        assertEquals("first()", entries.get(0).getMethodName());
+        assertEquals("root()", entries.get(1).getMethodName());
+        assertEquals(1, store.retrieve(new TrackingId(5, 250).toString()).size());
+    }
+
+    @Test
+    public void longStringIsCutOnACharacter() {
+        final MappedPathTrackingDataStore store = new MappedPathTrackingDataStore(directory, 1024 * 1024, 4096, 0, 0, false);
+        final StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            name.append('\u00e9'); // 2 bytes, the limit (65535 bytes) is in the middle of a character
+        }
+        final TrackingId id = new TrackingId(6, 0);
+        store.store(new PathTrackingEntry(id, "node", "org.foo.Bar", name.toString(), ms(1), 1, 1));
+
+        final String method = store.retrieve(id.toString()).iterator().next().getMethodName();
+        assertEquals(32767, method.length());
+        assertEquals(name.substring(0, 32767), method);
+    }
+
+    private static long ms(final long ms) {
+        return ms * 1000000L;
+    }
+}